@@ -48,12 +48,30 @@ public class CtLogControl {
    */
   public static final String KEY_SSLCONTEXT_NAME = "sslcontext.name";
 
+  /**
+   * Minimal number of SCTs required for a certificate. Defaults to the number of servers.
+   * @since 5.2.1
+   */
+  public static final String KEY_QUORUM = "quorum";
+
+  /**
+   * Timeout in milliseconds to wait for the SCTs. Defaults to 10000.
+   * @since 5.2.1
+   */
+  public static final String KEY_TIMEOUT = "timeout";
+
+  public static final int DFLT_TIMEOUT = 10000;
+
   private boolean enabled;
 
   private String sslContextName;
 
   private List<String> servers;
 
+  private Integer quorum;
+
+  private int timeout = DFLT_TIMEOUT;
+
   private String conf;
 
   public CtLogControl(String conf) throws InvalidConfException {
@@ -70,6 +88,19 @@ public class CtLogControl {
       throw new InvalidConfException(KEY_SERVERS + " is not specified");
     }
 
+    String str = pairs.value(KEY_QUORUM);
+    if (StringUtil.isNotBlank(str)) {
+      quorum = getPositiveInt(KEY_QUORUM, str);
+      if (quorum > servers.size()) {
+        throw new InvalidConfException(KEY_QUORUM + " is greater than the number of servers");
+      }
+    }
+
+    str = pairs.value(KEY_TIMEOUT);
+    if (StringUtil.isNotBlank(str)) {
+      timeout = getPositiveInt(KEY_TIMEOUT, str);
+    }
+
     this.conf = pairs.getEncoded();
   } // constructor
 
@@ -112,6 +143,24 @@ public class CtLogControl {
     return servers;
   }
 
+  /**
+   * Returns the minimal number of SCTs required for a certificate.
+   * @return the quorum, or {@code null} if the SCTs of all servers are required.
+   * @since 5.2.1
+   */
+  public Integer getQuorum() {
+    return quorum;
+  }
+
+  /**
+   * Returns the timeout to wait for the SCTs.
+   * @return the timeout in milliseconds.
+   * @since 5.2.1
+   */
+  public int getTimeout() {
+    return timeout;
+  }
+
   public void setServers(List<String> servers) {
     this.servers = servers;
   }
@@ -145,6 +194,20 @@ public class CtLogControl {
     return conf.equals(((CtLogControl) obj).conf);
   }
 
+  private static int getPositiveInt(String key, String value) throws InvalidConfException {
+    int ret;
+    try {
+      ret = Integer.parseInt(value.trim());
+    } catch (NumberFormatException ex) {
+      throw new InvalidConfException("invalid " + key + ": " + value);
+    }
+
+    if (ret < 1) {
+      throw new InvalidConfException(key + " must be positive: " + value);
+    }
+    return ret;
+  }
+
   private static boolean getBoolean(ConfPairs pairs, String key, boolean defaultValue) {
     String str = pairs.value(key);
     boolean ret = StringUtil.isBlank(str) ? defaultValue : Boolean.parseBoolean(str);
@@ -43,8 +43,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -277,6 +281,8 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+  private ExecutorService certGenerationExecutor;
+
   private final Map<String, CmpResponder> cmpResponders = new ConcurrentHashMap<>();
 
   private final Map<String, ScepResponder> scepResponders = new ConcurrentHashMap<>();
@@ -405,6 +411,21 @@ public class CaManagerImpl implements CaManager, Closeable {
     int shardId = caServerConf.getShardId();
     LOG.info("ca.shardId: {}", shardId);
 
+    int certGenerationParallelism = caServerConf.getCertGenerationParallelism();
+    LOG.info("ca.certGenerationParallelism: {}", certGenerationParallelism);
+    if (certGenerationParallelism > 1 && certGenerationExecutor == null) {
+      final AtomicInteger threadIndex = new AtomicInteger(1);
+      certGenerationExecutor = Executors.newFixedThreadPool(certGenerationParallelism,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "certgen-" + threadIndex.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+
     if (this.datasourceNameConfFileMap == null) {
       this.datasourceNameConfFileMap = new ConcurrentHashMap<>();
       List<DataSourceConf> datasourceList = caServerConf.getDatasources();
@@ -432,8 +453,17 @@ public class CaManagerImpl implements CaManager, Closeable {
     final long epoch = DateUtil.parseUtcTimeyyyyMMdd("20100101").getTime();
     UniqueIdGenerator idGen = new UniqueIdGenerator(epoch, shardId);
 
+    if (this.certstore != null) {
+      this.certstore.close();
+    }
+
+    int groupCommitSize = caServerConf.getCertGroupCommitSize();
+    int groupCommitDelay = caServerConf.getCertGroupCommitDelay();
+    LOG.info("ca.certGroupCommitSize: {}, ca.certGroupCommitDelay: {} ms", groupCommitSize,
+        groupCommitDelay);
+
     try {
-      this.certstore = new CertStore(datasource, idGen);
+      this.certstore = new CertStore(datasource, idGen, groupCommitSize, groupCommitDelay);
     } catch (DataAccessException ex) {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
@@ -726,7 +756,14 @@ public class CaManagerImpl implements CaManager, Closeable {
           }
         }
       }
-      ctLogClient = new CtLogClient(ctLogControl.getServers(), ctxConf);
+      try {
+        ctLogClient = new CtLogClient(ctLogControl.getServers(), ctxConf,
+            ctLogControl.getQuorum(), ctLogControl.getTimeout());
+      } catch (ObjectCreationException ex) {
+        LogUtil.error(LOG, ex, concat("X509CA.<init> (ca=", caName,
+            "): could not initialize CtLogClient"));
+        return false;
+      }
     }
 
     X509Ca ca;
@@ -776,6 +813,11 @@ public class CaManagerImpl implements CaManager, Closeable {
       persistentScheduledThreadPoolExecutor = null;
     }
 
+    if (certGenerationExecutor != null) {
+      certGenerationExecutor.shutdown();
+      certGenerationExecutor = null;
+    }
+
     for (String caName : x509cas.keySet()) {
       X509Ca ca = x509cas.get(caName);
       try {
@@ -793,6 +835,10 @@ public class CaManagerImpl implements CaManager, Closeable {
       }
     }
 
+    if (certstore != null) {
+      certstore.close();
+    }
+
     if (datasource != null) {
       try {
         datasource.close();
@@ -832,6 +878,14 @@ public class CaManagerImpl implements CaManager, Closeable {
     return scheduledThreadPoolExecutor;
   }
 
+  /**
+   * Returns the executor to generate the certificates of one request concurrently.
+   * @return the executor, or {@code null} if the concurrent generation is deactivated.
+   */
+  ExecutorService getCertGenerationExecutor() {
+    return certGenerationExecutor;
+  }
+
   @Override
   public Set<String> getCertprofileNames() {
     return certprofileDbEntries.keySet();
@@ -137,6 +137,38 @@ public class CaServerConf extends ValidatableConf {
    */
   private List<String> certprofileFactories;
 
+  /**
+   * Directory in which the entries of the full CRLs are kept to generate the next full CRL
+   * incrementally. If not set, every full CRL is generated from all revoked certificates in
+   * the database.
+   */
+  private String crlSegmentDir;
+
+  /**
+   * Every crlSegmentRebuildInterval-th full CRL is generated from the database to rebuild the
+   * entries in crlSegmentDir.
+   */
+  private int crlSegmentRebuildInterval = 10;
+
+  /**
+   * Number of threads, shared by all CAs, to generate the certificates of one request with
+   * several certificate templates concurrently. Values less than 2 deactivate the concurrent
+   * generation.
+   */
+  private int certGenerationParallelism = 1;
+
+  /**
+   * Maximal number of certificates, issued by concurrent requests, saved in the database
+   * in one transaction. Values less than 2 deactivate the group commit.
+   */
+  private int certGroupCommitSize = 0;
+
+  /**
+   * Maximal time in milliseconds to wait for further certificates before the transaction
+   * of the group commit is committed.
+   */
+  private int certGroupCommitDelay = 5;
+
   @JSONField(serialize = false, deserialize = false)
   private Map<String, SslContextConf> sslContextConfMap = new HashMap<>();
 
@@ -230,6 +262,46 @@ public class CaServerConf extends ValidatableConf {
     this.certprofileFactories = certprofileFactories;
   }
 
+  public String getCrlSegmentDir() {
+    return crlSegmentDir;
+  }
+
+  public void setCrlSegmentDir(String crlSegmentDir) {
+    this.crlSegmentDir = crlSegmentDir;
+  }
+
+  public int getCrlSegmentRebuildInterval() {
+    return crlSegmentRebuildInterval;
+  }
+
+  public void setCrlSegmentRebuildInterval(int crlSegmentRebuildInterval) {
+    this.crlSegmentRebuildInterval = crlSegmentRebuildInterval;
+  }
+
+  public int getCertGenerationParallelism() {
+    return certGenerationParallelism;
+  }
+
+  public void setCertGenerationParallelism(int certGenerationParallelism) {
+    this.certGenerationParallelism = certGenerationParallelism;
+  }
+
+  public int getCertGroupCommitSize() {
+    return certGroupCommitSize;
+  }
+
+  public void setCertGroupCommitSize(int certGroupCommitSize) {
+    this.certGroupCommitSize = certGroupCommitSize;
+  }
+
+  public int getCertGroupCommitDelay() {
+    return certGroupCommitDelay;
+  }
+
+  public void setCertGroupCommitDelay(int certGroupCommitDelay) {
+    this.certGroupCommitDelay = certGroupCommitDelay;
+  }
+
   public synchronized SslContextConf getSslContextConf(String name) {
     if (sslContexts.isEmpty()) {
       return null;
@@ -0,0 +1,283 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x509.CertificateList;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.util.X509Util;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+
+/**
+ * Encoded CRL together with its metadata. The parsed forms of the CRL are created on demand
+ * and kept for subsequent requests. A CRL generated by this CA is kept in a temporary file,
+ * and a CRL read from the database in memory.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public class CachedCrl {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CachedCrl.class);
+
+  private static final DateTimeFormatter HTTP_DATE =
+      DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+        .withZone(ZoneOffset.UTC);
+
+  private final byte[] encoded;
+
+  private final File file;
+
+  private final long length;
+
+  private final BigInteger crlNumber;
+
+  private final BigInteger baseCrlNumber;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final String etag;
+
+  private final long lastModified;
+
+  private volatile X509CRL x509Crl;
+
+  private volatile CertificateList bcCrl;
+
+  /**
+   * Constructor for a CRL generated by this CA. The CRL is neither parsed nor read into
+   * memory. The file is owned by this object and deleted by {@link #release()}.
+   * @param file
+   *          File containing the DER encoded CRL. Must not be {@code null}.
+   * @param sha1
+   *          Hex encoded SHA-1 hash of the encoded CRL. Must not be {@code null}.
+   * @param crlNumber
+   *          CRL number. Could be {@code null}.
+   * @param baseCrlNumber
+   *          CRL number of the base CRL of a delta CRL. Could be {@code null}.
+   * @param thisUpdate
+   *          thisUpdate. Must not be {@code null}.
+   * @param nextUpdate
+   *          nextUpdate. Could be {@code null}.
+   */
+  CachedCrl(File file, String sha1, BigInteger crlNumber, BigInteger baseCrlNumber,
+      Date thisUpdate, Date nextUpdate) {
+    this.encoded = null;
+    this.file = Args.notNull(file, "file");
+    this.length = file.length();
+    this.crlNumber = crlNumber;
+    this.baseCrlNumber = baseCrlNumber;
+    this.thisUpdate = Args.notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+
+    this.etag = "\"" + Args.notNull(sha1, "sha1") + "\"";
+    // HTTP dates have the precision of seconds
+    this.lastModified = thisUpdate.getTime() / 1000 * 1000;
+  }
+
+  /**
+   * Constructor.
+   * @param encoded
+   *          DER encoded CRL. Must not be {@code null}.
+   * @throws IllegalArgumentException
+   *           if the CRL could not be parsed.
+   */
+  CachedCrl(byte[] encoded) {
+    this.encoded = Args.notNull(encoded, "encoded");
+    this.file = null;
+    this.length = encoded.length;
+    CertificateList crl = CertificateList.getInstance(encoded);
+    this.bcCrl = crl;
+    this.thisUpdate = crl.getThisUpdate().getDate();
+    Time time = crl.getNextUpdate();
+    this.nextUpdate = (time == null) ? null : time.getDate();
+
+    Extensions extns = crl.getTBSCertList().getExtensions();
+    Extension extn = (extns == null) ? null : extns.getExtension(Extension.cRLNumber);
+    this.crlNumber = (extn == null) ? null
+        : ASN1Integer.getInstance(extn.getParsedValue()).getPositiveValue();
+
+    extn = (extns == null) ? null : extns.getExtension(Extension.deltaCRLIndicator);
+    this.baseCrlNumber = (extn == null) ? null
+        : ASN1Integer.getInstance(extn.getParsedValue()).getPositiveValue();
+
+    this.etag = "\"" + HashAlgo.SHA1.hexHash(encoded) + "\"";
+    // HTTP dates have the precision of seconds
+    this.lastModified = thisUpdate.getTime() / 1000 * 1000;
+  }
+
+  /**
+   * Returns the DER encoded CRL. The returned array must not be modified. A CRL generated by
+   * this CA is read from its file on each call, use {@link #getInputStream()} to stream it.
+   * @return the encoded CRL.
+   * @throws IOException
+   *           if the file could not be read.
+   */
+  public byte[] getEncoded() throws IOException {
+    return (encoded != null) ? encoded : IoUtil.read(file);
+  }
+
+  /**
+   * Opens a stream to read the DER encoded CRL. The caller must close the stream.
+   * @return the stream.
+   * @throws IOException
+   *           if the file could not be opened.
+   */
+  public InputStream getInputStream() throws IOException {
+    return (encoded != null) ? new ByteArrayInputStream(encoded)
+        : Files.newInputStream(file.toPath());
+  }
+
+  /**
+   * Returns the length of the encoded CRL.
+   * @return the length in bytes.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the CRL number.
+   * @return the CRL number, or {@code null} if the CRL does not contain the extension
+   *         cRLNumber.
+   */
+  public BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  /**
+   * Returns the CRL number of the base CRL.
+   * @return the CRL number of the base CRL of a delta CRL, {@code null} for a full CRL.
+   */
+  public BigInteger getBaseCrlNumber() {
+    return baseCrlNumber;
+  }
+
+  public Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  public Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  /**
+   * Returns the value of the HTTP header ETag.
+   * @return the quoted SHA-1 hash of the encoded CRL.
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * Returns the time of the HTTP header Last-Modified.
+   * @return the thisUpdate in milliseconds, truncated to seconds.
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public String getLastModifiedText() {
+    return HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+  }
+
+  /**
+   * Returns the value of the HTTP header Expires.
+   * @return the formatted nextUpdate, or {@code null} if nextUpdate is not present.
+   */
+  public String getExpiresText() {
+    return (nextUpdate == null) ? null : HTTP_DATE.format(nextUpdate.toInstant());
+  }
+
+  public X509CRL getX509Crl() throws CRLException {
+    X509CRL crl = x509Crl;
+    if (crl == null) {
+      try (InputStream in = getInputStream()) {
+        crl = X509Util.parseCrl(in);
+      } catch (CertificateException | IOException ex) {
+        throw new CRLException("could not parse CRL", ex);
+      }
+      x509Crl = crl;
+    }
+    return crl;
+  }
+
+  public CertificateList getBcCrl() throws IOException {
+    CertificateList crl = bcCrl;
+    if (crl == null) {
+      try (ASN1InputStream in = new ASN1InputStream(getInputStream())) {
+        crl = CertificateList.getInstance(in.readObject());
+      }
+      bcCrl = crl;
+    }
+    return crl;
+  }
+
+  /**
+   * Whether this CRL is more recent than the given one.
+   * @param other
+   *          The other CRL. Could be {@code null}.
+   * @return whether this CRL has a greater CRL number, or a later thisUpdate if the CRL
+   *         numbers are not comparable.
+   */
+  boolean isNewerThan(CachedCrl other) {
+    if (other == null) {
+      return true;
+    }
+
+    if (crlNumber != null && other.crlNumber != null) {
+      return crlNumber.compareTo(other.crlNumber) > 0;
+    }
+    return thisUpdate.after(other.thisUpdate);
+  }
+
+  /**
+   * Deletes the file of a CRL generated by this CA. The CRL must not be used afterwards.
+   */
+  void release() {
+    if (file != null && file.exists() && !file.delete()) {
+      LOG.warn("could not delete temporary file {}", file.getPath());
+    }
+  }
+
+}
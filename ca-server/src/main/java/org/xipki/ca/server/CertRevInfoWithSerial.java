@@ -37,18 +37,43 @@ public class CertRevInfoWithSerial extends CertRevocationInfo
 
   private final BigInteger serial;
 
+  private final Date notAfter;
+
   public CertRevInfoWithSerial(long id, BigInteger serial, CrlReason reason,
       Date revocationTime, Date invalidityTime) {
     super(reason, revocationTime, invalidityTime);
     this.id = id;
     this.serial = Args.notNull(serial, "serial");
+    this.notAfter = null;
   }
 
   public CertRevInfoWithSerial(long id, BigInteger serial, int reasonCode,
       Date revocationTime, Date invalidityTime) {
+    this(id, serial, reasonCode, revocationTime, invalidityTime, null);
+  }
+
+  /**
+   * Constructor.
+   * @param id
+   *          Database ID.
+   * @param serial
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param reasonCode
+   *          Code of the revocation reason.
+   * @param revocationTime
+   *          Revocation time.
+   * @param invalidityTime
+   *          Invalidity time. Could be {@code null}.
+   * @param notAfter
+   *          NotAfter of the certificate. Could be {@code null}.
+   * @since 5.2.1
+   */
+  public CertRevInfoWithSerial(long id, BigInteger serial, int reasonCode,
+      Date revocationTime, Date invalidityTime, Date notAfter) {
     super(reasonCode, revocationTime, invalidityTime);
     this.id = id;
     this.serial = Args.notNull(serial, "serial");
+    this.notAfter = notAfter;
   }
 
   public BigInteger getSerial() {
@@ -59,6 +84,10 @@ public class CertRevInfoWithSerial extends CertRevocationInfo
     return id;
   }
 
+  public Date getNotAfter() {
+    return notAfter;
+  }
+
   @Override
   public int compareTo(CertRevInfoWithSerial other) {
     return serial.compareTo(other.serial);
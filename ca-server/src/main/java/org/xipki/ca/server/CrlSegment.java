@@ -0,0 +1,630 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.mgmt.CrlControl;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+import org.xipki.util.ConfPairs;
+import org.xipki.util.IoUtil;
+import org.xipki.util.StringUtil;
+
+/**
+ * Persistent list of the encoded entries of the full CRL of a CA, from which the next full
+ * CRL is generated without reading all revoked certificates from the database.
+ *
+ * <p>The list consists of the base file, which contains the entries of the last full CRL,
+ * and the changes file, to which the changed entries of the subsequent delta CRLs are
+ * appended. The changes file records the number of the last CRL generated with this list.
+ * If any CRL has been generated without it, e.g. by another CA instance, or the
+ * configuration of the CRL has been changed, the list is outdated and must be rebuilt.
+ * The base file records how many full CRLs have been generated from the list since it was
+ * built from the database; after the configured number the list is rebuilt as well, so that
+ * any divergence from the database does not persist.
+ *
+ * <p>The entries of the base file are sorted by {@link #SERIAL_ORDER}, the order of the column
+ * SN in the database. The base file records the number of its entries, so that an incomplete
+ * file is detected while it is read.
+ *
+ * <p>Each entry is saved as
+ * <pre>
+ *   length of serial (2 bytes) | serial | notAfter in seconds (8 bytes)
+ *   | length of encoded CRL entry (4 bytes) | encoded CRL entry
+ * </pre>
+ * The encoded CRL entry is empty if the certificate has been removed from the CRL.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class CrlSegment {
+
+  static class Entry {
+
+    private final BigInteger serial;
+
+    private final long notAfter;
+
+    private final byte[] encoded;
+
+    private String hexSerial;
+
+    /**
+     * Constructor.
+     * @param serial
+     *          Serial number of the certificate. Must not be {@code null}.
+     * @param notAfter
+     *          NotAfter of the certificate in seconds since January 1, 1970, 00:00:00 GMT.
+     * @param encoded
+     *          Encoded CRL entry. {@code null} if the certificate has been removed from CRL.
+     */
+    Entry(BigInteger serial, long notAfter, byte[] encoded) {
+      this.serial = Args.notNull(serial, "serial");
+      this.notAfter = notAfter;
+      this.encoded = encoded;
+    }
+
+    BigInteger getSerial() {
+      return serial;
+    }
+
+    /**
+     * Returns the serial number as stored in the column SN of the database.
+     * @return the hexadecimal serial number without leading zeros.
+     */
+    String getHexSerial() {
+      String str = hexSerial;
+      if (str == null) {
+        str = serial.toString(16);
+        hexSerial = str;
+      }
+      return str;
+    }
+
+    long getNotAfter() {
+      return notAfter;
+    }
+
+    byte[] getEncoded() {
+      return encoded;
+    }
+
+    boolean isRemoved() {
+      return encoded == null;
+    }
+
+  } // class Entry
+
+  interface EntryConsumer {
+
+    void accept(Entry entry) throws IOException;
+
+  } // interface EntryConsumer
+
+  private class BaseReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private final long numEntries;
+
+    private long numRead;
+
+    private Entry previous;
+
+    private BaseReader() throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(
+          Files.newInputStream(baseFile.toPath()), BUFFER_SIZE));
+      this.numEntries = readHeader(in)[HEADER_NUM_ENTRIES];
+    }
+
+    /**
+     * Returns the next entry.
+     * @return the next entry, or {@code null} if there is no more entry.
+     * @throws IOException
+     *           if the base file could not be read, is incomplete or not sorted.
+     */
+    Entry next() throws IOException {
+      Entry entry = readEntry(in);
+      if (entry == null) {
+        if (numRead != numEntries) {
+          throw new IOException("CRL segment contains " + numRead + " instead of "
+              + numEntries + " entries");
+        }
+        return null;
+      }
+
+      if (previous != null && SERIAL_ORDER.compare(previous, entry) >= 0) {
+        throw new IOException("CRL segment is not sorted");
+      }
+      previous = entry;
+      numRead++;
+      return entry;
+    }
+
+    @Override
+    public void close() {
+      IoUtil.closeQuietly(in);
+    }
+
+  } // class BaseReader
+
+  class BaseWriter implements Closeable {
+
+    private final File tmpFile;
+
+    private final FileOutputStream fileOut;
+
+    private final DataOutputStream out;
+
+    private final long fingerprint;
+
+    private long numEntries;
+
+    private boolean committed;
+
+    private BaseWriter(long fingerprint, long numIncrementalCrls) throws IOException {
+      this.fingerprint = fingerprint;
+      if (!dir.exists() && !dir.mkdirs()) {
+        throw new IOException("could not create directory " + dir.getPath());
+      }
+      this.tmpFile = new File(dir, BASE_FILENAME + ".tmp");
+      this.fileOut = new FileOutputStream(tmpFile);
+      this.out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+      writeHeader(out, fingerprint, 0, numIncrementalCrls, 0);
+    }
+
+    /**
+     * Writes the entry.
+     * @param entry
+     *          Entry to be written. The entries must be written in the order of
+     *          {@link CrlSegment#SERIAL_ORDER}.
+     * @throws IOException
+     *           if the file could not be written.
+     */
+    void write(Entry entry) throws IOException {
+      writeEntry(out, entry);
+      numEntries++;
+    }
+
+    /**
+     * Replaces the base file by the written one, and clears the changes.
+     * @param crlNumber
+     *          Number of the CRL generated from the written entries.
+     * @throws IOException
+     *           if the files could not be written.
+     */
+    void commit(long crlNumber) throws IOException {
+      out.close();
+
+      // the number of entries is known after all entries have been written.
+      try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+        raf.seek(NUM_ENTRIES_OFFSET);
+        raf.writeLong(numEntries);
+        raf.getFD().sync();
+      }
+
+      File tmpChangesFile = new File(dir, CHANGES_FILENAME + ".tmp");
+      try (FileOutputStream changesOut = new FileOutputStream(tmpChangesFile)) {
+        DataOutputStream dout = new DataOutputStream(changesOut);
+        writeHeader(dout, fingerprint, crlNumber, 0, 0);
+        dout.flush();
+        changesOut.getFD().sync();
+      }
+
+      synchronized (CrlSegment.this) {
+        Files.move(tmpFile.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpChangesFile.toPath(), changesFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      committed = true;
+      LOG.info("committed CRL segment {} with CRL number {}", dir.getPath(), crlNumber);
+    }
+
+    @Override
+    public void close() {
+      IoUtil.closeQuietly(out);
+      if (!committed && tmpFile.exists() && !tmpFile.delete()) {
+        LOG.warn("could not delete file {}", tmpFile.getPath());
+      }
+    }
+
+  } // class BaseWriter
+
+  private static final Logger LOG = LoggerFactory.getLogger(CrlSegment.class);
+
+  private static final byte[] MAGIC = "XIPKICRL".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Order of the serial numbers in the column SN of the database, namely of the hexadecimal
+   * serial numbers without leading zeros.
+   */
+  static final Comparator<Entry> SERIAL_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      return e1.getHexSerial().compareTo(e2.getHexSerial());
+    }
+  };
+
+  // version 3: sorted entries and number of entries in the base file.
+  private static final int VERSION = 3;
+
+  // magic, version, fingerprint
+  private static final int CRL_NUMBER_OFFSET = MAGIC.length + 4 + 8;
+
+  // CRL number, number of incremental CRLs
+  private static final int NUM_ENTRIES_OFFSET = CRL_NUMBER_OFFSET + 8 + 8;
+
+  private static final String BASE_FILENAME = "base.seg";
+
+  private static final String CHANGES_FILENAME = "changes.seg";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int HEADER_FINGERPRINT = 0;
+
+  private static final int HEADER_CRL_NUMBER = 1;
+
+  private static final int HEADER_NUM_INCREMENTAL_CRLS = 2;
+
+  private static final int HEADER_NUM_ENTRIES = 3;
+
+  private final File dir;
+
+  private final File baseFile;
+
+  private final File changesFile;
+
+  private final int rebuildInterval;
+
+  /**
+   * Constructor.
+   * @param dir
+   *          Directory of the files. Must not be {@code null}.
+   * @param rebuildInterval
+   *          Every rebuildInterval-th full CRL is generated from the database to rebuild the
+   *          list. Must be positive.
+   */
+  CrlSegment(File dir, int rebuildInterval) {
+    this.dir = Args.notNull(dir, "dir");
+    this.rebuildInterval = Args.positive(rebuildInterval, "rebuildInterval");
+    this.baseFile = new File(dir, BASE_FILENAME);
+    this.changesFile = new File(dir, CHANGES_FILENAME);
+  }
+
+  /**
+   * Whether this list has been used to generate the given CRL with the same configuration.
+   * @param crlNumber
+   *          Number of the last CRL of the CA.
+   * @param fingerprint
+   *          Fingerprint of the CRL configuration.
+   * @return whether the next full CRL can be generated from this list.
+   */
+  synchronized boolean isUpToDate(long crlNumber, long fingerprint) {
+    if (!baseFile.exists() || !changesFile.exists()) {
+      return false;
+    }
+
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(changesFile.toPath()))) {
+      long[] header = readHeader(in);
+      if (header[HEADER_FINGERPRINT] != fingerprint || header[HEADER_CRL_NUMBER] != crlNumber) {
+        LOG.info("CRL segment {} is outdated", dir.getPath());
+        return false;
+      }
+    } catch (IOException ex) {
+      LOG.warn("could not read CRL segment {}: {}", dir.getPath(), ex.getMessage());
+      return false;
+    }
+
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(baseFile.toPath()))) {
+      return readHeader(in)[HEADER_FINGERPRINT] == fingerprint;
+    } catch (IOException ex) {
+      LOG.warn("could not read CRL segment {}: {}", dir.getPath(), ex.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Whether the next full CRL must be generated from the database to rebuild this list.
+   * @return whether the rebuild interval has been reached.
+   * @throws IOException
+   *           if the base file could not be read.
+   */
+  synchronized boolean isRebuildDue() throws IOException {
+    return getNumIncrementalCrls() + 1 >= rebuildInterval;
+  }
+
+  /**
+   * Returns the writer of the new base file.
+   * @param fingerprint
+   *          Fingerprint of the CRL configuration.
+   * @param incremental
+   *          Whether the entries are merged from this list, or read from the database.
+   * @return the writer.
+   * @throws IOException
+   *           if the file could not be created.
+   */
+  BaseWriter newBase(long fingerprint, boolean incremental) throws IOException {
+    long numIncrementalCrls = incremental ? getNumIncrementalCrls() + 1 : 0;
+    return new BaseWriter(fingerprint, numIncrementalCrls);
+  }
+
+  /**
+   * Merges the entries of the base file with the given changes, and passes the entries of the
+   * next full CRL to the consumer in the order of {@link #SERIAL_ORDER}. A changed entry
+   * replaces the one of the base file. Removed entries and the entries of expired certificates
+   * are skipped.
+   * @param changes
+   *          The changed entries since the last full CRL, indexed by the serial number.
+   *          Must not be {@code null}.
+   * @param minNotAfter
+   *          Entries with notAfter (in seconds) not after it are skipped.
+   * @param consumer
+   *          Consumer of the entries. Must not be {@code null}.
+   * @return number of entries passed to the consumer.
+   * @throws IOException
+   *           if the base file could not be read, is incomplete or not sorted, or thrown by
+   *           the consumer.
+   */
+  int merge(Map<BigInteger, Entry> changes, long minNotAfter, EntryConsumer consumer)
+      throws IOException {
+    Args.notNull(changes, "changes");
+    Args.notNull(consumer, "consumer");
+
+    List<Entry> sortedChanges = new ArrayList<>(changes.values());
+    Collections.sort(sortedChanges, SERIAL_ORDER);
+
+    int num = 0;
+    try (BaseReader reader = new BaseReader()) {
+      int changeIndex = 0;
+      Entry base = reader.next();
+      while (base != null || changeIndex < sortedChanges.size()) {
+        Entry change = (changeIndex < sortedChanges.size())
+            ? sortedChanges.get(changeIndex) : null;
+
+        int cmp;
+        if (base == null) {
+          cmp = 1;
+        } else if (change == null) {
+          cmp = -1;
+        } else {
+          cmp = SERIAL_ORDER.compare(base, change);
+        }
+
+        Entry entry;
+        if (cmp < 0) {
+          entry = base;
+          base = reader.next();
+        } else {
+          entry = change;
+          changeIndex++;
+          if (cmp == 0) {
+            // the changed entry replaces the one of the base file
+            base = reader.next();
+          }
+        }
+
+        if (entry.isRemoved() || entry.getNotAfter() <= minNotAfter) {
+          continue;
+        }
+
+        consumer.accept(entry);
+        num++;
+      }
+    }
+
+    return num;
+  }
+
+  /**
+   * Returns the fingerprint of the CRL configuration: the first 8 bytes of the SHA-256 hash
+   * of the configuration, whose names and extension OIDs are sorted.
+   * @param control
+   *          CRL control. Must not be {@code null}.
+   * @return the fingerprint.
+   */
+  static long fingerprint(CrlControl control) {
+    ConfPairs pairs = new ConfPairs(Args.notNull(control, "control").getConf());
+    // the encoding of ConfPairs does not sort long values, and the OIDs are in a set.
+    Map<String, String> sortedPairs = new TreeMap<>(pairs.asMap());
+    String oids = sortedPairs.get(CrlControl.KEY_EYTENSIONS);
+    if (oids != null) {
+      sortedPairs.put(CrlControl.KEY_EYTENSIONS,
+          StringUtil.collectionAsString(new TreeSet<>(StringUtil.splitAsSet(oids, ", ")), ","));
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> pair : sortedPairs.entrySet()) {
+      sb.append(pair.getKey()).append('=').append(pair.getValue()).append('\n');
+    }
+
+    byte[] hash = HashAlgo.SHA256.hash(sb.toString().getBytes(StandardCharsets.UTF_8));
+    long fingerprint = 0;
+    for (int i = 0; i < 8; i++) {
+      fingerprint = (fingerprint << 8) | (hash[i] & 0xFF);
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Returns the changes since the last full CRL, in the order of the last change.
+   * @return the changed entries, indexed by the serial number.
+   * @throws IOException
+   *           if the changes file could not be read.
+   */
+  synchronized Map<BigInteger, Entry> readChanges() throws IOException {
+    Map<BigInteger, Entry> changes = new LinkedHashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(changesFile.toPath()), BUFFER_SIZE))) {
+      readHeader(in);
+      Entry entry;
+      while ((entry = readEntry(in)) != null) {
+        changes.remove(entry.getSerial());
+        changes.put(entry.getSerial(), entry);
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Appends the changes of a delta CRL.
+   * @param changes
+   *          The changed entries. Must not be {@code null}.
+   * @param crlNumber
+   *          Number of the delta CRL.
+   * @throws IOException
+   *           if the changes file could not be written.
+   */
+  synchronized void appendChanges(Collection<Entry> changes, long crlNumber)
+      throws IOException {
+    try (FileOutputStream fileOut = new FileOutputStream(changesFile, true)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+      for (Entry entry : changes) {
+        writeEntry(out, entry);
+      }
+      out.flush();
+      fileOut.getFD().sync();
+    }
+
+    // the CRL number is updated after all changes have been written.
+    try (RandomAccessFile raf = new RandomAccessFile(changesFile, "rw")) {
+      raf.seek(CRL_NUMBER_OFFSET);
+      raf.writeLong(crlNumber);
+      raf.getFD().sync();
+    }
+  }
+
+  synchronized void invalidate() {
+    for (File file : new File[]{changesFile, baseFile}) {
+      if (file.exists() && !file.delete()) {
+        LOG.warn("could not delete file {}", file.getPath());
+      }
+    }
+  }
+
+  private synchronized long getNumIncrementalCrls() throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(baseFile.toPath()))) {
+      return readHeader(in)[HEADER_NUM_INCREMENTAL_CRLS];
+    }
+  }
+
+  /**
+   * Writes the header.
+   * @param crlNumber
+   *          Number of the last CRL, only used in the changes file.
+   * @param numIncrementalCrls
+   *          Number of the full CRLs generated from this list since it has been built from the
+   *          database, only used in the base file.
+   * @param numEntries
+   *          Number of entries, only used in the base file.
+   */
+  private static void writeHeader(DataOutputStream out, long fingerprint, long crlNumber,
+      long numIncrementalCrls, long numEntries) throws IOException {
+    out.write(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(fingerprint);
+    out.writeLong(crlNumber);
+    out.writeLong(numIncrementalCrls);
+    out.writeLong(numEntries);
+  }
+
+  /**
+   * Reads the header.
+   * @return fingerprint, CRL number, number of incrementally generated full CRLs and number
+   *         of entries.
+   */
+  private static long[] readHeader(DataInputStream in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IOException("invalid magic");
+    }
+
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported version " + version);
+    }
+
+    return new long[]{in.readLong(), in.readLong(), in.readLong(), in.readLong()};
+  }
+
+  private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+    byte[] serial = entry.getSerial().toByteArray();
+    out.writeShort(serial.length);
+    out.write(serial);
+    out.writeLong(entry.getNotAfter());
+    byte[] encoded = entry.getEncoded();
+    if (encoded == null) {
+      out.writeInt(0);
+    } else {
+      out.writeInt(encoded.length);
+      out.write(encoded);
+    }
+  }
+
+  private static Entry readEntry(DataInputStream in) throws IOException {
+    int serialLen = in.read();
+    if (serialLen == -1) {
+      return null;
+    }
+
+    try {
+      serialLen = (serialLen << 8) | in.readUnsignedByte();
+      byte[] serial = new byte[serialLen];
+      in.readFully(serial);
+      long notAfter = in.readLong();
+      int encodedLen = in.readInt();
+      byte[] encoded = null;
+      if (encodedLen > 0) {
+        encoded = new byte[encodedLen];
+        in.readFully(encoded);
+      }
+      return new Entry(new BigInteger(serial), notAfter, encoded);
+    } catch (EOFException ex) {
+      throw new IOException("incomplete entry in CRL segment");
+    }
+  }
+
+}
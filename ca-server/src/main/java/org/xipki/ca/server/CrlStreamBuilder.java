@@ -0,0 +1,645 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.io.DigestOutputStream;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.util.io.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.ObjectIdentifiers;
+import org.xipki.util.Args;
+import org.xipki.util.Hex;
+import org.xipki.util.IoUtil;
+
+/**
+ * Builder of X.509 CRL whose revoked certificates and the entries of the XiPKI extension
+ * CrlCertSet are encoded to temporary files while they are added. The TBSCertList is
+ * assembled from these files while it is fed to the signer, so that the memory consumption
+ * during the generation does not depend on the number of the revoked certificates.
+ *
+ * <p>The revoked certificates are written in the order they are added. The entries of
+ * CrlCertSet are sorted as required by DER for SET OF: runs of limited size are sorted in
+ * memory and saved in temporary files, which are merged while building the CRL.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class CrlStreamBuilder implements Closeable {
+
+  /**
+   * Sorts the encoded entries of a SET OF by their encodings as required by DER.
+   */
+  private static class DerSetSorter implements Closeable {
+
+    private final long maxBytesInMemory;
+
+    private final List<byte[]> entries = new ArrayList<>();
+
+    private long entriesBytes;
+
+    private final List<File> runFiles = new ArrayList<>();
+
+    private DerSetSorter(long maxBytesInMemory) {
+      this.maxBytesInMemory = maxBytesInMemory;
+    }
+
+    private void add(byte[] encoded) throws IOException {
+      entries.add(encoded);
+      entriesBytes += encoded.length;
+      if (entriesBytes >= maxBytesInMemory) {
+        writeRun();
+      }
+    }
+
+    /**
+     * Writes the concatenated sorted entries to the given file.
+     */
+    private void writeSorted(File file) throws IOException {
+      if (runFiles.isEmpty()) {
+        Collections.sort(entries, DER_ORDER);
+        try (OutputStream out = newOutputStream(file)) {
+          for (byte[] entry : entries) {
+            out.write(entry);
+          }
+        }
+        entries.clear();
+        return;
+      }
+
+      if (!entries.isEmpty()) {
+        writeRun();
+      }
+
+      List<DataInputStream> ins = new ArrayList<>(runFiles.size());
+      try (OutputStream out = newOutputStream(file)) {
+        // head entry of each run, at the index of the run
+        final byte[][] heads = new byte[runFiles.size()][];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(runFiles.size(),
+            new Comparator<Integer>() {
+              @Override
+              public int compare(Integer i1, Integer i2) {
+                return DER_ORDER.compare(heads[i1], heads[i2]);
+              }
+            });
+
+        for (int i = 0; i < runFiles.size(); i++) {
+          DataInputStream in = new DataInputStream(new BufferedInputStream(
+              Files.newInputStream(runFiles.get(i).toPath()), BUFFER_SIZE));
+          ins.add(in);
+          heads[i] = readRunEntry(in);
+          if (heads[i] != null) {
+            queue.add(i);
+          }
+        }
+
+        while (!queue.isEmpty()) {
+          int i = queue.poll();
+          out.write(heads[i]);
+          heads[i] = readRunEntry(ins.get(i));
+          if (heads[i] != null) {
+            queue.add(i);
+          }
+        }
+      } finally {
+        for (DataInputStream in : ins) {
+          IoUtil.closeQuietly(in);
+        }
+      }
+    } // method writeSorted
+
+    private void writeRun() throws IOException {
+      Collections.sort(entries, DER_ORDER);
+      File file = File.createTempFile("xipki-crl-certset-run-", ".tmp");
+      runFiles.add(file);
+      try (DataOutputStream out = new DataOutputStream(newOutputStream(file))) {
+        for (byte[] entry : entries) {
+          out.writeInt(entry.length);
+          out.write(entry);
+        }
+      }
+      entries.clear();
+      entriesBytes = 0;
+    }
+
+    private static byte[] readRunEntry(DataInputStream in) throws IOException {
+      int len;
+      try {
+        len = in.readInt();
+      } catch (EOFException ex) {
+        return null;
+      }
+
+      byte[] entry = new byte[len];
+      in.readFully(entry);
+      return entry;
+    }
+
+    private int getNumberOfRuns() {
+      return runFiles.size();
+    }
+
+    @Override
+    public void close() {
+      for (File file : runFiles) {
+        deleteQuietly(file);
+      }
+      runFiles.clear();
+      entries.clear();
+    }
+
+  } // class DerSetSorter
+
+  /**
+   * Order of DER encodings in a SET OF: the encodings are compared as octet strings, with
+   * the shorter one padded at its trailing end with 0-octets.
+   */
+  static final Comparator<byte[]> DER_ORDER = new Comparator<byte[]>() {
+
+    @Override
+    public int compare(byte[] a, byte[] b) {
+      int len = Math.min(a.length, b.length);
+      for (int i = 0; i < len; i++) {
+        int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+        if (diff != 0) {
+          return diff;
+        }
+      }
+      return a.length - b.length;
+    }
+
+  };
+
+  private static final Logger LOG = LoggerFactory.getLogger(CrlStreamBuilder.class);
+
+  private static final int TAG_INTEGER = 0x02;
+
+  private static final int TAG_BIT_STRING = 0x03;
+
+  private static final int TAG_OCTET_STRING = 0x04;
+
+  private static final int TAG_SEQUENCE = 0x30;
+
+  private static final int TAG_SET = 0x31;
+
+  private static final int TAG_CONTEXT_0 = 0xA0;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // maximal number of bytes of CrlCertSet entries sorted in memory.
+  private static final long MAX_CERTSET_BYTES_IN_MEMORY = 16L * 1024 * 1024;
+
+  // INTEGER 1 (v2)
+  private static final byte[] ENCODED_VERSION = new byte[]{TAG_INTEGER, 1, 1};
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private Date nextUpdate;
+
+  private final List<Extension> extensions = new ArrayList<>();
+
+  private BigInteger crlNumber;
+
+  private BigInteger baseCrlNumber;
+
+  private final File entriesFile;
+
+  private final OutputStream entriesOut;
+
+  private long entriesLength;
+
+  private long numEntries;
+
+  private final long maxCertsetBytesInMemory;
+
+  private DerSetSorter certset;
+
+  private File certsetFile;
+
+  private long certsetLength;
+
+  private File crlFile;
+
+  private Extension certificateIssuerExtension;
+
+  CrlStreamBuilder(X500Name issuer, Date thisUpdate) throws IOException {
+    this(issuer, thisUpdate, MAX_CERTSET_BYTES_IN_MEMORY);
+  }
+
+  CrlStreamBuilder(X500Name issuer, Date thisUpdate, long maxCertsetBytesInMemory)
+      throws IOException {
+    this.maxCertsetBytesInMemory = Args.positive(maxCertsetBytesInMemory,
+        "maxCertsetBytesInMemory");
+    this.issuer = Args.notNull(issuer, "issuer");
+    this.thisUpdate = Args.notNull(thisUpdate, "thisUpdate");
+    this.entriesFile = File.createTempFile("xipki-crl-entries-", ".tmp");
+    this.entriesOut = newOutputStream(entriesFile);
+  }
+
+  void setNextUpdate(Date nextUpdate) {
+    this.nextUpdate = nextUpdate;
+  }
+
+  long getNumEntries() {
+    return numEntries;
+  }
+
+  /**
+   * Sets the issuer of the certificates in an indirect CRL. The extension certificateIssuer
+   * is added to the first CRL entry.
+   * @param certificateIssuer
+   *          Issuer of the certificates. Could be {@code null}.
+   */
+  void setCertificateIssuer(X500Name certificateIssuer) {
+    if (certificateIssuer == null) {
+      this.certificateIssuerExtension = null;
+      return;
+    }
+
+    try {
+      GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
+      this.certificateIssuerExtension = new Extension(Extension.certificateIssuer, true,
+          generalNames.getEncoded(ASN1Encoding.DER));
+    } catch (IOException ex) {
+      throw new IllegalArgumentException("error encoding certificateIssuer: " + ex.getMessage(),
+          ex);
+    }
+  }
+
+  /**
+   * Adds an entry to revokedCertificates.
+   * @param serialNumber
+   *          Serial number of the revoked certificate. Must not be {@code null}.
+   * @param revocationDate
+   *          Revocation date. Must not be {@code null}.
+   * @param entryExtensions
+   *          Extensions of the CRL entry. Could be {@code null}.
+   * @throws IOException
+   *           if the entry could not be written to the temporary file.
+   */
+  void addCrlEntry(BigInteger serialNumber, Date revocationDate, Extensions entryExtensions)
+      throws IOException {
+    addEncodedCrlEntry(encodeCrlEntry(serialNumber, revocationDate, entryExtensions));
+  }
+
+  /**
+   * Adds an encoded entry to revokedCertificates.
+   * @param encodedEntry
+   *          Encoded CRL entry, as returned by
+   *          {@link #encodeCrlEntry(BigInteger, Date, Extensions)}. Must not be {@code null}.
+   * @throws IOException
+   *           if the entry could not be written to the temporary file.
+   */
+  void addEncodedCrlEntry(byte[] encodedEntry) throws IOException {
+    byte[] encoded = encodedEntry;
+    if (numEntries == 0 && certificateIssuerExtension != null) {
+      encoded = addExtension(encodedEntry, certificateIssuerExtension);
+    }
+
+    entriesOut.write(encoded);
+    entriesLength += encoded.length;
+    numEntries++;
+  }
+
+  static byte[] encodeCrlEntry(BigInteger serialNumber, Date revocationDate,
+      Extensions entryExtensions) throws IOException {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(new ASN1Integer(serialNumber));
+    vec.add(new Time(revocationDate));
+    if (entryExtensions != null) {
+      vec.add(entryExtensions);
+    }
+
+    return new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+  }
+
+  /**
+   * Adds a CRL extension. The values of the extensions cRLNumber and deltaCRLIndicator are
+   * also returned by {@link #build(ContentSigner)}.
+   * @param type
+   *          Type of the extension. Must not be {@code null}.
+   * @param critical
+   *          Whether the extension is critical.
+   * @param value
+   *          Value of the extension. Must not be {@code null}.
+   * @throws IOException
+   *           if the value could not be encoded.
+   */
+  void addExtension(ASN1ObjectIdentifier type, boolean critical, ASN1Encodable value)
+      throws IOException {
+    if (Extension.cRLNumber.equals(type)) {
+      crlNumber = ASN1Integer.getInstance(value).getPositiveValue();
+    } else if (Extension.deltaCRLIndicator.equals(type)) {
+      baseCrlNumber = ASN1Integer.getInstance(value).getPositiveValue();
+    }
+
+    extensions.add(new Extension(type, critical,
+        new DEROctetString(value.toASN1Primitive().getEncoded(ASN1Encoding.DER))));
+  }
+
+  /**
+   * Adds an entry to the XiPKI extension CrlCertSet.
+   * @param serialNumber
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param cert
+   *          The certificate. Could be {@code null}.
+   * @throws IOException
+   *           if the entry could not be written to the temporary file.
+   */
+  void addCertsetEntry(BigInteger serialNumber, ASN1Encodable cert) throws IOException {
+    if (certset == null) {
+      certset = new DerSetSorter(maxCertsetBytesInMemory);
+    }
+
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(new ASN1Integer(serialNumber));
+    if (cert != null) {
+      vec.add(new DERTaggedObject(true, 0, cert));
+    }
+
+    byte[] encoded = new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+    certset.add(encoded);
+    certsetLength += encoded.length;
+  }
+
+  /**
+   * Signs the TBSCertList and returns the file-backed CRL. The CRL is neither parsed nor read
+   * into memory.
+   * @param signer
+   *          Signer. Must not be {@code null}.
+   * @return the signed CRL.
+   * @throws IOException
+   *           if the temporary files could not be read or written, or the signature could
+   *           not be created.
+   */
+  CachedCrl build(ContentSigner signer) throws IOException {
+    Args.notNull(signer, "signer");
+    entriesOut.close();
+    if (certset != null) {
+      certsetFile = File.createTempFile("xipki-crl-certset-", ".tmp");
+      certset.writeSorted(certsetFile);
+      LOG.debug("sorted CrlCertSet with {} bytes in {} runs", certsetLength,
+          certset.getNumberOfRuns());
+    }
+
+    byte[] encodedSigAlgId = signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+    TbsCertList tbs = new TbsCertList(encodedSigAlgId);
+
+    OutputStream signerOut = new BufferedOutputStream(signer.getOutputStream(), BUFFER_SIZE);
+    tbs.writeTo(signerOut);
+    signerOut.close();
+    byte[] signature = signer.getSignature();
+
+    long bitStringBodyLength = 1L + signature.length;
+    long bodyLength = tbs.length + encodedSigAlgId.length
+        + headerLength(bitStringBodyLength) + bitStringBodyLength;
+
+    // the ETag is calculated while writing, the CRL is not read back into memory.
+    Digest sha1 = HashAlgo.SHA1.createDigest();
+    crlFile = File.createTempFile("xipki-crl-", ".tmp");
+    try (OutputStream out = new TeeOutputStream(newOutputStream(crlFile),
+        new DigestOutputStream(sha1))) {
+      writeHeader(out, TAG_SEQUENCE, bodyLength);
+      tbs.writeTo(out);
+      out.write(encodedSigAlgId);
+      writeHeader(out, TAG_BIT_STRING, bitStringBodyLength);
+      // no unused bits
+      out.write(0);
+      out.write(signature);
+    }
+
+    LOG.debug("generated CRL with {} entries and {} bytes", numEntries,
+        headerLength(bodyLength) + bodyLength);
+
+    byte[] hash = new byte[sha1.getDigestSize()];
+    sha1.doFinal(hash, 0);
+
+    // the file is owned by the CachedCrl from now on
+    File file = crlFile;
+    crlFile = null;
+    return new CachedCrl(file, Hex.encode(hash), crlNumber, baseCrlNumber, thisUpdate,
+        nextUpdate);
+  }
+
+  @Override
+  public void close() {
+    IoUtil.closeQuietly(entriesOut);
+    IoUtil.closeQuietly(certset);
+    deleteQuietly(entriesFile);
+    deleteQuietly(certsetFile);
+    deleteQuietly(crlFile);
+  }
+
+  /**
+   * The encoded TBSCertList. The revoked certificates and the entries of CrlCertSet are
+   * copied from the temporary files.
+   */
+  private class TbsCertList {
+
+    private final byte[] prefix;
+
+    private final byte[] encodedExtensions;
+
+    private final byte[] certsetPrefix;
+
+    private final long length;
+
+    private TbsCertList(byte[] encodedSigAlgId) throws IOException {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      bout.write(ENCODED_VERSION);
+      bout.write(encodedSigAlgId);
+      bout.write(issuer.getEncoded(ASN1Encoding.DER));
+      bout.write(new Time(thisUpdate).getEncoded(ASN1Encoding.DER));
+      if (nextUpdate != null) {
+        bout.write(new Time(nextUpdate).getEncoded(ASN1Encoding.DER));
+      }
+      if (entriesLength > 0) {
+        writeHeader(bout, TAG_SEQUENCE, entriesLength);
+      }
+      byte[] fixedPrefix = bout.toByteArray();
+
+      bout.reset();
+      for (Extension extn : extensions) {
+        bout.write(extn.getEncoded(ASN1Encoding.DER));
+      }
+      long extensionsLength = bout.size();
+
+      if (certset != null) {
+        // Extension ::= SEQUENCE { extnID, extnValue OCTET STRING { SET OF Xipki-CrlCert } }
+        byte[] encodedOid =
+            ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset.getEncoded(ASN1Encoding.DER);
+        long setLength = headerLength(certsetLength) + certsetLength;
+        long octetsLength = headerLength(setLength) + setLength;
+        long extnBodyLength = encodedOid.length + octetsLength;
+
+        ByteArrayOutputStream certsetBout = new ByteArrayOutputStream();
+        writeHeader(certsetBout, TAG_SEQUENCE, extnBodyLength);
+        certsetBout.write(encodedOid);
+        writeHeader(certsetBout, TAG_OCTET_STRING, setLength);
+        writeHeader(certsetBout, TAG_SET, certsetLength);
+        this.certsetPrefix = certsetBout.toByteArray();
+        extensionsLength += certsetPrefix.length + certsetLength;
+      } else {
+        this.certsetPrefix = null;
+      }
+
+      if (extensionsLength > 0) {
+        // [0] EXPLICIT Extensions
+        long seqLength = headerLength(extensionsLength) + extensionsLength;
+        ByteArrayOutputStream extnBout = new ByteArrayOutputStream();
+        writeHeader(extnBout, TAG_CONTEXT_0, seqLength);
+        writeHeader(extnBout, TAG_SEQUENCE, extensionsLength);
+        bout.writeTo(extnBout);
+        this.encodedExtensions = extnBout.toByteArray();
+      } else {
+        this.encodedExtensions = new byte[0];
+      }
+
+      long bodyLength = fixedPrefix.length + entriesLength + encodedExtensions.length
+          + (certsetPrefix == null ? 0 : certsetPrefix.length + certsetLength);
+      if (bodyLength > Integer.MAX_VALUE) {
+        throw new IOException("CRL too large: " + bodyLength + " bytes");
+      }
+
+      bout.reset();
+      writeHeader(bout, TAG_SEQUENCE, bodyLength);
+      bout.write(fixedPrefix);
+      this.prefix = bout.toByteArray();
+      this.length = headerLength(bodyLength) + bodyLength;
+    }
+
+    private void writeTo(OutputStream out) throws IOException {
+      out.write(prefix);
+      if (entriesLength > 0) {
+        copy(entriesFile, out);
+      }
+      out.write(encodedExtensions);
+      if (certsetPrefix != null) {
+        out.write(certsetPrefix);
+        copy(certsetFile, out);
+      }
+    }
+
+  } // class TbsCertList
+
+  private static byte[] addExtension(byte[] encodedEntry, Extension extension)
+      throws IOException {
+    ASN1Sequence seq = ASN1Sequence.getInstance(encodedEntry);
+    List<Extension> entryExtensions = new ArrayList<>(4);
+    if (seq.size() > 2) {
+      Extensions extns = Extensions.getInstance(seq.getObjectAt(2));
+      for (ASN1ObjectIdentifier oid : extns.getExtensionOIDs()) {
+        entryExtensions.add(extns.getExtension(oid));
+      }
+    }
+    entryExtensions.add(extension);
+
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(seq.getObjectAt(0));
+    vec.add(seq.getObjectAt(1));
+    vec.add(new Extensions(entryExtensions.toArray(new Extension[0])));
+    return new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+  }
+
+  private static int headerLength(long bodyLength) {
+    if (bodyLength < 0x80) {
+      return 2;
+    }
+
+    int num = 1;
+    for (long len = bodyLength; len > 0; len >>>= 8) {
+      num++;
+    }
+    return 1 + num;
+  }
+
+  private static void writeHeader(OutputStream out, int tag, long bodyLength) throws IOException {
+    out.write(tag);
+    if (bodyLength < 0x80) {
+      out.write((int) bodyLength);
+      return;
+    }
+
+    int numBytes = headerLength(bodyLength) - 2;
+    out.write(0x80 | numBytes);
+    for (int i = numBytes - 1; i >= 0; i--) {
+      out.write((int) (bodyLength >>> (8 * i)));
+    }
+  }
+
+  private static OutputStream newOutputStream(File file) throws IOException {
+    return new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE);
+  }
+
+  private static void copy(File file, OutputStream out) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+  }
+
+  private static void deleteQuietly(File file) {
+    if (file != null && file.exists() && !file.delete()) {
+      LOG.warn("could not delete temporary file {}", file.getPath());
+    }
+  }
+
+}
@@ -17,26 +17,47 @@
 
 package org.xipki.ca.server;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.api.OperationException.ErrorCode;
+import org.xipki.ca.api.mgmt.CtLogControl;
 import org.xipki.security.CtLog.DigitallySigned;
 import org.xipki.security.CtLog.SerializedSCT;
 import org.xipki.security.CtLog.SignedCertificateTimestamp;
 import org.xipki.security.CtLog.SignedCertificateTimestampList;
 import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
-import org.xipki.util.Curl;
-import org.xipki.util.Curl.CurlResult;
-import org.xipki.util.DefaultCurl;
+import org.xipki.util.IoUtil;
+import org.xipki.util.ObjectCreationException;
 import org.xipki.util.StringUtil;
 import org.xipki.util.http.SslContextConf;
 
@@ -121,24 +142,175 @@ public class CtLogClient {
 
   }
 
-  private final Curl curl;
+  /**
+   * Latency statistics of one CT log server.
+   *
+   * @since 5.2.1
+   */
+  public static class LogMetrics {
+
+    private final AtomicLong successCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private void record(long latencyNanos, boolean success) {
+      (success ? successCount : failureCount).incrementAndGet();
+      totalLatencyNanos.addAndGet(latencyNanos);
+
+      long max;
+      while (latencyNanos > (max = maxLatencyNanos.get())) {
+        if (maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+          break;
+        }
+      }
+    }
+
+    public long getSuccessCount() {
+      return successCount.get();
+    }
+
+    public long getFailureCount() {
+      return failureCount.get();
+    }
+
+    public long getAverageLatencyMillis() {
+      long count = successCount.get() + failureCount.get();
+      return (count == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / count);
+    }
+
+    public long getMaxLatencyMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    @Override
+    public String toString() {
+      return StringUtil.concatObjects("success=", getSuccessCount(),
+          ", failure=", getFailureCount(), ", avgLatencyMs=", getAverageLatencyMillis(),
+          ", maxLatencyMs=", getMaxLatencyMillis());
+    }
+
+  }
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(1);
+
+  /**
+   * Maximal number of concurrent submissions to each CT log server.
+   */
+  private static final int THREADS_PER_SERVER = 8;
+
+  /**
+   * Maximal number of queued submissions to each CT log server.
+   */
+  private static final int QUEUE_SIZE_PER_SERVER = 64;
 
   private final List<String> addPreChainUrls;
 
-  public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf) {
+  private final Map<String, LogMetrics> metrics;
+
+  private final int quorum;
+
+  private final int timeout;
+
+  private final SSLSocketFactory sslSocketFactory;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  private final ThreadPoolExecutor executor;
+
+  public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf)
+      throws ObjectCreationException {
+    this(serverUrls, sslContextConf, null, CtLogControl.DFLT_TIMEOUT);
+  }
+
+  /**
+   * Constructor.
+   * @param serverUrls
+   *          URLs of the CT log servers. Must not be {@code null}.
+   * @param sslContextConf
+   *          Configuration of the SSL context. Could be {@code null}.
+   * @param quorum
+   *          Minimal number of SCTs. {@code null} to require the SCTs of all servers.
+   * @param timeout
+   *          Timeout in milliseconds to wait for the SCTs.
+   * @throws ObjectCreationException
+   *           if the SSL context could not be initialized.
+   * @since 5.2.1
+   */
+  public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf, Integer quorum,
+      int timeout) throws ObjectCreationException {
     Args.notEmpty(serverUrls, "serverUrls");
+    this.quorum = (quorum == null) ? serverUrls.size()
+        : Args.range(quorum, "quorum", 1, serverUrls.size());
+    this.timeout = Args.positive(timeout, "timeout");
+
+    if (sslContextConf != null && sslContextConf.isUseSslConf()) {
+      this.sslSocketFactory = sslContextConf.getSslSocketFactory();
+      this.hostnameVerifier = sslContextConf.buildHostnameVerifier();
+    } else {
+      this.sslSocketFactory = null;
+      this.hostnameVerifier = null;
+    }
 
-    DefaultCurl dfltCurl  = new DefaultCurl();
-    dfltCurl.setSslContextConf(sslContextConf);
-    this.curl = dfltCurl;
     this.addPreChainUrls = new ArrayList<>(serverUrls.size());
+    Map<String, LogMetrics> metrics0 = new LinkedHashMap<>();
     for (String m : serverUrls) {
       String addPreChainUrl = m.endsWith("/")
           ? m + "ct/v1/add-pre-chain" : m + "/ct/v1/add-pre-chain";
       this.addPreChainUrls.add(addPreChainUrl);
+      metrics0.put(addPreChainUrl, new LogMetrics());
     }
+    this.metrics = Collections.unmodifiableMap(metrics0);
+
+    // submissions exceeding the queue are rejected and count as failed.
+    int threads = THREADS_PER_SERVER * serverUrls.size();
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(QUEUE_SIZE_PER_SERVER * serverUrls.size()),
+        new ThreadFactory() {
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                "ctlog-client-" + THREAD_INDEX.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          }
+
+        });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the latency statistics of the CT log servers.
+   * @return the statistics, keyed by the URL of the servers.
+   * @since 5.2.1
+   */
+  public Map<String, LogMetrics> getMetrics() {
+    return metrics;
   }
 
+  public void close() {
+    executor.shutdownNow();
+    LOG.info("statistics of CT log servers: {}", metrics);
+  }
+
+  /**
+   * Submits the precertificate to all CT log servers concurrently, and returns as soon as
+   * the required number of SCTs is received. The remaining submissions are then cancelled,
+   * as well as all submissions after the timeout.
+   * @param precert
+   *          Encoded precertificate. Must not be {@code null}.
+   * @param caCert
+   *          CA certificate. Must not be {@code null}.
+   * @param certchain
+   *          Certificate chain of the CA. Could be {@code null}.
+   * @return the SCTs.
+   * @throws OperationException
+   *           if less than the required number of SCTs is received within the timeout.
+   */
   public SignedCertificateTimestampList getCtLogScts(
       byte[] precert, X509Cert caCert, List<X509Cert> certchain) throws OperationException {
     AddPreChainRequest request = new AddPreChainRequest();
@@ -153,25 +325,97 @@ public class CtLogClient {
       }
     }
 
-    byte[] content = JSON.toJSONBytes(request);
+    final byte[] content = JSON.toJSONBytes(request);
     if (LOG.isDebugEnabled()) {
       LOG.debug("CTLog Request: {}", StringUtil.toUtf8String(content));
     }
 
-    List<SignedCertificateTimestamp> scts = new ArrayList<>(addPreChainUrls.size());
-    Map<String, String> headers = new HashMap<>();
-    headers.put("content-type", "application/json");
-    for (String url : addPreChainUrls) {
-      CurlResult res;
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    final int n = addPreChainUrls.size();
+    List<SignedCertificateTimestamp> scts = new ArrayList<>(n);
+    List<String> errors = new LinkedList<>();
+    List<Future<SignedCertificateTimestamp>> futures = new ArrayList<>(n);
+
+    try {
+      getCtLogScts(content, deadline, scts, errors, futures);
+    } finally {
+      // the remaining submissions are not waited for when the quorum is reached.
+      for (Future<SignedCertificateTimestamp> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    if (scts.size() < quorum) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE, "received only " + scts.size()
+          + " of required " + quorum + " SCTs: " + errors);
+    }
+
+    return new SignedCertificateTimestampList(new SerializedSCT(scts));
+  }
+
+  private void getCtLogScts(final byte[] content, long deadline,
+      List<SignedCertificateTimestamp> scts, List<String> errors,
+      List<Future<SignedCertificateTimestamp>> futures) throws OperationException {
+    CompletionService<SignedCertificateTimestamp> completionService =
+        new ExecutorCompletionService<>(executor);
+    for (final String url : addPreChainUrls) {
+      try {
+        futures.add(completionService.submit(new Callable<SignedCertificateTimestamp>() {
+          @Override
+          public SignedCertificateTimestamp call() throws Exception {
+            return addPreChain(url, content);
+          }
+        }));
+      } catch (RejectedExecutionException ex) {
+        metrics.get(url).record(0, false);
+        errors.add("too many pending submissions to " + url);
+      }
+    }
+
+    final int n = addPreChainUrls.size();
+    while (scts.size() < quorum && n - errors.size() >= quorum) {
+      long remaining = deadline - System.nanoTime();
+      Future<SignedCertificateTimestamp> future;
       try {
-        res = curl.curlPost(url, false, headers, null, content);
-      } catch (Exception ex) {
+        future = (remaining <= 0) ? null
+            : completionService.poll(remaining, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+            "interrupted while waiting for the SCTs");
+      }
+
+      if (future == null) {
+        errors.add("timeout after " + timeout + " ms");
+        break;
+      }
+
+      try {
+        scts.add(future.get());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+            "interrupted while waiting for the SCTs");
+      } catch (ExecutionException ex) {
+        errors.add(ex.getCause().getMessage());
+      }
+    }
+  } // method getCtLogScts
+
+  private SignedCertificateTimestamp addPreChain(String url, byte[] content)
+      throws OperationException {
+    long start = System.nanoTime();
+    boolean successful = false;
+    try {
+      byte[] respContent;
+      try {
+        respContent = post(url, content);
+      } catch (IOException ex) {
         throw new OperationException(ErrorCode.SYSTEM_FAILURE,
             "error while calling " + url + ": " + ex.getMessage());
       }
 
-      byte[] respContent = res.getContent();
-      if (respContent == null) {
+      if (respContent == null || respContent.length == 0) {
         throw new OperationException(ErrorCode.SYSTEM_FAILURE,
             "server does not return any content while responding " + url);
       }
@@ -185,10 +429,54 @@ public class CtLogClient {
       DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
       SignedCertificateTimestamp sct = new SignedCertificateTimestamp(resp.getSct_version(),
           resp.getId(), resp.getTimestamp(), resp.getExtensions(), ds);
-      scts.add(sct);
+      successful = true;
+      return sct;
+    } finally {
+      long latency = System.nanoTime() - start;
+      metrics.get(url).record(latency, successful);
+      LOG.debug("CT log {} responded in {} ms, successful: {}", url,
+          TimeUnit.NANOSECONDS.toMillis(latency), successful);
     }
+  }
 
-    return new SignedCertificateTimestampList(new SerializedSCT(scts));
+  /**
+   * Posts the content. The connection is not disconnected, so that it is kept alive and
+   * reused by the next request to the same server.
+   */
+  private byte[] post(String url, byte[] content) throws IOException {
+    HttpURLConnection httpConn = IoUtil.openHttpConn(new URL(url));
+    if (httpConn instanceof HttpsURLConnection) {
+      if (sslSocketFactory != null) {
+        ((HttpsURLConnection) httpConn).setSSLSocketFactory(sslSocketFactory);
+      }
+      if (hostnameVerifier != null) {
+        ((HttpsURLConnection) httpConn).setHostnameVerifier(hostnameVerifier);
+      }
+    }
+
+    httpConn.setConnectTimeout(timeout);
+    httpConn.setReadTimeout(timeout);
+    httpConn.setUseCaches(false);
+    httpConn.setRequestMethod("POST");
+    httpConn.setRequestProperty("Content-Type", "application/json");
+    httpConn.setDoOutput(true);
+    httpConn.setFixedLengthStreamingMode(content.length);
+
+    try (OutputStream out = httpConn.getOutputStream()) {
+      out.write(content);
+    }
+
+    int respCode = httpConn.getResponseCode();
+    if (respCode != HttpURLConnection.HTTP_OK) {
+      // consume the error content so that the connection can be reused
+      InputStream errorStream = httpConn.getErrorStream();
+      if (errorStream != null) {
+        IoUtil.read(errorStream);
+      }
+      throw new IOException("bad response: " + respCode + " " + httpConn.getResponseMessage());
+    }
+
+    return IoUtil.read(httpConn.getInputStream());
   }
 
 }
@@ -18,7 +18,6 @@
 package org.xipki.ca.server;
 
 import java.io.Closeable;
-import java.security.cert.X509CRL;
 import java.util.Map;
 
 import org.xipki.ca.api.CertWithDbId;
@@ -69,8 +68,8 @@ class IdentifiedCertPublisher implements Closeable {
     return certPublisher.certificateRevoked(caCert, cert, certprofile, revInfo);
   }
 
-  public boolean crlAdded(X509Cert caCert, X509CRL crl) {
-    return certPublisher.crlAdded(caCert, crl);
+  public boolean crlAdded(X509Cert caCert, byte[] encodedCrl) {
+    return certPublisher.crlAdded(caCert, encodedCrl);
   }
 
   public MgmtEntry.Publisher getDbEntry() {
@@ -22,9 +22,13 @@ import static org.xipki.audit.AuditLevel.INFO;
 import static org.xipki.audit.AuditStatus.FAILED;
 
 import java.io.EOFException;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -109,6 +113,8 @@ public class RestResponder {
 
   private static final int OK = 200;
 
+  private static final int NOT_MODIFIED = 304;
+
   private static final int BAD_REQUEST = 400;
 
   private static final int UNAUTHORIZED = 401;
@@ -401,15 +407,32 @@ public class RestResponder {
           }
         }
 
-        X509CRL crl = ca.getCrl(crlNumber);
+        CachedCrl crl = ca.getCachedCrl(crlNumber);
         if (crl == null) {
           String message = "could not get CRL";
           LOG.warn(message);
           throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, message, INFO, FAILED);
         }
 
-        respCt = RestAPIConstants.CT_pkix_crl;
-        respBytes = crl.getEncoded();
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RestAPIConstants.HEADER_PKISTATUS, RestAPIConstants.PKISTATUS_accepted);
+        headers.put("ETag", crl.getEtag());
+        headers.put("Last-Modified", crl.getLastModifiedText());
+        String expires = crl.getExpiresText();
+        if (expires != null) {
+          headers.put("Expires", expires);
+        }
+
+        if (isNotModified(httpRetriever, crl)) {
+          return new RestResponse(NOT_MODIFIED, null, headers, null);
+        }
+        byte[] encodedCrl;
+        try {
+          encodedCrl = crl.getEncoded();
+        } catch (IOException ex) {
+          throw new OperationException(ErrorCode.CRL_FAILURE, ex);
+        }
+        return new RestResponse(OK, RestAPIConstants.CT_pkix_crl, headers, encodedCrl);
       } else if (RestAPIConstants.CMD_new_crl.equalsIgnoreCase(command)) {
         try {
           requestor.assertPermitted(PermissionConstants.GEN_CRL);
@@ -556,4 +579,43 @@ public class RestResponder {
     return new BigInteger(tmpStr);
   }
 
+  /**
+   * Evaluates the conditional headers If-None-Match and If-Modified-Since.
+   * @param httpRetriever the HTTP request.
+   * @param crl the CRL to be returned.
+   * @return whether the client has already the CRL.
+   */
+  private static boolean isNotModified(HttpRequestMetadataRetriever httpRetriever,
+      CachedCrl crl) {
+    // If-None-Match has precedence over If-Modified-Since, see RFC 7232 section 6.
+    String ifNoneMatch = httpRetriever.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+
+        if ("*".equals(tag) || crl.getEtag().equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    String ifModifiedSince = httpRetriever.getHeader("If-Modified-Since");
+    if (StringUtil.isBlank(ifModifiedSince)) {
+      return false;
+    }
+
+    long time;
+    try {
+      time = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+          .toInstant().toEpochMilli();
+    } catch (DateTimeParseException ex) {
+      return false;
+    }
+    return crl.getLastModified() <= time;
+  }
+
 }
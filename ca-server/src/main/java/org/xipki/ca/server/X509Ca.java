@@ -30,6 +30,7 @@ import static org.xipki.ca.api.OperationException.ErrorCode.UNKNOWN_CERT;
 import static org.xipki.ca.api.OperationException.ErrorCode.UNKNOWN_CERT_PROFILE;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
@@ -55,14 +56,20 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -80,7 +87,6 @@ import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERPrintableString;
 import org.bouncycastle.asn1.DERSequence;
-import org.bouncycastle.asn1.DERSet;
 import org.bouncycastle.asn1.DERTaggedObject;
 import org.bouncycastle.asn1.pkcs.CertificationRequest;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
@@ -105,8 +111,6 @@ import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x509.Time;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.cert.CertIOException;
-import org.bouncycastle.cert.X509CRLHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.crypto.RuntimeCryptoException;
 import org.slf4j.Logger;
@@ -165,6 +169,7 @@ import org.xipki.util.CollectionUtil;
 import org.xipki.util.CompareUtil;
 import org.xipki.util.DateUtil;
 import org.xipki.util.HealthCheckResult;
+import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
 import org.xipki.util.Validity;
@@ -332,17 +337,21 @@ public class X509Ca implements Closeable {
               + intervals * MS_PER_DAY
               + control.getOverlapMinutes() * MS_PER_MINUTE);
 
-      long maxIdOfDeltaCrlCache;
+      List<Long> idsOfDeltaCrlCache;
       try {
-        maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caIdent);
-        generateCrl(createDeltaCrlNow, now, nextUpdate, CaAuditConstants.MSGID_ca_routine);
+        idsOfDeltaCrlCache = certstore.getIdsOfDeltaCrlCache(caIdent);
+        CachedCrl crl = generateCrl(createDeltaCrlNow, now, nextUpdate,
+            CaAuditConstants.MSGID_ca_routine);
+        if (crl != null) {
+          releaseIfUnused(crl);
+        }
       } catch (Throwable th) {
         LogUtil.error(LOG, th);
         return;
       }
 
       try {
-        certstore.clearDeltaCrlCache(caIdent, maxIdOfDeltaCrlCache);
+        certstore.clearDeltaCrlCache(idsOfDeltaCrlCache);
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
       }
@@ -396,6 +405,8 @@ public class X509Ca implements Closeable {
 
   private static final long MAX_CERT_TIME_MS = 253402300799982L; //9999-12-31-23-59-59
 
+  private static final int CRL_PAGE_SIZE = 1000;
+
   private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
   private final CaInfo caInfo;
@@ -431,6 +442,12 @@ public class X509Ca implements Closeable {
 
   private final ConcurrentSkipListSet<Long> subjectCertsInProcess = new ConcurrentSkipListSet<>();
 
+  private final CrlSegment crlSegment;
+
+  private volatile CachedCrl currentCrl;
+
+  private CachedCrl previousCrl;
+
   public X509Ca(CaManagerImpl caManager, CaInfo caInfo, CertStore certstore, CtLogClient ctLog)
       throws OperationException {
     this.caManager = Args.notNull(caManager, "caManager");
@@ -442,6 +459,12 @@ public class X509Ca implements Closeable {
     this.caCert = caInfo.getCert();
     this.certstore = Args.notNull(certstore, "certstore");
 
+    CaServerConf serverConf = caManager.getCaServerConf();
+    String crlSegmentDir = (serverConf == null) ? null : serverConf.getCrlSegmentDir();
+    this.crlSegment = (crlSegmentDir == null) ? null
+        : new CrlSegment(new File(IoUtil.expandFilepath(crlSegmentDir), caIdent.getName()),
+            Math.max(1, serverConf.getCrlSegmentRebuildInterval()));
+
     SubjectPublicKeyInfo caSpki = this.caCert.getCertHolder().getSubjectPublicKeyInfo();
     ASN1ObjectIdentifier caSpkiAlgId = caSpki.getAlgorithm().getAlgorithm();
     if (caSpkiAlgId.equals(PKCSObjectIdentifiers.rsaEncryption)) {
@@ -590,32 +613,11 @@ public class X509Ca implements Closeable {
   }
 
   public X509CRL getCrl(BigInteger crlNumber) throws OperationException {
-    LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
-    boolean successful = false;
-
+    CachedCrl crl = getCachedCrl(crlNumber);
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
-      }
-
-      try {
-        X509CRL crl = X509Util.parseCrl(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          String timeStr = new Time(crl.getThisUpdate()).getTime();
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(), timeStr);
-        }
-        return crl;
-      } catch (CRLException | CertificateException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      }
-    } finally {
-      if (!successful) {
-        LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
-      }
+      return (crl == null) ? null : crl.getX509Crl();
+    } catch (CRLException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
     }
   } // method getCrl
 
@@ -624,32 +626,91 @@ public class X509Ca implements Closeable {
   }
 
   public CertificateList getBcCrl(BigInteger crlNumber) throws OperationException {
+    CachedCrl crl = getCachedCrl(crlNumber);
+    try {
+      return (crl == null) ? null : crl.getBcCrl();
+    } catch (IOException | RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  } // method getBcCrl
+
+  /**
+   * Returns the CRL with the given number. The current CRL is kept in memory and is read from
+   * the database only if a new CRL has been added since, e.g. by the CA in master mode.
+   * @param crlNumber
+   *          CRL number. {@code null} to get the current CRL.
+   * @return the CRL, or {@code null} if no such CRL exists.
+   * @throws OperationException
+   *           if the CRL could not be retrieved.
+   */
+  public CachedCrl getCachedCrl(BigInteger crlNumber) throws OperationException {
     LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
     boolean successful = false;
 
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
+      CachedCrl crl = currentCrl;
+      boolean cached;
+      if (crlNumber == null) {
+        // in master mode, all CRLs are added via publishCrl().
+        cached = crl != null && (masterMode || (crl.getCrlNumber() != null
+            && crl.getCrlNumber().longValue() == certstore.getMaxCrlNumber(caIdent)));
+      } else {
+        cached = crl != null && crlNumber.equals(crl.getCrlNumber());
       }
 
-      try {
-        CertificateList crl = CertificateList.getInstance(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
-              crl.getThisUpdate().getTime());
+      if (!cached) {
+        byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
+        if (encodedCrl == null) {
+          return null;
+        }
+
+        try {
+          crl = new CachedCrl(encodedCrl);
+        } catch (RuntimeException ex) {
+          throw new OperationException(SYSTEM_FAILURE, ex);
+        }
+
+        if (crlNumber == null) {
+          setCurrentCrl(crl);
         }
-        return crl;
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
       }
+
+      successful = true;
+      if (LOG.isInfoEnabled()) {
+        String timeStr = new Time(crl.getThisUpdate()).getTime();
+        LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}, cached={}", caIdent.getName(),
+            timeStr, cached);
+      }
+      return crl;
     } finally {
       if (!successful) {
         LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
       }
     }
-  } // method getCrl
+  } // method getCachedCrl
+
+  private synchronized void setCurrentCrl(CachedCrl crl) {
+    // a concurrent reader may have read an older CRL from the database.
+    if (crl.isNewerThan(currentCrl)) {
+      // the replaced CRL may still be read by concurrent requests, its file is kept until
+      // it is replaced again.
+      if (previousCrl != null) {
+        previousCrl.release();
+      }
+      previousCrl = currentCrl;
+      currentCrl = crl;
+    }
+  }
+
+  /**
+   * Deletes the file of a generated CRL which has not become the current CRL, e.g. because it
+   * could not be published.
+   */
+  private synchronized void releaseIfUnused(CachedCrl crl) {
+    if (crl != currentCrl && crl != previousCrl) {
+      crl.release();
+    }
+  }
 
   private void cleanupCrlsWithoutException(String msgId) throws OperationException {
     try {
@@ -706,29 +767,37 @@ public class X509Ca implements Closeable {
       Date nextUpdate = new Date(nearestScheduledIssueTime.getTime()
           + intervals * MS_PER_DAY);
 
-      long maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caIdent);
-      X509CRL crl = generateCrl(false, thisUpdate, nextUpdate, msgId);
+      List<Long> idsOfDeltaCrlCache = certstore.getIdsOfDeltaCrlCache(caIdent);
+      CachedCrl crl = generateCrl(false, thisUpdate, nextUpdate, msgId);
       if (crl == null) {
         return null;
       }
 
       try {
-        certstore.clearDeltaCrlCache(caIdent, maxIdOfDeltaCrlCache);
+        certstore.clearDeltaCrlCache(idsOfDeltaCrlCache);
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "could not clear DeltaCRLCache of CA " + caIdent);
       }
-      return crl;
+
+      try {
+        return crl.getX509Crl();
+      } catch (CRLException ex) {
+        throw new OperationException(CRL_FAILURE, ex);
+      } finally {
+        releaseIfUnused(crl);
+      }
     } finally {
       crlGenInProcess.set(false);
     }
   } // method generateCrlOnDemand
 
-  private X509CRL generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate, String msgId)
+  private CachedCrl generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
+      String msgId)
       throws OperationException {
     boolean successful = false;
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_crl, msgId);
     try {
-      X509CRL crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
+      CachedCrl crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
       successful = true;
       return crl;
     } finally {
@@ -736,7 +805,7 @@ public class X509Ca implements Closeable {
     }
   }
 
-  private X509CRL generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
+  private CachedCrl generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
       AuditEvent event, String msgId) throws OperationException {
     CrlControl control = caInfo.getCrlControl();
     if (control == null) {
@@ -767,205 +836,389 @@ public class X509Ca implements Closeable {
       boolean indirectCrl = (crlSigner != null);
       X500Name crlIssuer = indirectCrl ? crlSigner.getSubjectAsX500Name() : pci.getX500Subject();
 
-      X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, thisUpdate);
-      if (nextUpdate != null) {
-        crlBuilder.setNextUpdate(nextUpdate);
+      try {
+        CachedCrl crl;
+        try (CrlStreamBuilder crlBuilder = new CrlStreamBuilder(crlIssuer, thisUpdate)) {
+          crl = generateCrl1(crlBuilder, deltaCrl, thisUpdate, nextUpdate, crlSigner,
+              crlIssuer, false, event, msgId);
+        }
+
+        if (crl == null) {
+          // the CRL segment could not be read
+          try (CrlStreamBuilder crlBuilder = new CrlStreamBuilder(crlIssuer, thisUpdate)) {
+            crl = generateCrl1(crlBuilder, deltaCrl, thisUpdate, nextUpdate, crlSigner,
+                crlIssuer, true, event, msgId);
+          }
+        }
+        successful = true;
+        return crl;
+      } catch (IOException ex) {
+        LogUtil.error(LOG, ex, "could not generate CRL");
+        throw new OperationException(CRL_FAILURE, "IOException: " + ex.getMessage());
       }
+    } finally {
+      if (!successful) {
+        LOG.info("    FAILED generateCrl: ca={}", caIdent.getName());
+      }
+    }
+  } // method generateCrl0
 
-      final int numEntries = 100;
+  /**
+   * Generates the CRL.
+   * @param rebuildSegment
+   *          Whether the full CRL must be generated from the database to rebuild the CRL segment.
+   * @return the generated CRL, or {@code null} if the CRL segment could not be read, e.g. it is
+   *         incomplete. In this case the full CRL must be generated again with rebuildSegment.
+   */
+  private CachedCrl generateCrl1(CrlStreamBuilder crlBuilder, boolean deltaCrl, Date thisUpdate,
+      Date nextUpdate, SignerEntryWrapper crlSigner, X500Name crlIssuer, boolean rebuildSegment,
+      AuditEvent event, String msgId) throws OperationException, IOException {
+    CrlControl control = caInfo.getCrlControl();
+    PublicCaInfo pci = caInfo.getPublicCaInfo();
+    boolean indirectCrl = (crlSigner != null);
 
-      Date notExpireAt;
-      if (control.isIncludeExpiredCerts()) {
-        notExpireAt = new Date(0);
-      } else {
-        // 10 minutes buffer
-        notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
-      }
+    if (nextUpdate != null) {
+      crlBuilder.setNextUpdate(nextUpdate);
+    }
 
-      long startId = 1;
+    if (indirectCrl) {
+      crlBuilder.setCertificateIssuer(pci.getX500Subject());
+    }
 
-      // we have to cache the serial entries to sort them
-      List<CertRevInfoWithSerial> allRevInfos = new LinkedList<>();
+    Date notExpireAt;
+    if (control.isIncludeExpiredCerts()) {
+      notExpireAt = new Date(0);
+    } else {
+      // 10 minutes buffer
+      notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
+    }
 
-      List<CertRevInfoWithSerial> revInfos;
+    // The segment can only be used if all changes are recorded in DELTACRL_CACHE.
+    CrlSegment segment = shouldPublishToDeltaCrlCache() ? crlSegment : null;
+    long segmentFingerprint = CrlSegment.fingerprint(control);
+    boolean segmentUpToDate = segment != null
+        && segment.isUpToDate(certstore.getMaxCrlNumber(caIdent), segmentFingerprint);
 
-      do {
-        if (deltaCrl) {
-          revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        } else {
-          revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+    List<CrlSegment.Entry> segmentChanges = null;
+    CrlSegment.BaseWriter segmentWriter = null;
+    try {
+      if (deltaCrl) {
+        if (segmentUpToDate) {
+          segmentChanges = new LinkedList<>();
         }
-        allRevInfos.addAll(revInfos);
+        addDeltaCrlEntries(crlBuilder, control, segmentChanges);
+      } else if (segmentUpToDate && !rebuildSegment && !segment.isRebuildDue()) {
+        segmentWriter = segment.newBase(segmentFingerprint, true);
+        try {
+          // the segment validates its number of entries and their order while being read.
+          addCrlEntriesFromSegment(crlBuilder, control, notExpireAt, segment, segmentWriter);
+        } catch (IOException ex) {
+          LOG.warn("could not generate CRL of CA {} from the CRL segment: {}",
+              caIdent.getName(), ex.getMessage());
+          segment.invalidate();
+          return null;
+        }
+      } else {
+        if (segment != null) {
+          LOG.info("rebuild CRL segment of CA {}", caIdent.getName());
+          segmentWriter = segment.newBase(segmentFingerprint, false);
+        }
+        addCrlEntriesFromDb(crlBuilder, control, notExpireAt, segmentWriter);
+      }
 
-        long maxId = 1;
-        for (CertRevInfoWithSerial revInfo : revInfos) {
-          if (revInfo.getId() > maxId) {
-            maxId = revInfo.getId();
+      BigInteger crlNumber = caInfo.nextCrlNumber();
+      event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
+
+      CachedCrl crl = generateCrl2(crlBuilder, deltaCrl, control, notExpireAt, crlNumber,
+          crlSigner, crlIssuer);
+      boolean published = publishCrl(crl);
+
+      if (segment != null) {
+        if (!published) {
+          // the DELTACRL_CACHE will be cleared without the changes being applied to the segment
+          segment.invalidate();
+        } else if (segmentWriter != null || segmentChanges != null) {
+          try {
+            if (segmentWriter != null) {
+              segmentWriter.commit(crlNumber.longValue());
+            } else {
+              segment.appendChanges(segmentChanges, crlNumber.longValue());
+            }
+          } catch (IOException ex) {
+            LogUtil.error(LOG, ex, "could not update CRL segment of CA " + caIdent.getName());
+            segment.invalidate();
           }
-        } // end for
-        startId = maxId + 1;
-      } while (revInfos.size() >= numEntries); // end do
+        }
+      }
 
-      if (revInfos != null) { // free the memory
-        revInfos.clear();
+      LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}, entries={}",
+          caIdent.getName(), crlNumber, crl.getThisUpdate(), crlBuilder.getNumEntries());
+
+      if (!deltaCrl) {
+        // clean up the CRL
+        cleanupCrlsWithoutException(msgId);
       }
+      return crl;
+    } finally {
+      IoUtil.closeQuietly(segmentWriter);
+    }
+  } // method generateCrl1
 
-      // sort the list by SerialNumber ASC
-      Collections.sort(allRevInfos);
+  /**
+   * Adds the entries of the delta CRL.
+   * @param segmentChanges
+   *          Collector of the changes to be applied to the CRL segment. Could be {@code null}.
+   */
+  private void addDeltaCrlEntries(CrlStreamBuilder crlBuilder, CrlControl control,
+      List<CrlSegment.Entry> segmentChanges) throws OperationException, IOException {
+    final int numEntries = CRL_PAGE_SIZE;
+    // the same certificate may be contained more than once in the DELTACRL_CACHE.
+    Set<BigInteger> serials = new HashSet<>();
 
-      boolean isFirstCrlEntry = true;
-      CrlControl crlControl = caInfo.getCrlControl();
+    long startId = 1;
+    List<CertRevInfoWithSerial> revInfos;
+    do {
+      revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
+          control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
 
-      for (CertRevInfoWithSerial revInfo : allRevInfos) {
-        CrlReason reason = revInfo.getReason();
-        if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-          reason = CrlReason.UNSPECIFIED;
+      long maxId = 1;
+      for (CertRevInfoWithSerial revInfo : revInfos) {
+        if (revInfo.getId() > maxId) {
+          maxId = revInfo.getId();
         }
 
-        Date revocationTime = revInfo.getRevocationTime();
-        Date invalidityTime = revInfo.getInvalidityTime();
-
-        switch (crlControl.getInvalidityDateMode()) {
-          case forbidden:
-            invalidityTime = null;
-            break;
-          case optional:
-            break;
-          case required:
-            if (invalidityTime == null) {
-              invalidityTime = revocationTime;
-            }
-            break;
-          default:
-            throw new IllegalStateException(
-                "unknown TripleState " + crlControl.getInvalidityDateMode());
+        if (!serials.add(revInfo.getSerial())) {
+          continue;
         }
 
-        BigInteger serial = revInfo.getSerial();
-        LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
+        CrlSegment.Entry entry = toCrlSegmentEntry(control, revInfo);
+        if (entry.isRemoved()) {
+          crlBuilder.addEncodedCrlEntry(encodeCrlEntry(control, revInfo));
+        } else {
+          crlBuilder.addEncodedCrlEntry(entry.getEncoded());
+        }
 
-        if (!indirectCrl || !isFirstCrlEntry) {
-          if (invalidityTime != null) {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode(),
-                invalidityTime);
-          } else {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode());
-          }
-          continue;
+        if (segmentChanges != null) {
+          segmentChanges.add(entry);
         }
+      } // end for
+      startId = maxId + 1;
+    } while (revInfos.size() >= numEntries); // end do
+  } // method addDeltaCrlEntries
+
+  /**
+   * Adds the entries of the full CRL from the database, page by page.
+   * @param segmentWriter
+   *          Writer of the new CRL segment. Could be {@code null}.
+   */
+  private void addCrlEntriesFromDb(CrlStreamBuilder crlBuilder, CrlControl control,
+      Date notExpireAt, CrlSegment.BaseWriter segmentWriter)
+      throws OperationException, IOException {
+    final int numEntries = CRL_PAGE_SIZE;
+    BigInteger lastSerial = null;
+
+    // the entries are written sorted by the column SN, page by page, without caching them
+    // in memory.
+    List<CertRevInfoWithSerial> revInfos;
+    do {
+      revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, lastSerial, numEntries,
+          control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
 
-        List<Extension> extensions = new ArrayList<>(3);
-        if (reason != CrlReason.UNSPECIFIED) {
-          Extension ext = createReasonExtension(reason.getCode());
-          extensions.add(ext);
+      for (CertRevInfoWithSerial revInfo : revInfos) {
+        lastSerial = revInfo.getSerial();
+
+        CrlSegment.Entry entry = toCrlSegmentEntry(control, revInfo);
+        crlBuilder.addEncodedCrlEntry(entry.getEncoded());
+        if (segmentWriter != null) {
+          segmentWriter.write(entry);
         }
-        if (invalidityTime != null) {
-          Extension ext = createInvalidityDateExtension(invalidityTime);
-          extensions.add(ext);
+      } // end for
+    } while (revInfos.size() >= numEntries); // end do
+  } // method addCrlEntriesFromDb
+
+  /**
+   * Adds the entries of the full CRL from the CRL segment, and applies the changes since the
+   * last full CRL. Only the changes are read from the database.
+   * @return number of the added entries.
+   */
+  private int addCrlEntriesFromSegment(final CrlStreamBuilder crlBuilder, CrlControl control,
+      Date notExpireAt, CrlSegment segment, final CrlSegment.BaseWriter segmentWriter)
+      throws OperationException, IOException {
+    // changes of the previous delta CRLs
+    Map<BigInteger, CrlSegment.Entry> changes = segment.readChanges();
+    int numChangesOfDeltaCrls = changes.size();
+
+    // changes since the last CRL
+    int numChangesSinceLastCrl = 0;
+    final int numEntries = CRL_PAGE_SIZE;
+    long startId = 1;
+    List<CertRevInfoWithSerial> revInfos;
+    do {
+      revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
+          control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+
+      long maxId = 1;
+      for (CertRevInfoWithSerial revInfo : revInfos) {
+        if (revInfo.getId() > maxId) {
+          maxId = revInfo.getId();
         }
 
-        Extension ext = createCertificateIssuerExtension(pci.getX500Subject());
-        extensions.add(ext);
+        changes.remove(revInfo.getSerial());
+        changes.put(revInfo.getSerial(), toCrlSegmentEntry(control, revInfo));
+        numChangesSinceLastCrl++;
+      } // end for
+      startId = maxId + 1;
+    } while (revInfos.size() >= numEntries); // end do
 
-        crlBuilder.addCRLEntry(serial, revocationTime,
-            new Extensions(extensions.toArray(new Extension[0])));
-        isFirstCrlEntry = false;
-      }
+    LOG.info("generate CRL of CA {} from CRL segment with {} changes of delta CRLs and {}"
+        + " changes since the last CRL", caIdent.getName(), numChangesOfDeltaCrls,
+        numChangesSinceLastCrl);
 
-      allRevInfos.clear(); // free the memory
+    // same as the condition NAFTER > ? in CertStore.getRevokedCerts()
+    long minNotAfter = notExpireAt.getTime() / 1000 + 1;
 
-      BigInteger crlNumber = caInfo.nextCrlNumber();
-      event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
+    return segment.merge(changes, minNotAfter, new CrlSegment.EntryConsumer() {
 
-      boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
-      boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
-      if (onlyUserCerts && onlyCaCerts) {
-        throw new IllegalStateException(
-            "should not reach here, onlyUserCerts and onlyCACerts are both true");
+      @Override
+      public void accept(CrlSegment.Entry entry) throws IOException {
+        crlBuilder.addEncodedCrlEntry(entry.getEncoded());
+        segmentWriter.write(entry);
       }
 
-      try {
-        // AuthorityKeyIdentifier
-        byte[] akiValues = indirectCrl
-            ? X509Util.extractSki(crlSigner.getSigner().getCertificate())
-            : pci.getSubjectKeyIdentifer();
-        AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
-        crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
-
-        // add extension CRL Number
-        crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
-
-        // IssuingDistributionPoint
-        if (onlyUserCerts || onlyCaCerts || indirectCrl) {
-          IssuingDistributionPoint idp = new IssuingDistributionPoint(
-              (DistributionPointName) null, // distributionPoint,
-              onlyUserCerts, // onlyContainsUserCerts,
-              onlyCaCerts, // onlyContainsCACerts,
-              (ReasonFlags) null, // onlySomeReasons,
-              indirectCrl, // indirectCRL,
-              false); // onlyContainsAttributeCerts
-
-          crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
-        }
+    });
+  } // method addCrlEntriesFromSegment
 
-        // freshestCRL
-        List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
-        if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNonEmpty(deltaCrlUris)) {
-          CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getX500Subject(),
-              crlIssuer);
-          crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+  private static CrlSegment.Entry toCrlSegmentEntry(CrlControl control,
+      CertRevInfoWithSerial revInfo) throws IOException {
+    Date notAfter = revInfo.getNotAfter();
+    long notAfterSeconds = (notAfter == null) ? 0 : notAfter.getTime() / 1000;
+    byte[] encoded = (revInfo.getReason() == CrlReason.REMOVE_FROM_CRL) ? null
+        : encodeCrlEntry(control, revInfo);
+    return new CrlSegment.Entry(revInfo.getSerial(), notAfterSeconds, encoded);
+  }
+
+  /**
+   * Encodes the CRL entry without the extension certificateIssuer.
+   */
+  private static byte[] encodeCrlEntry(CrlControl control, CertRevInfoWithSerial revInfo)
+      throws IOException {
+    CrlReason reason = revInfo.getReason();
+    if (control.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+      reason = CrlReason.UNSPECIFIED;
+    }
+
+    Date revocationTime = revInfo.getRevocationTime();
+    Date invalidityTime = revInfo.getInvalidityTime();
+
+    switch (control.getInvalidityDateMode()) {
+      case forbidden:
+        invalidityTime = null;
+        break;
+      case optional:
+        break;
+      case required:
+        if (invalidityTime == null) {
+          invalidityTime = revocationTime;
         }
-      } catch (CertIOException | CertificateEncodingException ex) {
-        LogUtil.error(LOG, ex, "crlBuilder.addExtension");
-        throw new OperationException(INVALID_EXTENSION, ex);
-      }
+        break;
+      default:
+        throw new IllegalStateException(
+            "unknown TripleState " + control.getInvalidityDateMode());
+    }
+
+    List<Extension> extensions = new ArrayList<>(2);
+    if (reason != CrlReason.UNSPECIFIED) {
+      extensions.add(createReasonExtension(reason.getCode()));
+    }
+    if (invalidityTime != null) {
+      extensions.add(createInvalidityDateExtension(invalidityTime));
+    }
 
-      addXipkiCertset(crlBuilder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
+    return CrlStreamBuilder.encodeCrlEntry(revInfo.getSerial(), revocationTime,
+        extensions.isEmpty() ? null : new Extensions(extensions.toArray(new Extension[0])));
+  }
 
-      @SuppressWarnings("resource")
-      ConcurrentContentSigner concurrentSigner = (crlSigner == null)
-          ? caInfo.getSigner(null) : crlSigner.getSigner();
+  private CachedCrl generateCrl2(CrlStreamBuilder crlBuilder, boolean deltaCrl,
+      CrlControl control, Date notExpireAt, BigInteger crlNumber, SignerEntryWrapper crlSigner,
+      X500Name crlIssuer) throws OperationException, IOException {
+    PublicCaInfo pci = caInfo.getPublicCaInfo();
+    boolean indirectCrl = (crlSigner != null);
 
-      ConcurrentBagEntrySigner signer0;
-      try {
-        signer0 = concurrentSigner.borrowSigner();
-      } catch (NoIdleSignerException ex) {
-        throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
+    boolean onlyUserCerts = control.isOnlyContainsUserCerts();
+    boolean onlyCaCerts = control.isOnlyContainsCaCerts();
+    if (onlyUserCerts && onlyCaCerts) {
+      throw new IllegalStateException(
+          "should not reach here, onlyUserCerts and onlyCACerts are both true");
+    }
+
+    try {
+      // AuthorityKeyIdentifier
+      byte[] akiValues = indirectCrl
+          ? X509Util.extractSki(crlSigner.getSigner().getCertificate())
+          : pci.getSubjectKeyIdentifer();
+      AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
+      crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+
+      // add extension CRL Number
+      crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+      // IssuingDistributionPoint
+      if (onlyUserCerts || onlyCaCerts || indirectCrl) {
+        IssuingDistributionPoint idp = new IssuingDistributionPoint(
+            (DistributionPointName) null, // distributionPoint,
+            onlyUserCerts, // onlyContainsUserCerts,
+            onlyCaCerts, // onlyContainsCACerts,
+            (ReasonFlags) null, // onlySomeReasons,
+            indirectCrl, // indirectCRL,
+            false); // onlyContainsAttributeCerts
+
+        crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
       }
 
-      X509CRLHolder crlHolder;
-      try {
-        crlHolder = crlBuilder.build(signer0.value());
-      } finally {
-        concurrentSigner.requiteSigner(signer0);
+      // freshestCRL
+      List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
+      if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNonEmpty(deltaCrlUris)) {
+        CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getX500Subject(),
+            crlIssuer);
+        crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
       }
+    } catch (IOException | CertificateEncodingException ex) {
+      LogUtil.error(LOG, ex, "crlBuilder.addExtension");
+      throw new OperationException(INVALID_EXTENSION, ex);
+    }
 
-      try {
-        X509CRL crl = X509Util.toX509Crl(crlHolder.toASN1Structure());
-        caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
-        caManager.commitNextCrlNo(caIdent, caInfo.getCaEntry().getNextCrlNumber());
-        publishCrl(crl);
+    addXipkiCertset(crlBuilder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
 
-        successful = true;
-        LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}", caIdent.getName(),
-            crlNumber, crl.getThisUpdate());
+    @SuppressWarnings("resource")
+    ConcurrentContentSigner concurrentSigner = (crlSigner == null)
+        ? caInfo.getSigner(null) : crlSigner.getSigner();
 
-        if (!deltaCrl) {
-          // clean up the CRL
-          cleanupCrlsWithoutException(msgId);
-        }
-        return crl;
-      } catch (CRLException | CertificateException ex) {
-        throw new OperationException(CRL_FAILURE, ex);
-      }
+    ConcurrentBagEntrySigner signer0;
+    try {
+      signer0 = concurrentSigner.borrowSigner();
+    } catch (NoIdleSignerException ex) {
+      throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
+    }
+
+    CachedCrl crl;
+    try {
+      crl = crlBuilder.build(signer0.value());
+    } finally {
+      concurrentSigner.requiteSigner(signer0);
+    }
+
+    boolean successful = false;
+    try {
+      caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
+      caManager.commitNextCrlNo(caIdent, caInfo.getCaEntry().getNextCrlNumber());
+      successful = true;
+      return crl;
     } finally {
       if (!successful) {
-        LOG.info("    FAILED generateCrl: ca={}", caIdent.getName());
+        crl.release();
       }
     }
-  } // method generateCrl
+  } // method generateCrl2
 
   /**
    * Add XiPKI extension CrlCertSet.
@@ -979,14 +1232,14 @@ public class X509Ca implements Closeable {
    *         }
    * </pre>
    */
-  private void addXipkiCertset(X509v2CRLBuilder crlBuilder, boolean deltaCrl, CrlControl control,
-      Date notExpireAt, boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
+  private void addXipkiCertset(CrlStreamBuilder crlBuilder, boolean deltaCrl, CrlControl control,
+      Date notExpireAt, boolean onlyCaCerts, boolean onlyUserCerts)
+      throws OperationException, IOException {
     if (deltaCrl || !control.isXipkiCertsetIncluded()) {
       return;
     }
 
-    ASN1EncodableVector vector = new ASN1EncodableVector();
-    final int numEntries = 100;
+    final int numEntries = CRL_PAGE_SIZE;
     long startId = 1;
 
     List<SerialWithId> serials;
@@ -1000,9 +1253,7 @@ public class X509Ca implements Closeable {
           maxId = sid.getId();
         }
 
-        ASN1EncodableVector vec = new ASN1EncodableVector();
-        vec.add(new ASN1Integer(sid.getSerial()));
-
+        Certificate cert = null;
         if (control.isXipkiCertsetCertIncluded()) {
           CertificateInfo certInfo;
           try {
@@ -1012,23 +1263,15 @@ public class X509Ca implements Closeable {
                 "CertificateException: " + ex.getMessage());
           }
 
-          Certificate cert = Certificate.getInstance(certInfo.getCert().getEncodedCert());
-          vec.add(new DERTaggedObject(true, 0, cert));
+          cert = Certificate.getInstance(certInfo.getCert().getEncodedCert());
         }
 
-        vector.add(new DERSequence(vec));
+        crlBuilder.addCertsetEntry(sid.getSerial(), cert);
       } // end for
 
       startId = maxId + 1;
     } while (serials.size() >= numEntries);
     // end do
-
-    try {
-      crlBuilder.addExtension(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset,
-          false, new DERSet(vector));
-    } catch (CertIOException ex) {
-      throw new OperationException(INVALID_EXTENSION, "CertIOException: " + ex.getMessage());
-    }
   }
 
   public CertificateInfo regenerateCert(CertTemplateData certTemplate,
@@ -1060,25 +1303,36 @@ public class X509Ca implements Closeable {
       return 0;
     }
 
-    if (!certstore.addCert(certInfo)) {
+    List<IdentifiedCertPublisher> publishers = publishers();
+    // the certificate is added to the queue of asynchronous publishers together with saving it.
+    List<NameId> asynPublishers = new LinkedList<>();
+    for (IdentifiedCertPublisher publisher : publishers) {
+      if (publisher.isAsyn()) {
+        asynPublishers.add(publisher.getIdent());
+      }
+    }
+
+    if (!certstore.addCert(certInfo, asynPublishers)) {
       return 1;
     }
 
-    for (IdentifiedCertPublisher publisher : publishers()) {
-      if (!publisher.isAsyn()) {
-        boolean successful;
-        try {
-          successful = publisher.certificateAdded(certInfo);
-        } catch (RuntimeException ex) {
-          successful = false;
-          LogUtil.warn(LOG, ex, "could not publish certificate to the publisher "
-              + publisher.getIdent());
-        }
+    for (IdentifiedCertPublisher publisher : publishers) {
+      if (publisher.isAsyn()) {
+        continue;
+      }
 
-        if (successful) {
-          continue;
-        }
-      } // end if
+      boolean successful;
+      try {
+        successful = publisher.certificateAdded(certInfo);
+      } catch (RuntimeException ex) {
+        successful = false;
+        LogUtil.warn(LOG, ex, "could not publish certificate to the publisher "
+            + publisher.getIdent());
+      }
+
+      if (successful) {
+        continue;
+      }
 
       Long certId = certInfo.getCert().getCertId();
       try {
@@ -1251,7 +1505,7 @@ public class X509Ca implements Closeable {
     return true;
   } // method publishCertsInQueue
 
-  private boolean publishCrl(X509CRL crl) {
+  private boolean publishCrl(CachedCrl crl) {
     try {
       certstore.addCrl(caIdent, crl);
     } catch (Exception ex) {
@@ -1261,9 +1515,25 @@ public class X509Ca implements Closeable {
       return false;
     }
 
-    for (IdentifiedCertPublisher publisher : publishers()) {
+    setCurrentCrl(crl);
+
+    List<IdentifiedCertPublisher> publishers = publishers();
+    if (publishers.isEmpty()) {
+      return true;
+    }
+
+    // the CRL is read from its file only if it is published
+    byte[] encodedCrl;
+    try {
+      encodedCrl = crl.getEncoded();
+    } catch (IOException ex) {
+      LogUtil.error(LOG, ex, "could not read CRL of CA " + caIdent.getName());
+      return true;
+    }
+
+    for (IdentifiedCertPublisher publisher : publishers) {
       try {
-        publisher.crlAdded(caCert, crl);
+        publisher.crlAdded(caCert, encodedCrl);
       } catch (RuntimeException ex) {
         LogUtil.error(LOG, ex, "could not publish CRL to the publisher " + publisher.getIdent());
       }
@@ -1387,7 +1657,8 @@ public class X509Ca implements Closeable {
       return null;
     }
 
-    certstore.removeCert(caIdent, serialNumber);
+    certstore.removeCert(caIdent, serialNumber,
+        certWithRevInfo.isRevoked() && shouldPublishToDeltaCrlCache());
     return certToRemove;
   } // method removeCertificate0
 
@@ -1676,37 +1947,17 @@ public class X509Ca implements Closeable {
     List<CertificateInfo> certInfos = new ArrayList<>(n);
     OperationExceptionWithIndex exception = null;
 
-    for (int i = 0; i < n; i++) {
-      if (exception != null) {
-        break;
-      }
-      GrantedCertTemplate gct = gcts.get(i);
-      final NameId certprofilIdent = gct.certprofile.getIdent();
-      final String subjectText = gct.grantedSubjectText;
-      LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
-          caIdent.getName(), certprofilIdent.getName(), subjectText);
-
-      boolean successful = false;
-      try {
-        CertificateInfo certInfo = generateCert(gct, requestor, reqType, transactionId, msgId);
-        successful = true;
-        certInfos.add(certInfo);
-
-        if (LOG.isInfoEnabled()) {
-          String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
-          CertWithDbId cert = certInfo.getCert();
-          LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
-              prefix, caIdent.getName(), certprofilIdent.getName(), cert.getSubject(),
-              LogUtil.formatCsn(cert.getCert().getSerialNumber()));
-        }
-      } catch (OperationException ex) {
-        exception = new OperationExceptionWithIndex(i, ex);
-      } catch (Throwable th) {
-        exception = new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, th));
-      } finally {
-        if (!successful) {
-          LOG.error("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
-              caIdent.getName(), certprofilIdent.getName(), subjectText);
+    ExecutorService executor = caManager.getCertGenerationExecutor();
+    if (n > 1 && executor != null && !containsDuplicates(gcts)) {
+      exception = generateCertsConcurrently(executor, gcts, requestor, reqType, transactionId,
+          msgId, certInfos);
+    } else {
+      for (int i = 0; i < n; i++) {
+        try {
+          certInfos.add(generateCert(i, gcts.get(i), requestor, reqType, transactionId, msgId));
+        } catch (OperationExceptionWithIndex ex) {
+          exception = ex;
+          break;
         }
       }
     }
@@ -1731,6 +1982,145 @@ public class X509Ca implements Closeable {
     return certInfos;
   }
 
+  /**
+   * Generates the certificates concurrently. Once a certificate could not be generated, the
+   * certificates whose generation has not been started yet are skipped.
+   * @param certInfos
+   *          List to which the generated certificates are added in the order of the templates.
+   * @return the exception of the first failed template, or {@code null} if all certificates
+   *         have been generated.
+   */
+  private OperationExceptionWithIndex generateCertsConcurrently(ExecutorService executor,
+      List<GrantedCertTemplate> gcts, final RequestorInfo requestor, final RequestType reqType,
+      final byte[] transactionId, final String msgId, List<CertificateInfo> certInfos) {
+    final int n = gcts.size();
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<Future<CertificateInfo>> futures = new ArrayList<>(n);
+    OperationExceptionWithIndex exception = null;
+
+    for (int i = 0; i < n; i++) {
+      final int index = i;
+      final GrantedCertTemplate gct = gcts.get(i);
+      try {
+        futures.add(executor.submit(new Callable<CertificateInfo>() {
+          @Override
+          public CertificateInfo call() throws OperationExceptionWithIndex {
+            if (failed.get()) {
+              return null;
+            }
+
+            try {
+              return generateCert(index, gct, requestor, reqType, transactionId, msgId);
+            } catch (OperationExceptionWithIndex ex) {
+              failed.set(true);
+              throw ex;
+            }
+          }
+        }));
+      } catch (RejectedExecutionException ex) {
+        failed.set(true);
+        exception = new OperationExceptionWithIndex(i,
+            new OperationException(SYSTEM_UNAVAILABLE, "certificate generation rejected"));
+        break;
+      }
+    }
+
+    // wait for all submitted tasks, so that all generated certificates can be reverted.
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        CertificateInfo certInfo = getUninterruptibly(futures.get(i));
+        if (certInfo != null) {
+          certInfos.add(certInfo);
+        }
+      } catch (ExecutionException ex) {
+        if (exception == null || exception.getIndex() > i) {
+          Throwable cause = ex.getCause();
+          exception = (cause instanceof OperationExceptionWithIndex)
+              ? (OperationExceptionWithIndex) cause
+              : new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, cause));
+        }
+      }
+    }
+
+    return exception;
+  }
+
+  /**
+   * Whether the certificates of two templates would be refused as duplicates of each other.
+   * Such templates are processed sequentially as before, since the order of the checks against
+   * the database matters.
+   */
+  private boolean containsDuplicates(List<GrantedCertTemplate> gcts) {
+    boolean checkKey = !caInfo.isDuplicateKeyPermitted();
+    boolean checkSubject = !caInfo.isDuplicateSubjectPermitted();
+    if (!checkKey && !checkSubject) {
+      return false;
+    }
+
+    Set<Long> fpPublicKeys = new HashSet<>();
+    Set<Long> fpSubjects = new HashSet<>();
+    for (GrantedCertTemplate gct : gcts) {
+      if (checkKey && !fpPublicKeys.add(gct.fpPublicKey)) {
+        return true;
+      }
+
+      if (checkSubject && !fpSubjects.add(gct.fpSubject)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private CertificateInfo generateCert(int index, GrantedCertTemplate gct,
+      RequestorInfo requestor, RequestType reqType, byte[] transactionId, String msgId)
+      throws OperationExceptionWithIndex {
+    final NameId certprofilIdent = gct.certprofile.getIdent();
+    final String subjectText = gct.grantedSubjectText;
+    LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
+        caIdent.getName(), certprofilIdent.getName(), subjectText);
+
+    boolean successful = false;
+    try {
+      CertificateInfo certInfo = generateCert(gct, requestor, reqType, transactionId, msgId);
+      successful = true;
+
+      if (LOG.isInfoEnabled()) {
+        String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
+        CertWithDbId cert = certInfo.getCert();
+        LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
+            prefix, caIdent.getName(), certprofilIdent.getName(), cert.getSubject(),
+            LogUtil.formatCsn(cert.getCert().getSerialNumber()));
+      }
+      return certInfo;
+    } catch (OperationException ex) {
+      throw new OperationExceptionWithIndex(index, ex);
+    } catch (Throwable th) {
+      throw new OperationExceptionWithIndex(index, new OperationException(SYSTEM_FAILURE, th));
+    } finally {
+      if (!successful) {
+        LOG.error("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
+            caIdent.getName(), certprofilIdent.getName(), subjectText);
+      }
+    }
+  }
+
   public CertificateInfo generateCert(CertTemplateData certTemplate, RequestorInfo requestor,
       RequestType reqType, byte[] transactionId, String msgId) throws OperationException {
     Args.notNull(certTemplate, "certTemplate");
@@ -2755,6 +3145,22 @@ public class X509Ca implements Closeable {
       suspendedCertsRevoker = null;
     }
 
+    if (ctLog != null) {
+      ctLog.close();
+    }
+
+    synchronized (this) {
+      if (previousCrl != null) {
+        previousCrl.release();
+        previousCrl = null;
+      }
+
+      if (currentCrl != null) {
+        currentCrl.release();
+        currentCrl = null;
+      }
+    }
+
     ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     if (executor != null) {
       executor.purge();
@@ -201,6 +201,11 @@ public class OcspCertPublisher extends CertPublisher {
     return true;
   }
 
+  @Override
+  public boolean crlAdded(X509Cert caCert, byte[] encodedCrl) {
+    return true;
+  }
+
   @Override
   public boolean isHealthy() {
     return queryExecutor.isHealthy();
@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+
+/**
+ * Reader of the BASE64 encoding (without line separators) of a stream. Used to write large
+ * binary values, e.g. CRLs, to text columns without holding them in memory.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class Base64Reader extends Reader {
+
+  // multiple of 3, so that only the last chunk is padded.
+  private static final int CHUNK_SIZE = 3 * 1024;
+
+  private final InputStream in;
+
+  private final byte[] chunk = new byte[CHUNK_SIZE];
+
+  private char[] chars;
+
+  private int offset;
+
+  private boolean eof;
+
+  Base64Reader(InputStream in) {
+    this.in = Args.notNull(in, "in");
+  }
+
+  /**
+   * Returns the length of the BASE64 encoding.
+   * @param length
+   *          Number of bytes to be encoded.
+   * @return the number of characters.
+   */
+  static long encodedLength(long length) {
+    return (length + 2) / 3 * 4;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+
+    if (chars == null || offset == chars.length) {
+      if (!fill()) {
+        return -1;
+      }
+    }
+
+    int num = Math.min(len, chars.length - offset);
+    System.arraycopy(chars, offset, cbuf, off, num);
+    offset += num;
+    return num;
+  }
+
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+
+    int num = 0;
+    while (num < CHUNK_SIZE) {
+      int read = in.read(chunk, num, CHUNK_SIZE - num);
+      if (read == -1) {
+        eof = true;
+        break;
+      }
+      num += read;
+    }
+
+    if (num == 0) {
+      return false;
+    }
+
+    chars = Base64.encodeToChar((num == CHUNK_SIZE) ? chunk : Arrays.copyOf(chunk, num));
+    offset = 0;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
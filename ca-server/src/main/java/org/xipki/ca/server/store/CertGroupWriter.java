@@ -0,0 +1,252 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.util.Args;
+
+/**
+ * Writer which saves the certificates of concurrent threads in one transaction (group commit).
+ * A transaction is committed if it contains the configured number of certificates, or the
+ * configured delay since its first certificate has elapsed. If a transaction fails, its
+ * certificates are saved one by one, so that only the certificates causing the failure
+ * are rejected.
+ *
+ * @param <T> type of the certificate rows.
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class CertGroupWriter<T> implements Runnable {
+
+  /**
+   * Saves the certificates in one transaction.
+   *
+   * @param <T> type of the certificate rows.
+   */
+  interface BatchWriter<T> {
+
+    void write(List<T> rows) throws DataAccessException;
+
+  } // interface BatchWriter
+
+  private static class Request<T> {
+
+    private final T row;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private boolean accepted;
+
+    private DataAccessException exception;
+
+    private Request(T row) {
+      this.row = row;
+    }
+
+    private void finish(boolean accepted, DataAccessException exception) {
+      this.accepted = accepted;
+      this.exception = exception;
+      done.countDown();
+    }
+
+  } // class Request
+
+  private static final Logger LOG = LoggerFactory.getLogger(CertGroupWriter.class);
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(1);
+
+  private final BatchWriter<T> batchWriter;
+
+  private final int maxSize;
+
+  private final long maxDelayNanos;
+
+  private final BlockingQueue<Request<T>> queue = new LinkedBlockingQueue<>();
+
+  private final Thread thread;
+
+  private volatile boolean running = true;
+
+  CertGroupWriter(BatchWriter<T> batchWriter, int maxSize, int maxDelayMs) {
+    this.batchWriter = Args.notNull(batchWriter, "batchWriter");
+    this.maxSize = Args.positive(maxSize, "maxSize");
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Args.notNegative(maxDelayMs, "maxDelayMs"));
+
+    this.thread = new Thread(this, "cert-group-writer-" + THREAD_INDEX.getAndIncrement());
+    this.thread.setDaemon(true);
+    this.thread.start();
+    LOG.info("started group commit of certificates with maxSize={} and maxDelay={} ms",
+        maxSize, maxDelayMs);
+  }
+
+  /**
+   * Saves the certificate and returns after the transaction containing it has been committed.
+   * @param row
+   *          The certificate. Must not be {@code null}.
+   * @return {@code true} if the certificate has been saved, {@code false} if this writer has
+   *         been closed and the certificate has not been saved.
+   * @throws DataAccessException
+   *           if the certificate could not be saved.
+   */
+  boolean write(T row) throws DataAccessException {
+    if (!running) {
+      return false;
+    }
+
+    Request<T> request = new Request<>(Args.notNull(row, "row"));
+    queue.add(request);
+
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          if (request.done.await(1, TimeUnit.SECONDS)) {
+            break;
+          }
+
+          // the writer may have been stopped before it could take the request.
+          if (!thread.isAlive() && queue.remove(request)) {
+            return false;
+          }
+        } catch (InterruptedException ex) {
+          // the transaction may be committed anyway, wait for it.
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (request.exception != null) {
+      throw request.exception;
+    }
+    return request.accepted;
+  }
+
+  @Override
+  public void run() {
+    List<Request<T>> batch = new ArrayList<>(maxSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        Request<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, maxSize - batch.size());
+
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxSize) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            break;
+          }
+
+          Request<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+          queue.drainTo(batch, maxSize - batch.size());
+        }
+      } catch (InterruptedException ex) {
+        LOG.warn("interrupted while waiting for certificates");
+      }
+
+      if (!batch.isEmpty()) {
+        flush(batch);
+        batch.clear();
+      }
+    }
+
+    LOG.info("stopped group commit of certificates");
+  }
+
+  private void flush(List<Request<T>> batch) {
+    List<T> rows = new ArrayList<>(batch.size());
+    for (Request<T> request : batch) {
+      rows.add(request.row);
+    }
+
+    long start = System.nanoTime();
+    try {
+      batchWriter.write(rows);
+      LOG.debug("saved {} certificates in one transaction in {} us", rows.size(),
+          (System.nanoTime() - start) / 1000);
+      for (Request<T> request : batch) {
+        request.finish(true, null);
+      }
+      return;
+    } catch (DataAccessException ex) {
+      if (batch.size() == 1) {
+        batch.get(0).finish(false, ex);
+        return;
+      }
+
+      LOG.warn("could not save {} certificates in one transaction, save them one by one: {}",
+          batch.size(), ex.getMessage());
+    } catch (RuntimeException ex) {
+      LOG.error("could not save certificates", ex);
+      DataAccessException dex = new DataAccessException("could not save certificates", ex);
+      for (Request<T> request : batch) {
+        request.finish(false, dex);
+      }
+      return;
+    }
+
+    for (Request<T> request : batch) {
+      try {
+        batchWriter.write(Collections.singletonList(request.row));
+        request.finish(true, null);
+      } catch (DataAccessException ex) {
+        request.finish(false, ex);
+      } catch (RuntimeException ex) {
+        request.finish(false, new DataAccessException("could not save certificate", ex));
+      }
+    }
+  }
+
+  /**
+   * Stops this writer after all queued certificates have been saved.
+   */
+  void close() {
+    running = false;
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      LOG.warn("interrupted while waiting for the group commit writer");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -20,16 +20,17 @@ package org.xipki.ca.server.store;
 import static org.xipki.ca.api.OperationException.ErrorCode.BAD_REQUEST;
 import static org.xipki.ca.api.OperationException.ErrorCode.CERT_REVOKED;
 import static org.xipki.ca.api.OperationException.ErrorCode.CERT_UNREVOKED;
+import static org.xipki.ca.api.OperationException.ErrorCode.CRL_FAILURE;
 import static org.xipki.ca.api.OperationException.ErrorCode.DATABASE_FAILURE;
 import static org.xipki.ca.api.OperationException.ErrorCode.NOT_PERMITTED;
 import static org.xipki.ca.api.OperationException.ErrorCode.SYSTEM_FAILURE;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.math.BigInteger;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -42,13 +43,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
-import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERPrintableString;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
-import org.bouncycastle.asn1.x509.Extension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.CertWithDbId;
@@ -62,6 +60,7 @@ import org.xipki.ca.api.mgmt.CertWithRevocationInfo;
 import org.xipki.ca.api.mgmt.MgmtEntry;
 import org.xipki.ca.server.CaIdNameMap;
 import org.xipki.ca.server.CaUtil;
+import org.xipki.ca.server.CachedCrl;
 import org.xipki.ca.server.CertRevInfoWithSerial;
 import org.xipki.ca.server.CertStatus;
 import org.xipki.ca.server.DbSchemaInfo;
@@ -80,6 +79,7 @@ import org.xipki.security.X509Cert;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.Base64;
+import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
@@ -92,6 +92,126 @@ import org.xipki.util.StringUtil;
 
 public class CertStore {
 
+  /**
+   * Values of a row of the table CERT, and the publishers to whose queue the certificate is
+   * added.
+   */
+  class CertRow {
+
+    private final long id;
+
+    private final X509Certificate cert;
+
+    private final String subjectText;
+
+    private final long fpSubject;
+
+    private final Long fpReqSubject;
+
+    private final String reqSubjectText;
+
+    private final int profileId;
+
+    private final int caId;
+
+    private final Integer requestorId;
+
+    private final Integer userId;
+
+    private final long fpPk;
+
+    private final int reqType;
+
+    private final String tid;
+
+    private final String b64FpCert;
+
+    private final String b64Cert;
+
+    private final List<Integer> publisherIds;
+
+    private CertRow(NameId ca, CertWithDbId certificate, byte[] encodedSubjectPublicKey,
+        NameId certprofile, NameId requestor, Integer userId, RequestType reqType,
+        byte[] transactionId, X500Name reqSubject, List<NameId> queuedPublishers) {
+      Args.notNull(ca, "ca");
+      Args.notNull(certificate, "certificate");
+      Args.notNull(certprofile, "certprofile");
+      Args.notNull(requestor, "requestor");
+
+      this.id = idGenerator.nextId();
+      this.cert = certificate.getCert();
+      this.caId = ca.getId();
+      this.profileId = certprofile.getId();
+      this.requestorId = requestor.getId();
+      this.userId = userId;
+      this.reqType = reqType.getCode();
+
+      this.fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
+      this.subjectText = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
+      this.fpSubject = X509Util.fpCanonicalizedName(certificate.getSubjectAsX500Name());
+
+      Long tmpFpReqSubject = null;
+      String tmpReqSubjectText = null;
+      if (reqSubject != null) {
+        tmpFpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
+        if (fpSubject == tmpFpReqSubject) {
+          tmpFpReqSubject = null;
+        } else {
+          tmpReqSubjectText =
+              X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject), maxX500nameLen);
+        }
+      }
+      this.fpReqSubject = tmpFpReqSubject;
+      this.reqSubjectText = tmpReqSubjectText;
+
+      this.b64FpCert = base64Fp(certificate.getEncodedCert());
+      this.b64Cert = Base64.encodeToString(certificate.getEncodedCert());
+      this.tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+
+      if (queuedPublishers == null || queuedPublishers.isEmpty()) {
+        this.publisherIds = Collections.emptyList();
+      } else {
+        this.publisherIds = new ArrayList<>(queuedPublishers.size());
+        for (NameId publisher : queuedPublishers) {
+          this.publisherIds.add(publisher.getId());
+        }
+      }
+    }
+
+    private void bindCert(PreparedStatement ps) throws SQLException {
+      int idx = 1;
+      ps.setLong(idx++, id);
+      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+      ps.setString(idx++, cert.getSerialNumber().toString(16));
+      ps.setString(idx++, subjectText);
+      ps.setLong(idx++, fpSubject);
+      setLong(ps, idx++, fpReqSubject);
+      ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
+      ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
+      setBoolean(ps, idx++, false);
+      ps.setInt(idx++, profileId);
+      ps.setInt(idx++, caId);
+      setInt(ps, idx++, requestorId);
+      setInt(ps, idx++, userId);
+      ps.setLong(idx++, fpPk);
+      boolean isEeCert = cert.getBasicConstraints() == -1;
+      ps.setInt(idx++, isEeCert ? 1 : 0);
+      ps.setInt(idx++, reqType);
+      ps.setString(idx++, tid);
+
+      ps.setString(idx++, b64FpCert);
+      ps.setString(idx++, reqSubjectText);
+      ps.setString(idx++, b64Cert);
+    }
+
+  } // class CertRow
+
+  private interface ParameterBinder {
+
+    void bind(PreparedStatement ps) throws SQLException;
+
+  } // interface ParameterBinder
+
   private static final Logger LOG = LoggerFactory.getLogger(CertStore.class);
 
   private static final String SQL_ADD_CERT =
@@ -111,11 +231,10 @@ public class CertStore {
   private static final String SQL_REMOVE_PUBLISHQUEUE =
       "DELETE FROM PUBLISHQUEUE WHERE PID=? AND CID=?";
 
-  private static final String SQL_MAXID_DELTACRL_CACHE =
-      "SELECT MAX(ID) FROM DELTACRL_CACHE WHERE CA_ID=?";
+  private static final String SQL_IDS_DELTACRL_CACHE =
+      "SELECT ID FROM DELTACRL_CACHE WHERE CA_ID=?";
 
-  private static final String SQL_CLEAR_DELTACRL_CACHE =
-      "DELETE FROM DELTACRL_CACHE WHERE ID<? AND CA_ID=?";
+  private static final String SQL_REMOVE_DELTACRL_CACHE = "DELETE FROM DELTACRL_CACHE WHERE ID=?";
 
   private static final String SQL_MAX_CRLNO = "SELECT MAX(CRL_NO) FROM CRL WHERE CA_ID=?";
 
@@ -157,7 +276,7 @@ public class CertStore {
 
   private final String sqlKnowsCertForSerial;
 
-  private final String sqlRevForId;
+  private final String sqlRevForSerial;
 
   private final String sqlCertStatusForSubjectFp;
 
@@ -200,8 +319,31 @@ public class CertStore {
 
   private final UniqueIdGenerator idGenerator;
 
+  private final CertGroupWriter<CertRow> groupWriter;
+
   public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator)
       throws DataAccessException {
+    this(datasource, idGenerator, 0, 0);
+  }
+
+  /**
+   * Constructor.
+   * @param datasource
+   *          Datasource of the CA database. Must not be {@code null}.
+   * @param idGenerator
+   *          Generator of the ids of certificates. Must not be {@code null}.
+   * @param groupCommitSize
+   *          Maximal number of certificates saved in one transaction. Values less than 2
+   *          deactivate the group commit.
+   * @param groupCommitDelay
+   *          Maximal time in milliseconds to wait for further certificates before a
+   *          transaction is committed.
+   * @throws DataAccessException
+   *           if the database could not be accessed.
+   * @since 5.2.1
+   */
+  public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator,
+      int groupCommitSize, int groupCommitDelay) throws DataAccessException {
     this.datasource = Args.notNull(datasource, "datasource");
     this.idGenerator = Args.notNull(idGenerator, "idGenerator");
 
@@ -222,7 +364,8 @@ public class CertStore {
     this.sqlCaHasUser = buildSelectFirstSql(
         "PERMISSION,PROFILES FROM CA_HAS_USER WHERE CA_ID=? AND USER_ID=?");
     this.sqlKnowsCertForSerial = buildSelectFirstSql("UID FROM CERT WHERE SN=? AND CA_ID=?");
-    this.sqlRevForId = buildSelectFirstSql("SN,EE,REV,RR,RT,RIT FROM CERT WHERE ID=?");
+    this.sqlRevForSerial = buildSelectFirstSql(
+        "NAFTER,EE,REV,RR,RT,RIT,LUPDATE FROM CERT WHERE CA_ID=? AND SN=?");
     this.sqlCertStatusForSubjectFp = buildSelectFirstSql("REV FROM CERT WHERE FP_S=? AND CA_ID=?");
     this.sqlCertforSubjectIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_S=?");
     this.sqlCertForKeyIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_K=?");
@@ -235,6 +378,17 @@ public class CertStore {
         "THISUPDATE,CRL FROM CRL WHERE CA_ID=?");
     this.sqlCrlWithNo = datasource.buildSelectFirstSql(1, "THISUPDATE DESC",
         "THISUPDATE,CRL FROM CRL WHERE CA_ID=? AND CRL_NO=?");
+
+    if (groupCommitSize < 2) {
+      this.groupWriter = null;
+    } else {
+      this.groupWriter = new CertGroupWriter<>(new CertGroupWriter.BatchWriter<CertRow>() {
+        @Override
+        public void write(List<CertRow> rows) throws DataAccessException {
+          writeCertRows(rows);
+        }
+      }, groupCommitSize, groupCommitDelay);
+    }
   } // constructor
 
   private String buildSelectFirstSql(String coreSql) {
@@ -242,11 +396,39 @@ public class CertStore {
   }
 
   public boolean addCert(CertificateInfo certInfo) {
+    return addCert(certInfo, null);
+  }
+
+  /**
+   * Saves the certificate, and adds it to the publish queue of the given publishers.
+   * If the group commit is activated, the certificate is saved together with the certificates
+   * of other threads in one transaction, and this method returns after the transaction has
+   * been committed.
+   * @param certInfo
+   *          The certificate. Must not be {@code null}.
+   * @param queuedPublishers
+   *          Publishers to whose queue the certificate is added. Could be {@code null}.
+   * @return whether the certificate and all entries of the publish queue have been saved.
+   * @since 5.2.1
+   */
+  public boolean addCert(CertificateInfo certInfo, List<NameId> queuedPublishers) {
     Args.notNull(certInfo, "certInfo");
     try {
-      addCert(certInfo.getIssuer(), certInfo.getCert(), certInfo.getSubjectPublicKey(),
-          certInfo.getProfile(), certInfo.getRequestor(), certInfo.getUser(), certInfo.getReqType(),
-          certInfo.getTransactionId(), certInfo.getRequestedSubject());
+      CertRow row = new CertRow(certInfo.getIssuer(), certInfo.getCert(),
+          certInfo.getSubjectPublicKey(), certInfo.getProfile(), certInfo.getRequestor(),
+          certInfo.getUser(), certInfo.getReqType(), certInfo.getTransactionId(),
+          certInfo.getRequestedSubject(), queuedPublishers);
+
+      if (groupWriter == null || !groupWriter.write(row)) {
+        if (row.publisherIds.isEmpty()) {
+          addCert(row);
+        } else {
+          // the certificate and the entries of the publish queue in one transaction
+          writeCertRows(Collections.singletonList(row));
+        }
+      }
+
+      certInfo.getCert().setCertId(row.id);
     } catch (Exception ex) {
       LOG.error("could not save certificate {}: {}. Message: {}",
           new Object[]{certInfo.getCert().getSubject(),
@@ -258,68 +440,13 @@ public class CertStore {
     return true;
   }
 
-  private void addCert(NameId ca, CertWithDbId certificate, byte[] encodedSubjectPublicKey,
-      NameId certprofile, NameId requestor, Integer userId, RequestType reqType,
-      byte[] transactionId, X500Name reqSubject) throws DataAccessException, OperationException {
-    Args.notNull(ca, "ca");
-    Args.notNull(certificate, "certificate");
-    Args.notNull(certprofile, "certprofile");
-    Args.notNull(requestor, "requestor");
-
-    long certId = idGenerator.nextId();
-
-    long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
-    String subjectText = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
-    long fpSubject = X509Util.fpCanonicalizedName(certificate.getSubjectAsX500Name());
-
-    String reqSubjectText = null;
-    Long fpReqSubject = null;
-    if (reqSubject != null) {
-      fpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
-      if (fpSubject == fpReqSubject) {
-        fpReqSubject = null;
-      } else {
-        reqSubjectText = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject), maxX500nameLen);
-      }
-    }
-
-    String b64FpCert = base64Fp(certificate.getEncodedCert());
-    String b64Cert = Base64.encodeToString(certificate.getEncodedCert());
-    String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
-
+  private void addCert(CertRow row) throws DataAccessException, OperationException {
     final String sql = SQL_ADD_CERT;
     PreparedStatement ps = borrowPreparedStatement(sql);
 
     try {
-      // cert
-      X509Certificate cert = certificate.getCert();
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, cert.getSerialNumber().toString(16));
-      ps.setString(idx++, subjectText);
-      ps.setLong(idx++, fpSubject);
-      setLong(ps, idx++, fpReqSubject);
-      ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
-      ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
-      setBoolean(ps, idx++, false);
-      ps.setInt(idx++, certprofile.getId());
-      ps.setInt(idx++, ca.getId());
-      setInt(ps, idx++, requestor.getId());
-      setInt(ps, idx++, userId);
-      ps.setLong(idx++, fpPk);
-      boolean isEeCert = cert.getBasicConstraints() == -1;
-      ps.setInt(idx++, isEeCert ? 1 : 0);
-      ps.setInt(idx++, reqType.getCode());
-      ps.setString(idx++, tid);
-
-      ps.setString(idx++, b64FpCert);
-      ps.setString(idx++, reqSubjectText);
-      ps.setString(idx++, b64Cert);
-
+      row.bindCert(ps);
       ps.executeUpdate();
-
-      certificate.setCertId(certId);
     } catch (SQLException ex) {
       throw datasource.translate(null, ex);
     } finally {
@@ -327,6 +454,81 @@ public class CertStore {
     }
   } // method addCert
 
+  /**
+   * Saves the certificates and the entries of the publish queue in one transaction.
+   * @param rows
+   *          The certificates. Must not be {@code null}.
+   * @throws DataAccessException
+   *           if the certificates could not be saved, the transaction has been rolled back.
+   */
+  void writeCertRows(List<CertRow> rows) throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    boolean autoCommit;
+    try {
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+    } catch (SQLException ex) {
+      datasource.returnConnection(conn);
+      throw datasource.translate(null, ex);
+    }
+
+    PreparedStatement certPs = null;
+    PreparedStatement queuePs = null;
+    boolean committed = false;
+    try {
+      certPs = datasource.prepareStatement(conn, SQL_ADD_CERT);
+      for (CertRow row : rows) {
+        row.bindCert(certPs);
+        certPs.addBatch();
+      }
+      certPs.executeBatch();
+
+      for (CertRow row : rows) {
+        for (Integer publisherId : row.publisherIds) {
+          if (queuePs == null) {
+            queuePs = datasource.prepareStatement(conn, SQL_INSERT_PUBLISHQUEUE);
+          }
+          queuePs.setInt(1, publisherId);
+          queuePs.setInt(2, row.caId);
+          queuePs.setLong(3, row.id);
+          queuePs.addBatch();
+        }
+      }
+
+      if (queuePs != null) {
+        queuePs.executeBatch();
+      }
+
+      conn.commit();
+      committed = true;
+    } catch (SQLException ex) {
+      throw datasource.translate(null, ex);
+    } finally {
+      try {
+        if (!committed) {
+          conn.rollback();
+        }
+        conn.setAutoCommit(autoCommit);
+      } catch (SQLException ex) {
+        LogUtil.error(LOG, datasource.translate(null, ex), "could not finish the transaction");
+      }
+
+      datasource.releaseResources(certPs, null, false);
+      datasource.releaseResources(queuePs, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method writeCertRows
+
+  /**
+   * Stops the group commit writer after all queued certificates have been saved.
+   * @since 5.2.1
+   */
+  public void close() {
+    if (groupWriter != null) {
+      groupWriter.close();
+    }
+  }
+
   public void addToPublishQueue(NameId publisher, long certId, NameId ca)
       throws OperationException {
     Args.notNull(ca, "ca");
@@ -359,32 +561,68 @@ public class CertStore {
     }
   }
 
-  public long getMaxIdOfDeltaCrlCache(NameId ca) throws OperationException {
+  /**
+   * Returns the IDs of the committed entries in DELTACRL_CACHE. The changes of these entries
+   * are visible to a CRL generated afterwards, so exactly these entries may be removed
+   * once the CRL has been generated.
+   * @param ca
+   *          CA. Must not be {@code null}.
+   * @return the IDs of the entries.
+   * @throws OperationException
+   *           if the database could not be read.
+   * @since 5.2.1
+   */
+  public List<Long> getIdsOfDeltaCrlCache(NameId ca) throws OperationException {
     Args.notNull(ca, "ca");
 
-    final String sql = SQL_MAXID_DELTACRL_CACHE;
+    final String sql = SQL_IDS_DELTACRL_CACHE;
+    ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
       ps.setInt(1, ca.getId());
-      ResultSet rs = ps.executeQuery();
-      if (!rs.next()) {
-        return 0;
+      rs = ps.executeQuery();
+      List<Long> ids = new ArrayList<>();
+      while (rs.next()) {
+        ids.add(rs.getLong(1));
       }
-      return rs.getLong(1);
+      return ids;
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
-      datasource.releaseResources(ps, null);
+      datasource.releaseResources(ps, rs);
     }
   }
 
-  public void clearDeltaCrlCache(NameId ca, long maxId) throws OperationException {
-    final String sql = SQL_CLEAR_DELTACRL_CACHE;
+  /**
+   * Removes the given entries from DELTACRL_CACHE. Entries committed after
+   * {@link #getIdsOfDeltaCrlCache(NameId)} are retained even if they have a lower ID.
+   * @param ids
+   *          IDs of the entries. Must not be {@code null}.
+   * @throws OperationException
+   *           if the entries could not be removed.
+   * @since 5.2.1
+   */
+  public void clearDeltaCrlCache(List<Long> ids) throws OperationException {
+    Args.notNull(ids, "ids");
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    final String sql = SQL_REMOVE_DELTACRL_CACHE;
     PreparedStatement ps = borrowPreparedStatement(sql);
     try {
-      ps.setLong(1, maxId + 1);
-      ps.setInt(2, ca.getId());
-      ps.executeUpdate();
+      int num = 0;
+      for (Long id : ids) {
+        ps.setLong(1, id);
+        ps.addBatch();
+        if (++num % 1000 == 0) {
+          ps.executeBatch();
+        }
+      }
+
+      if (num % 1000 != 0) {
+        ps.executeBatch();
+      }
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
@@ -488,23 +726,13 @@ public class CertStore {
     }
   }
 
-  public void addCrl(NameId ca, X509CRL crl) throws OperationException, CRLException {
+  public void addCrl(NameId ca, CachedCrl crl) throws OperationException {
     Args.notNull(ca, "ca");
     Args.notNull(crl, "crl");
 
-    byte[] encodedExtnValue = crl.getExtensionValue(Extension.cRLNumber.getId());
-    Long crlNumber = null;
-    if (encodedExtnValue != null) {
-      byte[] extnValue = DEROctetString.getInstance(encodedExtnValue).getOctets();
-      crlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-    }
-
-    encodedExtnValue = crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-    Long baseCrlNumber = null;
-    if (encodedExtnValue != null) {
-      byte[] extnValue = DEROctetString.getInstance(encodedExtnValue).getOctets();
-      baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
-    }
+    Long crlNumber = (crl.getCrlNumber() == null) ? null : crl.getCrlNumber().longValue();
+    Long baseCrlNumber = (crl.getBaseCrlNumber() == null) ? null
+        : crl.getBaseCrlNumber().longValue();
 
     final String sql = SQL_ADD_CRL;
     long currentMaxCrlId;
@@ -515,11 +743,17 @@ public class CertStore {
     }
     long crlId = currentMaxCrlId + 1;
 
-    String b64Crl = Base64.encodeToString(crl.getEncoded());
+    // the CRL is streamed from its file to the database
+    long b64Length = Base64Reader.encodedLength(crl.getLength());
+    if (b64Length > Integer.MAX_VALUE) {
+      throw new OperationException(CRL_FAILURE, "CRL too large: " + crl.getLength() + " bytes");
+    }
 
     PreparedStatement ps = null;
+    Reader b64Crl = null;
 
     try {
+      b64Crl = new Base64Reader(crl.getInputStream());
       ps = borrowPreparedStatement(sql);
 
       int idx = 1;
@@ -531,13 +765,16 @@ public class CertStore {
       setDateSeconds(ps, idx++, crl.getNextUpdate());
       setBoolean(ps, idx++, (baseCrlNumber != null));
       setLong(ps, idx++, baseCrlNumber);
-      ps.setString(idx++, b64Crl);
+      ps.setCharacterStream(idx++, b64Crl, (int) b64Length);
 
       ps.executeUpdate();
+    } catch (IOException ex) {
+      throw new OperationException(CRL_FAILURE, "could not read CRL: " + ex.getMessage());
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
       datasource.releaseResources(ps, null);
+      IoUtil.closeQuietly(b64Crl);
     }
   } // method addCrl
 
@@ -574,38 +811,24 @@ public class CertStore {
       }
     }
 
-    Long invTimeSeconds = null;
-    if (revInfo.getInvalidityTime() != null) {
-      invTimeSeconds = revInfo.getInvalidityTime().getTime() / 1000;
-    }
+    final Long invTimeSeconds = (revInfo.getInvalidityTime() == null) ? null
+        : revInfo.getInvalidityTime().getTime() / 1000;
+    final long certId = certWithRevInfo.getCert().getCertId().longValue();
 
-    PreparedStatement ps = borrowPreparedStatement(SQL_REVOKE_CERT);
-    try {
-      int idx = 1;
-      ps.setLong(idx++, System.currentTimeMillis() / 1000);
-      setBoolean(ps, idx++, true);
-      ps.setLong(idx++, revInfo.getRevocationTime().getTime() / 1000); // revTimeSeconds
-      setLong(ps, idx++, invTimeSeconds);
-      ps.setInt(idx++, revInfo.getReason().getCode());
-      ps.setLong(idx++, certWithRevInfo.getCert().getCertId().longValue()); // certId
+    updateCert(SQL_REVOKE_CERT, new ParameterBinder() {
 
-      int count = ps.executeUpdate();
-      if (count != 1) {
-        String message = (count > 1)
-            ? count + " rows modified, but exactly one is expected"
-            : "no row is modified, but exactly one is expected";
-        throw new OperationException(SYSTEM_FAILURE, message);
+      @Override
+      public void bind(PreparedStatement ps) throws SQLException {
+        int idx = 1;
+        ps.setLong(idx++, System.currentTimeMillis() / 1000);
+        setBoolean(ps, idx++, true);
+        ps.setLong(idx++, revInfo.getRevocationTime().getTime() / 1000); // revTimeSeconds
+        setLong(ps, idx++, invTimeSeconds);
+        ps.setInt(idx++, revInfo.getReason().getCode());
+        ps.setLong(idx++, certId);
       }
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE,
-          datasource.translate(SQL_REVOKE_CERT, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, null);
-    }
 
-    if (publishToDeltaCrlCache) {
-      publishToDeltaCrlCache(ca, certWithRevInfo.getCert().getCert().getSerialNumber());
-    }
+    }, ca, publishToDeltaCrlCache ? certWithRevInfo.getCert().getCert().getSerialNumber() : null);
 
     certWithRevInfo.setRevInfo(revInfo);
     return certWithRevInfo;
@@ -637,30 +860,19 @@ public class CertStore {
           + CrlReason.CERTIFICATE_HOLD.getDescription());
     }
 
-    PreparedStatement ps = borrowPreparedStatement(SQL_REVOKE_SUSPENDED_CERT);
-    try {
-      int idx = 1;
-      ps.setLong(idx++, System.currentTimeMillis() / 1000);
-      ps.setInt(idx++, reason.getCode());
-      ps.setLong(idx++, certWithRevInfo.getCert().getCertId().longValue()); // certId
+    final long certId = certWithRevInfo.getCert().getCertId().longValue();
 
-      int count = ps.executeUpdate();
-      if (count != 1) {
-        String message = (count > 1)
-            ? count + " rows modified, but exactly one is expected"
-            : "no row is modified, but exactly one is expected";
-        throw new OperationException(SYSTEM_FAILURE, message);
+    updateCert(SQL_REVOKE_SUSPENDED_CERT, new ParameterBinder() {
+
+      @Override
+      public void bind(PreparedStatement ps) throws SQLException {
+        int idx = 1;
+        ps.setLong(idx++, System.currentTimeMillis() / 1000);
+        ps.setInt(idx++, reason.getCode());
+        ps.setLong(idx++, certId);
       }
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE,
-          datasource.translate(SQL_REVOKE_CERT, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, null);
-    }
 
-    if (publishToDeltaCrlCache) {
-      publishToDeltaCrlCache(ca, certWithRevInfo.getCert().getCert().getSerialNumber());
-    }
+    }, ca, publishToDeltaCrlCache ? certWithRevInfo.getCert().getCert().getSerialNumber() : null);
 
     currentRevInfo.setReason(reason);
     return certWithRevInfo;
@@ -696,68 +908,59 @@ public class CertStore {
     }
 
     final String sql = "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
-
-    PreparedStatement ps = borrowPreparedStatement(sql);
-    try {
-      int idx = 1;
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      setBoolean(ps, idx++, false);
-      ps.setNull(idx++, Types.INTEGER);
-      ps.setNull(idx++, Types.INTEGER);
-      ps.setNull(idx++, Types.INTEGER);
-      ps.setLong(idx++, certWithRevInfo.getCert().getCertId().longValue()); // certId
-
-      int count = ps.executeUpdate();
-      if (count != 1) {
-        String message = (count > 1)
-            ? count + " rows modified, but exactly one is expected"
-            : "no row is modified, but exactly one is expected";
-        throw new OperationException(SYSTEM_FAILURE, message);
+    final long certId = certWithRevInfo.getCert().getCertId().longValue();
+
+    updateCert(sql, new ParameterBinder() {
+
+      @Override
+      public void bind(PreparedStatement ps) throws SQLException {
+        int idx = 1;
+        ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+        setBoolean(ps, idx++, false);
+        ps.setNull(idx++, Types.INTEGER);
+        ps.setNull(idx++, Types.INTEGER);
+        ps.setNull(idx++, Types.INTEGER);
+        ps.setLong(idx++, certId);
       }
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, null);
-    }
 
-    if (publishToDeltaCrlCache) {
-      publishToDeltaCrlCache(ca, certWithRevInfo.getCert().getCert().getSerialNumber());
-    }
+    }, ca, publishToDeltaCrlCache ? certWithRevInfo.getCert().getCert().getSerialNumber() : null);
 
     return certWithRevInfo.getCert();
   } // method unrevokeCert
 
-  private void publishToDeltaCrlCache(NameId ca, BigInteger serialNumber)
-      throws OperationException {
-    Args.notNull(serialNumber, "serialNumber");
+  /**
+   * Executes the statement, which must modify exactly one row of the table CERT, and adds the
+   * serial number to DELTACRL_CACHE in the same transaction. Otherwise a CRL generated between
+   * both statements could miss the change, and the entry of a later committed transaction
+   * could be removed from DELTACRL_CACHE before any CRL contains it.
+   * @param deltaCrlCacheSerial
+   *          Serial number to be added to DELTACRL_CACHE. {@code null} if not required.
+   */
+  private void updateCert(String sql, ParameterBinder binder, NameId ca,
+      BigInteger deltaCrlCacheSerial) throws OperationException {
+    Connection conn;
+    boolean autoCommit;
+    try {
+      conn = datasource.getConnection();
+    } catch (DataAccessException ex) {
+      throw new OperationException(DATABASE_FAILURE, ex.getMessage());
+    }
 
-    final String sql = SQL_ADD_DELTACRL_CACHE;
-    PreparedStatement ps = null;
     try {
-      long id = idGenerator.nextId();
-      ps = borrowPreparedStatement(sql);
-      ps.setLong(1, id);
-      ps.setInt(2, ca.getId());
-      ps.setString(3, serialNumber.toString(16));
-      ps.executeUpdate();
+      autoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
     } catch (SQLException ex) {
+      datasource.returnConnection(conn);
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, null);
     }
-  }
-
-  public void removeCert(NameId ca, BigInteger serialNumber) throws OperationException {
-    Args.notNull(ca, "ca");
-    Args.notNull(serialNumber, "serialNumber");
-
-    final String sql = SQL_REMOVE_CERT;
-    PreparedStatement ps = borrowPreparedStatement(sql);
 
+    String currentSql = sql;
+    PreparedStatement ps = null;
+    PreparedStatement cachePs = null;
+    boolean committed = false;
     try {
-      ps.setInt(1, ca.getId());
-      ps.setString(2, serialNumber.toString(16));
-
+      ps = datasource.prepareStatement(conn, sql);
+      binder.bind(ps);
       int count = ps.executeUpdate();
       if (count != 1) {
         String message = (count > 1)
@@ -765,11 +968,53 @@ public class CertStore {
             : "no row is modified, but exactly one is expected";
         throw new OperationException(SYSTEM_FAILURE, message);
       }
+
+      if (deltaCrlCacheSerial != null) {
+        currentSql = SQL_ADD_DELTACRL_CACHE;
+        cachePs = datasource.prepareStatement(conn, currentSql);
+        cachePs.setLong(1, idGenerator.nextId());
+        cachePs.setInt(2, ca.getId());
+        cachePs.setString(3, deltaCrlCacheSerial.toString(16));
+        cachePs.executeUpdate();
+      }
+
+      conn.commit();
+      committed = true;
+    } catch (DataAccessException ex) {
+      throw new OperationException(DATABASE_FAILURE, ex.getMessage());
     } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+      throw new OperationException(DATABASE_FAILURE,
+          datasource.translate(currentSql, ex).getMessage());
     } finally {
-      datasource.releaseResources(ps, null);
+      try {
+        if (!committed) {
+          conn.rollback();
+        }
+        conn.setAutoCommit(autoCommit);
+      } catch (SQLException ex) {
+        LogUtil.error(LOG, datasource.translate(null, ex), "could not finish the transaction");
+      }
+
+      datasource.releaseResources(ps, null, false);
+      datasource.releaseResources(cachePs, null, false);
+      datasource.returnConnection(conn);
     }
+  } // method updateCert
+
+  public void removeCert(NameId ca, BigInteger serialNumber, boolean publishToDeltaCrlCache)
+      throws OperationException {
+    Args.notNull(ca, "ca");
+    Args.notNull(serialNumber, "serialNumber");
+
+    updateCert(SQL_REMOVE_CERT, new ParameterBinder() {
+
+      @Override
+      public void bind(PreparedStatement ps) throws SQLException {
+        ps.setInt(1, ca.getId());
+        ps.setString(2, serialNumber.toString(16));
+      }
+
+    }, ca, publishToDeltaCrlCache ? serialNumber : null);
   } // method removeCert
 
   public List<Long> getPublishQueueEntries(NameId ca, NameId publisher, int numEntries)
@@ -1547,8 +1792,18 @@ public class CertStore {
     }
   } // method knowsCertForSerial
 
-  public List<CertRevInfoWithSerial> getRevokedCerts(NameId ca, Date notExpiredAt, long startId,
-      int numEntries, boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
+  /**
+   * Returns the revoked certificates sorted by the serial number as stored in the column SN,
+   * namely the hexadecimal serial number without leading zeros. Subsequent pages are retrieved
+   * via the serial number of the last certificate of the previous page.
+   * @param afterSerial
+   *          Only certificates whose column SN is greater than the one of this serial number
+   *          are returned. {@code null} to get the first page.
+   * @since 5.2.1
+   */
+  public List<CertRevInfoWithSerial> getRevokedCerts(NameId ca, Date notExpiredAt,
+      BigInteger afterSerial, int numEntries, boolean onlyCaCerts, boolean onlyUserCerts)
+      throws OperationException {
     Args.notNull(ca, "ca");
     Args.notNull(notExpiredAt, "notExpiredAt");
     Args.positive(numEntries, "numEntries");
@@ -1557,15 +1812,17 @@ public class CertStore {
     }
     boolean withEe = onlyCaCerts || onlyUserCerts;
 
-    String sql = getSqlRevokedCerts(numEntries, withEe);
+    String sql = getSqlRevokedCerts(numEntries, withEe, afterSerial == null);
 
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
 
     try {
       int idx = 1;
-      ps.setLong(idx++, startId - 1);
       ps.setInt(idx++, ca.getId());
+      if (afterSerial != null) {
+        ps.setString(idx++, afterSerial.toString(16));
+      }
       ps.setLong(idx++, notExpiredAt.getTime() / 1000 + 1);
       if (withEe) {
         setBoolean(ps, idx++, onlyUserCerts);
@@ -1578,7 +1835,8 @@ public class CertStore {
         Date invalidityTime = (revInvalidityTime == 0) ? null : new Date(1000 * revInvalidityTime);
         CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(rs.getLong("ID"),
             new BigInteger(rs.getString("SN"), 16), rs.getInt("RR"), // revReason
-            new Date(1000 * rs.getLong("RT")), invalidityTime);
+            new Date(1000 * rs.getLong("RT")), invalidityTime,
+            new Date(1000 * rs.getLong("NAFTER")));
         ret.add(revInfo);
       }
 
@@ -1596,7 +1854,7 @@ public class CertStore {
     Args.positive(numEntries, "numEntries");
 
     String sql = getSqlDeltaCrlCacheIds(numEntries);
-    List<Long> ids = new LinkedList<>();
+    List<SerialWithId> serials = new LinkedList<>();
     ResultSet rs = null;
 
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -1605,8 +1863,7 @@ public class CertStore {
       ps.setInt(2, ca.getId());
       rs = ps.executeQuery();
       while (rs.next()) {
-        long id = rs.getLong("ID");
-        ids.add(id);
+        serials.add(new SerialWithId(rs.getLong("ID"), new BigInteger(rs.getString("SN"), 16)));
       }
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
@@ -1614,50 +1871,62 @@ public class CertStore {
       datasource.releaseResources(ps, rs);
     }
 
-    sql = sqlRevForId;
+    sql = sqlRevForSerial;
     ps = borrowPreparedStatement(sql);
 
     List<CertRevInfoWithSerial> ret = new ArrayList<>();
-    for (Long id : ids) {
-      try {
-        ps.setLong(1, id);
-        rs = ps.executeQuery();
-
-        if (!rs.next()) {
-          continue;
-        }
-
-        int ee = rs.getInt("EE");
-        if (onlyCaCerts) {
-          if (ee != 0) {
-            continue;
-          }
-        } else if (onlyUserCerts) {
-          if (ee != 1) {
+    try {
+      for (SerialWithId sid : serials) {
+        // the ID of the entry in DELTACRL_CACHE
+        long id = sid.getId();
+        BigInteger serial = sid.getSerial();
+        rs = null;
+        try {
+          ps.setInt(1, ca.getId());
+          ps.setString(2, serial.toString(16));
+          rs = ps.executeQuery();
+
+          if (!rs.next()) {
+            // revoked certificate has been removed
+            ret.add(new CertRevInfoWithSerial(id, serial, CrlReason.REMOVE_FROM_CRL.getCode(),
+                new Date(), null));
             continue;
           }
-        }
 
-        CertRevInfoWithSerial revInfo;
+          int ee = rs.getInt("EE");
+          if (onlyCaCerts) {
+            if (ee != 0) {
+              continue;
+            }
+          } else if (onlyUserCerts) {
+            if (ee != 1) {
+              continue;
+            }
+          }
 
-        String serial = rs.getString("SN");
-        boolean revoked = rs.getBoolean("REVOEKD");
-        if (revoked) {
-          long revInvTime = rs.getLong("RIT");
-          Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16), rs.getInt("RR"),
-              new Date(1000 * rs.getLong("RT")), invalidityTime);
-        } else {
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
-              CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * rs.getLong("LUPDATE")), null);
+          CertRevInfoWithSerial revInfo;
+
+          Date notAfter = new Date(1000 * rs.getLong("NAFTER"));
+          boolean revoked = rs.getBoolean("REV");
+          if (revoked) {
+            long revInvTime = rs.getLong("RIT");
+            Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
+            revInfo = new CertRevInfoWithSerial(id, serial, rs.getInt("RR"),
+                new Date(1000 * rs.getLong("RT")), invalidityTime, notAfter);
+          } else {
+            revInfo = new CertRevInfoWithSerial(id, serial, CrlReason.REMOVE_FROM_CRL.getCode(),
+                new Date(1000 * rs.getLong("LUPDATE")), null, notAfter);
+          }
+          ret.add(revInfo);
+        } finally {
+          datasource.releaseResources(null, rs);
         }
-        ret.add(revInfo);
-      } catch (SQLException ex) {
-        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-      } finally {
-        datasource.releaseResources(null, rs);
-      }
-    } // end for
+      } // end for
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
 
     return ret;
   } // method getCertificatesForDeltaCrl
@@ -1883,23 +2152,28 @@ public class CertStore {
     String sql = cacheSqlDeltaCrlCacheIds.get(numEntries);
     if (sql == null) {
       sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
-          "ID FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
+          "ID,SN FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
       cacheSqlDeltaCrlCacheIds.put(numEntries, sql);
     }
     return sql;
   }
 
-  private String getSqlRevokedCerts(int numEntries, boolean withEe) {
+  private String getSqlRevokedCerts(int numEntries, boolean withEe, boolean firstPage) {
+    // the SQL of the first page is used only once per CRL, and not cached.
     LruCache<Integer, String> cache = withEe ? cacheSqlRevokedCertsWithEe : cacheSqlRevokedCerts;
-    String sql = cache.get(numEntries);
+    String sql = firstPage ? null : cache.get(numEntries);
     if (sql == null) {
-      String coreSql =
-          "ID,SN,RR,RT,RIT FROM CERT WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>?";
+      // the condition SN>'' cannot be used for the first page, since Oracle treats '' as NULL.
+      String coreSql = "ID,SN,RR,RT,RIT,NAFTER FROM CERT WHERE CA_ID=?"
+          + (firstPage ? "" : " AND SN>?") + " AND REV=1 AND NAFTER>?";
       if (withEe) {
         coreSql += " AND EE=?";
       }
-      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC", coreSql);
-      cache.put(numEntries, sql);
+      // the unique constraint on (CA_ID, SN) provides the index for the order.
+      sql = datasource.buildSelectFirstSql(numEntries, "SN ASC", coreSql);
+      if (!firstPage) {
+        cache.put(numEntries, sql);
+      }
     }
     return sql;
   }
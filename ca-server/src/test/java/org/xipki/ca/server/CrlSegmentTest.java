@@ -0,0 +1,281 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ca.api.mgmt.CrlControl;
+
+/**
+ * Tests the merge of the entries of the last full CRL with the changes of the delta CRLs
+ * in {@link CrlSegment}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class CrlSegmentTest {
+
+  private static class Collector implements CrlSegment.EntryConsumer {
+
+    private final List<CrlSegment.Entry> entries = new ArrayList<>();
+
+    @Override
+    public void accept(CrlSegment.Entry entry) {
+      entries.add(entry);
+    }
+
+    private List<Long> serials() {
+      List<Long> serials = new ArrayList<>(entries.size());
+      for (CrlSegment.Entry entry : entries) {
+        serials.add(entry.getSerial().longValue());
+      }
+      return serials;
+    }
+
+  } // class Collector
+
+  private static final long FINGERPRINT = 0x1234L;
+
+  private static final long NOT_AFTER = 2000000000L;
+
+  private File dir;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("crl-segment-").toFile();
+  }
+
+  @After
+  public void deleteDir() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void mergeWithChanges() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 10, entry(1), entry(2), entry(3));
+    Assert.assertTrue(segment.isUpToDate(10, FINGERPRINT));
+    Assert.assertFalse("other CRL number", segment.isUpToDate(11, FINGERPRINT));
+    Assert.assertFalse("other configuration", segment.isUpToDate(10, FINGERPRINT + 1));
+
+    // delta CRL: 2 has been changed, 4 has been revoked
+    segment.appendChanges(Arrays.asList(entry(2, 0x22), entry(4)), 11);
+    Assert.assertTrue(segment.isUpToDate(11, FINGERPRINT));
+    Assert.assertFalse(segment.isUpToDate(10, FINGERPRINT));
+
+    Map<BigInteger, CrlSegment.Entry> changes = segment.readChanges();
+    Collector collector = new Collector();
+    int num = segment.merge(changes, 0, collector);
+
+    Assert.assertEquals(4, num);
+    // the changed entry replaces the one of the base file
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L), collector.serials());
+    Assert.assertArrayEquals(new byte[]{0x22}, collector.entries.get(1).getEncoded());
+  }
+
+  @Test
+  public void mergeInOrderOfColumnSn() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    // hexadecimal serials "10", "2" and "a"
+    writeBase(segment, false, 1, entry(0x10), entry(0x2), entry(0xa));
+    // "1f", "3" and "ab"
+    segment.appendChanges(Arrays.asList(entry(0xab), entry(0x3), entry(0x1f)), 2);
+
+    Collector collector = new Collector();
+    segment.merge(segment.readChanges(), 0, collector);
+    Assert.assertEquals(Arrays.asList(0x10L, 0x1fL, 0x2L, 0x3L, 0xaL, 0xabL),
+        collector.serials());
+  }
+
+  @Test
+  public void incompleteBase() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 1, entry(1), entry(2), entry(3));
+
+    // remove the last entry: serial length, serial, notAfter, length and encoded entry
+    File baseFile = new File(dir, "base.seg");
+    try (RandomAccessFile raf = new RandomAccessFile(baseFile, "rw")) {
+      raf.setLength(baseFile.length() - (2 + 1 + 8 + 4 + 1));
+    }
+
+    try {
+      segment.merge(segment.readChanges(), 0, new Collector());
+      Assert.fail("IOException expected");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void unsortedBase() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 1, entry(1), entry(3), entry(2));
+
+    try {
+      segment.merge(segment.readChanges(), 0, new Collector());
+      Assert.fail("IOException expected");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void fingerprint() throws Exception {
+    long fp1 = CrlSegment.fingerprint(new CrlControl(
+        "fullcrl.intervals=1,extensions=1.2.3.4\\,1.2.3.5"));
+    long fp2 = CrlSegment.fingerprint(new CrlControl(
+        "extensions=1.2.3.5\\,1.2.3.4,fullcrl.intervals=1"));
+    Assert.assertEquals(fp1, fp2);
+
+    long fp3 = CrlSegment.fingerprint(new CrlControl(
+        "fullcrl.intervals=1,extensions=1.2.3.4\\,1.2.3.5,expiredcerts.included=true"));
+    Assert.assertTrue(fp1 != fp3);
+  }
+
+  @Test
+  public void mergeWithoutExpiredCerts() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 1,
+        entry(1), new CrlSegment.Entry(BigInteger.valueOf(2), 1000, new byte[]{2}), entry(3));
+    segment.appendChanges(
+        Arrays.asList(new CrlSegment.Entry(BigInteger.valueOf(4), 1001, new byte[]{4})), 2);
+
+    Collector collector = new Collector();
+    // same as the condition NAFTER > minNotAfter of the database query
+    int num = segment.merge(segment.readChanges(), 1000, collector);
+    Assert.assertEquals(3, num);
+    Assert.assertEquals(Arrays.asList(1L, 3L, 4L), collector.serials());
+
+    collector = new Collector();
+    num = segment.merge(segment.readChanges(), 1001, collector);
+    Assert.assertEquals(Arrays.asList(1L, 3L), collector.serials());
+    Assert.assertEquals(2, num);
+  }
+
+  @Test
+  public void mergeWithRemoveFromCrl() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 1, entry(1), entry(2), entry(3));
+
+    // 2 has been removed from CRL, and 3 removed and then revoked again
+    segment.appendChanges(Arrays.asList(removed(2), removed(3)), 2);
+    segment.appendChanges(Arrays.asList(entry(3, 0x33)), 3);
+
+    Map<BigInteger, CrlSegment.Entry> changes = segment.readChanges();
+    Assert.assertTrue(changes.get(BigInteger.valueOf(2)).isRemoved());
+    Assert.assertFalse(changes.get(BigInteger.valueOf(3)).isRemoved());
+
+    Collector collector = new Collector();
+    segment.merge(changes, 0, collector);
+    Assert.assertEquals(Arrays.asList(1L, 3L), collector.serials());
+    Assert.assertArrayEquals(new byte[]{0x33}, collector.entries.get(1).getEncoded());
+
+    // the merged entries are the base of the next full CRL
+    writeBase(segment, true, 4, collector.entries.toArray(new CrlSegment.Entry[0]));
+    Assert.assertTrue(segment.readChanges().isEmpty());
+    collector = new Collector();
+    segment.merge(Collections.<BigInteger, CrlSegment.Entry>emptyMap(), 0, collector);
+    Assert.assertEquals(Arrays.asList(1L, 3L), collector.serials());
+  }
+
+  @Test
+  public void rebuildInterval() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 3);
+    writeBase(segment, false, 1, entry(1));
+    Assert.assertFalse(segment.isRebuildDue());
+
+    writeBase(segment, true, 2, entry(1));
+    Assert.assertFalse(segment.isRebuildDue());
+
+    // the third full CRL must be generated from the database
+    writeBase(segment, true, 3, entry(1));
+    Assert.assertTrue(segment.isRebuildDue());
+
+    writeBase(segment, false, 4, entry(1));
+    Assert.assertFalse(segment.isRebuildDue());
+    Assert.assertTrue(segment.isUpToDate(4, FINGERPRINT));
+  }
+
+  @Test
+  public void invalidate() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 1, entry(1));
+    segment.invalidate();
+    Assert.assertFalse(segment.isUpToDate(1, FINGERPRINT));
+  }
+
+  @Test
+  public void uncommittedBase() throws Exception {
+    CrlSegment segment = new CrlSegment(dir, 10);
+    writeBase(segment, false, 1, entry(1));
+
+    CrlSegment.BaseWriter writer = segment.newBase(FINGERPRINT, true);
+    writer.write(entry(2));
+    writer.close();
+
+    Assert.assertTrue(segment.isUpToDate(1, FINGERPRINT));
+    Collector collector = new Collector();
+    segment.merge(segment.readChanges(), 0, collector);
+    Assert.assertEquals(Arrays.asList(1L), collector.serials());
+  }
+
+  private static void writeBase(CrlSegment segment, boolean incremental, long crlNumber,
+      CrlSegment.Entry... entries) throws IOException {
+    CrlSegment.BaseWriter writer = segment.newBase(FINGERPRINT, incremental);
+    try {
+      for (CrlSegment.Entry entry : entries) {
+        writer.write(entry);
+      }
+      writer.commit(crlNumber);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static CrlSegment.Entry entry(long serial) {
+    return entry(serial, (int) serial);
+  }
+
+  private static CrlSegment.Entry entry(long serial, int encoded) {
+    return new CrlSegment.Entry(BigInteger.valueOf(serial), NOT_AFTER, new byte[]{(byte) encoded});
+  }
+
+  private static CrlSegment.Entry removed(long serial) {
+    return new CrlSegment.Entry(BigInteger.valueOf(serial), NOT_AFTER, null);
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.ObjectIdentifiers;
+import org.xipki.security.util.X509Util;
+
+/**
+ * Tests that the CRL generated by {@link CrlStreamBuilder} is a valid DER encoded CRL.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class CrlStreamBuilderTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=CRL Stream Test CA,O=xipki");
+
+  private static KeyPair keyPair;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keyPair = kpGen.generateKeyPair();
+  }
+
+  @Test
+  public void crlWithCertsetSortedInMemory() throws Exception {
+    buildAndVerify(100, 16L * 1024 * 1024);
+  }
+
+  @Test
+  public void crlWithCertsetSortedInTemporaryFiles() throws Exception {
+    buildAndVerify(500, 1024);
+  }
+
+  @Test
+  public void crlWithoutEntries() throws Exception {
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    try (CrlStreamBuilder builder = new CrlStreamBuilder(ISSUER, thisUpdate)) {
+      builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+      CachedCrl crl = builder.build(newSigner());
+      try {
+        byte[] encoded = crl.getEncoded();
+        X509CRL x509Crl = X509Util.parseCrl(encoded);
+        x509Crl.verify(keyPair.getPublic());
+        Assert.assertNull(x509Crl.getRevokedCertificates());
+        Assert.assertNull(crl.getNextUpdate());
+        Assert.assertEquals(BigInteger.ONE, crl.getCrlNumber());
+
+        Assert.assertEquals(encoded.length, crl.getLength());
+        Assert.assertEquals("\"" + HashAlgo.SHA1.hexHash(encoded) + "\"", crl.getEtag());
+      } finally {
+        crl.release();
+      }
+    }
+  }
+
+  @Test
+  public void derOrder() {
+    Assert.assertTrue(CrlStreamBuilder.DER_ORDER.compare(new byte[]{1}, new byte[]{2}) < 0);
+    Assert.assertTrue(CrlStreamBuilder.DER_ORDER.compare(new byte[]{(byte) 0x80},
+        new byte[]{0x7F}) > 0);
+    Assert.assertTrue(CrlStreamBuilder.DER_ORDER.compare(new byte[]{1, 2}, new byte[]{1}) > 0);
+    Assert.assertEquals(0, CrlStreamBuilder.DER_ORDER.compare(new byte[]{1, 2},
+        new byte[]{1, 2}));
+  }
+
+  private static void buildAndVerify(int numEntries, long maxCertsetBytesInMemory)
+      throws Exception {
+    Random random = new Random(numEntries);
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    Date nextUpdate = new Date(thisUpdate.getTime() + 24 * 3600 * 1000L);
+    Date revocationDate = new Date(thisUpdate.getTime() - 3600 * 1000L);
+
+    try (CrlStreamBuilder builder =
+        new CrlStreamBuilder(ISSUER, thisUpdate, maxCertsetBytesInMemory)) {
+      builder.setNextUpdate(nextUpdate);
+      Set<BigInteger> serials = new HashSet<>();
+      while (serials.size() < numEntries) {
+        BigInteger serial = new BigInteger(1 + random.nextInt(100), random).add(BigInteger.ONE);
+        if (!serials.add(serial)) {
+          continue;
+        }
+
+        builder.addCrlEntry(serial, revocationDate, null);
+
+        // entries of different lengths in random order
+        byte[] certPlaceholder = new byte[random.nextInt(300)];
+        random.nextBytes(certPlaceholder);
+        builder.addCertsetEntry(serial, new DEROctetString(certPlaceholder));
+      }
+      builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(7));
+
+      CachedCrl crl = builder.build(newSigner());
+      // the file of the CRL is owned by the CachedCrl
+      builder.close();
+      byte[] encodedCrl;
+      try {
+        encodedCrl = crl.getEncoded();
+      } finally {
+        crl.release();
+      }
+
+      Assert.assertEquals(BigInteger.valueOf(7), crl.getCrlNumber());
+      Assert.assertNull(crl.getBaseCrlNumber());
+      Assert.assertEquals(thisUpdate, crl.getThisUpdate());
+      Assert.assertEquals(nextUpdate, crl.getNextUpdate());
+
+      X509CRL x509Crl = X509Util.parseCrl(encodedCrl);
+      x509Crl.verify(keyPair.getPublic());
+      Assert.assertEquals(thisUpdate, x509Crl.getThisUpdate());
+      Assert.assertEquals(nextUpdate, x509Crl.getNextUpdate());
+      Assert.assertEquals(numEntries, x509Crl.getRevokedCertificates().size());
+      for (X509CRLEntry entry : x509Crl.getRevokedCertificates()) {
+        Assert.assertEquals(revocationDate, entry.getRevocationDate());
+      }
+
+      byte[] extnValue = x509Crl.getExtensionValue(
+          ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset.getId());
+      ASN1Set certset = ASN1Set.getInstance(ASN1OctetString.getInstance(extnValue).getOctets());
+      Assert.assertEquals(numEntries, certset.size());
+
+      byte[] previous = null;
+      for (int i = 0; i < certset.size(); i++) {
+        byte[] encoded = certset.getObjectAt(i).toASN1Primitive().getEncoded(ASN1Encoding.DER);
+        if (previous != null) {
+          Assert.assertTrue("SET OF is not sorted at index " + i,
+              CrlStreamBuilder.DER_ORDER.compare(previous, encoded) <= 0);
+        }
+        previous = encoded;
+      }
+    }
+  }
+
+  private static ContentSigner newSigner() throws Exception {
+    return new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate());
+  }
+
+}
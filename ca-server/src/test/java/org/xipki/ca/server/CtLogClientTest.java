@@ -0,0 +1,228 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ca.api.OperationException;
+import org.xipki.security.X509Cert;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the quorum and timeout of {@link CtLogClient} against local CT log servers.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class CtLogClientTest {
+
+  private static class CtLogHandler implements HttpHandler {
+
+    private final long delayMs;
+
+    private final boolean failing;
+
+    CtLogHandler(long delayMs, boolean failing) {
+      this.delayMs = delayMs;
+      this.failing = failing;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try (InputStream in = exchange.getRequestBody()) {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+          // read the whole request
+        }
+      }
+
+      if (delayMs > 0) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      if (failing) {
+        exchange.sendResponseHeaders(500, -1);
+        exchange.close();
+        return;
+      }
+
+      // same as the dummy CT log server: DigitallySigned with SHA256 and ECDSA
+      byte[] sig = new byte[70];
+      byte[] signature = new byte[4 + sig.length];
+      signature[0] = 4;
+      signature[1] = 3;
+      signature[2] = (byte) (sig.length >> 8);
+      signature[3] = (byte) sig.length;
+
+      Base64.Encoder encoder = Base64.getEncoder();
+      String json = "{\"sct_version\":0,\"id\":\"" + encoder.encodeToString(new byte[32])
+          + "\",\"timestamp\":" + System.currentTimeMillis()
+          + ",\"signature\":\"" + encoder.encodeToString(signature) + "\"}";
+      byte[] content = json.getBytes(StandardCharsets.UTF_8);
+
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, content.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(content);
+      }
+    }
+
+  } // class CtLogHandler
+
+  private static final List<HttpServer> SERVERS = new ArrayList<>();
+
+  private static X509Cert caCert;
+
+  private static String fastUrl1;
+
+  private static String fastUrl2;
+
+  private static String slowUrl;
+
+  private static String failingUrl;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair keyPair = kpGen.generateKeyPair();
+
+    X500Name subject = new X500Name("CN=CtLogClientTest");
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(1));
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+        BigInteger.ONE, notBefore, notAfter, subject, keyPair.getPublic());
+    caCert = new X509Cert(new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+            .build(keyPair.getPrivate()))));
+
+    fastUrl1 = startServer(new CtLogHandler(0, false));
+    fastUrl2 = startServer(new CtLogHandler(0, false));
+    slowUrl = startServer(new CtLogHandler(5000, false));
+    failingUrl = startServer(new CtLogHandler(0, true));
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    for (HttpServer server : SERVERS) {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void quorumReached() throws Exception {
+    CtLogClient client = new CtLogClient(Arrays.asList(fastUrl1, slowUrl, fastUrl2), null, 2,
+        10000);
+    try {
+      long start = System.currentTimeMillis();
+      Assert.assertEquals(2,
+          client.getCtLogScts(new byte[]{1}, caCert, null).getSctList().size());
+      // the slow server is not waited for
+      Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void quorumReachedDespiteFailure() throws Exception {
+    CtLogClient client = new CtLogClient(Arrays.asList(failingUrl, fastUrl1, fastUrl2), null,
+        2, 10000);
+    try {
+      Assert.assertEquals(2,
+          client.getCtLogScts(new byte[]{1}, caCert, null).getSctList().size());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void timeout() throws Exception {
+    CtLogClient client = new CtLogClient(Arrays.asList(fastUrl1, slowUrl), null, null, 500);
+    try {
+      long start = System.currentTimeMillis();
+      try {
+        client.getCtLogScts(new byte[]{1}, caCert, null);
+        Assert.fail("OperationException expected");
+      } catch (OperationException ex) {
+        // expected
+      }
+      Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void quorumNotReachable() throws Exception {
+    CtLogClient client = new CtLogClient(Arrays.asList(fastUrl1, failingUrl), null, null,
+        10000);
+    try {
+      long start = System.currentTimeMillis();
+      try {
+        client.getCtLogScts(new byte[]{1}, caCert, null);
+        Assert.fail("OperationException expected");
+      } catch (OperationException ex) {
+        // expected
+      }
+      // no need to wait for the timeout once the quorum cannot be reached any more
+      Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+    } finally {
+      client.close();
+    }
+  }
+
+  private static String startServer(HttpHandler handler) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/ct/v1/add-pre-chain", handler);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    SERVERS.add(server);
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+}
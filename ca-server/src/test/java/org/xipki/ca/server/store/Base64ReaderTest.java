@@ -0,0 +1,61 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.Base64;
+
+/**
+ * Tests that {@link Base64Reader} returns the same encoding as {@link Base64}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class Base64ReaderTest {
+
+  @Test
+  public void encode() throws IOException {
+    Random random = new Random(1);
+    // empty, shorter than, equal to and longer than one chunk, with all paddings
+    int[] lengths = {0, 1, 2, 3, 3071, 3072, 3073, 3074, 10000};
+    for (int len : lengths) {
+      byte[] data = new byte[len];
+      random.nextBytes(data);
+
+      StringBuilder sb = new StringBuilder();
+      try (Reader reader = new Base64Reader(new ByteArrayInputStream(data))) {
+        char[] buffer = new char[1000];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+          sb.append(buffer, 0, read);
+        }
+      }
+
+      String expected = Base64.encodeToString(data);
+      Assert.assertEquals("length " + len, expected, sb.toString());
+      Assert.assertEquals(expected.length(), Base64Reader.encodedLength(len));
+    }
+  }
+
+}
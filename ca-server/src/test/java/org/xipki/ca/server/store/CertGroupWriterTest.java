@@ -0,0 +1,213 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.datasource.DataAccessException;
+
+/**
+ * Tests the group commit, the fallback to single rows and the draining of
+ * {@link CertGroupWriter}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class CertGroupWriterTest {
+
+  /**
+   * Records the written batches. Batches containing a row starting with "bad" fail.
+   */
+  private static class StubBatchWriter implements CertGroupWriter.BatchWriter<String> {
+
+    private final List<List<String>> batches = Collections.synchronizedList(
+        new ArrayList<List<String>>());
+
+    private final List<String> savedRows = Collections.synchronizedList(
+        new ArrayList<String>());
+
+    private final long delayMs;
+
+    private final boolean runtimeFailure;
+
+    StubBatchWriter(long delayMs, boolean runtimeFailure) {
+      this.delayMs = delayMs;
+      this.runtimeFailure = runtimeFailure;
+    }
+
+    @Override
+    public void write(List<String> rows) throws DataAccessException {
+      batches.add(new ArrayList<>(rows));
+      if (delayMs > 0) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      for (String row : rows) {
+        if (row.startsWith("bad")) {
+          if (runtimeFailure) {
+            throw new IllegalStateException("invalid row " + row);
+          }
+          throw new DataAccessException("duplicated row " + row);
+        }
+      }
+      savedRows.addAll(rows);
+    }
+
+  } // class StubBatchWriter
+
+  @Test
+  public void groupCommit() throws Exception {
+    StubBatchWriter stub = new StubBatchWriter(0, false);
+    CertGroupWriter<String> writer = new CertGroupWriter<>(stub, 5, 5000);
+    try {
+      List<Future<Boolean>> futures = write(writer, "row1", "row2", "row3", "row4", "row5");
+      for (Future<Boolean> future : futures) {
+        Assert.assertTrue(future.get());
+      }
+
+      // the transaction is committed as soon as it contains 5 rows
+      Assert.assertEquals(1, stub.batches.size());
+      Assert.assertEquals(5, stub.batches.get(0).size());
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void commitAfterDelay() throws Exception {
+    StubBatchWriter stub = new StubBatchWriter(0, false);
+    CertGroupWriter<String> writer = new CertGroupWriter<>(stub, 100, 50);
+    try {
+      long start = System.currentTimeMillis();
+      Assert.assertTrue(writer.write("row1"));
+      Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+      Assert.assertEquals(Collections.singletonList("row1"), stub.savedRows);
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void fallbackToSingleRows() throws Exception {
+    StubBatchWriter stub = new StubBatchWriter(0, false);
+    CertGroupWriter<String> writer = new CertGroupWriter<>(stub, 4, 5000);
+    try {
+      List<Future<Boolean>> futures = write(writer, "row1", "bad2", "row3", "row4");
+      int accepted = 0;
+      int rejected = 0;
+      for (Future<Boolean> future : futures) {
+        try {
+          Assert.assertTrue(future.get());
+          accepted++;
+        } catch (Exception ex) {
+          Assert.assertTrue(ex.getCause() instanceof DataAccessException);
+          rejected++;
+        }
+      }
+
+      // only the failing row is rejected
+      Assert.assertEquals(3, accepted);
+      Assert.assertEquals(1, rejected);
+      Assert.assertEquals(3, stub.savedRows.size());
+      Assert.assertFalse(stub.savedRows.contains("bad2"));
+
+      // one failed transaction with 4 rows, then 4 transactions with one row each
+      Assert.assertEquals(5, stub.batches.size());
+      Assert.assertEquals(4, stub.batches.get(0).size());
+      for (int i = 1; i < 5; i++) {
+        Assert.assertEquals(1, stub.batches.get(i).size());
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void runtimeFailure() throws Exception {
+    StubBatchWriter stub = new StubBatchWriter(0, true);
+    CertGroupWriter<String> writer = new CertGroupWriter<>(stub, 2, 5000);
+    try {
+      List<Future<Boolean>> futures = write(writer, "row1", "bad2");
+      for (Future<Boolean> future : futures) {
+        try {
+          future.get();
+          Assert.fail("DataAccessException expected");
+        } catch (Exception ex) {
+          Assert.assertTrue(ex.getCause() instanceof DataAccessException);
+        }
+      }
+      // no fallback to single rows
+      Assert.assertEquals(1, stub.batches.size());
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void closeDrainsQueue() throws Exception {
+    StubBatchWriter stub = new StubBatchWriter(100, false);
+    final CertGroupWriter<String> writer = new CertGroupWriter<>(stub, 2, 0);
+
+    List<Future<Boolean>> futures = write(writer, "row1", "row2", "row3", "row4", "row5",
+        "row6");
+    // wait until all rows are queued or written
+    Thread.sleep(200);
+    writer.close();
+
+    for (Future<Boolean> future : futures) {
+      Assert.assertTrue(future.get());
+    }
+    Assert.assertEquals(6, stub.savedRows.size());
+
+    // closed writer does not accept further rows
+    Assert.assertFalse(writer.write("row7"));
+    Assert.assertEquals(6, stub.savedRows.size());
+  }
+
+  private static List<Future<Boolean>> write(final CertGroupWriter<String> writer,
+      String... rows) {
+    ExecutorService executor = Executors.newFixedThreadPool(rows.length);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>(rows.length);
+      for (final String row : rows) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            return writer.write(row);
+          }
+        }));
+      }
+      return futures;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,46 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.api;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Listener of the changes of the certificate status in an {@link OcspStore}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public interface CertStatusChangeListener {
+
+  /**
+   * Called after the status of the given certificates has been changed. The same
+   * certificate may be reported more than once.
+   * @param store
+   *          OCSP store containing the certificates.
+   * @param issuerCert
+   *          Certificate of the issuer.
+   * @param serialNumbers
+   *          Serial numbers of the changed certificates.
+   */
+  void certStatusChanged(OcspStore store, X509Certificate issuerCert,
+      List<BigInteger> serialNumbers);
+
+}
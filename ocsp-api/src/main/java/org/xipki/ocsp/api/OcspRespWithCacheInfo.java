@@ -17,6 +17,13 @@
 
 package org.xipki.ocsp.api;
 
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import org.xipki.security.HashAlgo;
+
 /**
  * TODO.
  * @author Lijun Liao
@@ -49,10 +56,94 @@ public class OcspRespWithCacheInfo {
 
   } // class ResponseCacheInfo
 
+  /**
+   * Values of the HTTP headers for the response, see RFC 5019 section 6.2. They are computed
+   * once and reused for all HTTP responses carrying the same OCSP response.
+   *
+   * @since 5.2.1
+   */
+  public static final class HttpHeaders {
+
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+          .withZone(ZoneOffset.UTC);
+
+    private final String etag;
+
+    private final long lastModified;
+
+    private final String lastModifiedText;
+
+    private final String expiresText;
+
+    private final long maxAge;
+
+    private final String cacheControl;
+
+    private HttpHeaders(byte[] response, ResponseCacheInfo cacheInfo, long maxAge) {
+      // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
+      // HEX representation of the SHA1 hash of the OCSPResponse structure.
+      this.etag = "\"" + HashAlgo.SHA1.hexHash(response) + "\"";
+
+      // HTTP dates have the precision of seconds
+      this.lastModified = cacheInfo.getThisUpdate() / 1000 * 1000;
+      this.lastModifiedText = formatHttpDate(lastModified);
+
+      Long nextUpdate = cacheInfo.getNextUpdate();
+      this.expiresText = (nextUpdate == null) ? null : formatHttpDate(nextUpdate);
+
+      long tmpMaxAge = maxAge;
+      if (nextUpdate != null) {
+        tmpMaxAge = Math.min(tmpMaxAge, (nextUpdate - cacheInfo.getThisUpdate()) / 1000);
+      }
+      this.maxAge = maxAge;
+      this.cacheControl = "max-age=" + tmpMaxAge + ",public,no-transform,must-revalidate";
+    }
+
+    private static String formatHttpDate(long time) {
+      return HTTP_DATE.format(Instant.ofEpochMilli(time));
+    }
+
+    /**
+     * Returns the value of the header ETag.
+     * @return the quoted SHA-1 hash of the response.
+     */
+    public String getEtag() {
+      return etag;
+    }
+
+    /**
+     * Returns the time of the header Last-Modified.
+     * @return the thisUpdate in milliseconds, truncated to seconds.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public String getLastModifiedText() {
+      return lastModifiedText;
+    }
+
+    /**
+     * Returns the value of the header Expires.
+     * @return the formatted nextUpdate, or {@code null} if nextUpdate is not present.
+     */
+    public String getExpiresText() {
+      return expiresText;
+    }
+
+    public String getCacheControl() {
+      return cacheControl;
+    }
+
+  } // class HttpHeaders
+
   private byte[] response;
 
   private ResponseCacheInfo cacheInfo;
 
+  private volatile HttpHeaders httpHeaders;
+
   public OcspRespWithCacheInfo(byte[] response, ResponseCacheInfo cacheInfo) {
     this.response = response;
     this.cacheInfo = cacheInfo;
@@ -66,4 +157,25 @@ public class OcspRespWithCacheInfo {
     return cacheInfo;
   }
 
+  /**
+   * Returns the values of the HTTP headers for this response. The values are computed on
+   * the first call and kept as long as this object lives, e.g. in the response cache.
+   * @param maxAge the configured max-age in seconds.
+   * @return the values of the HTTP headers, or {@code null} if the response may not be
+   *         cached by HTTP clients.
+   * @since 5.2.1
+   */
+  public HttpHeaders getHttpHeaders(long maxAge) {
+    if (cacheInfo == null) {
+      return null;
+    }
+
+    HttpHeaders headers = httpHeaders;
+    if (headers == null || headers.maxAge != maxAge) {
+      headers = new HttpHeaders(response, cacheInfo, maxAge);
+      httpHeaders = headers;
+    }
+    return headers;
+  }
+
 }
@@ -20,12 +20,22 @@ package org.xipki.ocsp.api;
 import java.io.Closeable;
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusInfo.CertStatus;
 import org.xipki.ocsp.api.CertStatusInfo.UnknownCertBehaviour;
+import org.xipki.security.CertRevocationInfo;
+import org.xipki.security.CrlReason;
 import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
 import org.xipki.util.Validity;
 
 /**
@@ -36,6 +46,8 @@ import org.xipki.util.Validity;
 
 public abstract class OcspStore implements Closeable {
 
+  private static final Logger LOG = LoggerFactory.getLogger(OcspStore.class);
+
   protected static final long DAY = 24L * 60 * 60 * 1000;
 
   protected String name;
@@ -54,6 +66,8 @@ public abstract class OcspStore implements Closeable {
 
   protected Validity minNextUpdatePeriod;
 
+  private final List<CertStatusChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
   public OcspStore() {
   }
 
@@ -94,23 +108,62 @@ public abstract class OcspStore implements Closeable {
       boolean inheritCaRevocation) throws OcspStoreException {
     CertStatusInfo info = getCertStatus0(time, reqIssuer, serialNumber,
         includeCertHash, includeRit, inheritCaRevocation);
-    if (info != null && minNextUpdatePeriod != null) {
-      if (unknownCertBehaviour == UnknownCertBehaviour.good
-          || unknownCertBehaviour == UnknownCertBehaviour.unknown) {
-        Date nextUpdate = info.getNextUpdate();
-        Date minNextUpdate = minNextUpdatePeriod.add(time);
-
-        if (nextUpdate != null) {
-          if (minNextUpdate.after(nextUpdate)) {
-            info.setNextUpdate(minNextUpdate);
-          }
-        } else {
+    if (info != null) {
+      applyMinNextUpdatePeriod(time, info);
+    }
+
+    return info;
+  }
+
+  /**
+   * Retrieves the status of several certificates issued by the same issuer.
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate status in the same order as the serialNumbers, or {@code null}
+   *          if the issuer is not known.
+   */
+  public final List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> infos = getCertStatuses0(time, reqIssuer, serialNumbers,
+        includeCertHash, includeRit, inheritCaRevocation);
+    if (infos != null) {
+      for (CertStatusInfo info : infos) {
+        applyMinNextUpdatePeriod(time, info);
+      }
+    }
+
+    return infos;
+  }
+
+  private void applyMinNextUpdatePeriod(Date time, CertStatusInfo info) {
+    if (minNextUpdatePeriod == null) {
+      return;
+    }
+
+    if (unknownCertBehaviour == UnknownCertBehaviour.good
+        || unknownCertBehaviour == UnknownCertBehaviour.unknown) {
+      Date nextUpdate = info.getNextUpdate();
+      Date minNextUpdate = minNextUpdatePeriod.add(time);
+
+      if (nextUpdate != null) {
+        if (minNextUpdate.after(nextUpdate)) {
           info.setNextUpdate(minNextUpdate);
         }
+      } else {
+        info.setNextUpdate(minNextUpdate);
       }
     }
-
-    return info;
   }
 
   /**
@@ -133,6 +186,202 @@ public abstract class OcspStore implements Closeable {
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
       boolean inheritCaRevocation) throws OcspStoreException;
 
+  /**
+   * Retrieves the status of several certificates issued by the same issuer. The default
+   * implementation calls {@link #getCertStatus0(Date, RequestIssuer, BigInteger, boolean,
+   * boolean, boolean)} for each serial number. Stores based on a database should overwrite
+   * this method to retrieve the status with one query.
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate status in the same order as the serialNumbers, or {@code null}
+   *          if the issuer is not known.
+   */
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> infos = new ArrayList<>(serialNumbers.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      CertStatusInfo info = getCertStatus0(time, reqIssuer, serialNumber,
+          includeCertHash, includeRit, inheritCaRevocation);
+      if (info == null) {
+        // issuer is not known
+        return null;
+      }
+      infos.add(info);
+    }
+    return infos;
+  }
+
+  /**
+   * Returns the certificates of all issuers known by this store. The default implementation
+   * returns an empty list.
+   * @return the certificates of all known issuers.
+   */
+  public List<X509Certificate> getIssuerCerts() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Retrieves the serial numbers of certificates issued by the given issuer which are not
+   * expired at the given time. The entries are paged by an internal, ascending identifier,
+   * e.g. the row id in the database. The default implementation retrieves nothing.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param time
+   *          Certificates expired at this time are ignored. Must not be {@code null}.
+   * @param fromId
+   *          The minimal internal identifier (inclusive).
+   * @param numEntries
+   *          Maximal number of serial numbers to be retrieved.
+   * @param serialNumbers
+   *          List to which the serial numbers are added.
+   * @return the maximal internal identifier of the retrieved entries, or 0 if no entry
+   *          has been retrieved.
+   */
+  public long getSerialNumbers(RequestIssuer reqIssuer, Date time, long fromId, int numEntries,
+      List<BigInteger> serialNumbers) throws OcspStoreException {
+    return 0;
+  }
+
+  /**
+   * Whether this store detects the changes of the certificate status and notifies the
+   * {@link CertStatusChangeListener}s. The default implementation returns {@code false}.
+   * @return whether the changes will be notified.
+   */
+  public boolean supportsChangeNotification() {
+    return false;
+  }
+
+  public void addChangeListener(CertStatusChangeListener listener) {
+    changeListeners.add(Args.notNull(listener, "listener"));
+  }
+
+  public void removeChangeListener(CertStatusChangeListener listener) {
+    changeListeners.remove(listener);
+  }
+
+  protected boolean hasChangeListeners() {
+    return !changeListeners.isEmpty();
+  }
+
+  /**
+   * Notifies all {@link CertStatusChangeListener}s.
+   * @param issuerCert
+   *          Certificate of the issuer.
+   * @param serialNumbers
+   *          Serial numbers of the changed certificates.
+   */
+  protected void fireCertStatusChanged(X509Certificate issuerCert,
+      List<BigInteger> serialNumbers) {
+    for (CertStatusChangeListener listener : changeListeners) {
+      try {
+        listener.certStatusChanged(this, issuerCert, serialNumbers);
+      } catch (RuntimeException ex) {
+        LogUtil.error(LOG, ex, "error while notifying the changes of store " + name);
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the given {@link CertStatusInfo}, so that the copy can be modified
+   * if the same serial number is requested more than once.
+   * @param info
+   *          Certificate status. Must not be {@code null}.
+   * @return the copy.
+   * @since 5.2.1
+   */
+  protected static CertStatusInfo copy(CertStatusInfo info) {
+    switch (info.getCertStatus()) {
+      case IGNORE:
+        return CertStatusInfo.getIgnoreCertStatusInfo(info.getThisUpdate(), info.getNextUpdate());
+      case REVOKED:
+        return CertStatusInfo.getRevokedCertStatusInfo(info.getRevocationInfo(),
+            info.getCertHashAlgo(), info.getCertHash(), info.getThisUpdate(),
+            info.getNextUpdate(), info.getCertprofile());
+      default:
+        return CertStatusInfo.getGoodCertStatusInfo(info.getCertHashAlgo(),
+            info.getCertHash(), info.getThisUpdate(), info.getNextUpdate(),
+            info.getCertprofile());
+    }
+  }
+
+  /**
+   * Sets the archive cutoff, and applies the revocation of the issuer.
+   * @param certStatusInfo
+   *          Certificate status. Must not be {@code null}.
+   * @param issuerNotBefore
+   *          NotBefore of the issuer certificate. Must not be {@code null}.
+   * @param issuerRevInfo
+   *          Revocation information of the issuer. Could be {@code null}.
+   * @param inheritCaRevocation
+   *          Whether the revocation of the issuer is applied.
+   * @return the completed certificate status.
+   * @since 5.2.1
+   */
+  protected CertStatusInfo complete(CertStatusInfo certStatusInfo, Date issuerNotBefore,
+      CertRevocationInfo issuerRevInfo, boolean inheritCaRevocation) {
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuerNotBefore;
+        } else {
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuerNotBefore.getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
+        }
+
+        certStatusInfo.setArchiveCutOff(date);
+      }
+    }
+
+    if ((!inheritCaRevocation) || issuerRevInfo == null) {
+      return certStatusInfo;
+    }
+
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD) {
+      replaced = true;
+    } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
+      if (unknownCertBehaviour == UnknownCertBehaviour.good) {
+        replaced = true;
+      }
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            issuerRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (issuerRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = issuerRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            issuerRevInfo.getRevocationTime(), issuerRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method complete
+
   /**
    * TODO.
    * @param sourceConf
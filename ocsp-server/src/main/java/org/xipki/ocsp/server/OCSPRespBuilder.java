@@ -49,6 +49,10 @@ public class OCSPRespBuilder {
   private static final byte[] successfulStatus = Hex.decode("0a0100");
   private static final byte[] responseTypeBasic = Hex.decode("06092b0601050507300101");
 
+  // buffer of the encoded tbsResponseData per thread, reused since the tbsResponseData is
+  // only passed to the signer.
+  private static final ThreadLocal<byte[]> tbsBuffers = new ThreadLocal<>();
+
   private List<SingleResponse> list = new LinkedList<>();
   private Extensions responseExtensions = null;
   private ResponderID responderId;
@@ -93,7 +97,12 @@ public class OCSPRespBuilder {
     ResponseData responseData = new ResponseData(0,
         responderId, producedAt, list, responseExtensions);
 
-    byte[] tbs = new byte[responseData.getEncodedLength()];
+    final int tbsLen = responseData.getEncodedLength();
+    byte[] tbs = tbsBuffers.get();
+    if (tbs == null || tbs.length < tbsLen) {
+      tbs = new byte[Math.max(tbsLen, 1024)];
+      tbsBuffers.set(tbs);
+    }
     responseData.write(tbs, 0);
 
     ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
@@ -105,7 +114,7 @@ public class OCSPRespBuilder {
       XiContentSigner csigner0 = signer0.value();
       OutputStream sigOut = csigner0.getOutputStream();
       try {
-        sigOut.write(tbs);
+        sigOut.write(tbs, 0, tbsLen);
         sigOut.close();
       } catch (IOException ex) {
         throw new OCSPException("exception signing TBSRequest: " + ex.getMessage(), ex);
@@ -123,7 +132,7 @@ public class OCSPRespBuilder {
     int signatureLen = getLen(signatureBodyLen);
 
     // BasicOCSPResponse
-    int basicResponseBodyLen = tbs.length + sigAlgId.length + signatureLen;
+    int basicResponseBodyLen = tbsLen + sigAlgId.length + signatureLen;
     if (taggedCertSequence != null) {
       basicResponseBodyLen += taggedCertSequence.getEncodedLength();
     }
@@ -163,7 +172,8 @@ public class OCSPRespBuilder {
     // BasicOCSPResponse
     offset += ASN1Type.writeHeader((byte) 0x30, basicResponseBodyLen, out, offset);
     // BasicOCSPResponse.tbsResponseData
-    offset += arraycopy(tbs, out, offset);
+    System.arraycopy(tbs, 0, out, offset, tbsLen);
+    offset += tbsLen;
 
     // BasicOCSPResponse.signatureAlgorithm
     offset += arraycopy(sigAlgId, out, offset);
@@ -409,6 +409,10 @@ public class OcspServerConf extends ValidatableConf {
 
     private int validity = 86400;
 
+    private MemoryCache memoryCache;
+
+    private PreSign preSign;
+
     public DataSourceConf getDatasource() {
       return datasource;
     }
@@ -425,9 +429,134 @@ public class OcspServerConf extends ValidatableConf {
       this.validity = validity;
     }
 
+    public MemoryCache getMemoryCache() {
+      return memoryCache;
+    }
+
+    public void setMemoryCache(MemoryCache memoryCache) {
+      this.memoryCache = memoryCache;
+    }
+
+    public PreSign getPreSign() {
+      return preSign;
+    }
+
+    public void setPreSign(PreSign preSign) {
+      this.preSign = preSign;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notNull(datasource, "datasource");
+      validate(memoryCache);
+      validate(preSign);
+    }
+
+  }
+
+  public static class PreSign extends ValidatableConf {
+
+    /**
+     * Names of the responders whose responses will be pre-signed.
+     */
+    private List<String> responders;
+
+    private int parallelism = 2;
+
+    /**
+     * Maximal number of signatures per second, 0 for no limitation.
+     */
+    private int maxRate = 0;
+
+    /**
+     * Interval in minutes between two pre-signing rounds.
+     */
+    private int interval = 720;
+
+    public List<String> getResponders() {
+      return responders;
+    }
+
+    public void setResponders(List<String> responders) {
+      this.responders = responders;
+    }
+
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+    }
+
+    public int getMaxRate() {
+      return maxRate;
+    }
+
+    public void setMaxRate(int maxRate) {
+      this.maxRate = maxRate;
+    }
+
+    public int getInterval() {
+      return interval;
+    }
+
+    public void setInterval(int interval) {
+      this.interval = interval;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      notEmpty(responders, "responders");
+      if (parallelism < 1) {
+        throw new InvalidConfException("parallelism may not be less than 1");
+      }
+
+      if (maxRate < 0) {
+        throw new InvalidConfException("maxRate may not be negative");
+      }
+
+      if (interval < 1) {
+        throw new InvalidConfException("interval may not be less than 1");
+      }
+    }
+
+  }
+
+  public static class MemoryCache extends ValidatableConf {
+
+    private int maxEntries = 10000;
+
+    /**
+     * Maximal total size of the cached responses in bytes.
+     */
+    private long maxSize = 32L * 1024 * 1024;
+
+    public int getMaxEntries() {
+      return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    public long getMaxSize() {
+      return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (maxEntries < 1) {
+        throw new InvalidConfException("maxEntries may not be less than 1");
+      }
+
+      if (maxSize < 1) {
+        throw new InvalidConfException("maxSize may not be less than 1");
+      }
     }
 
   }
@@ -782,6 +911,12 @@ public class OcspServerConf extends ValidatableConf {
 
   private UnknownIssuerBehaviour unknownIssuerBehaviour = UnknownIssuerBehaviour.unknown;
 
+  /**
+   * Number of threads to resolve the status of the certificates in one request concurrently.
+   * 0 or 1 to resolve them sequentially.
+   */
+  private int requestListParallelism = 0;
+
   public static OcspServerConf readConfFromFile(String fileName)
       throws IOException, InvalidConfException {
     Args.notBlank(fileName, "fileName");
@@ -884,6 +1019,14 @@ public class OcspServerConf extends ValidatableConf {
     this.unknownIssuerBehaviour = unknownIssuerBehaviour;
   }
 
+  public int getRequestListParallelism() {
+    return requestListParallelism;
+  }
+
+  public void setRequestListParallelism(int requestListParallelism) {
+    this.requestListParallelism = requestListParallelism;
+  }
+
   @Override
   public void validate() throws InvalidConfException {
     notEmpty(responders, "responders");
@@ -902,6 +1045,10 @@ public class OcspServerConf extends ValidatableConf {
 
     notEmpty(responseOptions, "responseOptions");
     validate(responseOptions);
+
+    if (requestListParallelism < 0) {
+      throw new InvalidConfException("requestListParallelism may not be negative");
+    }
   }
 
 }
@@ -37,11 +37,19 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Sequence;
@@ -58,6 +66,7 @@ import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceConf;
 import org.xipki.datasource.DataSourceFactory;
 import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusChangeListener;
 import org.xipki.ocsp.api.CertStatusInfo;
 import org.xipki.ocsp.api.CertStatusInfo.CertStatus;
 import org.xipki.ocsp.api.CertStatusInfo.UnknownIssuerBehaviour;
@@ -73,6 +82,7 @@ import org.xipki.ocsp.server.OcspServerConf.EmbedCertsMode;
 import org.xipki.ocsp.server.ResponderOption.OcspMode;
 import org.xipki.ocsp.server.store.CaDbCertStatusStore;
 import org.xipki.ocsp.server.store.DbCertStatusStore;
+import org.xipki.ocsp.server.store.MemoryCertStatusStore;
 import org.xipki.ocsp.server.store.ResponseCacher;
 import org.xipki.ocsp.server.store.crl.CrlDbCertStatusStore;
 import org.xipki.ocsp.server.store.ejbca.EjbcaCertStatusStore;
@@ -84,6 +94,7 @@ import org.xipki.ocsp.server.type.Extensions;
 import org.xipki.ocsp.server.type.OID;
 import org.xipki.ocsp.server.type.OcspRequest;
 import org.xipki.ocsp.server.type.ResponderID;
+import org.xipki.ocsp.server.type.SimpleOcspRequest;
 import org.xipki.ocsp.server.type.TaggedCertSequence;
 import org.xipki.ocsp.server.type.WritableOnlyExtension;
 import org.xipki.password.PasswordResolverException;
@@ -153,10 +164,45 @@ public class OcspServerImpl implements OcspServer {
     }
   }
 
+  private class CacheInvalidator implements CertStatusChangeListener {
+
+    private final Set<AlgorithmCode> sigAlgs;
+
+    CacheInvalidator(Set<AlgorithmCode> sigAlgs) {
+      this.sigAlgs = sigAlgs;
+    }
+
+    @Override
+    public void certStatusChanged(OcspStore store, X509Certificate issuerCert,
+        List<BigInteger> serialNumbers) {
+      ResponseCacher cacher = responseCacher;
+      if (cacher == null || !cacher.isOnService()) {
+        return;
+      }
+
+      Integer issuerId = cacher.getIssuerId(issuerCert);
+      if (issuerId != null) {
+        try {
+          cacher.removeOcspResponses(issuerId, serialNumbers, sigAlgs);
+        } catch (DataAccessException ex) {
+          LogUtil.error(LOG, ex, "could not remove the cached OCSP responses");
+        }
+      }
+
+      ResponsePreSigner preSigner = responsePreSigner;
+      if (preSigner != null) {
+        preSigner.refresh(store, issuerCert, serialNumbers);
+      }
+    }
+
+  } // class CacheInvalidator
+
   public static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
 
   private static final String STORE_TYPE_XIPKI_DB = "xipki-db";
 
+  private static final String STORE_TYPE_XIPKI_DB_MEMORY = "xipki-db-memory";
+
   private static final String STORE_TYPE_XIPKI_CA_DB = "xipki-ca-db";
 
   private static final String STORE_TYPE_CRL = "crl";
@@ -176,6 +222,8 @@ public class OcspServerImpl implements OcspServer {
 
   private static final Logger LOG = LoggerFactory.getLogger(OcspServerImpl.class);
 
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(1);
+
   private static final Map<OcspResponseStatus, OcspRespWithCacheInfo> unsuccesfulOCSPRespMap;
 
   private final DataSourceFactory datasourceFactory;
@@ -190,6 +238,18 @@ public class OcspServerImpl implements OcspServer {
 
   private ResponseCacher responseCacher;
 
+  private final ThreadLocal<SimpleOcspRequest> simpleRequests =
+      new ThreadLocal<SimpleOcspRequest>() {
+        @Override
+        protected SimpleOcspRequest initialValue() {
+          return new SimpleOcspRequest();
+        }
+      };
+
+  private ResponsePreSigner responsePreSigner;
+
+  private ExecutorService requestListExecutor;
+
   private Map<String, ResponderImpl> responders = new HashMap<>();
 
   private Map<String, ResponderSigner> signers = new HashMap<>();
@@ -308,6 +368,14 @@ public class OcspServerImpl implements OcspServer {
     initialized.set(false);
 
     // reset
+    if (responsePreSigner != null) {
+      responsePreSigner.close();
+      responsePreSigner = null;
+    }
+    if (requestListExecutor != null) {
+      requestListExecutor.shutdown();
+      requestListExecutor = null;
+    }
     responseCacher = null;
     responders.clear();
     signers.clear();
@@ -419,6 +487,21 @@ public class OcspServerImpl implements OcspServer {
       this.unknownIssuerBehaviour = UnknownIssuerBehaviour.unknown;
     }
 
+    if (conf.getRequestListParallelism() > 1) {
+      requestListExecutor = Executors.newFixedThreadPool(conf.getRequestListParallelism(),
+          new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable,
+                  "ocsp-request-list-" + THREAD_INDEX.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            }
+
+          });
+    }
+
     // Response Cache
     OcspServerConf.ResponseCache cacheType = conf.getResponseCache();
     if (cacheType != null) {
@@ -435,6 +518,11 @@ public class OcspServerImpl implements OcspServer {
         closeStream(dsStream);
       }
       responseCacher = new ResponseCacher(datasource, master, cacheType.getValidity());
+      OcspServerConf.MemoryCache memoryCacheType = cacheType.getMemoryCache();
+      if (memoryCacheType != null) {
+        responseCacher.setMemoryCache(memoryCacheType.getMaxEntries(),
+            memoryCacheType.getMaxSize());
+      }
       responseCacher.init();
     }
 
@@ -563,11 +651,62 @@ public class OcspServerImpl implements OcspServer {
       list2.add(m.str);
     }
     this.servletPaths = list2;
+
+    // pre-signing of responses
+    OcspServerConf.PreSign preSignType = (cacheType == null) ? null : cacheType.getPreSign();
+    if (preSignType != null) {
+      if (!master) {
+        throw new InvalidConfException("pre-signing of responses is not permitted in slave mode");
+      }
+
+      Map<String, ResponderImpl> preSignResponders = new HashMap<>();
+      for (String name : preSignType.getResponders()) {
+        ResponderImpl responder = responders.get(name);
+        if (responder == null) {
+          throw new InvalidConfException("no responder named '" + name + "' is defined");
+        }
+        preSignResponders.put(name, responder);
+      }
+
+      if (preSignType.getInterval() * 60L >= cacheType.getValidity()) {
+        LOG.warn("interval of the pre-signing is not shorter than the validity of the "
+            + "response cache, some responses will be signed on request");
+      }
+
+      responsePreSigner = new ResponsePreSigner(this, preSignResponders,
+          preSignType.getParallelism(), preSignType.getMaxRate(), preSignType.getInterval());
+      responsePreSigner.init();
+    }
+
+    // invalidates the cached responses of certificates with changed status
+    if (responseCacher != null) {
+      Set<AlgorithmCode> sigAlgs = new HashSet<>();
+      for (ResponderSigner signer : signers.values()) {
+        for (ConcurrentContentSigner m : signer.getSigners()) {
+          sigAlgs.add(m.getAlgorithmCode());
+        }
+      }
+
+      CacheInvalidator cacheInvalidator = new CacheInvalidator(sigAlgs);
+      for (OcspStore store : stores.values()) {
+        if (store.supportsChangeNotification()) {
+          store.addChangeListener(cacheInvalidator);
+        }
+      }
+    }
   } // method init0
 
   @Override
   public void close() {
     LOG.info("stopped OCSP Responder");
+    if (responsePreSigner != null) {
+      responsePreSigner.close();
+    }
+
+    if (requestListExecutor != null) {
+      requestListExecutor.shutdown();
+    }
+
     if (responseCacher != null) {
       responseCacher.close();
     }
@@ -586,6 +725,18 @@ public class OcspServerImpl implements OcspServer {
     ResponderImpl responder = (ResponderImpl) responder2;
     RequestOption reqOpt = responder.getRequestOption();
 
+    // fast path for unsigned requests with one CertID and at most the nonce extension
+    if (!(reqOpt.isValidateSignature() && reqOpt.isSignatureRequired())) {
+      SimpleOcspRequest simpleReq = simpleRequests.get();
+      try {
+        if (simpleReq.read(request)) {
+          return answerSimpleRequest(responder, simpleReq, viaGet);
+        }
+      } finally {
+        simpleReq.clear();
+      }
+    }
+
     int version;
     try {
       version = OcspRequest.readRequestVersion(request);
@@ -601,17 +752,82 @@ public class OcspServerImpl implements OcspServer {
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
     }
 
-    ResponderSigner signer = responder.getSigner();
-    OcspServerConf.ResponseOption repOpt = responder.getResponseOption();
-
+    Object reqOrRrrorResp;
     try {
-      Object reqOrRrrorResp = checkSignature(request, reqOpt);
-      if (reqOrRrrorResp instanceof OcspRespWithCacheInfo) {
-        return (OcspRespWithCacheInfo) reqOrRrrorResp;
+      reqOrRrrorResp = checkSignature(request, reqOpt);
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th);
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+    }
+
+    if (reqOrRrrorResp instanceof OcspRespWithCacheInfo) {
+      return (OcspRespWithCacheInfo) reqOrRrrorResp;
+    }
+
+    return processRequest(responder, (OcspRequest) reqOrRrrorResp, viaGet, false, null);
+  } // method answer
+
+  private OcspRespWithCacheInfo answerSimpleRequest(ResponderImpl responder,
+      SimpleOcspRequest req, boolean viaGet) {
+    RequestOption reqOpt = responder.getRequestOption();
+    int version = req.getVersion();
+    if (!reqOpt.isVersionAllowed(version)) {
+      LOG.warn("invalid request version {}", version);
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+    }
+
+    // look up the response cache without building the OcspRequest
+    boolean cacheChecked = false;
+    ResponseCacher cacher = responseCacher;
+    if (cacher != null && !req.containsNonce() && cacher.isOnService()
+        && reqOpt.getNonceOccurrence() != TripleState.required) {
+      RequestIssuer reqIssuer = req.getIssuer();
+      Integer issuerId = reqOpt.allows(reqIssuer.hashAlgorithm())
+          ? cacher.getIssuerId(reqIssuer) : null;
+      if (issuerId != null) {
+        AlgorithmCode sigAlg = responder.getSigner().getFirstSigner().getAlgorithmCode();
+        try {
+          OcspRespWithCacheInfo cachedResp = cacher.getOcspResponse(issuerId, req.getRequest(),
+              req.getSerialNumberFrom(), req.getSerialNumberLength(), sigAlg);
+          if (cachedResp != null) {
+            return cachedResp;
+          }
+          cacheChecked = true;
+        } catch (DataAccessException ex) {
+          LogUtil.warn(LOG, ex, "could not read the cached OCSP response");
+        }
       }
+    }
 
-      OcspRequest req = (OcspRequest) reqOrRrrorResp;
+    OcspRequest ocspReq;
+    try {
+      ocspReq = req.toOcspRequest();
+    } catch (EncodingException ex) {
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+    }
+
+    return processRequest(responder, ocspReq, viaGet, cacheChecked, null);
+  } // method answerSimpleRequest
+
+  /**
+   * Generates the response for a request whose signature has been already verified.
+   * @param responder the responder.
+   * @param req the request.
+   * @param viaGet whether the request is received via HTTP GET.
+   * @param ignoreCache whether to ignore the response cached in the {@link ResponseCacher}.
+   *          The newly generated response will be still cached.
+   * @param resolvedStatuses the already resolved status of the certificates in the request
+   *          list as returned by {@link #getCertStatuses(ResponderImpl, RequestIssuer, List)},
+   *          or {@code null} to resolve them from the stores.
+   * @return the response.
+   */
+  private OcspRespWithCacheInfo processRequest(ResponderImpl responder, OcspRequest req,
+      boolean viaGet, boolean ignoreCache, Object[] resolvedStatuses) {
+    RequestOption reqOpt = responder.getRequestOption();
+    ResponderSigner signer = responder.getSigner();
+    OcspServerConf.ResponseOption repOpt = responder.getResponseOption();
 
+    try {
       List<CertID> requestList = req.getRequestList();
       int requestsSize = requestList.size();
       if (requestsSize > reqOpt.getMaxRequestListCount()) {
@@ -723,10 +939,12 @@ public class OcspServerImpl implements OcspServer {
         cacheDbSerialNumber = certId.getSerialNumber();
 
         if (cacheDbIssuerId != null) {
-          OcspRespWithCacheInfo cachedResp = responseCacher.getOcspResponse(
-              cacheDbIssuerId.intValue(), cacheDbSerialNumber, cacheDbSigAlgCode);
-          if (cachedResp != null) {
-            return cachedResp;
+          if (!ignoreCache) {
+            OcspRespWithCacheInfo cachedResp = responseCacher.getOcspResponse(
+                cacheDbIssuerId.intValue(), cacheDbSerialNumber, cacheDbSigAlgCode);
+            if (cachedResp != null) {
+              return cachedResp;
+            }
           }
         } else if (master) {
           // store the issuer certificate in cache database.
@@ -751,13 +969,16 @@ public class OcspServerImpl implements OcspServer {
       ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
       OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
 
+      Object[] statusOrErrorResps = (resolvedStatuses != null) ? resolvedStatuses
+          : resolveCertStatuses(requestList, responder, reqOpt, repOpt);
       for (int i = 0; i < requestsSize; i++) {
-        OcspRespWithCacheInfo failureOcspResp = processCertReq(requestList.get(i),
-            builder, responder, reqOpt, repOpt, repControl);
-
-        if (failureOcspResp != null) {
-          return failureOcspResp;
+        Object statusOrErrorResp = statusOrErrorResps[i];
+        if (statusOrErrorResp instanceof OcspRespWithCacheInfo) {
+          return (OcspRespWithCacheInfo) statusOrErrorResp;
         }
+
+        processCertReq(requestList.get(i), (CertStatusInfo) statusOrErrorResp,
+            builder, responder, repOpt, repControl);
       }
 
       if (repControl.includeExtendedRevokeExtension) {
@@ -794,9 +1015,10 @@ public class OcspServerImpl implements OcspServer {
       if (canCacheDb && repControl.canCacheInfo) {
         // Don't cache the response with status UNKNOWN, since this may result in DDoS
         // of storage
+        Long cacheNextUpdate = (repControl.cacheNextUpdate == Long.MAX_VALUE) ? null
+            : repControl.cacheNextUpdate;
         responseCacher.storeOcspResponse(cacheDbIssuerId.intValue(), cacheDbSerialNumber,
-            repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbSigAlgCode,
-            encodeOcspResponse);
+            repControl.cacheThisUpdate, cacheNextUpdate, cacheDbSigAlgCode, encodeOcspResponse);
       }
 
       if (viaGet && repControl.canCacheInfo) {
@@ -812,23 +1034,146 @@ public class OcspServerImpl implements OcspServer {
       LogUtil.error(LOG, th);
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
     }
-  } // method ask
+  } // method processRequest
+
+  /**
+   * Resolves the status of the given certificates of the same issuer with one lookup per
+   * store.
+   * @param responder the responder.
+   * @param reqIssuer the issuer.
+   * @param serialNumbers the serial numbers of the certificates.
+   * @return array of the same size and order as the serialNumbers. Each element is either
+   *         the {@link CertStatusInfo}, or the {@link OcspRespWithCacheInfo} for the failure.
+   */
+  Object[] getCertStatuses(ResponderImpl responder, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers) {
+    return resolveCertStatuses(reqIssuer, serialNumbers, responder,
+        responder.getRequestOption(), responder.getResponseOption());
+  }
 
-  private OcspRespWithCacheInfo processCertReq(CertID certId, OCSPRespBuilder builder,
-      ResponderImpl responder, RequestOption reqOpt, OcspServerConf.ResponseOption repOpt,
-      OcspRespControl repControl) throws IOException {
-    HashAlgo reqHashAlgo = certId.getIssuer().hashAlgorithm();
+  /**
+   * Generates the response for the given certificate, and stores it in the response cache.
+   * @param responder the responder.
+   * @param reqIssuer the issuer.
+   * @param serialNumber the serial number of the certificate.
+   * @param statusOrErrorResp the status of the certificate as returned by
+   *          {@link #getCertStatuses(ResponderImpl, RequestIssuer, List)}.
+   * @return whether the response has been generated successfully.
+   */
+  boolean preSign(ResponderImpl responder, RequestIssuer reqIssuer, BigInteger serialNumber,
+      Object statusOrErrorResp) {
+    if (statusOrErrorResp instanceof OcspRespWithCacheInfo) {
+      return false;
+    }
+
+    List<CertID> requestList = new ArrayList<>(1);
+    requestList.add(new CertID(reqIssuer, serialNumber));
+    OcspRequest req = new OcspRequest(0, requestList, new LinkedList<ExtendedExtension>());
+    OcspRespWithCacheInfo resp = processRequest(responder, req, false, true,
+        new Object[]{statusOrErrorResp});
+    return !unsuccesfulOCSPRespMap.containsValue(resp);
+  }
+
+  /**
+   * Resolves the status of all certificates in the request list. The serial numbers of
+   * the same issuer are looked up in one call of
+   * {@link OcspStore#getCertStatuses(Date, RequestIssuer, List, boolean, boolean, boolean)}.
+   * If configured, the issuers are resolved concurrently.
+   * @return array of the same size and order as the requestList. Each element is either
+   *         the {@link CertStatusInfo}, or the {@link OcspRespWithCacheInfo} for the failure.
+   */
+  private Object[] resolveCertStatuses(List<CertID> requestList, final ResponderImpl responder,
+      final RequestOption reqOpt, final OcspServerConf.ResponseOption repOpt)
+      throws InterruptedException, ExecutionException {
+    final int size = requestList.size();
+    Object[] statusOrErrorResps = new Object[size];
+
+    // indexes of the CertIDs in the requestList, grouped by issuer
+    Map<RequestIssuer, List<Integer>> issuerIndexes = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      RequestIssuer reqIssuer = requestList.get(i).getIssuer();
+      List<Integer> indexes = issuerIndexes.get(reqIssuer);
+      if (indexes == null) {
+        indexes = new ArrayList<>(size);
+        issuerIndexes.put(reqIssuer, indexes);
+      }
+      indexes.add(i);
+    }
+
+    List<RequestIssuer> reqIssuers = new ArrayList<>(issuerIndexes.keySet());
+    List<List<BigInteger>> serialsList = new ArrayList<>(reqIssuers.size());
+    for (RequestIssuer reqIssuer : reqIssuers) {
+      List<Integer> indexes = issuerIndexes.get(reqIssuer);
+      List<BigInteger> serials = new ArrayList<>(indexes.size());
+      for (Integer index : indexes) {
+        serials.add(requestList.get(index).getSerialNumber());
+      }
+      serialsList.add(serials);
+    }
+
+    final int numIssuers = reqIssuers.size();
+    Object[][] groupResults = new Object[numIssuers][];
+
+    if (numIssuers == 1 || requestListExecutor == null) {
+      for (int i = 0; i < numIssuers; i++) {
+        groupResults[i] = resolveCertStatuses(reqIssuers.get(i), serialsList.get(i),
+            responder, reqOpt, repOpt);
+      }
+    } else {
+      List<Future<Object[]>> futures = new ArrayList<>(numIssuers);
+      for (int i = 0; i < numIssuers; i++) {
+        final RequestIssuer reqIssuer = reqIssuers.get(i);
+        final List<BigInteger> serials = serialsList.get(i);
+        futures.add(requestListExecutor.submit(new Callable<Object[]>() {
+          @Override
+          public Object[] call() throws Exception {
+            return resolveCertStatuses(reqIssuer, serials, responder, reqOpt, repOpt);
+          }
+        }));
+      }
+
+      try {
+        for (int i = 0; i < numIssuers; i++) {
+          groupResults[i] = futures.get(i).get();
+        }
+      } finally {
+        for (Future<Object[]> future : futures) {
+          future.cancel(false);
+        }
+      }
+    }
+
+    for (int i = 0; i < numIssuers; i++) {
+      List<Integer> indexes = issuerIndexes.get(reqIssuers.get(i));
+      for (int j = 0; j < indexes.size(); j++) {
+        statusOrErrorResps[indexes.get(j)] = groupResults[i][j];
+      }
+    }
+    return statusOrErrorResps;
+  } // method resolveCertStatuses
+
+  /**
+   * Resolves the status of the given certificates of the same issuer.
+   * @return array of the same size and order as the serialNumbers. Each element is either
+   *         the {@link CertStatusInfo}, or the {@link OcspRespWithCacheInfo} for the failure.
+   */
+  private Object[] resolveCertStatuses(RequestIssuer reqIssuer, List<BigInteger> serialNumbers,
+      ResponderImpl responder, RequestOption reqOpt, OcspServerConf.ResponseOption repOpt) {
+    final int size = serialNumbers.size();
+    Object[] statusOrErrorResps = new Object[size];
+
+    HashAlgo reqHashAlgo = reqIssuer.hashAlgorithm();
     if (!reqOpt.allows(reqHashAlgo)) {
       LOG.warn("CertID.hashAlgorithm {} not allowed", reqHashAlgo);
-      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+      Arrays.fill(statusOrErrorResps,
+          unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest));
+      return statusOrErrorResps;
     }
 
-    CertStatusInfo certStatusInfo = null;
+    List<CertStatusInfo> certStatusInfos = null;
+    OcspStore answeredStore = null;
     boolean exceptionOccurs = false;
 
-    BigInteger serial = certId.getSerialNumber();
-
-    RequestIssuer reqIssuer = certId.getIssuer();
     Date now = new Date();
     for (OcspStore store : responder.getStores()) {
       if (!store.knowsIssuer(reqIssuer)) {
@@ -836,64 +1181,93 @@ public class OcspServerImpl implements OcspServer {
       }
 
       try {
-        certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
+        certStatusInfos = store.getCertStatuses(now, reqIssuer, serialNumbers,
             repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
             responder.getResponderOption().isInheritCaRevocation());
-        if (certStatusInfo != null) {
-          CertStatus status = certStatusInfo.getCertStatus();
-          if (status == CertStatus.UNKNOWN || status == CertStatus.IGNORE) {
-            switch (store.getUnknownCertBehaviour()) {
-              case unknown:
-                break;
-              case good:
-                if (status == CertStatus.UNKNOWN) {
-                  certStatusInfo.setCertStatus(CertStatus.GOOD);
-                }
-                break;
-              case malformedRequest:
-                return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
-              case internalError:
-                return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
-              case tryLater:
-                return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-              default:
-                break;
-            }
-          }
-
+        if (certStatusInfos != null) {
+          answeredStore = store;
           break;
         }
       } catch (OcspStoreException ex) {
         exceptionOccurs = true;
-        LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
+        LogUtil.error(LOG, ex, "getCertStatuses() of CertStatusStore " + store.getName());
       }
     }
 
     if (exceptionOccurs) {
-      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+      Arrays.fill(statusOrErrorResps, unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater));
+      return statusOrErrorResps;
     }
 
-    if (certStatusInfo == null) {
+    if (certStatusInfos == null) {
+      OcspRespWithCacheInfo errorResp = null;
       switch (unknownIssuerBehaviour) {
         case unknown:
           final long msPerDay = 86400000L; // 24 * 60 * 60 * 1000L;
           Date nextUpdate = new Date(now.getTime() + msPerDay);
-          certStatusInfo = CertStatusInfo.getIssuerUnknownCertStatusInfo(now, nextUpdate);
+          for (int i = 0; i < size; i++) {
+            statusOrErrorResps[i] = CertStatusInfo.getIssuerUnknownCertStatusInfo(now, nextUpdate);
+          }
           break;
         case malformedRequest:
-          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+          errorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+          break;
         case unauthorized:
-          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
+          errorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
+          break;
         case internalError:
-          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+          errorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+          break;
         case tryLater:
-          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+          errorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+          break;
         default:
           break;
       }
+
+      if (errorResp != null) {
+        Arrays.fill(statusOrErrorResps, errorResp);
+      }
+      return statusOrErrorResps;
+    }
+
+    for (int i = 0; i < size; i++) {
+      CertStatusInfo certStatusInfo = certStatusInfos.get(i);
+      Object statusOrErrorResp = certStatusInfo;
+
+      CertStatus status = certStatusInfo.getCertStatus();
+      if (status == CertStatus.UNKNOWN || status == CertStatus.IGNORE) {
+        switch (answeredStore.getUnknownCertBehaviour()) {
+          case unknown:
+            break;
+          case good:
+            if (status == CertStatus.UNKNOWN) {
+              certStatusInfo.setCertStatus(CertStatus.GOOD);
+            }
+            break;
+          case malformedRequest:
+            statusOrErrorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+            break;
+          case internalError:
+            statusOrErrorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+            break;
+          case tryLater:
+            statusOrErrorResp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+            break;
+          default:
+            break;
+        }
+      }
+
+      statusOrErrorResps[i] = statusOrErrorResp;
     }
 
-    // certStatusInfo may not be null in any case, since at least one store is configured
+    return statusOrErrorResps;
+  } // method resolveCertStatuses
+
+  private void processCertReq(CertID certId, CertStatusInfo certStatusInfo,
+      OCSPRespBuilder builder, ResponderImpl responder, OcspServerConf.ResponseOption repOpt,
+      OcspRespControl repControl) throws IOException {
     Date thisUpdate = certStatusInfo.getThisUpdate();
     if (thisUpdate == null) {
       thisUpdate = new Date();
@@ -901,7 +1275,8 @@ public class OcspServerImpl implements OcspServer {
 
     Date nextUpdate = certStatusInfo.getNextUpdate();
 
-    List<Extension> extensions = new LinkedList<>();
+    // most responses have no single extension, create the list only if required.
+    List<Extension> extensions = null;
     boolean unknownAsRevoked = false;
     byte[] certStatus;
     switch (certStatusInfo.getCertStatus()) {
@@ -930,6 +1305,7 @@ public class OcspServerImpl implements OcspServer {
         Date invalidityDate = revInfo.getInvalidityTime();
         if (repOpt.isIncludeInvalidityDate() && invalidityDate != null
             && !invalidityDate.equals(revInfo.getRevocationTime())) {
+          extensions = new ArrayList<>(3);
           extensions.add(Template.getInvalidityDateExtension(invalidityDate));
         }
         break;
@@ -944,10 +1320,16 @@ public class OcspServerImpl implements OcspServer {
 
     byte[] certHash = certStatusInfo.getCertHash();
     if (certHash != null) {
+      if (extensions == null) {
+        extensions = new ArrayList<>(2);
+      }
       extensions.add(Template.getCertHashExtension(certStatusInfo.getCertHashAlgo(), certHash));
     }
 
     if (certStatusInfo.getArchiveCutOff() != null) {
+      if (extensions == null) {
+        extensions = new ArrayList<>(1);
+      }
       extensions.add(Template.getArchiveOffExtension(certStatusInfo.getArchiveCutOff()));
     }
 
@@ -986,9 +1368,7 @@ public class OcspServerImpl implements OcspServer {
     if (nextUpdate != null) {
       repControl.cacheNextUpdate = Math.min(repControl.cacheNextUpdate, nextUpdate.getTime());
     }
-
-    return null;
-  }
+  } // method processCertReq
 
   @Override
   public HealthCheckResult healthCheck(Responder responder2) {
@@ -1015,6 +1395,15 @@ public class OcspServerImpl implements OcspServer {
     signerHealth.setHealthy(signerHealthy);
     result.addChildCheck(signerHealth);
 
+    if (responseCacher != null) {
+      // the response cache is optional, it does not affect the health of the responder.
+      result.addChildCheck(responseCacher.healthCheck());
+    }
+
+    if (responsePreSigner != null) {
+      result.addChildCheck(responsePreSigner.healthCheck());
+    }
+
     result.setHealthy(healthy);
     return result;
   } // method healthCheck
@@ -1080,6 +1469,8 @@ public class OcspServerImpl implements OcspServer {
         throw new ObjectCreationException("OCSP store type is not specified");
       } else if (STORE_TYPE_XIPKI_DB.equalsIgnoreCase(type)) {
         store = new DbCertStatusStore();
+      } else if (STORE_TYPE_XIPKI_DB_MEMORY.equalsIgnoreCase(type)) {
+        store = new MemoryCertStatusStore();
       } else if (STORE_TYPE_CRL.equalsIgnoreCase(type)) {
         store = new CrlDbCertStatusStore();
       } else if (STORE_TYPE_XIPKI_CA_DB.equalsIgnoreCase(type)) {
@@ -121,6 +121,10 @@ class ResponderSigner {
     return macSigner;
   }
 
+  public List<ConcurrentContentSigner> getSigners() {
+    return signers;
+  }
+
   public ConcurrentContentSigner getFirstSigner() {
     return signers.get(0);
   }
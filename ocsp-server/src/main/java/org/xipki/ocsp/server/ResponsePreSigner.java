@@ -0,0 +1,372 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.IssuerEntry;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+import org.xipki.util.HealthCheckResult;
+import org.xipki.util.LogUtil;
+
+/**
+ * Generates the OCSP responses of all known, not-expired certificates ahead of the
+ * requests and stores them in the response cache (pre-production of responses as
+ * described in RFC 5019).
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class ResponsePreSigner implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponsePreSigner.class);
+
+  private static final int PAGE_SIZE = 1000;
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(1);
+
+  private class PreSignService implements Runnable {
+
+    @Override
+    public void run() {
+      if (inProcess.getAndSet(true)) {
+        return;
+      }
+
+      try {
+        preSignAll();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while pre-signing OCSP responses");
+      } finally {
+        inProcess.set(false);
+      }
+    }
+
+  } // class PreSignService
+
+  private final OcspServerImpl server;
+
+  private final Map<String, ResponderImpl> responders;
+
+  private final int parallelism;
+
+  private final int interval;
+
+  // minimal interval between two signatures in nano-seconds, 0 for no limitation.
+  private final long minSignIntervalNanos;
+
+  private long nextSignNanos;
+
+  private final AtomicBoolean inProcess = new AtomicBoolean(false);
+
+  private final AtomicLong rounds = new AtomicLong(0);
+
+  private final AtomicLong processedInRound = new AtomicLong(0);
+
+  private final AtomicLong signed = new AtomicLong(0);
+
+  private final AtomicLong failed = new AtomicLong(0);
+
+  private volatile long roundStartTime;
+
+  private volatile long lastRoundDuration = -1;
+
+  private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+  private ScheduledFuture<?> preSignService;
+
+  private ExecutorService signExecutor;
+
+  ResponsePreSigner(OcspServerImpl server, Map<String, ResponderImpl> responders,
+      int parallelism, int maxRate, int interval) {
+    this.server = Args.notNull(server, "server");
+    this.responders = Args.notEmpty(responders, "responders");
+    this.parallelism = Args.positive(parallelism, "parallelism");
+    this.interval = Args.positive(interval, "interval");
+    Args.notNegative(maxRate, "maxRate");
+    this.minSignIntervalNanos = (maxRate == 0) ? 0 : TimeUnit.SECONDS.toNanos(1) / maxRate;
+  }
+
+  void init() {
+    signExecutor = Executors.newFixedThreadPool(parallelism,
+        newThreadFactory("ocsp-presigner-"));
+
+    scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1,
+        newThreadFactory("ocsp-presigner-scheduler-"));
+    scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
+    preSignService = scheduledThreadPoolExecutor.scheduleWithFixedDelay(
+        new PreSignService(), 60, interval * 60L, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void close() {
+    if (preSignService != null) {
+      preSignService.cancel(true);
+      preSignService = null;
+    }
+
+    if (scheduledThreadPoolExecutor != null) {
+      scheduledThreadPoolExecutor.shutdownNow();
+      scheduledThreadPoolExecutor = null;
+    }
+
+    if (signExecutor != null) {
+      signExecutor.shutdownNow();
+      signExecutor = null;
+    }
+  }
+
+  private static ThreadFactory newThreadFactory(final String namePrefix) {
+    return new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + THREAD_INDEX.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    };
+  }
+
+  HealthCheckResult healthCheck() {
+    HealthCheckResult result = new HealthCheckResult();
+    result.setName("ResponsePreSigner");
+    result.setHealthy(true);
+
+    Map<String, Object> statuses = result.getStatuses();
+    statuses.put("inProcess", inProcess.get());
+    statuses.put("rounds", rounds.get());
+    statuses.put("processedInRound", processedInRound.get());
+    statuses.put("signed", signed.get());
+    statuses.put("failed", failed.get());
+    statuses.put("lastRoundDuration", lastRoundDuration);
+    if (inProcess.get()) {
+      statuses.put("roundStartTime", new Date(roundStartTime));
+    }
+    return result;
+  }
+
+  /**
+   * Re-signs asynchronously the responses of the given certificates, e.g. after their
+   * status has been changed.
+   * @param store the store containing the certificates.
+   * @param issuerCert the issuer of the certificates.
+   * @param serialNumbers serial numbers of the certificates.
+   */
+  void refresh(final OcspStore store, X509Certificate issuerCert,
+      final List<BigInteger> serialNumbers) {
+    ExecutorService executor = signExecutor;
+    if (executor == null) {
+      return;
+    }
+
+    for (final ResponderImpl responder : responders.values()) {
+      if (!responder.getStores().contains(store)) {
+        continue;
+      }
+
+      final RequestIssuer reqIssuer;
+      try {
+        reqIssuer = buildRequestIssuer(getHashAlgo(responder), issuerCert);
+      } catch (CertificateEncodingException ex) {
+        LogUtil.error(LOG, ex, "could not build RequestIssuer for issuer "
+            + issuerCert.getSubjectX500Principal().getName());
+        continue;
+      }
+
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            refresh(responder, reqIssuer, serialNumbers);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not re-sign OCSP responses of store "
+                + store.getName());
+          }
+        }
+      });
+    }
+  }
+
+  private void refresh(ResponderImpl responder, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers) throws InterruptedException {
+    final Object[] statusOrErrorResps =
+        server.getCertStatuses(responder, reqIssuer, serialNumbers);
+    for (int i = 0; i < serialNumbers.size(); i++) {
+      acquireSignPermit();
+      if (server.preSign(responder, reqIssuer, serialNumbers.get(i), statusOrErrorResps[i])) {
+        signed.incrementAndGet();
+      } else {
+        failed.incrementAndGet();
+      }
+    }
+    LOG.debug("re-signed OCSP responses of {} changed certificates", serialNumbers.size());
+  }
+
+  private void preSignAll() throws InterruptedException {
+    roundStartTime = System.currentTimeMillis();
+    processedInRound.set(0);
+    LOG.info("started pre-signing OCSP responses");
+
+    for (Map.Entry<String, ResponderImpl> entry : responders.entrySet()) {
+      String responderName = entry.getKey();
+      ResponderImpl responder = entry.getValue();
+
+      HashAlgo hashAlgo = getHashAlgo(responder);
+      for (OcspStore store : responder.getStores()) {
+        for (X509Certificate issuerCert : store.getIssuerCerts()) {
+          RequestIssuer reqIssuer;
+          try {
+            reqIssuer = buildRequestIssuer(hashAlgo, issuerCert);
+          } catch (CertificateEncodingException ex) {
+            LogUtil.error(LOG, ex, "could not build RequestIssuer for issuer "
+                + issuerCert.getSubjectX500Principal().getName());
+            continue;
+          }
+
+          try {
+            preSign(responder, store, reqIssuer);
+          } catch (OcspStoreException ex) {
+            LogUtil.error(LOG, ex, "could not pre-sign OCSP responses of responder "
+                + responderName + " and store " + store.getName());
+          }
+        }
+      }
+    }
+
+    rounds.incrementAndGet();
+    lastRoundDuration = System.currentTimeMillis() - roundStartTime;
+    LOG.info("finished pre-signing {} OCSP responses in {} ms", processedInRound.get(),
+        lastRoundDuration);
+  }
+
+  private void preSign(final ResponderImpl responder, OcspStore store,
+      final RequestIssuer reqIssuer) throws OcspStoreException, InterruptedException {
+    long fromId = 1;
+    List<BigInteger> serials = new ArrayList<>(PAGE_SIZE);
+
+    while (true) {
+      serials.clear();
+      long maxId = store.getSerialNumbers(reqIssuer, new Date(), fromId, PAGE_SIZE, serials);
+      if (serials.isEmpty()) {
+        break;
+      }
+
+      // resolve the status of all certificates in the page with one lookup
+      final Object[] statusOrErrorResps = server.getCertStatuses(responder, reqIssuer, serials);
+
+      List<Callable<Boolean>> tasks = new ArrayList<>(serials.size());
+      for (int i = 0; i < serials.size(); i++) {
+        final BigInteger serial = serials.get(i);
+        final Object statusOrErrorResp = statusOrErrorResps[i];
+        tasks.add(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            acquireSignPermit();
+            return server.preSign(responder, reqIssuer, serial, statusOrErrorResp);
+          }
+        });
+      }
+
+      for (Future<Boolean> future : signExecutor.invokeAll(tasks)) {
+        boolean successful;
+        try {
+          successful = future.get();
+        } catch (ExecutionException ex) {
+          LogUtil.warn(LOG, ex.getCause(), "could not pre-sign OCSP response");
+          successful = false;
+        }
+
+        if (successful) {
+          signed.incrementAndGet();
+        } else {
+          failed.incrementAndGet();
+        }
+        processedInRound.incrementAndGet();
+      }
+
+      if (maxId < fromId) {
+        break;
+      }
+      fromId = maxId + 1;
+    }
+  }
+
+  private void acquireSignPermit() throws InterruptedException {
+    if (minSignIntervalNanos == 0) {
+      return;
+    }
+
+    long waitNanos;
+    synchronized (this) {
+      long now = System.nanoTime();
+      long next = Math.max(nextSignNanos, now);
+      nextSignNanos = next + minSignIntervalNanos;
+      waitNanos = next - now;
+    }
+
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  private static HashAlgo getHashAlgo(ResponderImpl responder) {
+    HashAlgo hashAlgo = HashAlgo.SHA1;
+    if (!responder.getRequestOption().allows(hashAlgo)) {
+      hashAlgo = responder.getRequestOption().getHashAlgos().iterator().next();
+    }
+    return hashAlgo;
+  }
+
+  private static RequestIssuer buildRequestIssuer(HashAlgo hashAlgo, X509Certificate issuerCert)
+      throws CertificateEncodingException {
+    byte[] nameAndKeyHash =
+        IssuerEntry.getIssuerHashAndKeys(issuerCert.getEncoded()).get(hashAlgo);
+    return new RequestIssuer(hashAlgo, nameAndKeyHash);
+  }
+
+}
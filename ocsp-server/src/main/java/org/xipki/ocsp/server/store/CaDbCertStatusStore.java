@@ -24,6 +24,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -41,15 +42,12 @@ import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.CertStatusInfo;
-import org.xipki.ocsp.api.CertStatusInfo.CertStatus;
-import org.xipki.ocsp.api.CertStatusInfo.UnknownCertBehaviour;
 import org.xipki.ocsp.api.OcspStore;
 import org.xipki.ocsp.api.OcspStoreException;
 import org.xipki.ocsp.api.RequestIssuer;
 import org.xipki.ocsp.server.IssuerFilter;
 import org.xipki.ocsp.server.OcspServerConf;
 import org.xipki.security.CertRevocationInfo;
-import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
@@ -76,10 +74,30 @@ public class CaDbCertStatusStore extends OcspStore {
 
   } // class StoreUpdateService
 
+  private class ChangePollService implements Runnable {
+
+    @Override
+    public void run() {
+      if (!hasChangeListeners()) {
+        return;
+      }
+
+      try {
+        changePoller.poll();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while polling the changed certificates of store " + name);
+      }
+    }
+
+  } // class ChangePollService
+
   private DataSourceWrapper datasource;
 
   private static final Logger LOG = LoggerFactory.getLogger(CaDbCertStatusStore.class);
 
+  // maximal number of serial numbers in the IN-clause of one query.
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
 
   private String sqlCsNoRit;
@@ -92,7 +110,7 @@ public class CaDbCertStatusStore extends OcspStore {
 
   private IssuerFilter issuerFilter;
 
-  private IssuerStore issuerStore;
+  private volatile IssuerStore issuerStore;
 
   private HashAlgo certHashAlgo;
 
@@ -100,6 +118,8 @@ public class CaDbCertStatusStore extends OcspStore {
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+  private CertChangePoller changePoller;
+
   protected List<Runnable> getScheduledServices() {
     return Collections.emptyList();
   }
@@ -221,159 +241,168 @@ public class CaDbCertStatusStore extends OcspStore {
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
+    List<CertStatusInfo> infos = getCertStatuses0(time, reqIssuer,
+        Collections.singletonList(serialNumber), includeCertHash, includeRit,
+        inheritCaRevocation);
+    return (infos == null) ? null : infos.get(0);
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
     if (!initialized) {
       throw new OcspStoreException("initialization of CertStore is still in process");
     }
 
-    String sql;
-
     try {
       IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
       if (issuer == null) {
         return null;
       }
 
-      if (includeCertHash) {
-        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
-      } else {
-        sql = includeRit ? sqlCs : sqlCsNoRit;
-      }
-
       Date thisUpdate = new Date();
       Date nextUpdate = null;
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
-
-      PreparedStatement ps = datasource.prepareStatement(sql);
-
-      try {
-        ps.setInt(1, issuer.getId());
-        ps.setString(2, serialNumber.toString(16));
-        rs = ps.executeQuery();
-
-        if (rs.next()) {
-          unknown = false;
-
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
+      // status of the certificates found in the database, with hex serial number as key.
+      Map<String, CertStatusInfo> foundInfos = new HashMap<>();
 
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
+      List<String> hexSerials = new ArrayList<>(serialNumbers.size());
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() == 1) {
+          String hexSerial = serialNumber.toString(16);
+          if (!hexSerials.contains(hexSerial)) {
+            hexSerials.add(hexSerial);
           }
-
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("SHA1");
-            }
-
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
-          }
-        } // end if (rs.next())
-      } catch (SQLException ex) {
-        throw datasource.translate(sql, ex);
-      } finally {
-        releaseDbResources(ps, rs);
+        }
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-        if (revoked) {
-          Date invTime = (invalTime == 0 || invalTime == revTime)
-              ? null : new Date(invalTime * 1000);
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), invTime);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
-        }
+      long timeInSec = time.getTime() / 1000;
+      for (int from = 0; from < hexSerials.size(); from += MAX_SERIALS_PER_QUERY) {
+        List<String> subList = hexSerials.subList(from,
+            Math.min(from + MAX_SERIALS_PER_QUERY, hexSerials.size()));
+        queryCertStatuses(issuer.getId(), subList, timeInSec, includeCertHash, includeRit,
+            thisUpdate, nextUpdate, foundInfos);
       }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
+      List<CertStatusInfo> infos = new ArrayList<>(serialNumbers.size());
+      for (BigInteger serialNumber : serialNumbers) {
+        CertStatusInfo certStatusInfo;
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
+        } else {
+          certStatusInfo = foundInfos.get(serialNumber.toString(16));
+          if (certStatusInfo == null) {
+            certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
           } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
+            // the same serial number may be requested more than once
+            certStatusInfo = copy(certStatusInfo);
           }
 
-          certStatusInfo.setArchiveCutOff(date);
+          certStatusInfo = complete(certStatusInfo, issuer.getNotBefore(),
+              issuer.getRevocationInfo(), inheritCaRevocation);
         }
+        infos.add(certStatusInfo);
+      }
+
+      return infos;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  private void queryCertStatuses(int issuerId, List<String> hexSerials, long timeInSec,
+      boolean includeCertHash, boolean includeRit, Date thisUpdate, Date nextUpdate,
+      Map<String, CertStatusInfo> foundInfos) throws DataAccessException {
+    final int num = hexSerials.size();
+    String sql;
+    if (num == 1) {
+      if (includeCertHash) {
+        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+      } else {
+        sql = includeRit ? sqlCs : sqlCsNoRit;
+      }
+    } else {
+      StringBuilder sb = new StringBuilder(100 + 2 * num);
+      sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT");
+      if (includeRit) {
+        sb.append(",RIT");
+      }
+      if (includeCertHash) {
+        sb.append(",SHA1");
+      }
+      sb.append(" FROM CERT WHERE CA_ID=? AND SN IN (?");
+      for (int i = 1; i < num; i++) {
+        sb.append(",?");
       }
+      sb.append(")");
+      sql = sb.toString();
+    }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      int idx = 1;
+      ps.setInt(idx++, issuerId);
+      for (String hexSerial : hexSerials) {
+        ps.setString(idx++, hexSerial);
       }
+      rs = ps.executeQuery();
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
+      while (rs.next()) {
+        String hexSerial = (num == 1) ? hexSerials.get(0) : rs.getString("SN");
+
+        boolean ignore = false;
+        if (ignoreNotYetValidCert) {
+          long notBeforeInSec = rs.getLong("NBEFORE");
+          if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+            ignore = true;
+          }
         }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
+
+        if (!ignore && ignoreExpiredCert) {
+          long notAfterInSec = rs.getLong("NAFTER");
+          if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+            ignore = true;
+          }
         }
-      }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+        CertStatusInfo certStatusInfo;
+        if (ignore) {
+          certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          byte[] certHash = null;
+          if (includeCertHash) {
+            String b64CertHash = rs.getString("SHA1");
+            certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+          }
+
+          boolean revoked = rs.getBoolean("REV");
+          if (revoked) {
+            int reason = rs.getInt("RR");
+            long revTime = rs.getLong("RT");
+            long invalTime = includeRit ? rs.getLong("RIT") : 0;
+
+            Date invTime = (invalTime == 0 || invalTime == revTime)
+                ? null : new Date(invalTime * 1000);
+            CertRevocationInfo revInfo = new CertRevocationInfo(reason,
+                new Date(revTime * 1000), invTime);
+            certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+                certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+          } else {
+            certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+                certHash, thisUpdate, nextUpdate, null);
+          }
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        foundInfos.put(hexSerial, certStatusInfo);
       }
-      return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
     }
-
-  } // method getCertStatus
+  } // method queryCertStatuses
 
   /**
    * Borrow Prepared Statement.
@@ -469,12 +498,20 @@ public class CaDbCertStatusStore extends OcspStore {
 
     updateIssuerStore();
 
+    this.changePoller = new CertChangePoller(datasource, "CA_ID", new CertChangePoller.Handler() {
+      @Override
+      public void certsChanged(int issuerId, List<BigInteger> serialNumbers) {
+        CaDbCertStatusStore.this.certsChanged(issuerId, serialNumbers);
+      }
+    });
+    this.changePoller.rewind(System.currentTimeMillis() / 1000 - CertChangePoller.LUPDATE_OVERLAP);
+
     if (this.scheduledThreadPoolExecutor != null) {
       this.scheduledThreadPoolExecutor.shutdownNow();
     }
     StoreUpdateService storeUpdateService = new StoreUpdateService();
     List<Runnable> scheduledServices = getScheduledServices();
-    int size = 1;
+    int size = 2;
     if (scheduledServices != null) {
       size += scheduledServices.size();
     }
@@ -483,6 +520,8 @@ public class CaDbCertStatusStore extends OcspStore {
     Random random = new Random();
     this.scheduledThreadPoolExecutor.scheduleAtFixedRate(storeUpdateService,
         60 + random.nextInt(60), 60, TimeUnit.SECONDS);
+    this.scheduledThreadPoolExecutor.scheduleAtFixedRate(new ChangePollService(),
+        60 + random.nextInt(60), 60, TimeUnit.SECONDS);
     if (scheduledServices != null) {
       for (Runnable service : scheduledServices) {
         this.scheduledThreadPoolExecutor.scheduleAtFixedRate(service,
@@ -503,6 +542,50 @@ public class CaDbCertStatusStore extends OcspStore {
     }
   }
 
+  @Override
+  public List<X509Certificate> getIssuerCerts() {
+    return (issuerStore == null) ? Collections.emptyList() : issuerStore.getIssuerCerts();
+  }
+
+  @Override
+  public long getSerialNumbers(RequestIssuer reqIssuer, Date time, long fromId, int numEntries,
+      List<BigInteger> serialNumbers) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      return 0;
+    }
+
+    final String sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+        "ID,SN FROM CERT WHERE CA_ID=? AND ID>=? AND NAFTER>?");
+    long maxId = 0;
+    ResultSet rs = null;
+    try {
+      PreparedStatement ps = datasource.prepareStatement(sql);
+      try {
+        ps.setInt(1, issuer.getId());
+        ps.setLong(2, fromId);
+        ps.setLong(3, time.getTime() / 1000);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          maxId = Math.max(maxId, rs.getLong("ID"));
+          serialNumbers.add(new BigInteger(rs.getString("SN"), 16));
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseDbResources(ps, rs);
+      }
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
+    return maxId;
+  }
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return issuerStore != null && null != issuerStore.getIssuerForFp(reqIssuer);
@@ -521,4 +604,17 @@ public class CaDbCertStatusStore extends OcspStore {
     return initialized;
   }
 
+  @Override
+  public boolean supportsChangeNotification() {
+    return true;
+  }
+
+  private void certsChanged(int issuerId, List<BigInteger> serialNumbers) {
+    IssuerStore store = issuerStore;
+    IssuerEntry issuer = (store == null) ? null : store.getIssuerForId(issuerId);
+    if (issuer != null) {
+      fireCertStatusChanged(issuer.getCert(), serialNumbers);
+    }
+  }
+
 }
@@ -0,0 +1,169 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.Args;
+
+/**
+ * Polls the certificates changed since the last poll from the table CERT, using the
+ * column LUPDATE as the high-water mark.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class CertChangePoller {
+
+  interface Handler {
+
+    /**
+     * Handles the changed certificates.
+     * @param issuerId id of the issuer in the database.
+     * @param serialNumbers serial numbers of the changed certificates.
+     */
+    void certsChanged(int issuerId, List<BigInteger> serialNumbers);
+
+  } // interface Handler
+
+  // changes within this period (in seconds) before the last poll will be read again,
+  // to tolerate the clock skew between the writers of the database and this poller.
+  static final long LUPDATE_OVERLAP = 60;
+
+  private static final int PAGE_SIZE = 1000;
+
+  private final DataSourceWrapper datasource;
+
+  private final String sql;
+
+  private final String issuerColumn;
+
+  private final Handler handler;
+
+  // LUPDATE of the certificates reported in the last poll, with ID as key. These will not
+  // be reported again if read again in the overlapped period.
+  private Map<Long, Long> reportedLupdates = new HashMap<>();
+
+  // LUPDATE (in seconds) from which the changes will be polled, 0 if not started.
+  private long nextLupdate;
+
+  /**
+   * Constructor.
+   * @param datasource the datasource.
+   * @param issuerColumn name of the column containing the issuer id, e.g. IID.
+   * @param handler handler of the changed certificates.
+   */
+  CertChangePoller(DataSourceWrapper datasource, String issuerColumn, Handler handler) {
+    this.datasource = Args.notNull(datasource, "datasource");
+    this.issuerColumn = Args.notBlank(issuerColumn, "issuerColumn");
+    this.handler = Args.notNull(handler, "handler");
+    this.sql = datasource.buildSelectFirstSql(PAGE_SIZE, "ID ASC",
+        "ID," + issuerColumn + ",SN,LUPDATE FROM CERT WHERE ID>=? AND LUPDATE>=?");
+  }
+
+  /**
+   * Sets the time from which the changes will be polled.
+   * @param lupdate time in seconds.
+   */
+  synchronized void rewind(long lupdate) {
+    if (nextLupdate == 0 || lupdate < nextLupdate) {
+      nextLupdate = lupdate;
+      reportedLupdates.clear();
+    }
+  }
+
+  /**
+   * Polls the changed certificates and passes them to the handler. The first call only
+   * sets the start point.
+   * @return number of changed certificates.
+   * @throws DataAccessException if error occurs while accessing the database.
+   */
+  synchronized long poll() throws DataAccessException {
+    long startInSec = System.currentTimeMillis() / 1000;
+    if (nextLupdate == 0) {
+      nextLupdate = startInSec - LUPDATE_OVERLAP;
+      return 0;
+    }
+
+    Map<Long, Long> newReportedLupdates = new HashMap<>();
+    long num = 0;
+    long fromId = 1;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      while (true) {
+        ps.setLong(1, fromId);
+        ps.setLong(2, nextLupdate);
+        rs = ps.executeQuery();
+
+        Map<Integer, List<BigInteger>> changes = new HashMap<>();
+        long maxId = -1;
+        while (rs.next()) {
+          long id = rs.getLong("ID");
+          maxId = Math.max(maxId, id);
+
+          Long lupdate = rs.getLong("LUPDATE");
+          newReportedLupdates.put(id, lupdate);
+          if (lupdate.equals(reportedLupdates.get(id))) {
+            // already reported
+            continue;
+          }
+
+          int issuerId = rs.getInt(issuerColumn);
+          List<BigInteger> serialNumbers = changes.get(issuerId);
+          if (serialNumbers == null) {
+            serialNumbers = new ArrayList<>();
+            changes.put(issuerId, serialNumbers);
+          }
+          serialNumbers.add(new BigInteger(rs.getString("SN"), 16));
+          num++;
+        }
+        datasource.releaseResources(null, rs);
+        rs = null;
+
+        for (Map.Entry<Integer, List<BigInteger>> entry : changes.entrySet()) {
+          handler.certsChanged(entry.getKey(), entry.getValue());
+        }
+
+        if (maxId == -1) {
+          break;
+        }
+        fromId = maxId + 1;
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+
+    nextLupdate = startInSec - LUPDATE_OVERLAP;
+    reportedLupdates = newReportedLupdates;
+    return num;
+  } // method poll
+
+}
@@ -0,0 +1,376 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.xipki.util.Args;
+
+/**
+ * Immutable status index of all certificates of one issuer. The serial numbers are kept
+ * sorted in one byte array, and the other fields in primitive arrays, so that the status
+ * of a certificate can be found by binary search without creating any object.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class CertStatusIndex {
+
+  /**
+   * Builder of the {@link CertStatusIndex}. The entries may be added in any order.
+   */
+  static class Builder {
+
+    private final int certHashLen;
+
+    private int size;
+
+    private byte[] serials = new byte[1024];
+
+    private int serialsLen;
+
+    private int[] serialOffsets = new int[65];
+
+    private long[] notBefores = new long[64];
+
+    private long[] notAfters = new long[64];
+
+    private int[] revIndexes = new int[16];
+
+    private long[] revTimes = new long[16];
+
+    private long[] revInvTimes = new long[16];
+
+    private byte[] revReasons = new byte[16];
+
+    private int numRevoked;
+
+    private byte[] certHashes;
+
+    private final BitSet certHashPresents = new BitSet();
+
+    /**
+     * Constructor.
+     * @param certHashLen length of the certificate hash, 0 if no hash will be indexed.
+     */
+    Builder(int certHashLen) {
+      this.certHashLen = Args.notNegative(certHashLen, "certHashLen");
+      if (certHashLen > 0) {
+        certHashes = new byte[64 * certHashLen];
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Adds a certificate.
+     * @param serialNumber positive serial number.
+     * @param notBefore notBefore in seconds, 0 if not available.
+     * @param notAfter notAfter in seconds, 0 if not available.
+     * @param revoked whether the certificate is revoked.
+     * @param reason revocation reason.
+     * @param revTime revocation time in seconds.
+     * @param invalTime invalidity time in seconds, 0 if not available.
+     * @param certHash hash of the certificate, may be {@code null}.
+     */
+    void add(BigInteger serialNumber, long notBefore, long notAfter, boolean revoked,
+        int reason, long revTime, long invalTime, byte[] certHash) {
+      byte[] encoded = serialNumber.toByteArray();
+      int off = (encoded[0] == 0 && encoded.length > 1) ? 1 : 0;
+      int len = encoded.length - off;
+
+      if (size + 1 >= notBefores.length) {
+        int newCapacity = notBefores.length << 1;
+        serialOffsets = Arrays.copyOf(serialOffsets, newCapacity + 1);
+        notBefores = Arrays.copyOf(notBefores, newCapacity);
+        notAfters = Arrays.copyOf(notAfters, newCapacity);
+        if (certHashes != null) {
+          certHashes = Arrays.copyOf(certHashes, newCapacity * certHashLen);
+        }
+      }
+
+      if (serialsLen + len > serials.length) {
+        serials = Arrays.copyOf(serials, Math.max(serials.length << 1, serialsLen + len));
+      }
+
+      System.arraycopy(encoded, off, serials, serialsLen, len);
+      serialOffsets[size] = serialsLen;
+      serialsLen += len;
+      serialOffsets[size + 1] = serialsLen;
+
+      notBefores[size] = notBefore;
+      notAfters[size] = notAfter;
+
+      if (certHashes != null && certHash != null && certHash.length == certHashLen) {
+        System.arraycopy(certHash, 0, certHashes, size * certHashLen, certHashLen);
+        certHashPresents.set(size);
+      }
+
+      if (revoked) {
+        if (numRevoked == revIndexes.length) {
+          int newCapacity = revIndexes.length << 1;
+          revIndexes = Arrays.copyOf(revIndexes, newCapacity);
+          revTimes = Arrays.copyOf(revTimes, newCapacity);
+          revInvTimes = Arrays.copyOf(revInvTimes, newCapacity);
+          revReasons = Arrays.copyOf(revReasons, newCapacity);
+        }
+        revIndexes[numRevoked] = size;
+        revTimes[numRevoked] = revTime;
+        revInvTimes[numRevoked] = invalTime;
+        revReasons[numRevoked] = (byte) reason;
+        numRevoked++;
+      }
+
+      size++;
+    }
+
+    CertStatusIndex build() {
+      // sort the entries by serial number
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      mergeSort(order, new int[size], 0, size);
+
+      byte[] sortedSerials = new byte[serialsLen];
+      int[] sortedOffsets = new int[size + 1];
+      long[] sortedNotBefores = new long[size];
+      long[] sortedNotAfters = new long[size];
+      byte[] sortedCertHashes = (certHashes == null) ? null : new byte[size * certHashLen];
+      BitSet sortedCertHashPresents = new BitSet(certHashes == null ? 0 : size);
+
+      // position of an entry in the sorted arrays
+      int[] positions = new int[size];
+
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        int idx = order[i];
+        positions[idx] = i;
+
+        int len = serialOffsets[idx + 1] - serialOffsets[idx];
+        System.arraycopy(serials, serialOffsets[idx], sortedSerials, offset, len);
+        sortedOffsets[i] = offset;
+        offset += len;
+
+        sortedNotBefores[i] = notBefores[idx];
+        sortedNotAfters[i] = notAfters[idx];
+        if (sortedCertHashes != null && certHashPresents.get(idx)) {
+          System.arraycopy(certHashes, idx * certHashLen, sortedCertHashes, i * certHashLen,
+              certHashLen);
+          sortedCertHashPresents.set(i);
+        }
+      }
+      sortedOffsets[size] = offset;
+
+      // the revocation fields are sorted by the position of the entry
+      long[] revEntries = new long[numRevoked];
+      for (int i = 0; i < numRevoked; i++) {
+        revEntries[i] = ((long) positions[revIndexes[i]] << 32) | i;
+      }
+      Arrays.sort(revEntries);
+
+      int[] sortedRevIndexes = new int[numRevoked];
+      long[] sortedRevTimes = new long[numRevoked];
+      long[] sortedRevInvTimes = new long[numRevoked];
+      byte[] sortedRevReasons = new byte[numRevoked];
+      for (int i = 0; i < numRevoked; i++) {
+        int idx = (int) revEntries[i];
+        sortedRevIndexes[i] = (int) (revEntries[i] >>> 32);
+        sortedRevTimes[i] = revTimes[idx];
+        sortedRevInvTimes[i] = revInvTimes[idx];
+        sortedRevReasons[i] = revReasons[idx];
+      }
+
+      return new CertStatusIndex(size, sortedSerials, sortedOffsets, sortedNotBefores,
+          sortedNotAfters, sortedRevIndexes, sortedRevTimes, sortedRevInvTimes,
+          sortedRevReasons, certHashLen, sortedCertHashes, sortedCertHashPresents);
+    } // method build
+
+    private void mergeSort(int[] order, int[] tmp, int from, int to) {
+      if (to - from < 2) {
+        return;
+      }
+
+      int mid = (from + to) >>> 1;
+      mergeSort(order, tmp, from, mid);
+      mergeSort(order, tmp, mid, to);
+
+      if (compareEntries(order[mid - 1], order[mid]) <= 0) {
+        return;
+      }
+
+      System.arraycopy(order, from, tmp, from, to - from);
+      int left = from;
+      int right = mid;
+      for (int i = from; i < to; i++) {
+        if (right >= to || (left < mid && compareEntries(tmp[left], tmp[right]) <= 0)) {
+          order[i] = tmp[left++];
+        } else {
+          order[i] = tmp[right++];
+        }
+      }
+    }
+
+    private int compareEntries(int idx1, int idx2) {
+      return compare(serials, serialOffsets[idx1], serialOffsets[idx1 + 1] - serialOffsets[idx1],
+          serials, serialOffsets[idx2], serialOffsets[idx2 + 1] - serialOffsets[idx2]);
+    }
+
+  } // class Builder
+
+  private final int size;
+
+  private final byte[] serials;
+
+  private final int[] serialOffsets;
+
+  private final long[] notBefores;
+
+  private final long[] notAfters;
+
+  private final int[] revIndexes;
+
+  private final long[] revTimes;
+
+  private final long[] revInvTimes;
+
+  private final byte[] revReasons;
+
+  private final int certHashLen;
+
+  private final byte[] certHashes;
+
+  private final BitSet certHashPresents;
+
+  private CertStatusIndex(int size, byte[] serials, int[] serialOffsets, long[] notBefores,
+      long[] notAfters, int[] revIndexes, long[] revTimes, long[] revInvTimes,
+      byte[] revReasons, int certHashLen, byte[] certHashes, BitSet certHashPresents) {
+    this.size = size;
+    this.serials = serials;
+    this.serialOffsets = serialOffsets;
+    this.notBefores = notBefores;
+    this.notAfters = notAfters;
+    this.revIndexes = revIndexes;
+    this.revTimes = revTimes;
+    this.revInvTimes = revInvTimes;
+    this.revReasons = revReasons;
+    this.certHashLen = certHashLen;
+    this.certHashes = certHashes;
+    this.certHashPresents = certHashPresents;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int numRevoked() {
+    return revIndexes.length;
+  }
+
+  boolean containsCertHashes() {
+    return certHashes != null;
+  }
+
+  /**
+   * Returns the index of the certificate with given serial number.
+   * @param serialNumber encoded serial number as returned by {@link BigInteger#toByteArray()}.
+   * @return the index of the certificate, or a negative value if not found.
+   */
+  int indexOf(byte[] serialNumber) {
+    int off = (serialNumber[0] == 0 && serialNumber.length > 1) ? 1 : 0;
+    int len = serialNumber.length - off;
+
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(serials, serialOffsets[mid], serialOffsets[mid + 1] - serialOffsets[mid],
+          serialNumber, off, len);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  long getNotBefore(int index) {
+    return notBefores[index];
+  }
+
+  long getNotAfter(int index) {
+    return notAfters[index];
+  }
+
+  /**
+   * Returns the index of the revocation information.
+   * @param index index of the certificate.
+   * @return the index of the revocation information, or a negative value if the
+   *         certificate is not revoked.
+   */
+  int getRevIndex(int index) {
+    return (revIndexes.length == 0) ? -1 : Arrays.binarySearch(revIndexes, index);
+  }
+
+  int getRevReason(int revIndex) {
+    return revReasons[revIndex];
+  }
+
+  long getRevTime(int revIndex) {
+    return revTimes[revIndex];
+  }
+
+  long getRevInvalidityTime(int revIndex) {
+    return revInvTimes[revIndex];
+  }
+
+  byte[] getCertHash(int index) {
+    if (certHashes == null || !certHashPresents.get(index)) {
+      return null;
+    }
+
+    return Arrays.copyOfRange(certHashes, index * certHashLen, (index + 1) * certHashLen);
+  }
+
+  /**
+   * Compares two serial numbers encoded as unsigned big-endian bytes without leading zero.
+   */
+  private static int compare(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+    if (aLen != bLen) {
+      return aLen < bLen ? -1 : 1;
+    }
+
+    for (int i = 0; i < aLen; i++) {
+      int x = a[aOff + i] & 0xFF;
+      int y = b[bOff + i] & 0xFF;
+      if (x != y) {
+        return x < y ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+}
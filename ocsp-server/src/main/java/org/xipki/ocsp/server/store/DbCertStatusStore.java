@@ -26,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -44,9 +45,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusChangeListener;
 import org.xipki.ocsp.api.CertStatusInfo;
-import org.xipki.ocsp.api.CertStatusInfo.CertStatus;
-import org.xipki.ocsp.api.CertStatusInfo.UnknownCertBehaviour;
 import org.xipki.ocsp.api.OcspStore;
 import org.xipki.ocsp.api.OcspStoreException;
 import org.xipki.ocsp.api.RequestIssuer;
@@ -54,7 +54,6 @@ import org.xipki.ocsp.server.IssuerFilter;
 import org.xipki.ocsp.server.OcspServerConf;
 import org.xipki.ocsp.server.store.crl.CrlInfo;
 import org.xipki.security.CertRevocationInfo;
-import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
@@ -82,10 +81,30 @@ public class DbCertStatusStore extends OcspStore {
 
   } // class StoreUpdateService
 
+  private class ChangePollService implements Runnable {
+
+    @Override
+    public void run() {
+      if (!isChangeNotificationEnabled()) {
+        return;
+      }
+
+      try {
+        changePoller.poll();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while polling the changed certificates of store " + name);
+      }
+    }
+
+  } // class ChangePollService
+
   protected DataSourceWrapper datasource;
 
   private static final Logger LOG = LoggerFactory.getLogger(DbCertStatusStore.class);
 
+  // maximal number of serial numbers in the IN-clause of one query.
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
 
   private String sqlCsNoRit;
@@ -98,7 +117,7 @@ public class DbCertStatusStore extends OcspStore {
 
   private IssuerFilter issuerFilter;
 
-  private IssuerStore issuerStore;
+  private volatile IssuerStore issuerStore;
 
   private HashAlgo certHashAlgo;
 
@@ -106,6 +125,8 @@ public class DbCertStatusStore extends OcspStore {
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+  private CertChangePoller changePoller;
+
   protected List<Runnable> getScheduledServices() {
     return Collections.emptyList();
   }
@@ -118,7 +139,7 @@ public class DbCertStatusStore extends OcspStore {
     storeUpdateInProcess.set(true);
     try {
       if (initialized) {
-        final String sql = "SELECT ID,REV_INFO,S1C FROM ISSUER";
+        final String sql = "SELECT ID,REV_INFO,S1C,CRL_INFO FROM ISSUER";
         PreparedStatement ps = preparedStatement(sql);
         ResultSet rs = null;
 
@@ -134,14 +155,25 @@ public class DbCertStatusStore extends OcspStore {
               }
             }
 
+            // an issuer imported from a CRL is switched to a new CRL via CRL_INFO.
+            BigInteger crlNumber = null;
+            String str = rs.getString("CRL_INFO");
+            if (StringUtil.isNotBlank(str)) {
+              CrlInfo crlInfo = new CrlInfo(str);
+              if (crlInfo.isImportPending()) {
+                continue;
+              }
+              crlNumber = crlInfo.getCrlNumber();
+            }
+
             int id = rs.getInt("ID");
             Long revTimeMs = null;
-            String str = rs.getString("REV_INFO");
+            str = rs.getString("REV_INFO");
             if (str != null) {
               CertRevocationInfo revInfo = CertRevocationInfo.fromEncoded(str);
               revTimeMs = revInfo.getRevocationTime().getTime();
             }
-            SimpleIssuerEntry issuerEntry = new SimpleIssuerEntry(id, revTimeMs);
+            SimpleIssuerEntry issuerEntry = new SimpleIssuerEntry(id, revTimeMs, crlNumber);
             newIssuers.put(id, issuerEntry);
           }
 
@@ -186,12 +218,18 @@ public class DbCertStatusStore extends OcspStore {
 
           X509Certificate cert = X509Util.parseCert(StringUtil.toUtf8Bytes(rs.getString("CERT")));
 
-          IssuerEntry caInfoEntry = new IssuerEntry(rs.getInt("ID"), cert);
+          CrlInfo crlInfo = null;
           String crlInfoStr = rs.getString("CRL_INFO");
           if (StringUtil.isNotBlank(crlInfoStr)) {
-            CrlInfo crlInfo = new CrlInfo(crlInfoStr);
-            caInfoEntry.setCrlInfo(crlInfo);
+            crlInfo = new CrlInfo(crlInfoStr);
+            if (crlInfo.isImportPending()) {
+              LOG.info("ignore issuer {} with unfinished import of CRL", rs.getInt("ID"));
+              continue;
+            }
           }
+
+          IssuerEntry caInfoEntry = new IssuerEntry(rs.getInt("ID"), cert);
+          caInfoEntry.setCrlInfo(crlInfo);
           RequestIssuer reqIssuer = new RequestIssuer(HashAlgo.SHA1,
               caInfoEntry.getEncodedHash(HashAlgo.SHA1));
           for (IssuerEntry existingIssuer : caInfos) {
@@ -230,24 +268,26 @@ public class DbCertStatusStore extends OcspStore {
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
+    List<CertStatusInfo> infos = getCertStatuses0(time, reqIssuer,
+        Collections.singletonList(serialNumber), includeCertHash, includeRit,
+        inheritCaRevocation);
+    return (infos == null) ? null : infos.get(0);
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
     if (!initialized) {
       throw new OcspStoreException("initialization of CertStore is still in process");
     }
 
-    String sql;
-
     try {
       IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
       if (issuer == null) {
         return null;
       }
 
-      if (includeCertHash) {
-        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
-      } else {
-        sql = includeRit ? sqlCs : sqlCsNoRit;
-      }
-
       CrlInfo crlInfo = issuer.getCrlInfo();
 
       Date thisUpdate;
@@ -264,142 +304,175 @@ public class DbCertStatusStore extends OcspStore {
         thisUpdate = new Date();
       }
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
-
-      PreparedStatement ps = datasource.prepareStatement(sql);
-
-      try {
-        ps.setInt(1, issuer.getId());
-        ps.setString(2, serialNumber.toString(16));
-        rs = ps.executeQuery();
+      // status of the certificates found in the database
+      Map<BigInteger, CertStatusInfo> foundInfos = new HashMap<>();
 
-        if (rs.next()) {
-          unknown = false;
+      List<BigInteger> querySerials = new ArrayList<>(serialNumbers.size());
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() == 1 && !querySerials.contains(serialNumber)) {
+          querySerials.add(serialNumber);
+        }
+      }
 
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
+      for (int from = 0; from < querySerials.size(); from += MAX_SERIALS_PER_QUERY) {
+        List<BigInteger> subList = querySerials.subList(from,
+            Math.min(from + MAX_SERIALS_PER_QUERY, querySerials.size()));
+        queryCertStatuses(issuer.getId(), subList, time, includeCertHash, includeRit,
+            thisUpdate, nextUpdate, foundInfos);
+      }
 
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
+      List<CertStatusInfo> infos = new ArrayList<>(serialNumbers.size());
+      for (BigInteger serialNumber : serialNumbers) {
+        CertStatusInfo certStatusInfo;
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
+        } else {
+          certStatusInfo = foundInfos.get(serialNumber);
+          if (certStatusInfo == null) {
+            certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+          } else {
+            // the same serial number may be requested more than once
+            certStatusInfo = copy(certStatusInfo);
           }
 
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("HASH");
-            }
-
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
+          if (includeCrlId && crlInfo != null) {
+            certStatusInfo.setCrlId(crlInfo.getCrlId());
           }
-        } // end if (rs.next())
-      } catch (SQLException ex) {
-        throw datasource.translate(sql, ex);
-      } finally {
-        releaseDbResources(ps, rs);
+          certStatusInfo = complete(certStatusInfo, issuer.getNotBefore(),
+              issuer.getRevocationInfo(), inheritCaRevocation);
+        }
+        infos.add(certStatusInfo);
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+      return infos;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  /**
+   * Retrieves the status of the given certificates from the database.
+   * @param issuerId
+   *          Id of the issuer.
+   * @param serialNumbers
+   *          Positive and distinct serial numbers, at most 100.
+   * @param time
+   *          Time of the certificate status.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param thisUpdate
+   *          thisUpdate of the certificate status.
+   * @param nextUpdate
+   *          nextUpdate of the certificate status, may be {@code null}.
+   * @param foundInfos
+   *          Map to which the status of found certificates will be added.
+   * @throws DataAccessException
+   *          if error occurs while accessing the database.
+   */
+  protected void queryCertStatuses(int issuerId, List<BigInteger> serialNumbers, Date time,
+      boolean includeCertHash, boolean includeRit, Date thisUpdate, Date nextUpdate,
+      Map<BigInteger, CertStatusInfo> foundInfos) throws DataAccessException {
+    final int num = serialNumbers.size();
+    String sql;
+    if (num == 1) {
+      if (includeCertHash) {
+        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
       } else {
-        byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-        if (revoked) {
-          Date invTime = (invalTime == 0 || invalTime == revTime)
-              ? null : new Date(invalTime * 1000);
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), invTime);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
-        }
+        sql = includeRit ? sqlCs : sqlCsNoRit;
+      }
+    } else {
+      StringBuilder sb = new StringBuilder(100 + 2 * num);
+      sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT");
+      if (includeRit) {
+        sb.append(",RIT");
+      }
+      if (includeCertHash) {
+        sb.append(",HASH");
+      }
+      sb.append(" FROM CERT WHERE IID=? AND SN IN (?");
+      for (int i = 1; i < num; i++) {
+        sb.append(",?");
       }
+      sb.append(")");
+      sql = sb.toString();
+    }
 
-      if (includeCrlId && crlInfo != null) {
-        certStatusInfo.setCrlId(crlInfo.getCrlId());
+    long timeInSec = time.getTime() / 1000;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      int idx = 1;
+      ps.setInt(idx++, issuerId);
+      for (BigInteger serialNumber : serialNumbers) {
+        ps.setString(idx++, serialNumber.toString(16));
       }
+      rs = ps.executeQuery();
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
-          }
+      while (rs.next()) {
+        BigInteger serialNumber = (num == 1) ? serialNumbers.get(0)
+            : new BigInteger(rs.getString("SN"), 16);
 
-          certStatusInfo.setArchiveCutOff(date);
+        byte[] certHash = null;
+        if (includeCertHash) {
+          String b64CertHash = rs.getString("HASH");
+          certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
         }
-      }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+        CertStatusInfo certStatusInfo = buildCertStatusInfo(timeInSec, rs.getLong("NBEFORE"),
+            rs.getLong("NAFTER"), rs.getBoolean("REV"), rs.getInt("RR"), rs.getLong("RT"),
+            includeRit ? rs.getLong("RIT") : 0, certHash, thisUpdate, nextUpdate);
+        foundInfos.put(serialNumber, certStatusInfo);
       }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method queryCertStatuses
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
-        }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
-        }
+  /**
+   * Builds the status of a certificate from the columns of the table CERT.
+   * @param timeInSec time of the certificate status, in seconds since January 1, 1970 UTC.
+   * @param notBefore column NBEFORE, 0 if not available.
+   * @param notAfter column NAFTER, 0 if not available.
+   * @param revoked column REV.
+   * @param reason column RR.
+   * @param revTime column RT.
+   * @param invalTime column RIT, 0 if not available.
+   * @param certHash decoded column HASH, may be {@code null}.
+   * @param thisUpdate thisUpdate of the certificate status.
+   * @param nextUpdate nextUpdate of the certificate status, may be {@code null}.
+   * @return the certificate status.
+   */
+  protected CertStatusInfo buildCertStatusInfo(long timeInSec, long notBefore, long notAfter,
+      boolean revoked, int reason, long revTime, long invalTime, byte[] certHash,
+      Date thisUpdate, Date nextUpdate) {
+    if (ignoreNotYetValidCert) {
+      if (notBefore != 0 && timeInSec < notBefore) {
+        return CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
       }
+    }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
-        } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
-        }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+    if (ignoreExpiredCert) {
+      if (notAfter != 0 && timeInSec > notAfter) {
+        return CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
       }
-      return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
     }
 
-  } // method getCertStatus
+    if (revoked) {
+      Date invTime = (invalTime == 0 || invalTime == revTime)
+          ? null : new Date(invalTime * 1000);
+      CertRevocationInfo revInfo = new CertRevocationInfo(reason,
+          new Date(revTime * 1000), invTime);
+      return CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+          certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+    } else {
+      return CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+          certHash, thisUpdate, nextUpdate, null);
+    }
+  } // method buildCertStatusInfo
 
   /**
    * Borrow Prepared Statement.
@@ -500,12 +573,20 @@ public class DbCertStatusStore extends OcspStore {
 
     updateIssuerStore();
 
+    this.changePoller = new CertChangePoller(datasource, "IID", new CertChangePoller.Handler() {
+      @Override
+      public void certsChanged(int issuerId, List<BigInteger> serialNumbers) {
+        DbCertStatusStore.this.certsChanged(issuerId, serialNumbers);
+      }
+    });
+    this.changePoller.rewind(System.currentTimeMillis() / 1000 - CertChangePoller.LUPDATE_OVERLAP);
+
     if (this.scheduledThreadPoolExecutor != null) {
       this.scheduledThreadPoolExecutor.shutdownNow();
     }
     StoreUpdateService storeUpdateService = new StoreUpdateService();
     List<Runnable> scheduledServices = getScheduledServices();
-    int size = 1;
+    int size = 2;
     if (scheduledServices != null) {
       size += scheduledServices.size();
     }
@@ -514,6 +595,8 @@ public class DbCertStatusStore extends OcspStore {
     Random random = new Random();
     this.scheduledThreadPoolExecutor.scheduleAtFixedRate(storeUpdateService,
         60 + random.nextInt(60), 60, TimeUnit.SECONDS);
+    this.scheduledThreadPoolExecutor.scheduleAtFixedRate(new ChangePollService(),
+        60 + random.nextInt(60), 60, TimeUnit.SECONDS);
     if (scheduledServices != null) {
       for (Runnable service : scheduledServices) {
         this.scheduledThreadPoolExecutor.scheduleAtFixedRate(service,
@@ -534,6 +617,50 @@ public class DbCertStatusStore extends OcspStore {
     }
   }
 
+  @Override
+  public List<X509Certificate> getIssuerCerts() {
+    return (issuerStore == null) ? Collections.emptyList() : issuerStore.getIssuerCerts();
+  }
+
+  @Override
+  public long getSerialNumbers(RequestIssuer reqIssuer, Date time, long fromId, int numEntries,
+      List<BigInteger> serialNumbers) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      return 0;
+    }
+
+    final String sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+        "ID,SN FROM CERT WHERE IID=? AND ID>=? AND NAFTER>?");
+    long maxId = 0;
+    ResultSet rs = null;
+    try {
+      PreparedStatement ps = datasource.prepareStatement(sql);
+      try {
+        ps.setInt(1, issuer.getId());
+        ps.setLong(2, fromId);
+        ps.setLong(3, time.getTime() / 1000);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          maxId = Math.max(maxId, rs.getLong("ID"));
+          serialNumbers.add(new BigInteger(rs.getString("SN"), 16));
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseDbResources(ps, rs);
+      }
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
+    return maxId;
+  }
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return issuerStore != null && null != issuerStore.getIssuerForFp(reqIssuer);
@@ -552,6 +679,48 @@ public class DbCertStatusStore extends OcspStore {
     return initialized;
   }
 
+  @Override
+  public boolean supportsChangeNotification() {
+    return true;
+  }
+
+  /**
+   * Whether the changed certificates will be polled from the database. The default
+   * implementation returns whether any {@link CertStatusChangeListener} is registered.
+   * @return whether the changed certificates will be polled.
+   */
+  protected boolean isChangeNotificationEnabled() {
+    return hasChangeListeners();
+  }
+
+  /**
+   * Sets the time from which the changed certificates will be polled again.
+   * @param lupdate time in seconds.
+   */
+  protected void rewindChangeNotification(long lupdate) {
+    if (changePoller != null) {
+      changePoller.rewind(lupdate);
+    }
+  }
+
+  /**
+   * Called with the certificates changed in the database. The default implementation
+   * notifies the {@link CertStatusChangeListener}s.
+   * @param issuerId id of the issuer.
+   * @param serialNumbers serial numbers of the changed certificates.
+   */
+  protected void certsChanged(int issuerId, List<BigInteger> serialNumbers) {
+    IssuerStore store = issuerStore;
+    IssuerEntry issuer = (store == null) ? null : store.getIssuerForId(issuerId);
+    if (issuer != null) {
+      fireCertStatusChanged(issuer.getCert(), serialNumbers);
+    }
+  }
+
+  protected HashAlgo getCertHashAlgo() {
+    return certHashAlgo;
+  }
+
   static Set<X509Certificate> parseCerts(Collection<String> certFiles)
       throws OcspStoreException {
     Set<X509Certificate> certs = new HashSet<>(certFiles.size());
@@ -40,7 +40,7 @@ import org.xipki.util.Args;
  * @since 2.0.0
  */
 
-class IssuerEntry {
+public class IssuerEntry {
 
   private final int id;
 
@@ -61,7 +61,16 @@ class IssuerEntry {
     this.issuerHashMap = getIssuerHashAndKeys(cert.getEncoded());
   }
 
-  private static Map<HashAlgo, byte[]> getIssuerHashAndKeys(byte[] encodedCert)
+  /**
+   * Returns the hashes of the name and key of the issuer, as encoded in the CertID.
+   * @param encodedCert
+   *          Encoded issuer certificate. Must not be {@code null}.
+   * @return the concatenated name and key hashes, for each hash algorithm.
+   * @throws CertificateEncodingException
+   *           if the certificate could not be parsed.
+   * @since 5.2.1
+   */
+  public static Map<HashAlgo, byte[]> getIssuerHashAndKeys(byte[] encodedCert)
       throws CertificateEncodingException {
     byte[] encodedName;
     byte[] encodedKey;
@@ -17,50 +17,135 @@
 
 package org.xipki.ocsp.server.store;
 
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.CompareUtil;
 
 /**
- * TODO.
+ * Store of the issuers. The lookup is based on an immutable index, which is rebuilt
+ * (copy-on-write) on each modification, so that the lookup is lock-free.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 class IssuerStore {
 
-  private final List<IssuerEntry> entries;
+  /**
+   * Key of the index: the encoded issuerNameHash and issuerKeyHash of a CertID,
+   * without copying the underlying bytes.
+   */
+  private static class HashKey {
 
-  private Set<Integer> ids;
+    private final byte[] data;
 
-  public IssuerStore(List<IssuerEntry> entries) {
-    this.entries = new ArrayList<>(entries.size());
-    Set<Integer> idSet = new HashSet<>(entries.size());
+    private final int offset;
 
-    for (IssuerEntry entry : entries) {
-      for (IssuerEntry existingEntry : this.entries) {
-        if (existingEntry.getId() == entry.getId()) {
+    private final int length;
+
+    private final int hashCode;
+
+    HashKey(byte[] data, int offset, int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+
+      int hc = 1;
+      for (int i = offset; i < offset + length; i++) {
+        hc = 31 * hc + data[i];
+      }
+      this.hashCode = hc;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof HashKey)) {
+        return false;
+      }
+
+      HashKey other = (HashKey) obj;
+      return length == other.length
+          && CompareUtil.areEqual(data, offset, other.data, other.offset, length);
+    }
+
+  } // class HashKey
+
+  private static class Index {
+
+    private final List<IssuerEntry> entries;
+
+    private final Set<Integer> ids;
+
+    private final Map<Integer, IssuerEntry> idMap;
+
+    private final Map<HashAlgo, Map<HashKey, IssuerEntry>> hashMap;
+
+    Index(List<IssuerEntry> entries) {
+      final int size = entries.size();
+      List<IssuerEntry> list = new ArrayList<>(size);
+      Map<Integer, IssuerEntry> idMap0 = new HashMap<>();
+      Map<HashAlgo, Map<HashKey, IssuerEntry>> hashMap0 = new EnumMap<>(HashAlgo.class);
+      for (HashAlgo ha : HashAlgo.values()) {
+        hashMap0.put(ha, new HashMap<HashKey, IssuerEntry>());
+      }
+
+      for (IssuerEntry entry : entries) {
+        if (idMap0.containsKey(entry.getId())) {
           throw new IllegalArgumentException(
               "issuer with the same id " + entry.getId() + " already available");
         }
+
+        list.add(entry);
+        idMap0.put(entry.getId(), entry);
+
+        for (HashAlgo ha : HashAlgo.values()) {
+          byte[] encodedHash = entry.getEncodedHash(ha);
+          // keep the first one, as the linear search did.
+          Map<HashKey, IssuerEntry> map = hashMap0.get(ha);
+          HashKey key = new HashKey(encodedHash, 0, encodedHash.length);
+          if (!map.containsKey(key)) {
+            map.put(key, entry);
+          }
+        }
       }
-      this.entries.add(entry);
-      idSet.add(entry.getId());
+
+      this.entries = Collections.unmodifiableList(list);
+      this.idMap = idMap0;
+      this.hashMap = hashMap0;
+      this.ids = Collections.unmodifiableSet(new HashSet<>(idMap0.keySet()));
     }
 
-    this.ids = Collections.unmodifiableSet(idSet);
+  } // class Index
+
+  private volatile Index index;
+
+  public IssuerStore(List<IssuerEntry> entries) {
+    this.index = new Index(entries);
   }
 
   public int size() {
-    return ids.size();
+    return index.ids.size();
   }
 
   public Set<Integer> getIds() {
-    return ids;
+    return index.ids;
   }
 
   public Integer getIssuerIdForFp(RequestIssuer reqIssuer) {
@@ -69,30 +154,34 @@ class IssuerStore {
   }
 
   public IssuerEntry getIssuerForId(int id) {
-    for (IssuerEntry entry : entries) {
-      if (entry.getId() == id) {
-        return entry;
-      }
+    return index.idMap.get(id);
+  }
+
+  public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
+    HashAlgo hashAlgo = reqIssuer.hashAlgorithm();
+    if (hashAlgo == null) {
+      return null;
     }
 
-    return null;
+    int offset = reqIssuer.getNameHashFrom();
+    int length = reqIssuer.getFrom() + reqIssuer.getLength() - offset;
+    HashKey key = new HashKey(reqIssuer.getData(), offset, length);
+    return index.hashMap.get(hashAlgo).get(key);
   }
 
-  public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
+  public List<X509Certificate> getIssuerCerts() {
+    List<IssuerEntry> entries = index.entries;
+    List<X509Certificate> certs = new ArrayList<>(entries.size());
     for (IssuerEntry entry : entries) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
+      certs.add(entry.getCert());
     }
-
-    return null;
+    return certs;
   }
 
-  public void addIssuer(IssuerEntry issuer) {
-    this.entries.add(issuer);
-    Set<Integer> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+  public synchronized void addIssuer(IssuerEntry issuer) {
+    List<IssuerEntry> newEntries = new ArrayList<>(index.entries);
+    newEntries.add(issuer);
+    this.index = new Index(newEntries);
   }
 
 }
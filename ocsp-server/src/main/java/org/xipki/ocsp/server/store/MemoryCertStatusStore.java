@@ -0,0 +1,442 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+import org.xipki.util.LogUtil;
+
+/**
+ * OCSP store which keeps the status of all certificates of the OCSP database in memory,
+ * so that the status is retrieved without accessing the database. Changed certificates
+ * are refreshed every minute via the change notification of {@link DbCertStatusStore},
+ * the whole index is reloaded periodically.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public class MemoryCertStatusStore extends DbCertStatusStore {
+
+  private static class CertEntry {
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final boolean revoked;
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalTime;
+
+    private final byte[] certHash;
+
+    CertEntry(long notBefore, long notAfter, boolean revoked, int reason, long revTime,
+        long invalTime, byte[] certHash) {
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+      this.revoked = revoked;
+      this.reason = reason;
+      this.revTime = revTime;
+      this.invalTime = invalTime;
+      this.certHash = certHash;
+    }
+
+  } // class CertEntry
+
+  private static class IssuerIndex {
+
+    private final CertStatusIndex index;
+
+    // certificates changed after the index has been built
+    private final ConcurrentHashMap<BigInteger, CertEntry> changes = new ConcurrentHashMap<>();
+
+    IssuerIndex(CertStatusIndex index) {
+      this.index = index;
+    }
+
+  } // class IssuerIndex
+
+  private class IndexUpdateService implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        updateIndexes();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while calling updateIndexes() for store " + name);
+      }
+    }
+
+  } // class IndexUpdateService
+
+  private static final Logger LOG = LoggerFactory.getLogger(MemoryCertStatusStore.class);
+
+  private static final int PAGE_SIZE = 10000;
+
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
+  private final AtomicBoolean indexUpdateInProcess = new AtomicBoolean(false);
+
+  private volatile Map<Integer, IssuerIndex> indexes = Collections.emptyMap();
+
+  private boolean indexCertHash;
+
+  private int fullReloadInterval;
+
+  private int maxChanges;
+
+  private long lastFullReload;
+
+  private final AtomicInteger numChanges = new AtomicInteger(0);
+
+  /**
+   * Initialize the store.
+   *
+   * @param sourceConf
+   * the store source configuration. It contains following key-value pairs:
+   * <ul>
+   * <li>caCerts: optional
+   *   <p/>
+   *   CA certificate files to be included / excluded.</li>
+   * <li>indexCertHash: optional, default to false
+   *   <p/>
+   *   Whether to keep the certificate hash in memory. If not, the status of requests
+   *   with certificate hash will be retrieved from the database.</li>
+   * <li>fullReloadInterval: optional, default to 1440
+   *   <p/>
+   *   Interval in minutes to reload all certificates.</li>
+   * <li>maxChanges: optional, default to 100000
+   *   <p/>
+   *   Maximal number of changed certificates kept besides the index before all
+   *   certificates will be reloaded.</li>
+   * </ul>
+   * @param datasource DataSource.
+   */
+  @Override
+  public void init(Map<String, ? extends Object> sourceConf, DataSourceWrapper datasource)
+      throws OcspStoreException {
+    Boolean bo = (sourceConf == null) ? null : getValue(sourceConf, "indexCertHash", Boolean.class);
+    this.indexCertHash = (bo == null) ? false : bo.booleanValue();
+
+    Integer num = (sourceConf == null) ? null
+        : getValue(sourceConf, "fullReloadInterval", Integer.class);
+    this.fullReloadInterval = Args.positive((num == null) ? 1440 : num.intValue(),
+        "fullReloadInterval");
+
+    num = (sourceConf == null) ? null : getValue(sourceConf, "maxChanges", Integer.class);
+    this.maxChanges = Args.positive((num == null) ? 100000 : num.intValue(), "maxChanges");
+
+    super.init(sourceConf, datasource);
+    updateIndexes();
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    indexes = Collections.emptyMap();
+  }
+
+  @Override
+  protected List<Runnable> getScheduledServices() {
+    return Arrays.asList(new IndexUpdateService());
+  }
+
+  @Override
+  protected void queryCertStatuses(int issuerId, List<BigInteger> serialNumbers, Date time,
+      boolean includeCertHash, boolean includeRit, Date thisUpdate, Date nextUpdate,
+      Map<BigInteger, CertStatusInfo> foundInfos) throws DataAccessException {
+    IssuerIndex issuerIndex = indexes.get(issuerId);
+    if (issuerIndex == null || (includeCertHash && !issuerIndex.index.containsCertHashes())) {
+      // index is not available
+      super.queryCertStatuses(issuerId, serialNumbers, time, includeCertHash, includeRit,
+          thisUpdate, nextUpdate, foundInfos);
+      return;
+    }
+
+    long timeInSec = time.getTime() / 1000;
+    CertStatusIndex index = issuerIndex.index;
+
+    for (BigInteger serialNumber : serialNumbers) {
+      CertEntry entry = issuerIndex.changes.isEmpty() ? null
+          : issuerIndex.changes.get(serialNumber);
+
+      CertStatusInfo certStatusInfo;
+      if (entry != null) {
+        certStatusInfo = buildCertStatusInfo(timeInSec, entry.notBefore, entry.notAfter,
+            entry.revoked, entry.reason, entry.revTime, includeRit ? entry.invalTime : 0,
+            includeCertHash ? entry.certHash : null, thisUpdate, nextUpdate);
+      } else {
+        int idx = index.indexOf(serialNumber.toByteArray());
+        if (idx < 0) {
+          continue;
+        }
+
+        int revIdx = index.getRevIndex(idx);
+        boolean revoked = revIdx >= 0;
+        certStatusInfo = buildCertStatusInfo(timeInSec,
+            index.getNotBefore(idx), index.getNotAfter(idx), revoked,
+            revoked ? index.getRevReason(revIdx) : 0,
+            revoked ? index.getRevTime(revIdx) : 0,
+            (revoked && includeRit) ? index.getRevInvalidityTime(revIdx) : 0,
+            includeCertHash ? index.getCertHash(idx) : null, thisUpdate, nextUpdate);
+      }
+
+      foundInfos.put(serialNumber, certStatusInfo);
+    }
+  } // method queryCertStatuses
+
+  private void updateIndexes() {
+    if (indexUpdateInProcess.getAndSet(true)) {
+      return;
+    }
+
+    try {
+      long fullReloadIntervalMs = TimeUnit.MINUTES.toMillis(fullReloadInterval);
+      if (lastFullReload == 0 || numChanges.get() > maxChanges
+          || System.currentTimeMillis() - lastFullReload > fullReloadIntervalMs) {
+        loadIndexes();
+      }
+    } catch (DataAccessException ex) {
+      LogUtil.error(LOG, ex, "could not update the index of store " + name);
+    } finally {
+      indexUpdateInProcess.set(false);
+    }
+  } // method updateIndexes
+
+  private void loadIndexes() throws DataAccessException {
+    long start = System.currentTimeMillis();
+    final int certHashLen = indexCertHash ? getCertHashAlgo().getLength() : 0;
+    final Map<Integer, CertStatusIndex.Builder> builders = new HashMap<>();
+
+    long num = loadCerts(new RowHandler() {
+      @Override
+      public void handle(int issuerId, BigInteger serialNumber, long notBefore, long notAfter,
+          boolean revoked, int reason, long revTime, long invalTime, byte[] certHash) {
+        CertStatusIndex.Builder builder = builders.get(issuerId);
+        if (builder == null) {
+          builder = new CertStatusIndex.Builder(certHashLen);
+          builders.put(issuerId, builder);
+        }
+        builder.add(serialNumber, notBefore, notAfter, revoked, reason, revTime, invalTime,
+            certHash);
+      }
+    });
+
+    Map<Integer, IssuerIndex> newIndexes = new HashMap<>();
+    for (Map.Entry<Integer, CertStatusIndex.Builder> entry : builders.entrySet()) {
+      newIndexes.put(entry.getKey(), new IssuerIndex(entry.getValue().build()));
+    }
+    builders.clear();
+
+    this.indexes = newIndexes;
+    this.numChanges.set(0);
+    this.lastFullReload = start;
+    // certificates changed while loading will be loaded again
+    rewindChangeNotification(start / 1000 - CertChangePoller.LUPDATE_OVERLAP);
+    LOG.info("loaded status of {} certificates of {} issuers into store {} in {} ms",
+        num, newIndexes.size(), name, System.currentTimeMillis() - start);
+  } // method loadIndexes
+
+  @Override
+  protected boolean isChangeNotificationEnabled() {
+    return true;
+  }
+
+  @Override
+  protected void certsChanged(int issuerId, List<BigInteger> serialNumbers) {
+    IssuerIndex issuerIndex = indexes.get(issuerId);
+    if (issuerIndex != null) {
+      try {
+        for (int from = 0; from < serialNumbers.size(); from += MAX_SERIALS_PER_QUERY) {
+          List<BigInteger> subList = serialNumbers.subList(from,
+              Math.min(from + MAX_SERIALS_PER_QUERY, serialNumbers.size()));
+          loadChangedCerts(issuerId, subList, issuerIndex);
+        }
+      } catch (DataAccessException ex) {
+        // the index may be outdated, reload it.
+        LogUtil.error(LOG, ex, "could not load the changed certificates into store " + name);
+        numChanges.set(Integer.MAX_VALUE);
+      }
+    }
+
+    // notify the listeners after the index has been updated
+    super.certsChanged(issuerId, serialNumbers);
+  } // method certsChanged
+
+  private void loadChangedCerts(int issuerId, List<BigInteger> serialNumbers,
+      IssuerIndex issuerIndex) throws DataAccessException {
+    final int num = serialNumbers.size();
+    StringBuilder sb = new StringBuilder(200 + 2 * num);
+    sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT,RIT");
+    if (indexCertHash) {
+      sb.append(",HASH");
+    }
+    sb.append(" FROM CERT WHERE IID=? AND SN IN (?");
+    for (int i = 1; i < num; i++) {
+      sb.append(",?");
+    }
+    sb.append(")");
+    final String sql = sb.toString();
+
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      int idx = 1;
+      ps.setInt(idx++, issuerId);
+      for (BigInteger serialNumber : serialNumbers) {
+        ps.setString(idx++, serialNumber.toString(16));
+      }
+      rs = ps.executeQuery();
+
+      while (rs.next()) {
+        BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+        CertEntry entry = readCertEntry(rs);
+        if (issuerIndex.changes.put(serialNumber, entry) == null) {
+          numChanges.incrementAndGet();
+        }
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method loadChangedCerts
+
+  private CertEntry readCertEntry(ResultSet rs) throws SQLException {
+    byte[] certHash = null;
+    if (indexCertHash) {
+      String b64CertHash = rs.getString("HASH");
+      certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+    }
+
+    boolean revoked = rs.getBoolean("REV");
+    return new CertEntry(rs.getLong("NBEFORE"), rs.getLong("NAFTER"), revoked,
+        revoked ? rs.getInt("RR") : 0, revoked ? rs.getLong("RT") : 0,
+        revoked ? rs.getLong("RIT") : 0, certHash);
+  }
+
+  private interface RowHandler {
+
+    void handle(int issuerId, BigInteger serialNumber, long notBefore, long notAfter,
+        boolean revoked, int reason, long revTime, long invalTime, byte[] certHash);
+
+  } // interface RowHandler
+
+  /**
+   * Reads all certificates from the table CERT.
+   * @param handler handler of the read rows.
+   * @return number of read rows.
+   */
+  private long loadCerts(RowHandler handler) throws DataAccessException {
+    StringBuilder sb = new StringBuilder(150);
+    sb.append("ID,IID,SN,NBEFORE,NAFTER,REV,RR,RT,RIT");
+    if (indexCertHash) {
+      sb.append(",HASH");
+    }
+    sb.append(" FROM CERT WHERE ID>=?");
+    final String sql = datasource.buildSelectFirstSql(PAGE_SIZE, "ID ASC", sb.toString());
+
+    long num = 0;
+    long fromId = 1;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      while (true) {
+        ps.setLong(1, fromId);
+        rs = ps.executeQuery();
+
+        long maxId = -1;
+        while (rs.next()) {
+          maxId = Math.max(maxId, rs.getLong("ID"));
+
+          BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+          if (serialNumber.signum() != 1) {
+            continue;
+          }
+
+          byte[] certHash = null;
+          if (indexCertHash) {
+            String b64CertHash = rs.getString("HASH");
+            certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+          }
+
+          boolean revoked = rs.getBoolean("REV");
+          handler.handle(rs.getInt("IID"), serialNumber, rs.getLong("NBEFORE"),
+              rs.getLong("NAFTER"), revoked, revoked ? rs.getInt("RR") : 0,
+              revoked ? rs.getLong("RT") : 0, revoked ? rs.getLong("RIT") : 0, certHash);
+          num++;
+        }
+        datasource.releaseResources(null, rs);
+        rs = null;
+
+        if (maxId == -1) {
+          break;
+        }
+        fromId = maxId + 1;
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+
+    return num;
+  } // method loadCerts
+
+  @SuppressWarnings("unchecked")
+  private static <T> T getValue(Map<String, ? extends Object> sourceConf, String confName,
+      Class<T> type) {
+    Object objVal = sourceConf.get(confName);
+    if (objVal == null) {
+      return null;
+    }
+
+    if (type.isInstance(objVal)) {
+      return (T) objVal;
+    } else {
+      throw new IllegalArgumentException("content of " + confName + " is not "
+          + type.getSimpleName() + ", but " + objVal.getClass().getName());
+    }
+  }
+
+}
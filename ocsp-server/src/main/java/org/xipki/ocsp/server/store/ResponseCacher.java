@@ -25,9 +25,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -47,6 +50,7 @@ import org.xipki.security.AlgorithmCode;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Base64;
+import org.xipki.util.HealthCheckResult;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
@@ -76,6 +80,10 @@ public class ResponseCacher implements Closeable {
 
   private static final String SQL_DELETE_EXPIRED_RESP = "DELETE FROM OCSP WHERE THIS_UPDATE<?";
 
+  private static final String SQL_DELETE_RESP = "DELETE FROM OCSP WHERE ID=?";
+
+  private static final String SQL_DELETE_RESP_IN_MS = "DELETE FROM OCSP WHERE THIS_UPDATE>?";
+
   private static final String SQL_ADD_RESP = "INSERT INTO OCSP (ID,IID,IDENT,"
       + "THIS_UPDATE,NEXT_UPDATE,RESP) VALUES (?,?,?,?,?,?)";
 
@@ -110,6 +118,11 @@ public class ResponseCacher implements Closeable {
       inProcess = true;
       long maxThisUpdate = System.currentTimeMillis() / 1000 - validity;
       try {
+        if (memoryCache != null) {
+          int num = memoryCache.removeExpired(maxThisUpdate);
+          LOG.info("removed {} in-memory response with thisUpdate < {}", num, maxThisUpdate);
+        }
+
         int num = removeExpiredResponses(maxThisUpdate);
         LOG.info("removed {} response with thisUpdate < {}", num, maxThisUpdate);
       } catch (Throwable th) {
@@ -133,7 +146,7 @@ public class ResponseCacher implements Closeable {
 
   private DataSourceWrapper datasource;
 
-  private IssuerStore issuerStore;
+  private volatile IssuerStore issuerStore;
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
@@ -141,6 +154,8 @@ public class ResponseCacher implements Closeable {
 
   private ScheduledFuture<?> issuerUpdater;
 
+  private ResponseMemoryCache memoryCache;
+
   public ResponseCacher(DataSourceWrapper datasource, boolean master, int validity) {
     this.datasource = Args.notNull(datasource, "datasource");
     this.master = master;
@@ -157,12 +172,25 @@ public class ResponseCacher implements Closeable {
     }
   }
 
+  /**
+   * Enables the in-memory tier in front of the cache database. Must be called before
+   * {@link #init()}.
+   * @param maxEntries maximal number of responses kept in memory.
+   * @param maxSize maximal total size, in bytes, of the responses kept in memory.
+   */
+  public void setMemoryCache(int maxEntries, long maxSize) {
+    this.memoryCache = new ResponseMemoryCache(maxEntries, maxSize);
+  }
+
   public boolean isOnService() {
     return onService.get() && issuerStore != null;
   }
 
   public void init() {
     updateCacheStore();
+    if (master) {
+      removeResponsesWithTimesInMillis();
+    }
 
     scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
     scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
@@ -193,6 +221,10 @@ public class ResponseCacher implements Closeable {
       issuerUpdater = null;
     }
 
+    if (memoryCache != null) {
+      memoryCache.clear();
+    }
+
     if (scheduledThreadPoolExecutor != null) {
       scheduledThreadPoolExecutor.shutdown();
       while (!scheduledThreadPoolExecutor.isTerminated()) {
@@ -211,16 +243,24 @@ public class ResponseCacher implements Closeable {
     return (issuer == null) ? null : issuer.getId();
   }
 
+  public Integer getIssuerId(X509Certificate issuerCert) {
+    for (Integer id : issuerStore.getIds()) {
+      if (issuerStore.getIssuerForId(id).getCert().equals(issuerCert)) {
+        return id;
+      }
+    }
+    return null;
+  }
+
   public synchronized Integer storeIssuer(X509Certificate issuerCert)
       throws CertificateException, InvalidConfException, DataAccessException {
     if (!master) {
       throw new IllegalStateException("storeIssuer is not permitted in slave mode");
     }
 
-    for (Integer id : issuerStore.getIds()) {
-      if (issuerStore.getIssuerForId(id).getCert().equals(issuerCert)) {
-        return id;
-      }
+    Integer existingId = getIssuerId(issuerCert);
+    if (existingId != null) {
+      return existingId;
     }
 
     byte[] encodedCert = issuerCert.getEncoded();
@@ -258,8 +298,42 @@ public class ResponseCacher implements Closeable {
 
   public OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
       AlgorithmCode sigAlg) throws DataAccessException {
+    return getOcspResponse(issuerId, buildIdent(serialNumber, sigAlg));
+  }
+
+  /**
+   * Returns the cached response.
+   * @param issuerId issuer id in the cache database.
+   * @param encodedSerialNumber buffer containing the serial number encoded as
+   *          {@link BigInteger#toByteArray()}.
+   * @param serialNumberFrom offset of the serial number in the buffer.
+   * @param serialNumberLength length of the serial number.
+   * @param sigAlg signature algorithm of the response.
+   * @return the cached response, or {@code null} if not cached.
+   * @throws DataAccessException if error occurs while reading the response from database.
+   */
+  public OcspRespWithCacheInfo getOcspResponse(int issuerId, byte[] encodedSerialNumber,
+      int serialNumberFrom, int serialNumberLength, AlgorithmCode sigAlg)
+      throws DataAccessException {
+    byte[] identBytes = new byte[1 + serialNumberLength];
+    identBytes[0] = sigAlg.getCode();
+    System.arraycopy(encodedSerialNumber, serialNumberFrom, identBytes, 1, serialNumberLength);
+    return getOcspResponse(issuerId, identBytes);
+  }
+
+  private OcspRespWithCacheInfo getOcspResponse(int issuerId, byte[] identBytes)
+      throws DataAccessException {
+    // nextUpdate must be at least in 600 seconds
+    long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
+
+    if (memoryCache != null) {
+      OcspRespWithCacheInfo resp = memoryCache.get(issuerId, identBytes, minNextUpdate);
+      if (resp != null) {
+        return resp;
+      }
+    }
+
     final String sql = sqlSelectOcsp;
-    byte[] identBytes = buildIdent(serialNumber, sigAlg);
     long id = deriveId(issuerId, identBytes);
     PreparedStatement ps = datasource.prepareStatement(sql);
     ResultSet rs = null;
@@ -284,9 +358,6 @@ public class ResponseCacher implements Closeable {
 
       long nextUpdate = rs.getLong("NEXT_UPDATE");
       if (nextUpdate != 0) {
-        // nextUpdate must be at least in 600 seconds
-        long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
-
         if (nextUpdate < minNextUpdate) {
           return null;
         }
@@ -295,9 +366,18 @@ public class ResponseCacher implements Closeable {
       long thisUpdate = rs.getLong("THIS_UPDATE");
       String b64Resp = rs.getString("RESP");
       byte[] encoded = Base64.decodeFast(b64Resp);
-      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
+
+      if (memoryCache != null) {
+        OcspRespWithCacheInfo resp =
+            memoryCache.put(issuerId, identBytes, thisUpdate, nextUpdate, encoded);
+        if (resp != null) {
+          return resp;
+        }
+      }
+
+      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate * 1000);
       if (nextUpdate != 0) {
-        cacheInfo.setNextUpdate(nextUpdate);
+        cacheInfo.setNextUpdate(nextUpdate * 1000);
       }
       return new OcspRespWithCacheInfo(encoded, cacheInfo);
     } catch (SQLException ex) {
@@ -307,18 +387,32 @@ public class ResponseCacher implements Closeable {
     }
   }
 
-  public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate,
-      Long nextUpdate, AlgorithmCode sigAlgCode, byte[] response) {
+  /**
+   * Caches the response.
+   * @param issuerId issuer id in the cache database.
+   * @param serialNumber serial number of the certificate.
+   * @param thisUpdateMs thisUpdate of the response in milliseconds.
+   * @param nextUpdateMs nextUpdate of the response in milliseconds, {@code null} for no
+   *          nextUpdate.
+   * @param sigAlgCode signature algorithm of the response.
+   * @param response the encoded response.
+   */
+  public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdateMs,
+      Long nextUpdateMs, AlgorithmCode sigAlgCode, byte[] response) {
+    // the database and the in-memory tier save the times in seconds
     long nowInSec = System.currentTimeMillis() / 1000;
-    if (nextUpdate == null) {
-      nextUpdate = nowInSec + SEC_PER_WEEK;
-    }
+    long thisUpdate = thisUpdateMs / 1000;
+    long nextUpdate = (nextUpdateMs == null) ? nowInSec + SEC_PER_WEEK : nextUpdateMs / 1000;
 
     if (nextUpdate - nowInSec < validity) {
       return;
     }
 
     byte[] identBytes = buildIdent(serialNumber, sigAlgCode);
+    if (memoryCache != null) {
+      memoryCache.put(issuerId, identBytes, thisUpdate, nextUpdate, response);
+    }
+
     String ident = Base64.encodeToString(identBytes);
     try {
       long id = deriveId(issuerId, identBytes);
@@ -380,6 +474,74 @@ public class ResponseCacher implements Closeable {
     }
   }
 
+  /**
+   * Removes the cached responses of the given certificates, e.g. after their status
+   * has been changed. The responses are removed from the database only in master mode.
+   * @param issuerId issuer id in the cache database.
+   * @param serialNumbers serial numbers of the certificates.
+   * @param sigAlgs signature algorithms of the cached responses.
+   * @throws DataAccessException if error occurs while removing the responses from database.
+   */
+  public void removeOcspResponses(int issuerId, List<BigInteger> serialNumbers,
+      Collection<AlgorithmCode> sigAlgs) throws DataAccessException {
+    List<Long> ids = new ArrayList<>(serialNumbers.size() * sigAlgs.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      for (AlgorithmCode sigAlg : sigAlgs) {
+        byte[] identBytes = buildIdent(serialNumber, sigAlg);
+        if (memoryCache != null) {
+          memoryCache.remove(issuerId, identBytes);
+        }
+        ids.add(deriveId(issuerId, identBytes));
+      }
+    }
+
+    if (!master) {
+      return;
+    }
+
+    final String sql = SQL_DELETE_RESP;
+    Connection conn = datasource.getConnection();
+    try {
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      try {
+        for (Long id : ids) {
+          ps.setLong(1, id);
+          ps.executeUpdate();
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+
+    LOG.debug("removed cached OCSP responses of {} certificates of iid={}",
+        serialNumbers.size(), issuerId);
+  }
+
+  public HealthCheckResult healthCheck() {
+    HealthCheckResult result = new HealthCheckResult();
+    result.setName("ResponseCache");
+    // the response cache is optional, the responder works without it.
+    result.setHealthy(true);
+
+    Map<String, Object> statuses = result.getStatuses();
+    statuses.put("onService", isOnService());
+    if (memoryCache != null) {
+      statuses.put("memory.entries", memoryCache.getNumEntries());
+      statuses.put("memory.maxEntries", memoryCache.getMaxEntries());
+      statuses.put("memory.size", memoryCache.getSize());
+      statuses.put("memory.maxSize", memoryCache.getMaxSize());
+      statuses.put("memory.hits", memoryCache.getHits());
+      statuses.put("memory.misses", memoryCache.getMisses());
+      statuses.put("memory.evictions", memoryCache.getEvictions());
+      statuses.put("memory.expirations", memoryCache.getExpirations());
+    }
+    return result;
+  }
+
   private int removeExpiredResponses(long maxThisUpdate) throws DataAccessException {
     final String sql = SQL_DELETE_EXPIRED_RESP;
     PreparedStatement ps = null;
@@ -394,6 +556,32 @@ public class ResponseCacher implements Closeable {
     }
   }
 
+  /**
+   * Removes the responses saved by a previous version with thisUpdate and nextUpdate in
+   * milliseconds instead of seconds, which would never expire. No valid thisUpdate lies more
+   * than one week in the future.
+   */
+  private void removeResponsesWithTimesInMillis() {
+    final String sql = SQL_DELETE_RESP_IN_MS;
+    long minThisUpdate = System.currentTimeMillis() / 1000 + SEC_PER_WEEK;
+    PreparedStatement ps = null;
+    try {
+      ps = datasource.prepareStatement(sql);
+      ps.setLong(1, minThisUpdate);
+      int num = ps.executeUpdate();
+      if (num > 0) {
+        LOG.info("removed {} response with thisUpdate in milliseconds", num);
+      }
+    } catch (SQLException ex) {
+      LogUtil.error(LOG, datasource.translate(sql, ex),
+          "could not remove responses with thisUpdate in milliseconds");
+    } catch (DataAccessException ex) {
+      LogUtil.error(LOG, ex, "could not remove responses with thisUpdate in milliseconds");
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  }
+
   private void updateCacheStore() {
     boolean stillOnService = updateCacheStore0();
     this.onService.set(stillOnService);
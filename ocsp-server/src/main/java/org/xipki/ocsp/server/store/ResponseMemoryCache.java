@@ -0,0 +1,267 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.util.Args;
+
+/**
+ * In-memory tier of the {@link ResponseCacher}. The entries are bounded by number and
+ * by the total size of the encoded responses, and are evicted in LRU order or as soon
+ * as the nextUpdate is reached. As in the database, all times are in seconds; only the
+ * returned {@link ResponseCacheInfo} is in milliseconds.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class ResponseMemoryCache {
+
+  private static class CacheKey {
+
+    private final int issuerId;
+
+    private final byte[] ident;
+
+    private final int hashCode;
+
+    CacheKey(int issuerId, byte[] ident) {
+      this.issuerId = issuerId;
+      this.ident = ident;
+      this.hashCode = 31 * issuerId + Arrays.hashCode(ident);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return issuerId == other.issuerId && Arrays.equals(ident, other.ident);
+    }
+
+  } // class CacheKey
+
+  private static class CacheEntry {
+
+    // in seconds
+    private final long thisUpdate;
+
+    // in seconds, 0 for no nextUpdate
+    private final long nextUpdate;
+
+    private final byte[] response;
+
+    // returned to all hits, so that the HTTP headers are computed only once
+    private final OcspRespWithCacheInfo respWithCacheInfo;
+
+    CacheEntry(long thisUpdate, long nextUpdate, byte[] response) {
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = nextUpdate;
+      this.response = response;
+
+      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate * 1000);
+      if (nextUpdate != 0) {
+        cacheInfo.setNextUpdate(nextUpdate * 1000);
+      }
+      this.respWithCacheInfo = new OcspRespWithCacheInfo(response, cacheInfo);
+    }
+
+  } // class CacheEntry
+
+  private final LinkedHashMap<CacheKey, CacheEntry> map;
+
+  private final int maxEntries;
+
+  private final long maxSize;
+
+  private long size;
+
+  private final AtomicLong hits = new AtomicLong(0);
+
+  private final AtomicLong misses = new AtomicLong(0);
+
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  private final AtomicLong expirations = new AtomicLong(0);
+
+  ResponseMemoryCache(int maxEntries, long maxSize) {
+    this.maxEntries = Args.positive(maxEntries, "maxEntries");
+    this.maxSize = Args.positive(maxSize, "maxSize");
+    // access-order, so that the eldest entry is the least recently used one
+    this.map = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true);
+  }
+
+  /**
+   * Returns the cached response.
+   * @param issuerId issuer id in the cache database.
+   * @param ident identifier built from the serial number and signature algorithm.
+   * @param minNextUpdate responses with nextUpdate before this time (in seconds) are
+   *          considered as expired.
+   * @return the cached response, or {@code null} if not cached or expired.
+   */
+  OcspRespWithCacheInfo get(int issuerId, byte[] ident, long minNextUpdate) {
+    CacheKey key = new CacheKey(issuerId, ident);
+    CacheEntry entry;
+    synchronized (this) {
+      entry = map.get(key);
+      if (entry != null && entry.nextUpdate != 0 && entry.nextUpdate < minNextUpdate) {
+        map.remove(key);
+        size -= entry.response.length;
+        expirations.incrementAndGet();
+        entry = null;
+      }
+    }
+
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return entry.respWithCacheInfo;
+  }
+
+  /**
+   * Caches the response.
+   * @param issuerId issuer id in the cache database.
+   * @param ident identifier built from the serial number and signature algorithm.
+   * @param thisUpdate thisUpdate of the response in seconds.
+   * @param nextUpdate nextUpdate of the response in seconds, 0 for no nextUpdate.
+   * @param response the encoded response.
+   * @return the cached response, or {@code null} if the response is too large to be cached.
+   */
+  OcspRespWithCacheInfo put(int issuerId, byte[] ident, long thisUpdate, long nextUpdate,
+      byte[] response) {
+    if (response.length > maxSize) {
+      return null;
+    }
+
+    CacheKey key = new CacheKey(issuerId, ident);
+    CacheEntry entry = new CacheEntry(thisUpdate, nextUpdate, response);
+
+    synchronized (this) {
+      CacheEntry previous = map.put(key, entry);
+      size += response.length;
+      if (previous != null) {
+        size -= previous.response.length;
+      }
+
+      // remove the least recently used entries
+      Iterator<CacheEntry> it = map.values().iterator();
+      while ((map.size() > maxEntries || size > maxSize) && it.hasNext()) {
+        CacheEntry eldest = it.next();
+        it.remove();
+        size -= eldest.response.length;
+        evictions.incrementAndGet();
+      }
+    }
+
+    return entry.respWithCacheInfo;
+  }
+
+  /**
+   * Removes the cached response.
+   * @param issuerId issuer id in the cache database.
+   * @param ident identifier built from the serial number and signature algorithm.
+   * @return whether a response has been removed.
+   */
+  synchronized boolean remove(int issuerId, byte[] ident) {
+    CacheEntry entry = map.remove(new CacheKey(issuerId, ident));
+    if (entry == null) {
+      return false;
+    }
+
+    size -= entry.response.length;
+    return true;
+  }
+
+  /**
+   * Removes all responses with thisUpdate before the given time.
+   * @param maxThisUpdate the maximal thisUpdate (in seconds) of the response to be kept.
+   * @return number of removed responses.
+   */
+  synchronized int removeExpired(long maxThisUpdate) {
+    int num = 0;
+    Iterator<Map.Entry<CacheKey, CacheEntry>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      CacheEntry entry = it.next().getValue();
+      if (entry.thisUpdate < maxThisUpdate) {
+        it.remove();
+        size -= entry.response.length;
+        num++;
+      }
+    }
+
+    expirations.addAndGet(num);
+    return num;
+  }
+
+  synchronized void clear() {
+    map.clear();
+    size = 0;
+  }
+
+  synchronized int getNumEntries() {
+    return map.size();
+  }
+
+  synchronized long getSize() {
+    return size;
+  }
+
+  int getMaxEntries() {
+    return maxEntries;
+  }
+
+  long getMaxSize() {
+    return maxSize;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  long getEvictions() {
+    return evictions.get();
+  }
+
+  long getExpirations() {
+    return expirations.get();
+  }
+
+}
@@ -17,6 +17,11 @@
 
 package org.xipki.ocsp.server.store;
 
+import java.math.BigInteger;
+import java.util.Objects;
+
+import org.xipki.ocsp.server.store.crl.CrlInfo;
+
 /**
  * TODO.
  * @author Lijun Liao
@@ -29,9 +34,16 @@ class SimpleIssuerEntry {
 
   private final Long revocationTimeMs;
 
+  private final BigInteger crlNumber;
+
   SimpleIssuerEntry(int id, Long revocationTimeMs) {
+    this(id, revocationTimeMs, null);
+  }
+
+  SimpleIssuerEntry(int id, Long revocationTimeMs, BigInteger crlNumber) {
     this.id = id;
     this.revocationTimeMs = revocationTimeMs;
+    this.crlNumber = crlNumber;
   }
 
   public boolean match(IssuerEntry issuer) {
@@ -39,6 +51,11 @@ class SimpleIssuerEntry {
       return false;
     }
 
+    CrlInfo crlInfo = issuer.getCrlInfo();
+    if (!Objects.equals(crlNumber, (crlInfo == null) ? null : crlInfo.getCrlNumber())) {
+      return false;
+    }
+
     if (revocationTimeMs == null) {
       return issuer.getRevocationInfo() == null;
     }
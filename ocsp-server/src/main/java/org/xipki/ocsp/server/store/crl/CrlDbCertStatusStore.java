@@ -18,6 +18,7 @@
 package org.xipki.ocsp.server.store.crl;
 
 import java.io.File;
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -136,6 +137,12 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
       if (importCrl.importCrlToOcspDb()) {
         updateMeFile.delete();
         LOG.info("updated CertStore {} successfully", name);
+
+        // the deleted certificates cannot be found via the column LUPDATE.
+        List<BigInteger> deletedSerials = importCrl.getDeletedSerialNumbers();
+        if (!deletedSerials.isEmpty() && isChangeNotificationEnabled()) {
+          certsChanged(importCrl.getIssuerId(), deletedSerials);
+        }
       } else {
         LOG.error("updating CertStore {} failed", name);
       }
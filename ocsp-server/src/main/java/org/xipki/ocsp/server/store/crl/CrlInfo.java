@@ -42,6 +42,8 @@ public class CrlInfo {
 
   public static final String CRL_NUMBER = "crl-number";
 
+  public static final String IMPORT_PENDING = "import-pending";
+
   public static final String NEXT_UPDATE = "next-update";
 
   public static final String THIS_UPDATE = "this-update";
@@ -56,6 +58,8 @@ public class CrlInfo {
 
   private CrlID crlId;
 
+  private boolean importPending;
+
   public CrlInfo(String conf) {
     ConfPairs pairs = new ConfPairs(conf);
     String str = getNotBlankValue(pairs, CRL_NUMBER);
@@ -74,6 +78,8 @@ public class CrlInfo {
 
     str = getNotBlankValue(pairs, CRL_ID);
     this.crlId = CrlID.getInstance(Base64.decodeFast(str));
+
+    this.importPending = Boolean.parseBoolean(pairs.value(IMPORT_PENDING));
   }
 
   private static final String getNotBlankValue(ConfPairs pairs, String name) {
@@ -102,6 +108,9 @@ public class CrlInfo {
     pairs.putPair(THIS_UPDATE, DateUtil.toUtcTimeyyyyMMddhhmmss(thisUpdate));
     pairs.putPair(NEXT_UPDATE, DateUtil.toUtcTimeyyyyMMddhhmmss(nextUpdate));
     pairs.putPair(CRL_ID, Base64.encodeToString(crlId.getEncoded()));
+    if (importPending) {
+      pairs.putPair(IMPORT_PENDING, "true");
+    }
     return pairs.getEncoded();
   }
 
@@ -145,4 +154,18 @@ public class CrlInfo {
     this.crlId = crlId;
   }
 
+  /**
+   * Whether the import of the CRL into the database has not been finished. The certificates
+   * of an issuer with pending import must not be used.
+   * @return whether the import is pending.
+   * @since 5.2.1
+   */
+  public boolean isImportPending() {
+    return importPending;
+  }
+
+  public void setImportPending(boolean importPending) {
+    this.importPending = importPending;
+  }
+
 }
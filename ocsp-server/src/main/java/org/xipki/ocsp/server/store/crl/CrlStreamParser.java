@@ -0,0 +1,631 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store.crl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.text.ParseException;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.CrlReason;
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+
+/**
+ * Streaming parser of DER- or PEM-encoded X.509 CRL. The CRL file is memory-mapped, and the
+ * revoked certificates are parsed one by one while iterating, so that the memory
+ * consumption does not depend on the size of the CRL. A PEM-encoded CRL is decoded to a
+ * temporary DER file first.
+ *
+ * <p>The parser must be closed to unmap the file and to delete the temporary file. If the
+ * file could not be unmapped, e.g. in a JVM without access to the internal API, the mapping
+ * is released when the parser is garbage-collected; until then, the file cannot be deleted
+ * or replaced on Windows.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class CrlStreamParser implements Closeable {
+
+  static class RevokedCert {
+
+    private final BigInteger serialNumber;
+
+    private final Date revocationDate;
+
+    private final CrlReason reason;
+
+    private final Date invalidityDate;
+
+    private final X500Name certificateIssuer;
+
+    RevokedCert(BigInteger serialNumber, Date revocationDate, CrlReason reason,
+        Date invalidityDate, X500Name certificateIssuer) {
+      this.serialNumber = serialNumber;
+      this.revocationDate = revocationDate;
+      this.reason = reason;
+      this.invalidityDate = invalidityDate;
+      this.certificateIssuer = certificateIssuer;
+    }
+
+    BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    Date getRevocationDate() {
+      return revocationDate;
+    }
+
+    CrlReason getReason() {
+      return reason;
+    }
+
+    Date getInvalidityDate() {
+      return invalidityDate;
+    }
+
+    X500Name getCertificateIssuer() {
+      return certificateIssuer;
+    }
+
+  } // class RevokedCert
+
+  class RevokedCertsIterator {
+
+    private int offset;
+
+    private RevokedCertsIterator() {
+      this.offset = revokedCertsOffset;
+    }
+
+    boolean hasNext() {
+      return offset < revokedCertsEnd;
+    }
+
+    RevokedCert next() throws IOException {
+      assertOpen();
+      if (!hasNext()) {
+        throw new IllegalStateException("no more revoked certificate");
+      }
+
+      // SEQUENCE of the CRL entry
+      int entryEnd = endOf(offset, TAG_SEQUENCE, revokedCertsEnd);
+      int off = contentOffset(offset);
+
+      int end = endOf(off, TAG_INTEGER, entryEnd);
+      BigInteger serialNumber = new BigInteger(readBytes(contentOffset(off),
+          end - contentOffset(off)));
+      off = end;
+
+      end = endOf(off, -1, entryEnd);
+      Date revocationDate = readTime(off, end);
+      off = end;
+
+      CrlReason reason = CrlReason.UNSPECIFIED;
+      Date invalidityDate = null;
+      X500Name certificateIssuer = null;
+
+      if (off < entryEnd) {
+        end = endOf(off, TAG_SEQUENCE, entryEnd);
+        Extensions extns = Extensions.getInstance(readBytes(off, end - off));
+        off = end;
+
+        Extension extn = extns.getExtension(Extension.reasonCode);
+        if (extn != null) {
+          int code = ASN1Enumerated.getInstance(extn.getParsedValue()).getValue().intValue();
+          reason = CrlReason.forReasonCode(code);
+        }
+
+        extn = extns.getExtension(Extension.invalidityDate);
+        if (extn != null) {
+          try {
+            invalidityDate = ASN1GeneralizedTime.getInstance(extn.getParsedValue()).getDate();
+          } catch (ParseException ex) {
+            throw new IOException("invalid extension invalidityDate: " + ex.getMessage(), ex);
+          }
+        }
+
+        extn = extns.getExtension(Extension.certificateIssuer);
+        if (extn != null) {
+          for (GeneralName name : GeneralNames.getInstance(extn.getParsedValue()).getNames()) {
+            if (name.getTagNo() == GeneralName.directoryName) {
+              certificateIssuer = X500Name.getInstance(name.getName());
+              break;
+            }
+          }
+        }
+      }
+
+      if (off != entryEnd) {
+        throw new IOException("invalid CRL entry at offset " + offset);
+      }
+
+      offset = entryEnd;
+      return new RevokedCert(serialNumber, revocationDate, reason, invalidityDate,
+          certificateIssuer);
+    } // method next
+
+  } // class RevokedCertsIterator
+
+  private static final Logger LOG = LoggerFactory.getLogger(CrlStreamParser.class);
+
+  private static final String BEGIN_CRL = "-----BEGIN X509 CRL-----";
+
+  private static final String END_CRL = "-----END X509 CRL-----";
+
+  // multiple of 4, so that the chunks can be decoded separately.
+  private static final int BASE64_CHUNK_SIZE = 64 * 1024;
+
+  private static final int TAG_INTEGER = 0x02;
+
+  private static final int TAG_BITSTRING = 0x03;
+
+  private static final int TAG_SEQUENCE = 0x30;
+
+  private static final int TAG_UTCTIME = 0x17;
+
+  private static final int TAG_GENERALIZEDTIME = 0x18;
+
+  private static final int TAG_CONTEXT0 = 0xA0;
+
+  private static final int VERIFY_CHUNK_SIZE = 64 * 1024;
+
+  private final MappedByteBuffer buffer;
+
+  private final File derFile;
+
+  private volatile boolean closed;
+
+  private int tbsCertListOffset;
+
+  private int tbsCertListEnd;
+
+  private X500Name issuer;
+
+  private Date thisUpdate;
+
+  private Date nextUpdate;
+
+  private int revokedCertsOffset;
+
+  private int revokedCertsEnd;
+
+  private Extensions crlExtensions;
+
+  private AlgorithmIdentifier signatureAlgorithm;
+
+  private byte[] signature;
+
+  CrlStreamParser(File crlFile) throws IOException {
+    Args.notNull(crlFile, "crlFile");
+
+    this.derFile = isPem(crlFile) ? pemToDer(crlFile) : null;
+    File file = (derFile == null) ? crlFile : derFile;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("CRL file " + crlFile.getPath() + " is too large");
+      }
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (IOException ex) {
+      deleteDerFile();
+      throw ex;
+    }
+
+    boolean successful = false;
+    try {
+      parse();
+      successful = true;
+    } finally {
+      if (!successful) {
+        close();
+      }
+    }
+  } // constructor
+
+  private void parse() throws IOException {
+    // CertificateList
+    final int crlEnd = endOf(0, TAG_SEQUENCE, buffer.limit());
+
+    // TBSCertList
+    this.tbsCertListOffset = contentOffset(0);
+    this.tbsCertListEnd = endOf(tbsCertListOffset, TAG_SEQUENCE, crlEnd);
+
+    int off = contentOffset(tbsCertListOffset);
+    // version
+    if (tagAt(off, tbsCertListEnd) == TAG_INTEGER) {
+      off = endOf(off, TAG_INTEGER, tbsCertListEnd);
+    }
+
+    // signature
+    off = endOf(off, TAG_SEQUENCE, tbsCertListEnd);
+
+    // issuer
+    int end = endOf(off, TAG_SEQUENCE, tbsCertListEnd);
+    this.issuer = X500Name.getInstance(readBytes(off, end - off));
+    off = end;
+
+    // thisUpdate
+    end = endOf(off, -1, tbsCertListEnd);
+    this.thisUpdate = readTime(off, end);
+    off = end;
+
+    // nextUpdate
+    Date tmpNextUpdate = null;
+    if (off < tbsCertListEnd) {
+      int tag = tagAt(off, tbsCertListEnd);
+      if (tag == TAG_UTCTIME || tag == TAG_GENERALIZEDTIME) {
+        end = endOf(off, tag, tbsCertListEnd);
+        tmpNextUpdate = readTime(off, end);
+        off = end;
+      }
+    }
+    this.nextUpdate = tmpNextUpdate;
+
+    // revokedCertificates
+    int tmpRevokedCertsOffset = off;
+    int tmpRevokedCertsEnd = off;
+    if (off < tbsCertListEnd && tagAt(off, tbsCertListEnd) == TAG_SEQUENCE) {
+      end = endOf(off, TAG_SEQUENCE, tbsCertListEnd);
+      tmpRevokedCertsOffset = contentOffset(off);
+      tmpRevokedCertsEnd = end;
+      off = end;
+    }
+    this.revokedCertsOffset = tmpRevokedCertsOffset;
+    this.revokedCertsEnd = tmpRevokedCertsEnd;
+
+    // crlExtensions
+    Extensions tmpCrlExtensions = null;
+    if (off < tbsCertListEnd) {
+      end = endOf(off, TAG_CONTEXT0, tbsCertListEnd);
+      int extnsOff = contentOffset(off);
+      tmpCrlExtensions = Extensions.getInstance(readBytes(extnsOff, end - extnsOff));
+      off = end;
+    }
+    this.crlExtensions = tmpCrlExtensions;
+
+    if (off != tbsCertListEnd) {
+      throw new IOException("invalid TBSCertList");
+    }
+
+    // signatureAlgorithm
+    off = tbsCertListEnd;
+    end = endOf(off, TAG_SEQUENCE, crlEnd);
+    this.signatureAlgorithm = AlgorithmIdentifier.getInstance(readBytes(off, end - off));
+    off = end;
+
+    // signatureValue
+    end = endOf(off, TAG_BITSTRING, crlEnd);
+    int sigOff = contentOffset(off);
+    if (end - sigOff < 1 || buffer.get(sigOff) != 0) {
+      throw new IOException("invalid signatureValue");
+    }
+    this.signature = readBytes(sigOff + 1, end - sigOff - 1);
+
+    if (end != crlEnd) {
+      throw new IOException("invalid CertificateList");
+    }
+  } // method parse
+
+  X500Name getIssuer() {
+    return issuer;
+  }
+
+  Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  Extensions getCrlExtensions() {
+    return crlExtensions;
+  }
+
+  RevokedCertsIterator revokedCertificates() {
+    return new RevokedCertsIterator();
+  }
+
+  /**
+   * Verifies the signature of the CRL. The TBSCertList is passed to the verifier in chunks
+   * directly from the mapped file.
+   * @param publicKey public key of the CRL signer.
+   * @return whether the signature is valid.
+   * @throws IOException if error occurs while reading the CRL.
+   * @throws InvalidKeyException if the public key is not suitable for the signature algorithm.
+   */
+  boolean verifySignature(PublicKey publicKey) throws IOException, InvalidKeyException {
+    assertOpen();
+    ContentVerifier verifier;
+    try {
+      verifier = new JcaContentVerifierProviderBuilder().build(publicKey).get(signatureAlgorithm);
+    } catch (OperatorCreationException ex) {
+      throw new InvalidKeyException("could not create ContentVerifier: " + ex.getMessage(), ex);
+    }
+
+    byte[] chunk = new byte[VERIFY_CHUNK_SIZE];
+    ByteBuffer tbs = buffer.duplicate();
+    tbs.limit(tbsCertListEnd);
+    tbs.position(tbsCertListOffset);
+
+    try (OutputStream os = verifier.getOutputStream()) {
+      while (tbs.hasRemaining()) {
+        int len = Math.min(chunk.length, tbs.remaining());
+        tbs.get(chunk, 0, len);
+        os.write(chunk, 0, len);
+      }
+    }
+
+    return verifier.verify(signature);
+  } // method verifySignature
+
+  /**
+   * Unmaps the CRL file and deletes the temporary DER file. The revoked certificates and the
+   * signature cannot be accessed afterwards.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    unmap(buffer);
+    deleteDerFile();
+  }
+
+  private void assertOpen() {
+    if (closed) {
+      throw new IllegalStateException("CrlStreamParser is closed");
+    }
+  }
+
+  private void deleteDerFile() {
+    if (derFile != null && derFile.exists() && !derFile.delete()) {
+      LOG.warn("could not delete temporary file {}", derFile.getPath());
+    }
+  }
+
+  /**
+   * Releases the mapping of the buffer. Uses the internal API of the JVM, the mapping is
+   * released by the garbage collector if the API is not accessible.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      try {
+        // Java 9 and later
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      } catch (NoSuchMethodException ex) {
+        // Java 8
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    } catch (Exception ex) {
+      LOG.debug("could not unmap CRL file, it is released by the garbage collector: {}",
+          ex.getMessage());
+    }
+  }
+
+  /**
+   * Whether the file starts with the PEM header, optionally preceded by whitespaces.
+   */
+  private static boolean isPem(File file) throws IOException {
+    byte[] begin = BEGIN_CRL.getBytes(StandardCharsets.US_ASCII);
+    try (InputStream in = Files.newInputStream(file.toPath())) {
+      int b;
+      do {
+        b = in.read();
+      } while (b == ' ' || b == '\t' || b == '\r' || b == '\n');
+
+      for (int i = 0; i < begin.length; i++) {
+        if (b != begin[i]) {
+          return false;
+        }
+        b = in.read();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Decodes the PEM-encoded CRL to a temporary DER file, chunk by chunk.
+   */
+  private static File pemToDer(File pemFile) throws IOException {
+    File derFile = File.createTempFile("xipki-crl-", ".der");
+    boolean successful = false;
+    try (BufferedReader reader = Files.newBufferedReader(pemFile.toPath(),
+            StandardCharsets.US_ASCII);
+        OutputStream out = Files.newOutputStream(derFile.toPath())) {
+      String line;
+      boolean begun = false;
+      boolean ended = false;
+      StringBuilder base64 = new StringBuilder(BASE64_CHUNK_SIZE + 100);
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!begun) {
+          begun = BEGIN_CRL.equals(line);
+          continue;
+        }
+
+        if (END_CRL.equals(line)) {
+          ended = true;
+          break;
+        }
+
+        for (int i = 0; i < line.length(); i++) {
+          char ch = line.charAt(i);
+          if (!isBase64Char(ch)) {
+            throw new IOException("invalid character in PEM-encoded CRL");
+          }
+          base64.append(ch);
+        }
+
+        if (base64.length() >= BASE64_CHUNK_SIZE) {
+          out.write(Base64.decode(base64.substring(0, BASE64_CHUNK_SIZE)));
+          base64.delete(0, BASE64_CHUNK_SIZE);
+        }
+      }
+
+      if (!ended) {
+        throw new IOException("incomplete PEM-encoded CRL");
+      }
+
+      try {
+        out.write(Base64.decode(base64.toString()));
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("invalid PEM-encoded CRL: " + ex.getMessage(), ex);
+      }
+      successful = true;
+    } finally {
+      if (!successful && !derFile.delete()) {
+        LOG.warn("could not delete temporary file {}", derFile.getPath());
+      }
+    }
+
+    return derFile;
+  } // method pemToDer
+
+  private static boolean isBase64Char(char ch) {
+    return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')
+        || ch == '+' || ch == '/' || ch == '=';
+  }
+
+  private Date readTime(int off, int end) throws IOException {
+    int tag = buffer.get(off) & 0xFF;
+    if (tag != TAG_UTCTIME && tag != TAG_GENERALIZEDTIME) {
+      throw new IOException("invalid Time at offset " + off);
+    }
+
+    try {
+      return Time.getInstance(ASN1Primitive.fromByteArray(readBytes(off, end - off))).getDate();
+    } catch (IllegalArgumentException | IllegalStateException ex) {
+      throw new IOException("invalid Time at offset " + off + ": " + ex.getMessage(), ex);
+    }
+  }
+
+  private byte[] readBytes(int off, int len) {
+    byte[] bytes = new byte[len];
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(off);
+    dup.get(bytes);
+    return bytes;
+  }
+
+  private int tagAt(int off, int limit) throws IOException {
+    if (off >= limit) {
+      throw new IOException("unexpected end of the data at offset " + off);
+    }
+    return buffer.get(off) & 0xFF;
+  }
+
+  /**
+   * Returns the offset of the content of the TLV at given offset.
+   */
+  private int contentOffset(int off) {
+    int lenByte = buffer.get(off + 1) & 0xFF;
+    return (lenByte < 0x80) ? off + 2 : off + 2 + (lenByte & 0x7F);
+  }
+
+  /**
+   * Checks the TLV at given offset and returns the offset directly after it.
+   * @param off offset of the TLV.
+   * @param expectedTag the expected tag, or -1 for any tag.
+   * @param limit the TLV may not go beyond this offset.
+   */
+  private int endOf(int off, int expectedTag, int limit) throws IOException {
+    int tag = tagAt(off, limit);
+    if (expectedTag != -1 && tag != expectedTag) {
+      throw new IOException("invalid tag " + tag + " at offset " + off
+          + ", expected " + expectedTag);
+    }
+
+    if (off + 2 > limit) {
+      throw new IOException("unexpected end of the data at offset " + off);
+    }
+
+    int lenByte = buffer.get(off + 1) & 0xFF;
+    long len;
+    int contentOff;
+    if (lenByte < 0x80) {
+      len = lenByte;
+      contentOff = off + 2;
+    } else {
+      int numLenBytes = lenByte & 0x7F;
+      if (numLenBytes == 0 || numLenBytes > 4) {
+        throw new IOException("unsupported length at offset " + off);
+      }
+
+      contentOff = off + 2 + numLenBytes;
+      if (contentOff > limit) {
+        throw new IOException("unexpected end of the data at offset " + off);
+      }
+
+      len = 0;
+      for (int i = off + 2; i < contentOff; i++) {
+        len = (len << 8) | (buffer.get(i) & 0xFF);
+      }
+    }
+
+    long end = contentOff + len;
+    if (end > limit) {
+      throw new IOException("unexpected end of the data at offset " + off);
+    }
+    return (int) end;
+  } // method endOf
+
+}
@@ -26,14 +26,8 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -41,40 +35,48 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
-
-import javax.security.auth.x500.X500Principal;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1Set;
 import org.bouncycastle.asn1.ASN1TaggedObject;
 import org.bouncycastle.asn1.DERGeneralizedTime;
 import org.bouncycastle.asn1.DERIA5String;
-import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.asn1.DERSet;
 import org.bouncycastle.asn1.DERTaggedObject;
-import org.bouncycastle.asn1.DERUTF8String;
 import org.bouncycastle.asn1.ocsp.CrlID;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
 import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
 import org.bouncycastle.asn1.x509.TBSCertificate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.server.store.DbCertStatusStore;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCertsIterator;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
@@ -117,34 +119,383 @@ class ImportCrl {
 
   }
 
-  private static final Logger LOG = LoggerFactory.getLogger(ImportCrl.class);
+  /**
+   * Status of a certificate as stored in the table CERT.
+   */
+  static class CertRow {
 
-  private static final String KEY_CA_REVOCATION_TIME = "ca.revocation.time";
+    private final BigInteger serialNumber;
 
-  private static final String KEY_CA_INVALIDITY_TIME = "ca.invalidity.time";
+    private Long id;
 
-  private static final String SQL_UPDATE_CERT_REV
-      = "UPDATE CERT SET REV=?,RR=?,RT=?,RIT=?,LUPDATE=? WHERE ID=?";
+    private boolean revoked;
 
-  private static final String SQL_INSERT_CERT_REV
-      = "INSERT INTO CERT (ID,IID,SN,REV,RR,RT,RIT,LUPDATE) VALUES(?,?,?,?,?,?,?,?)";
+    private Integer revReason;
 
-  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE IID=? AND SN=?";
+    private Long revTime;
 
-  private static final String SQL_UPDATE_CERT
-      = "UPDATE CERT SET LUPDATE=?,NBEFORE=?,NAFTER=?,HASH=? WHERE ID=?";
+    private Long revInvTime;
+
+    private Long notBefore;
+
+    private Long notAfter;
+
+    private String hash;
+
+    CertRow(BigInteger serialNumber) {
+      this.serialNumber = serialNumber;
+    }
+
+    BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    Long getId() {
+      return id;
+    }
+
+    void setId(Long id) {
+      this.id = id;
+    }
+
+    boolean isRevoked() {
+      return revoked;
+    }
+
+    Integer getRevReason() {
+      return revReason;
+    }
+
+    void setRevoked(int reason, long revTime) {
+      this.revoked = true;
+      this.revReason = reason;
+      this.revTime = revTime;
+    }
+
+    void setCertInfo(Long notBefore, Long notAfter, String hash) {
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+      this.hash = hash;
+    }
+
+    void setRevocation(CertRow source) {
+      if (source == null) {
+        revoked = false;
+        revReason = null;
+        revTime = null;
+        revInvTime = null;
+      } else {
+        revoked = source.revoked;
+        revReason = source.revReason;
+        revTime = source.revTime;
+        revInvTime = source.revInvTime;
+      }
+    }
+
+    void setCertInfo(CertRow source) {
+      if (source != null) {
+        notBefore = source.notBefore;
+        notAfter = source.notAfter;
+        hash = source.hash;
+      }
+    }
+
+    boolean hasSameStatus(CertRow other) {
+      return revoked == other.revoked
+          && Objects.equals(revReason, other.revReason)
+          && Objects.equals(revTime, other.revTime)
+          && Objects.equals(revInvTime, other.revInvTime)
+          && Objects.equals(notBefore, other.notBefore)
+          && Objects.equals(notAfter, other.notAfter)
+          && Objects.equals(hash, other.hash);
+    }
+
+  } // class CertRow
+
+  /**
+   * Source of the certificates in the database, ordered by {@link SortedRevokedCerts#sortKey}.
+   */
+  interface CertRowSource {
+
+    /**
+     * Returns the next certificate.
+     * @return the next certificate, or {@code null} if there is no more certificate.
+     */
+    CertRow next() throws DataAccessException, ImportCrlException;
+
+  } // interface CertRowSource
+
+  /**
+   * Receives the changes computed from the CRL.
+   */
+  interface ChangeHandler {
+
+    /**
+     * Handles a certificate contained in the CRL or in the certificates to be imported.
+     * @param serial serial number of the certificate.
+     * @param revocation source of the revocation information, {@code null} if not revoked.
+     * @param certInfo source of the certificate information, {@code null} to retain the
+     *        information in the database.
+     * @param existingRow the row in the database, {@code null} if not present.
+     */
+    void change(BigInteger serial, CertRow revocation, CertRow certInfo, CertRow existingRow)
+        throws DataAccessException, ImportCrlException;
+
+    /**
+     * Handles a certificate to be removed from the database.
+     * @param existingRow the row in the database.
+     */
+    void delete(CertRow existingRow) throws DataAccessException, ImportCrlException;
+
+  } // interface ChangeHandler
+
+  private enum Operation {
+
+    INSERT(SQL_INSERT_CERT),
+    UPDATE(SQL_UPDATE_CERT),
+    DELETE(SQL_DELETE_CERT);
+
+    private final String sql;
+
+    Operation(String sql) {
+      this.sql = sql;
+    }
+
+  } // enum Operation
+
+  /**
+   * Writes the changes and the CRL_INFO of the issuer in one transaction, so that readers see
+   * either the old or the new CRL. At most {@link #CHUNK_SIZE} changes are kept in memory,
+   * more changes are written to the database within the transaction.
+   */
+  private class ChangeWriter implements ChangeHandler {
+
+    private final Connection conn;
+
+    private final long lupdate = System.currentTimeMillis() / 1000;
+
+    private final Map<Operation, List<CertRow>> rows = new EnumMap<>(Operation.class);
+
+    private int size;
+
+    private boolean autoCommit;
+
+    private boolean committed;
+
+    private ChangeWriter(Connection conn) {
+      this.conn = conn;
+      for (Operation op : Operation.values()) {
+        rows.put(op, new ArrayList<CertRow>());
+      }
+    }
+
+    @Override
+    public void change(BigInteger serial, CertRow revocation, CertRow certInfo,
+        CertRow existingRow) throws DataAccessException, ImportCrlException {
+      CertRow row = new CertRow(serial);
+      row.setRevocation(revocation);
+      row.setCertInfo(certInfo != null ? certInfo : existingRow);
+
+      if (existingRow == null) {
+        row.id = ++maxCertId;
+        add(Operation.INSERT, row);
+      } else {
+        row.id = existingRow.id;
+        if (!row.hasSameStatus(existingRow)) {
+          add(Operation.UPDATE, row);
+        }
+      }
+    }
+
+    @Override
+    public void delete(CertRow existingRow) throws DataAccessException, ImportCrlException {
+      deletedSerials.add(existingRow.serialNumber);
+      add(Operation.DELETE, existingRow);
+    }
+
+    private void add(Operation op, CertRow row) throws DataAccessException, ImportCrlException {
+      rows.get(op).add(row);
+      if (++size >= CHUNK_SIZE) {
+        flush();
+      }
+    }
+
+    /**
+     * Starts the transaction.
+     */
+    private void begin() throws DataAccessException {
+      try {
+        autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+      } catch (SQLException ex) {
+        throw datasource.translate(null, ex);
+      }
+    }
+
+    /**
+     * Writes the remaining changes, switches the issuer to the new CRL and commits the
+     * transaction.
+     */
+    private void commit() throws DataAccessException, ImportCrlException {
+      flush();
+      updateIssuer(conn);
+
+      try {
+        conn.commit();
+      } catch (SQLException ex) {
+        throw datasource.translate(null, ex);
+      }
+      committed = true;
+    }
+
+    /**
+     * Rolls back the transaction if it has not been committed.
+     */
+    private void end() {
+      try {
+        if (!committed) {
+          conn.rollback();
+        }
+        conn.setAutoCommit(autoCommit);
+      } catch (SQLException ex) {
+        LogUtil.error(LOG, datasource.translate(null, ex), "could not finish the transaction");
+      }
+    }
+
+    private void flush() throws DataAccessException {
+      for (Operation op : Operation.values()) {
+        writeCertRows(conn, op, rows.get(op), lupdate);
+      }
+
+      numInserts += rows.get(Operation.INSERT).size();
+      numUpdates += rows.get(Operation.UPDATE).size();
+      numDeletes += rows.get(Operation.DELETE).size();
+      for (List<CertRow> list : rows.values()) {
+        list.clear();
+      }
+      size = 0;
+    } // method flush
+
+  } // class ChangeWriter
+
+  /**
+   * Reads the certificates of the issuer ordered by the column SN in pages.
+   */
+  private class CertRowReader implements CertRowSource {
+
+    private final Connection conn;
+
+    private final List<CertRow> page = new ArrayList<>(BATCH_SIZE);
+
+    private int pageIndex;
+
+    private boolean lastPage;
+
+    private String lastKey;
+
+    private CertRowReader(Connection conn) {
+      this.conn = conn;
+    }
+
+    @Override
+    public CertRow next() throws DataAccessException, ImportCrlException {
+      if (pageIndex == page.size()) {
+        if (lastPage) {
+          return null;
+        }
+
+        readPage();
+        if (page.isEmpty()) {
+          return null;
+        }
+      }
+
+      return page.get(pageIndex++);
+    }
+
+    private void readPage() throws DataAccessException, ImportCrlException {
+      page.clear();
+      pageIndex = 0;
+
+      String sql = (lastKey == null) ? sqlSelectFirstCerts : sqlSelectNextCerts;
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      ResultSet rs = null;
+      try {
+        ps.setInt(1, issuerId);
+        if (lastKey != null) {
+          ps.setString(2, lastKey);
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          CertRow row = readCertRow(rs);
+          String key = SortedRevokedCerts.sortKey(row.serialNumber);
+          // the merge requires that the database and this class order the serials equally.
+          if (lastKey != null && key.compareTo(lastKey) <= 0) {
+            throw new ImportCrlException("unexpected order of serial numbers in the table CERT: "
+                + key + " after " + lastKey);
+          }
+
+          lastKey = key;
+          page.add(row);
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseResources(ps, rs);
+      }
+
+      lastPage = page.size() < BATCH_SIZE;
+    } // method readPage
+
+  } // class CertRowReader
+
+  private static final Logger LOG = LoggerFactory.getLogger(ImportCrl.class);
+
+  private static final String KEY_CA_REVOCATION_TIME = "ca.revocation.time";
+
+  private static final String KEY_CA_INVALIDITY_TIME = "ca.invalidity.time";
 
   private static final String SQL_INSERT_CERT
       = "INSERT INTO CERT (ID,IID,SN,REV,RR,RT,RIT,LUPDATE,NBEFORE,NAFTER,HASH) "
         + "VALUES(?,?,?,?,?,?,?,?,?,?,?)";
 
-  private static final String CORE_SQL_SELECT_ID_CERT = "ID FROM CERT WHERE IID=? AND SN=?";
+  private static final String SQL_UPDATE_CERT
+      = "UPDATE CERT SET REV=?,RR=?,RT=?,RIT=?,LUPDATE=?,NBEFORE=?,NAFTER=?,HASH=? WHERE ID=?";
+
+  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE ID=?";
+
+  private static final String CERT_COLUMNS = "ID,SN,REV,RR,RT,RIT,NBEFORE,NAFTER,HASH";
+
+  // number of rows read or written with one JDBC statement execution.
+  private static final int BATCH_SIZE = 1000;
+
+  // maximal number of changed certificates kept in memory before written to the database.
+  private static final int CHUNK_SIZE = 10 * BATCH_SIZE;
+
+  // maximal number of CRL entries sorted in memory.
+  private static final int MAX_SORTED_ENTRIES_IN_MEMORY = 100 * BATCH_SIZE;
+
+  private static final Comparator<CertRow> CERT_ROW_ORDER = new Comparator<CertRow>() {
+
+    @Override
+    public int compare(CertRow r1, CertRow r2) {
+      return SortedRevokedCerts.sortKey(r1.serialNumber).compareTo(
+          SortedRevokedCerts.sortKey(r2.serialNumber));
+    }
+
+  };
+
+  // maximal number of serial numbers in one query of the table CERT.
+  private static final int SERIALS_PER_QUERY = 100;
 
   private final String basedir;
 
-  private final String sqlSelectIdCert;
+  private final String sqlSelectFirstCerts;
+
+  private final String sqlSelectNextCerts;
 
-  private final X509CRL crl;
+  private final CrlStreamParser crl;
 
   private final X509Certificate caCert;
 
@@ -161,20 +512,30 @@ class ImportCrl {
 
   private final X500Name caSubject;
 
-  private final X500Principal x500PrincipalCaSubject;
-
   private final byte[] caSpki;
 
   private final CertRevocationInfo caRevInfo;
 
   private final HashAlgo certhashAlgo;
 
-  private PreparedStatement psDeleteCert;
-  private PreparedStatement psInsertCert;
-  private PreparedStatement psInsertCertRev;
-  private PreparedStatement psSelectIdCert;
-  private PreparedStatement psUpdateCert;
-  private PreparedStatement psUpdateCertRev;
+  // The following fields are computed from the database and the CRL before any change
+  // is written to the database.
+
+  private boolean addNewIssuer;
+
+  private int issuerId;
+
+  private CrlInfo crlInfo;
+
+  private long maxCertId;
+
+  private final List<BigInteger> deletedSerials = new ArrayList<>();
+
+  private int numInserts;
+
+  private int numUpdates;
+
+  private int numDeletes;
 
   public ImportCrl(DataSourceWrapper datasource, String basedir)
       throws ImportCrlException, DataAccessException, IOException {
@@ -196,8 +557,7 @@ class ImportCrl {
     LOG.info("UPDATE_CERTSTORE: a newer CRL is available");
 
     this.caCert = parseCert(caCertFile);
-    this.x500PrincipalCaSubject = caCert.getSubjectX500Principal();
-    this.caSubject = X500Name.getInstance(x500PrincipalCaSubject.getEncoded());
+    this.caSubject = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
     try {
       this.caSpki = X509Util.extractSki(caCert);
     } catch (CertificateEncodingException ex) {
@@ -211,166 +571,185 @@ class ImportCrl {
     }
 
     try {
-      this.crl = X509Util.parseCrl(crlFile);
-    } catch (CertificateException | CRLException ex) {
+      this.crl = new CrlStreamParser(crlFile);
+    } catch (IOException | IllegalArgumentException ex) {
       throw new ImportCrlException("could not parse X.509 CRL from file "
           + crlFile + ": " + ex.getMessage(), ex);
     }
 
-    File revFile = new File(basedir, "REVOCATION");
-    CertRevocationInfo caRevInfo = null;
-    if (revFile.exists()) {
-      Properties props = new Properties();
-      InputStream is = Files.newInputStream(revFile.toPath());
-      try {
-        props.load(is);
-      } finally {
-        is.close();
-      }
-
-      String str = props.getProperty(KEY_CA_REVOCATION_TIME);
-      if (StringUtil.isNotBlank(str)) {
-        Date revocationTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
-        Date invalidityTime = null;
+    // the CRL file is unmapped if the CRL cannot be imported.
+    boolean successful = false;
+    try {
+      File revFile = new File(basedir, "REVOCATION");
+      CertRevocationInfo caRevInfo = null;
+      if (revFile.exists()) {
+        Properties props = new Properties();
+        InputStream is = Files.newInputStream(revFile.toPath());
+        try {
+          props.load(is);
+        } finally {
+          is.close();
+        }
 
-        str = props.getProperty(KEY_CA_INVALIDITY_TIME);
+        String str = props.getProperty(KEY_CA_REVOCATION_TIME);
         if (StringUtil.isNotBlank(str)) {
-          invalidityTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
+          Date revocationTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
+          Date invalidityTime = null;
+
+          str = props.getProperty(KEY_CA_INVALIDITY_TIME);
+          if (StringUtil.isNotBlank(str)) {
+            invalidityTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
+          }
+          caRevInfo = new CertRevocationInfo(CrlReason.UNSPECIFIED, revocationTime, invalidityTime);
         }
-        caRevInfo = new CertRevocationInfo(CrlReason.UNSPECIFIED, revocationTime, invalidityTime);
       }
-    }
 
-    this.caRevInfo = caRevInfo;
+      this.caRevInfo = caRevInfo;
 
-    X500Principal issuer = crl.getIssuerX500Principal();
+      X500Name issuer = crl.getIssuer();
 
-    X509Certificate crlSignerCert;
-    if (x500PrincipalCaSubject.equals(issuer)) {
-      crlSignerCert = caCert;
-    } else {
-      if (issuerCert == null) {
-        throw new IllegalArgumentException("issuerCert may not be null");
+      X509Certificate crlSignerCert;
+      if (caSubject.equals(issuer)) {
+        crlSignerCert = caCert;
+      } else {
+        if (issuerCert == null) {
+          throw new IllegalArgumentException("issuerCert may not be null");
+        }
+
+        X500Name issuerCertSubject =
+            X500Name.getInstance(issuerCert.getSubjectX500Principal().getEncoded());
+        if (!issuerCertSubject.equals(issuer)) {
+          throw new IllegalArgumentException("issuerCert and CRL do not match");
+        }
+        crlSignerCert = issuerCert;
       }
 
-      if (!issuerCert.getSubjectX500Principal().equals(issuer)) {
-        throw new IllegalArgumentException("issuerCert and CRL do not match");
+      // Verify the signature
+      boolean signatureValid;
+      try {
+        signatureValid = crl.verifySignature(crlSignerCert.getPublicKey());
+      } catch (IOException | InvalidKeyException ex) {
+        throw new ImportCrlException("could not verify signature of CRL", ex);
       }
-      crlSignerCert = issuerCert;
-    }
 
-    // Verify the signature
-    try {
-      crl.verify(crlSignerCert.getPublicKey());
-    } catch (SignatureException | NoSuchProviderException | InvalidKeyException | CRLException
-        | NoSuchAlgorithmException ex) {
-      throw new ImportCrlException("could not verify signature of CRL", ex);
-    }
-
-    byte[] octetString = crl.getExtensionValue(Extension.cRLNumber.getId());
-    if (octetString == null) {
-      throw new IllegalArgumentException("CRL without CRLNumber is not supported");
-    }
-    ASN1Integer asn1CrlNumber
-        = ASN1Integer.getInstance(DEROctetString.getInstance(octetString).getOctets());
-    this.crlNumber = asn1CrlNumber.getPositiveValue();
-
-    octetString = crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-    this.isDeltaCrl = (octetString != null);
-    if (this.isDeltaCrl) {
-      LOG.info("The CRL is a DeltaCRL");
-      byte[] extnValue = DEROctetString.getInstance(octetString).getOctets();
-      this.baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
-    } else {
-      LOG.info("The CRL is a full CRL");
-      this.baseCrlNumber = null;
-    }
+      if (!signatureValid) {
+        throw new ImportCrlException("signature of CRL is invalid");
+      }
 
-    // Construct CrlID
-    ASN1EncodableVector vec = new ASN1EncodableVector();
-    File urlFile = new File(basedir, "crl.url");
-    if (urlFile.exists()) {
-      String crlUrl = StringUtil.toUtf8String(IoUtil.read(urlFile)).trim();
-      if (StringUtil.isNotBlank(crlUrl)) {
-        vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
+      Extension extn = getCrlExtension(Extension.cRLNumber);
+      if (extn == null) {
+        throw new IllegalArgumentException("CRL without CRLNumber is not supported");
+      }
+      ASN1Integer asn1CrlNumber = ASN1Integer.getInstance(extn.getParsedValue());
+      this.crlNumber = asn1CrlNumber.getPositiveValue();
+
+      extn = getCrlExtension(Extension.deltaCRLIndicator);
+      this.isDeltaCrl = (extn != null);
+      if (this.isDeltaCrl) {
+        LOG.info("The CRL is a DeltaCRL");
+        this.baseCrlNumber = ASN1Integer.getInstance(extn.getParsedValue()).getPositiveValue();
+      } else {
+        LOG.info("The CRL is a full CRL");
+        this.baseCrlNumber = null;
       }
-    }
 
-    vec.add(new DERTaggedObject(true, 1, asn1CrlNumber));
-    vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(crl.getThisUpdate())));
-    this.crlId = CrlID.getInstance(new DERSequence(vec));
+      // Construct CrlID
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      File urlFile = new File(basedir, "crl.url");
+      if (urlFile.exists()) {
+        String crlUrl = StringUtil.toUtf8String(IoUtil.read(urlFile)).trim();
+        if (StringUtil.isNotBlank(crlUrl)) {
+          vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
+        }
+      }
+
+      vec.add(new DERTaggedObject(true, 1, asn1CrlNumber));
+      vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(crl.getThisUpdate())));
+      this.crlId = CrlID.getInstance(new DERSequence(vec));
 
-    this.sqlSelectIdCert = datasource.buildSelectFirstSql(1, CORE_SQL_SELECT_ID_CERT);
+      this.sqlSelectFirstCerts = datasource.buildSelectFirstSql(BATCH_SIZE, "SN ASC",
+          CERT_COLUMNS + " FROM CERT WHERE IID=?");
+      this.sqlSelectNextCerts = datasource.buildSelectFirstSql(BATCH_SIZE, "SN ASC",
+          CERT_COLUMNS + " FROM CERT WHERE IID=? AND SN>?");
+      successful = true;
+    } finally {
+      if (!successful) {
+        crl.close();
+      }
+    }
   }
 
+  /**
+   * Imports the CRL. Can be called only once, since the CRL file is unmapped afterwards.
+   * @return whether the CRL has been imported.
+   */
   public boolean importCrlToOcspDb() {
     Connection conn = null;
     try {
       conn = datasource.getConnection();
 
-      // CHECKSTYLE:SKIP
-      Date startTime = new Date();
-      // CHECKSTYLE:SKIP
-      int caId = importCa(conn);
-
-      psDeleteCert = datasource.prepareStatement(conn, SQL_DELETE_CERT);
-      psInsertCert = datasource.prepareStatement(conn, SQL_INSERT_CERT);
-      psInsertCertRev = datasource.prepareStatement(conn, SQL_INSERT_CERT_REV);
-      psSelectIdCert = datasource.prepareStatement(conn, sqlSelectIdCert);
-      psUpdateCert = datasource.prepareStatement(conn, SQL_UPDATE_CERT);
-      psUpdateCertRev = datasource.prepareStatement(conn, SQL_UPDATE_CERT_REV);
-
-      importEntries(conn, caId);
-      if (!isDeltaCrl) {
-        deleteEntriesNotUpdatedSince(conn, startTime);
+      readIssuer(conn);
+      if (addNewIssuer) {
+        // the certificates of the issuer are not used until the import is finished.
+        insertIssuer(conn);
       }
 
+      // the changes are written in one transaction, which also switches the issuer to the
+      // new CRL.
+      importChanges(conn);
+      LOG.info("CRL import: {} certificates inserted, {} updated and {} deleted",
+          numInserts, numUpdates, numDeletes);
       return true;
     } catch (Throwable th) {
       LogUtil.error(LOG, th, "could not import CRL to OCSP database");
-      releaseResources(psDeleteCert, null);
-      releaseResources(psInsertCert, null);
-      releaseResources(psInsertCertRev, null);
-      releaseResources(psSelectIdCert, null);
-      releaseResources(psUpdateCert, null);
-      releaseResources(psUpdateCertRev, null);
-
+    } finally {
       if (conn != null) {
         datasource.returnConnection(conn);
       }
+      crl.close();
     }
 
     return false;
   }
 
-  private int importCa(Connection conn) throws DataAccessException, ImportCrlException {
-    byte[] encodedCaCert;
-    try {
-      encodedCaCert = caCert.getEncoded();
-    } catch (CertificateEncodingException ex) {
-      throw new ImportCrlException("could not encode CA certificate");
-    }
-    String fpCaCert = HashAlgo.SHA1.base64Hash(encodedCaCert);
+  /**
+   * Returns the id of the issuer in the database. Valid only after the successful import.
+   * @return the id of the issuer.
+   */
+  int getIssuerId() {
+    return issuerId;
+  }
+
+  /**
+   * Returns the serial numbers of the certificates deleted from the database. Valid only
+   * after the successful import.
+   * @return the serial numbers of the deleted certificates.
+   */
+  List<BigInteger> getDeletedSerialNumbers() {
+    return deletedSerials;
+  }
+
+  private void readIssuer(Connection conn) throws DataAccessException, ImportCrlException {
+    String fpCaCert = HashAlgo.SHA1.base64Hash(getEncodedCaCert());
 
-    Integer issuerId = null;
-    CrlInfo crlInfo = null;
+    Integer existingIssuerId = null;
+    CrlInfo existingCrlInfo = null;
 
+    final String sql = "SELECT ID,CRL_INFO FROM ISSUER WHERE S1C=?";
     PreparedStatement ps = null;
     ResultSet rs = null;
-    String sql = null;
     try {
-      sql = "SELECT ID,CRL_INFO FROM ISSUER WHERE S1C=?";
       ps = datasource.prepareStatement(conn, sql);
       ps.setString(1, fpCaCert);
       rs = ps.executeQuery();
       if (rs.next()) {
-        issuerId = rs.getInt("ID");
+        existingIssuerId = rs.getInt("ID");
         String str = rs.getString("CRL_INFO");
         if (str == null) {
           throw new ImportCrlException(
             "RequestIssuer for the given CA of CRL exists, but not imported from CRL");
         }
-        crlInfo = new CrlInfo(str);
+        existingCrlInfo = new CrlInfo(str);
       }
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
@@ -378,183 +757,296 @@ class ImportCrl {
       releaseResources(ps, rs);
     }
 
-    boolean addNew = (issuerId == null);
-    if (addNew) {
+    this.addNewIssuer = (existingIssuerId == null);
+    if (addNewIssuer) {
       if (isDeltaCrl) {
         throw new ImportCrlException("Given CRL is a deltaCRL for the full CRL with number "
             + baseCrlNumber + ", please import this full CRL first.");
-      } else {
-        crlInfo = new CrlInfo(crlNumber, null, crl.getThisUpdate(), crl.getNextUpdate(), crlId);
-      }
-    } else {
-      if (crlNumber.compareTo(crlInfo.getCrlNumber()) <= 0) {
-        // It is permitted if the CRL number equals to the one in Database,
-        // which enables the resume of importing process if error occurred.
-        throw new ImportCrlException("Given CRL is not newer than existing CRL.");
       }
 
+      this.issuerId = (int) datasource.getMax(conn, "ISSUER", "ID") + 1;
+      this.crlInfo = new CrlInfo(crlNumber, null, crl.getThisUpdate(), crl.getNextUpdate(),
+          crlId);
+      return;
+    }
+
+    this.issuerId = existingIssuerId;
+    if (existingCrlInfo.isImportPending()) {
+      // a previous import of a full CRL for this issuer has not been finished.
       if (isDeltaCrl) {
-        BigInteger lastFullCrlNumber = crlInfo.getBaseCrlNumber();
-        if (lastFullCrlNumber == null) {
-          lastFullCrlNumber = crlInfo.getCrlNumber();
-        }
+        throw new ImportCrlException("Given CRL is a deltaCRL, but the import of the full CRL "
+            + "has not been finished, please import the full CRL first.");
+      }
 
-        if (!baseCrlNumber.equals(lastFullCrlNumber)) {
-          throw new ImportCrlException("Given CRL is a deltaCRL for the full CRL with number "
-              + crlNumber + ", please import this full CRL first.");
-        }
+      LOG.info("continue the unfinished import of CRL for the issuer {}", issuerId);
+      this.crlInfo = new CrlInfo(crlNumber, null, crl.getThisUpdate(), crl.getNextUpdate(),
+          crlId);
+      return;
+    }
+
+    if (crlNumber.compareTo(existingCrlInfo.getCrlNumber()) <= 0) {
+      throw new ImportCrlException("Given CRL is not newer than existing CRL.");
+    }
+
+    if (isDeltaCrl) {
+      BigInteger lastFullCrlNumber = existingCrlInfo.getBaseCrlNumber();
+      if (lastFullCrlNumber == null) {
+        lastFullCrlNumber = existingCrlInfo.getCrlNumber();
       }
 
-      crlInfo.setCrlNumber(crlNumber);
-      crlInfo.setBaseCrlNumber(isDeltaCrl ? baseCrlNumber : null);
-      crlInfo.setThisUpdate(crl.getThisUpdate());
-      crlInfo.setNextUpdate(crl.getNextUpdate());
+      if (!baseCrlNumber.equals(lastFullCrlNumber)) {
+        throw new ImportCrlException("Given CRL is a deltaCRL for the full CRL with number "
+            + crlNumber + ", please import this full CRL first.");
+      }
     }
 
-    ps = null;
-    rs = null;
-    sql = null;
-    try {
-      // issuer exists
-      int offset = 1;
-      if (addNew) {
-        int maxId = (int) datasource.getMax(conn, "ISSUER", "ID");
-        issuerId = maxId + 1;
+    existingCrlInfo.setCrlNumber(crlNumber);
+    existingCrlInfo.setBaseCrlNumber(isDeltaCrl ? baseCrlNumber : null);
+    existingCrlInfo.setThisUpdate(crl.getThisUpdate());
+    existingCrlInfo.setNextUpdate(crl.getNextUpdate());
 
-        sql = "INSERT INTO ISSUER (ID,SUBJECT,NBEFORE,NAFTER,S1C,CERT,REV_INFO,CRL_INFO)"
-            + " VALUES(?,?,?,?,?,?,?,?)";
-        ps = datasource.prepareStatement(conn, sql);
-        String subject = X509Util.getRfc4519Name(caCert.getSubjectX500Principal());
+    this.crlInfo = existingCrlInfo;
+  } // method readIssuer
 
-        ps.setInt(offset++, issuerId);
-        ps.setString(offset++, subject);
-        ps.setLong(offset++, caCert.getNotBefore().getTime() / 1000);
-        ps.setLong(offset++, caCert.getNotAfter().getTime() / 1000);
-        ps.setString(offset++, fpCaCert);
-        ps.setString(offset++, Base64.encodeToString(encodedCaCert));
+  private void importChanges(Connection conn) throws DataAccessException, ImportCrlException {
+    this.maxCertId = datasource.getMax(conn, "CERT", "ID");
+
+    Map<BigInteger, CertRow> certInfos = readCertInfos();
+    ChangeWriter writer = new ChangeWriter(conn);
+    writer.begin();
+    try {
+      if (isDeltaCrl) {
+        importDeltaCrlChanges(conn, certInfos, writer);
       } else {
-        sql = "UPDATE ISSUER SET REV_INFO=?,CRL_INFO=? WHERE ID=?";
-        ps = datasource.prepareStatement(conn, sql);
+        importFullCrlChanges(conn, certInfos, writer);
       }
+      writer.commit();
+    } finally {
+      writer.end();
+    }
+  }
 
-      ps.setString(offset++, (caRevInfo == null) ? null : caRevInfo.getEncoded());
-
-      // CRL info
+  /**
+   * A full CRL replaces the revocation information of all certificates of the issuer.
+   * Certificates neither contained in the CRL nor in the certificates will be deleted.
+   */
+  private void importFullCrlChanges(Connection conn, Map<BigInteger, CertRow> certInfos,
+      ChangeWriter writer) throws DataAccessException, ImportCrlException {
+    SortedRevokedCerts revokedCerts = new SortedRevokedCerts(MAX_SORTED_ENTRIES_IN_MEMORY);
+    try {
+      RevokedCertsIterator it = crl.revokedCertificates();
       try {
-        ps.setString(offset++, crlInfo.getEncoded());
+        while (it.hasNext()) {
+          revokedCerts.add(nextRevokedCert(it));
+        }
+        revokedCerts.sort();
       } catch (IOException ex) {
-        throw new ImportCrlException("could not encode the Crlinfo", ex);
+        throw new ImportCrlException("could not sort the CRL entries: " + ex.getMessage(), ex);
       }
 
-      if (!addNew) {
-        ps.setInt(offset++, issuerId.intValue());
-      }
+      LOG.info("sorted {} CRL entries with {} temporary files", revokedCerts.size(),
+          revokedCerts.getNumberOfRuns());
 
-      ps.executeUpdate();
-      return issuerId.intValue();
-    } catch (SQLException ex) {
-      throw datasource.translate(sql, ex);
+      List<CertRow> sortedCertInfos = new ArrayList<>(certInfos.values());
+      Collections.sort(sortedCertInfos, CERT_ROW_ORDER);
+
+      // the certificates of the issuer written by the previous imports.
+      mergeFullCrl(revokedCerts, sortedCertInfos, new CertRowReader(conn), writer);
     } finally {
-      releaseResources(ps, rs);
+      revokedCerts.close();
     }
-  }
-
-  private void importEntries(Connection conn, int caId)
+  } // method importFullCrlChanges
+
+  /**
+   * Computes the changes of a full CRL with one pass over the CRL entries, the certificates
+   * to be imported and the certificates in the database, all ordered by
+   * {@link SortedRevokedCerts#sortKey(BigInteger)}.
+   */
+  static void mergeFullCrl(SortedRevokedCerts revokedCerts, List<CertRow> sortedCertInfos,
+      CertRowSource existingRows, ChangeHandler handler)
       throws DataAccessException, ImportCrlException {
-    AtomicLong maxId = new AtomicLong(datasource.getMax(conn, "CERT", "ID"));
-
-    // import the revoked information
-    Set<? extends X509CRLEntry> revokedCertList = crl.getRevokedCertificates();
-    if (revokedCertList != null) {
-      for (X509CRLEntry c : revokedCertList) {
-        X500Principal issuer = c.getCertificateIssuer();
-        BigInteger serial = c.getSerialNumber();
-
-        if (issuer != null) {
-          if (!x500PrincipalCaSubject.equals(issuer)) {
-            throw new ImportCrlException("invalid CRLEntry for certificate number " + serial);
-          }
-        }
+    Iterator<CertRow> certInfoIt = sortedCertInfos.iterator();
+
+    RevokedCert entry = nextFullCrlEntry(revokedCerts);
+    CertRow certInfo = certInfoIt.hasNext() ? certInfoIt.next() : null;
+    CertRow existingRow = existingRows.next();
+
+    String lastKey = null;
+    while (entry != null || certInfo != null || existingRow != null) {
+      String entryKey = (entry == null) ? null
+          : SortedRevokedCerts.sortKey(entry.getSerialNumber());
+      String certInfoKey = (certInfo == null) ? null
+          : SortedRevokedCerts.sortKey(certInfo.serialNumber);
+      String existingKey = (existingRow == null) ? null
+          : SortedRevokedCerts.sortKey(existingRow.serialNumber);
+
+      String key = minKey(minKey(entryKey, certInfoKey), existingKey);
+
+      RevokedCert matchedEntry = null;
+      if (key.equals(entryKey)) {
+        matchedEntry = entry;
+        entry = nextFullCrlEntry(revokedCerts);
+      }
 
-        Date rt = c.getRevocationDate();
-        Date rit = null;
-        byte[] extnValue = c.getExtensionValue(Extension.invalidityDate.getId());
-        if (extnValue != null) {
-          extnValue = extractCoreValue(extnValue);
-          ASN1GeneralizedTime genTime = DERGeneralizedTime.getInstance(extnValue);
-          try {
-            rit = genTime.getDate();
-          } catch (ParseException ex) {
-            throw new ImportCrlException(ex.getMessage(), ex);
-          }
+      CertRow matchedCertInfo = null;
+      if (key.equals(certInfoKey)) {
+        matchedCertInfo = certInfo;
+        certInfo = certInfoIt.hasNext() ? certInfoIt.next() : null;
+      }
 
-          if (rt.equals(rit)) {
-            rit = null;
-          }
+      CertRow matchedRow = null;
+      if (key.equals(existingKey)) {
+        matchedRow = existingRow;
+        existingRow = existingRows.next();
+      }
+
+      if (key.equals(lastKey)) {
+        LOG.warn("duplicated entry of certificate (serial={}), ignore it",
+            LogUtil.formatCsn(new BigInteger(key, 16)));
+        continue;
+      }
+      lastKey = key;
+
+      if (matchedEntry == null && matchedCertInfo == null) {
+        handler.delete(matchedRow);
+      } else {
+        BigInteger serial = (matchedEntry != null)
+            ? matchedEntry.getSerialNumber() : matchedCertInfo.serialNumber;
+        handler.change(serial, (matchedEntry == null) ? null : toRevocation(matchedEntry),
+            matchedCertInfo, matchedRow);
+      }
+    }
+  } // method mergeFullCrl
+
+  private static RevokedCert nextFullCrlEntry(SortedRevokedCerts revokedCerts)
+      throws ImportCrlException {
+    try {
+      while (revokedCerts.hasNext()) {
+        RevokedCert entry = revokedCerts.next();
+        if (entry.getReason() != CrlReason.REMOVE_FROM_CRL) {
+          return entry;
         }
+        LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
+      }
+      return null;
+    } catch (IOException ex) {
+      throw new ImportCrlException("could not read the sorted CRL entries: " + ex.getMessage(),
+          ex);
+    }
+  }
 
-        CrlReason reason = CrlReason.fromReason(c.getRevocationReason());
+  private static String minKey(String key1, String key2) {
+    if (key1 == null) {
+      return key2;
+    } else if (key2 == null) {
+      return key1;
+    } else {
+      return key1.compareTo(key2) <= 0 ? key1 : key2;
+    }
+  }
 
-        String sql = null;
-        try {
-          if (reason == CrlReason.REMOVE_FROM_CRL) {
-            if (isDeltaCrl) {
-              // delete the entry
-              sql = SQL_DELETE_CERT;
-              psDeleteCert.setInt(1, caId);
-              psDeleteCert.setString(2, serial.toString(16));
-              psDeleteCert.executeUpdate();
-            } else {
-              LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
-            }
-            continue;
-          }
+  /**
+   * A delta CRL changes only the revocation information of the contained certificates.
+   */
+  private void importDeltaCrlChanges(Connection conn, Map<BigInteger, CertRow> certInfos,
+      ChangeWriter writer) throws DataAccessException, ImportCrlException {
+    List<RevokedCert> entries = new ArrayList<>();
+    Set<BigInteger> serials = new HashSet<>(certInfos.keySet());
+
+    RevokedCertsIterator revokedCerts = crl.revokedCertificates();
+    while (revokedCerts.hasNext()) {
+      RevokedCert entry = nextRevokedCert(revokedCerts);
+      entries.add(entry);
+      serials.add(entry.getSerialNumber());
+    }
 
-          Long id = getId(caId, serial);
-          PreparedStatement ps;
-          int offset = 1;
-
-          if (id == null) {
-            sql = SQL_INSERT_CERT_REV;
-            id = maxId.incrementAndGet();
-            ps = psInsertCertRev;
-            ps.setLong(offset++, id);
-            ps.setInt(offset++, caId);
-            ps.setString(offset++, serial.toString(16));
-          } else {
-            sql = SQL_UPDATE_CERT_REV;
-            ps = psUpdateCertRev;
-          }
+    Map<BigInteger, CertRow> existingRows = loadCertRows(conn, new ArrayList<>(serials));
+    mergeDeltaCrl(entries, certInfos, existingRows, writer);
+  } // method importDeltaCrlChanges
 
-          ps.setInt(offset++, 1);
-          ps.setInt(offset++, reason.getCode());
-          ps.setLong(offset++, rt.getTime() / 1000);
-          if (rit != null) {
-            ps.setLong(offset++, rit.getTime() / 1000);
-          } else {
-            ps.setNull(offset++, Types.BIGINT);
-          }
-          ps.setLong(offset++, System.currentTimeMillis() / 1000);
+  /**
+   * Computes the changes of a delta CRL. The revocation information of certificates not
+   * contained in the delta CRL is retained.
+   */
+  static void mergeDeltaCrl(List<RevokedCert> entries, Map<BigInteger, CertRow> certInfos,
+      Map<BigInteger, CertRow> existingRows, ChangeHandler handler)
+      throws DataAccessException, ImportCrlException {
+    Map<BigInteger, CertRow> remainingCertInfos = new LinkedHashMap<>(certInfos);
+    Set<BigInteger> handled = new HashSet<>();
+
+    for (RevokedCert entry : entries) {
+      BigInteger serial = entry.getSerialNumber();
+      if (!handled.add(serial)) {
+        LOG.warn("duplicated entry of certificate (serial={}), ignore it",
+            LogUtil.formatCsn(serial));
+        continue;
+      }
 
-          if (ps == psUpdateCertRev) {
-            ps.setLong(offset++, id);
-          }
+      CertRow existingRow = existingRows.get(serial);
+      CertRow certInfo = remainingCertInfos.remove(serial);
 
-          ps.executeUpdate();
-        } catch (SQLException ex) {
-          throw datasource.translate(sql, ex);
-        }
+      if (entry.getReason() != CrlReason.REMOVE_FROM_CRL) {
+        handler.change(serial, toRevocation(entry), certInfo, existingRow);
+      } else if (certInfo != null) {
+        // the certificate is known, and is not revoked any more.
+        handler.change(serial, null, certInfo, existingRow);
+      } else if (existingRow != null) {
+        handler.delete(existingRow);
       }
     }
 
-    // import the certificates
+    for (CertRow certInfo : remainingCertInfos.values()) {
+      // revocation information not contained in the delta CRL is retained.
+      BigInteger serial = certInfo.serialNumber;
+      CertRow existingRow = existingRows.get(serial);
+      handler.change(serial, existingRow, certInfo, existingRow);
+    }
+  } // method mergeDeltaCrl
+
+  private RevokedCert nextRevokedCert(RevokedCertsIterator revokedCerts)
+      throws ImportCrlException {
+    RevokedCert entry;
+    try {
+      entry = revokedCerts.next();
+    } catch (IOException | IllegalArgumentException ex) {
+      throw new ImportCrlException("could not parse CRL entry: " + ex.getMessage(), ex);
+    }
+
+    X500Name issuer = entry.getCertificateIssuer();
+    if (issuer != null && !caSubject.equals(issuer)) {
+      throw new ImportCrlException(
+          "invalid CRLEntry for certificate number " + entry.getSerialNumber());
+    }
+    return entry;
+  }
+
+  private static CertRow toRevocation(RevokedCert entry) {
+    CertRow revocation = new CertRow(entry.getSerialNumber());
+    revocation.revoked = true;
+    revocation.revReason = entry.getReason().getCode();
+
+    Date rt = entry.getRevocationDate();
+    revocation.revTime = rt.getTime() / 1000;
+
+    Date rit = entry.getInvalidityDate();
+    if (rit != null && !rit.equals(rt)) {
+      revocation.revInvTime = rit.getTime() / 1000;
+    }
+    return revocation;
+  }
+
+  /**
+   * Reads the certificates from the CRL extension Xipki-CertSet, or if not present, from the
+   * folder certs.
+   * @return the certificate information with serial number as key.
+   */
+  private Map<BigInteger, CertRow> readCertInfos() throws ImportCrlException {
+    Map<BigInteger, CertRow> certInfos = new LinkedHashMap<>();
 
     // extract the certificate
-    byte[] extnValue =
-        crl.getExtensionValue(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset.getId());
-    if (extnValue != null) {
-      extnValue = extractCoreValue(extnValue);
-      ASN1Set asn1Set = DERSet.getInstance(extnValue);
+    Extension certsetExtn = getCrlExtension(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset);
+    if (certsetExtn != null) {
+      ASN1Set asn1Set = DERSet.getInstance(certsetExtn.getParsedValue());
       final int n = asn1Set.size();
 
       for (int i = 0; i < n; i++) {
@@ -563,21 +1055,12 @@ class ImportCrl {
         BigInteger serialNumber = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue();
 
         Certificate cert = null;
-        String profileName = null;
 
         final int size = seq.size();
         for (int j = 1; j < size; j++) {
           ASN1TaggedObject taggedObj = DERTaggedObject.getInstance(seq.getObjectAt(j));
-          int tagNo = taggedObj.getTagNo();
-          switch (tagNo) {
-            case 0:
-              cert = Certificate.getInstance(taggedObj.getObject());
-              break;
-            case 1:
-              profileName = DERUTF8String.getInstance(taggedObj.getObject()).getString();
-              break;
-            default:
-              break;
+          if (taggedObj.getTagNo() == 0) {
+            cert = Certificate.getInstance(taggedObj.getObject());
           }
         }
 
@@ -599,109 +1082,87 @@ class ImportCrl {
 
         String certLogId = "(issuer='" + cert.getIssuer()
             + "', serialNumber=" + cert.getSerialNumber() + ")";
-        addCertificate(maxId, caId, cert, profileName, certLogId);
+        addCertInfo(certInfos, cert, certLogId);
       }
-    } else {
-      // cert dirs
-      File certsDir = new File(basedir, "certs");
 
-      if (!certsDir.exists()) {
-        LOG.warn("the folder {} does not exist, ignore it", certsDir.getPath());
-        return;
-      }
+      return certInfos;
+    }
 
-      if (!certsDir.isDirectory()) {
-        LOG.warn("the path {} does not point to a folder, ignore it", certsDir.getPath());
-        return;
-      }
+    // cert dirs
+    File certsDir = new File(basedir, "certs");
 
-      if (!certsDir.canRead()) {
-        LOG.warn("the folder {} may not be read, ignore it", certsDir.getPath());
-        return;
+    if (!certsDir.exists()) {
+      LOG.warn("the folder {} does not exist, ignore it", certsDir.getPath());
+      return certInfos;
+    }
+
+    if (!certsDir.isDirectory()) {
+      LOG.warn("the path {} does not point to a folder, ignore it", certsDir.getPath());
+      return certInfos;
+    }
+
+    if (!certsDir.canRead()) {
+      LOG.warn("the folder {} may not be read, ignore it", certsDir.getPath());
+      return certInfos;
+    }
+
+    // import certificates
+    File[] certFiles = certsDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".der") || name.endsWith(".crt") || name.endsWith(".pem");
       }
+    });
 
-      // import certificates
-      File[] certFiles = certsDir.listFiles(new FilenameFilter() {
-        @Override
-        public boolean accept(File dir, String name) {
-          return name.endsWith(".der") || name.endsWith(".crt") || name.endsWith(".pem");
+    if (certFiles != null && certFiles.length > 0) {
+      for (File certFile : certFiles) {
+        Certificate cert;
+        try {
+          cert = X509Util.parseBcCert(certFile);
+        } catch (IllegalArgumentException | IOException | CertificateException ex) {
+          LOG.warn("could not parse certificate {}, ignore it", certFile.getPath());
+          continue;
         }
-      });
-
-      if (certFiles != null && certFiles.length > 0) {
-        for (File certFile : certFiles) {
-          Certificate cert;
-          try {
-            cert = X509Util.parseBcCert(certFile);
-          } catch (IllegalArgumentException | IOException | CertificateException ex) {
-            LOG.warn("could not parse certificate {}, ignore it", certFile.getPath());
-            continue;
-          }
 
-          String certLogId = "(file " + certFile.getName() + ")";
-          addCertificate(maxId, caId, cert, null, certLogId);
-        }
+        String certLogId = "(file " + certFile.getName() + ")";
+        addCertInfo(certInfos, cert, certLogId);
       }
+    }
 
-      // import certificate serial numbers
-      File[] serialNumbersFiles = certsDir.listFiles(new FilenameFilter() {
-        @Override
-        public boolean accept(File dir, String name) {
-          return name.endsWith(".serials");
-        }
-      });
-
-      if (serialNumbersFiles != null && serialNumbersFiles.length > 0) {
-        for (File serialNumbersFile : serialNumbersFiles) {
-          try (BufferedReader reader = new BufferedReader(new FileReader(serialNumbersFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-              BigInteger serialNumber = new BigInteger(line.trim(), 16);
-              addCertificateBySerialNumber(maxId, caId, serialNumber);
-            }
-          } catch (IOException ex) {
-            LOG.warn("could not import certificates by serial numbers from file {}, ignore it",
-                serialNumbersFile.getPath());
-            continue;
+    // import certificate serial numbers
+    File[] serialNumbersFiles = certsDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".serials");
+      }
+    });
+
+    if (serialNumbersFiles != null && serialNumbersFiles.length > 0) {
+      for (File serialNumbersFile : serialNumbersFiles) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(serialNumbersFile))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            BigInteger serialNumber = new BigInteger(line.trim(), 16);
+            CertRow certInfo = new CertRow(serialNumber);
+            // not before NBEFORE, we use the minimal time
+            certInfo.notBefore = 0L;
+            // not after NAFTER, use Long.MAX_VALUE
+            certInfo.notAfter = Long.MAX_VALUE;
+            certInfos.put(serialNumber, certInfo);
           }
+        } catch (IOException ex) {
+          LOG.warn("could not import certificates by serial numbers from file {}, ignore it",
+              serialNumbersFile.getPath());
+          continue;
         }
       }
     }
 
-  }
-
-  private static byte[] extractCoreValue(byte[] encodedExtensionValue) {
-    return ASN1OctetString.getInstance(encodedExtensionValue).getOctets();
-  }
-
-  private static X509Certificate parseCert(File certFile) throws ImportCrlException {
-    try {
-      return X509Util.parseCert(certFile);
-    } catch (CertificateException | IOException ex) {
-      throw new ImportCrlException("could not parse X.509 certificate from file "
-          + certFile + ": " + ex.getMessage(), ex);
-    }
-  }
-
-  private Long getId(int caId, BigInteger serialNumber) throws DataAccessException {
-    ResultSet rs = null;
-    try {
-      psSelectIdCert.setInt(1, caId);
-      psSelectIdCert.setString(2, serialNumber.toString(16));
-      rs = psSelectIdCert.executeQuery();
-      if (!rs.next()) {
-        return null;
-      }
-      return rs.getLong("ID");
-    } catch (SQLException ex) {
-      throw datasource.translate(sqlSelectIdCert, ex);
-    } finally {
-      releaseResources(null, rs);
-    }
-  }
+    return certInfos;
+  } // method readCertInfos
 
-  private void addCertificate(AtomicLong maxId, int caId, Certificate cert, String profileName,
-      String certLogId) throws DataAccessException, ImportCrlException {
+  private void addCertInfo(Map<BigInteger, CertRow> certInfos, Certificate cert,
+      String certLogId) throws ImportCrlException {
     // not issued by the given issuer
     if (!caSubject.equals(cert.getIssuer())) {
       LOG.warn("certificate {} is not issued by the given CA, ignore it", certLogId);
@@ -715,7 +1176,6 @@ class ImportCrl {
     } catch (IOException ex) {
       throw new ImportCrlException("could not encode certificate {}" + certLogId, ex);
     }
-    String b64CertHash = certhashAlgo.base64Hash(encodedCert);
 
     if (caSpki != null) {
       byte[] aki = null;
@@ -733,127 +1193,228 @@ class ImportCrl {
       }
     } // end if
 
-    LOG.info("Importing certificate {}", certLogId);
-    Long id = getId(caId, cert.getSerialNumber().getPositiveValue());
-    boolean tblCertIdExists = (id != null);
+    TBSCertificate tbsCert = cert.getTBSCertificate();
+    CertRow certInfo = new CertRow(tbsCert.getSerialNumber().getPositiveValue());
+    certInfo.notBefore = tbsCert.getStartDate().getDate().getTime() / 1000;
+    certInfo.notAfter = tbsCert.getEndDate().getDate().getTime() / 1000;
+    certInfo.hash = certhashAlgo.base64Hash(encodedCert);
+    certInfos.put(certInfo.serialNumber, certInfo);
+  } // method addCertInfo
+
+  /**
+   * Loads the certificates of the issuer with given serial numbers.
+   */
+  private Map<BigInteger, CertRow> loadCertRows(Connection conn, List<BigInteger> serials)
+      throws DataAccessException {
+    Map<BigInteger, CertRow> rows = new HashMap<>();
 
-    PreparedStatement ps;
-    String sql;
-    // first update the table CERT
-    if (tblCertIdExists) {
-      sql = SQL_UPDATE_CERT;
-      ps = psUpdateCert;
-    } else {
-      sql = SQL_INSERT_CERT;
-      ps = psInsertCert;
-      id = maxId.incrementAndGet();
+    final int size = serials.size();
+    for (int from = 0; from < size; from += SERIALS_PER_QUERY) {
+      int to = Math.min(size, from + SERIALS_PER_QUERY);
+
+      StringBuilder sb = new StringBuilder(100 + 2 * (to - from));
+      sb.append("SELECT ").append(CERT_COLUMNS).append(" FROM CERT WHERE IID=? AND SN IN (");
+      for (int i = from; i < to; i++) {
+        sb.append(i == from ? "?" : ",?");
+      }
+      sb.append(")");
+      String sql = sb.toString();
+
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      ResultSet rs = null;
+      try {
+        int offset = 1;
+        ps.setInt(offset++, issuerId);
+        for (int i = from; i < to; i++) {
+          ps.setString(offset++, serials.get(i).toString(16));
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          CertRow row = readCertRow(rs);
+          rows.put(row.serialNumber, row);
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseResources(ps, rs);
+      }
     }
 
+    return rows;
+  } // method loadCertRows
+
+  private static CertRow readCertRow(ResultSet rs) throws SQLException {
+    CertRow row = new CertRow(new BigInteger(rs.getString("SN"), 16));
+    row.id = rs.getLong("ID");
+    row.revoked = rs.getInt("REV") == 1;
+
+    int reason = rs.getInt("RR");
+    row.revReason = rs.wasNull() ? null : reason;
+    row.revTime = getLong(rs, "RT");
+    row.revInvTime = getLong(rs, "RIT");
+    row.notBefore = getLong(rs, "NBEFORE");
+    row.notAfter = getLong(rs, "NAFTER");
+    row.hash = rs.getString("HASH");
+    return row;
+  }
+
+  private static Long getLong(ResultSet rs, String column) throws SQLException {
+    long value = rs.getLong(column);
+    return rs.wasNull() ? null : value;
+  }
+
+  /**
+   * Inserts the new issuer with pending import, so that its certificates are not used until
+   * the import has been finished.
+   */
+  private void insertIssuer(Connection conn) throws DataAccessException, ImportCrlException {
+    byte[] encodedCaCert = getEncodedCaCert();
+
+    final String sql = "INSERT INTO ISSUER (ID,SUBJECT,NBEFORE,NAFTER,S1C,CERT,REV_INFO,CRL_INFO)"
+        + " VALUES(?,?,?,?,?,?,?,?)";
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
     try {
+      String subject = X509Util.getRfc4519Name(caCert.getSubjectX500Principal());
+
       int offset = 1;
-      if (sql == SQL_INSERT_CERT) {
-        ps.setLong(offset++, id);
-        // ISSUER ID IID
-        ps.setInt(offset++, caId);
-        // serial number SN
-        ps.setString(offset++, cert.getSerialNumber().getPositiveValue().toString(16));
-        // whether revoked REV
-        ps.setInt(offset++, 0);
-        // revocation reason RR
-        ps.setNull(offset++, Types.SMALLINT);
-        // revocation time RT
-        ps.setNull(offset++, Types.BIGINT);
-        ps.setNull(offset++, Types.BIGINT);
-      }
-
-      // last update LUPDATE
-      ps.setLong(offset++, System.currentTimeMillis() / 1000);
-
-      TBSCertificate tbsCert = cert.getTBSCertificate();
-      // not before NBEFORE
-      ps.setLong(offset++, tbsCert.getStartDate().getDate().getTime() / 1000);
-      // not after NAFTER
-      ps.setLong(offset++, tbsCert.getEndDate().getDate().getTime() / 1000);
-      ps.setString(offset++, b64CertHash);
-
-      if (sql == SQL_UPDATE_CERT) {
-        ps.setLong(offset++, id);
-      }
+      ps.setInt(offset++, issuerId);
+      ps.setString(offset++, subject);
+      ps.setLong(offset++, caCert.getNotBefore().getTime() / 1000);
+      ps.setLong(offset++, caCert.getNotAfter().getTime() / 1000);
+      ps.setString(offset++, HashAlgo.SHA1.base64Hash(encodedCaCert));
+      ps.setString(offset++, Base64.encodeToString(encodedCaCert));
+      ps.setString(offset++, (caRevInfo == null) ? null : caRevInfo.getEncoded());
+
+      CrlInfo pendingCrlInfo = new CrlInfo(crlNumber, null, crl.getThisUpdate(),
+          crl.getNextUpdate(), crlId);
+      pendingCrlInfo.setImportPending(true);
+      ps.setString(offset++, encodeCrlInfo(pendingCrlInfo));
 
       ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
+    } finally {
+      releaseResources(ps, null);
     }
+  } // method insertIssuer
+
+  /**
+   * Switches the issuer to the new CRL.
+   */
+  private void updateIssuer(Connection conn) throws DataAccessException, ImportCrlException {
+    final String sql = "UPDATE ISSUER SET REV_INFO=?,CRL_INFO=? WHERE ID=?";
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    try {
+      int offset = 1;
+      ps.setString(offset++, (caRevInfo == null) ? null : caRevInfo.getEncoded());
+      ps.setString(offset++, encodeCrlInfo(crlInfo));
+      ps.setInt(offset++, issuerId);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseResources(ps, null);
+    }
+  } // method updateIssuer
 
-    LOG.info("Imported  certificate {}", certLogId);
+  private static String encodeCrlInfo(CrlInfo crlInfo) throws ImportCrlException {
+    try {
+      return crlInfo.getEncoded();
+    } catch (IOException ex) {
+      throw new ImportCrlException("could not encode the Crlinfo", ex);
+    }
   }
 
-  private void addCertificateBySerialNumber(AtomicLong maxId, int caId, BigInteger serialNumber)
-      throws DataAccessException {
-    LOG.info("Importing certificate by serial number {}", serialNumber);
-    Long id = getId(caId, serialNumber);
-    boolean tblCertIdExists = (id != null);
-
-    PreparedStatement ps;
-    String sql;
-    // first update the table CERT
-    if (tblCertIdExists) {
-      sql = SQL_UPDATE_CERT;
-      ps = psUpdateCert;
-    } else {
-      sql = SQL_INSERT_CERT;
-      ps = psInsertCert;
-      id = maxId.incrementAndGet();
+  private void writeCertRows(Connection conn, Operation op, Collection<CertRow> rows,
+      long lupdate) throws DataAccessException {
+    if (rows.isEmpty()) {
+      return;
     }
 
+    PreparedStatement ps = datasource.prepareStatement(conn, op.sql);
     try {
-      int offset = 1;
-      if (sql == SQL_INSERT_CERT) {
-        ps.setLong(offset++, id);
-        // ISSUER ID IID
-        ps.setInt(offset++, caId);
-        // serial number SN
-        ps.setString(offset++, serialNumber.toString(16));
-        // whether revoked REV
-        ps.setInt(offset++, 0);
-        // revocation reason RR
-        ps.setNull(offset++, Types.SMALLINT);
-        // revocation time RT
-        ps.setNull(offset++, Types.BIGINT);
-        ps.setNull(offset++, Types.BIGINT);
-      }
-
-      // last update LUPDATE
-      ps.setLong(offset++, System.currentTimeMillis() / 1000);
-
-      // not before NBEFORE, we use the minimal time
-      ps.setLong(offset++, 0);
-      // not after NAFTER, use Long.MAX_VALUE
-      ps.setLong(offset++, Long.MAX_VALUE);
-      ps.setString(offset++, null);
-
-      if (sql == SQL_UPDATE_CERT) {
-        ps.setLong(offset++, id);
+      int num = 0;
+      for (CertRow row : rows) {
+        int offset = 1;
+        if (op == Operation.DELETE) {
+          ps.setLong(offset++, row.id);
+        } else {
+          if (op == Operation.INSERT) {
+            ps.setLong(offset++, row.id);
+            // ISSUER ID IID
+            ps.setInt(offset++, issuerId);
+            // serial number SN
+            ps.setString(offset++, row.serialNumber.toString(16));
+          }
+
+          ps.setInt(offset++, row.revoked ? 1 : 0);
+          setInt(ps, offset++, row.revReason);
+          setLong(ps, offset++, row.revTime);
+          setLong(ps, offset++, row.revInvTime);
+          ps.setLong(offset++, lupdate);
+          setLong(ps, offset++, row.notBefore);
+          setLong(ps, offset++, row.notAfter);
+          ps.setString(offset++, row.hash);
+
+          if (op == Operation.UPDATE) {
+            ps.setLong(offset++, row.id);
+          }
+        }
+
+        ps.addBatch();
+        if (++num % BATCH_SIZE == 0) {
+          ps.executeBatch();
+        }
       }
 
-      ps.executeUpdate();
+      if (num % BATCH_SIZE != 0) {
+        ps.executeBatch();
+      }
     } catch (SQLException ex) {
-      throw datasource.translate(sql, ex);
+      throw datasource.translate(op.sql, ex);
+    } finally {
+      releaseResources(ps, null);
+    }
+  } // method writeCertRows
+
+  private static void setInt(PreparedStatement ps, int index, Integer value)
+      throws SQLException {
+    if (value == null) {
+      ps.setNull(index, Types.SMALLINT);
+    } else {
+      ps.setInt(index, value);
     }
+  }
 
-    LOG.info(" Imported certificate by serial number {}", serialNumber);
+  private static void setLong(PreparedStatement ps, int index, Long value)
+      throws SQLException {
+    if (value == null) {
+      ps.setNull(index, Types.BIGINT);
+    } else {
+      ps.setLong(index, value);
+    }
   }
 
-  private void deleteEntriesNotUpdatedSince(Connection conn, Date time) throws DataAccessException {
-    // remove the unmodified entries
-    String sql = "DELETE FROM CERT WHERE LUPDATE<" + time.getTime() / 1000;
-    Statement stmt = datasource.createStatement(conn);
+  private byte[] getEncodedCaCert() throws ImportCrlException {
     try {
-      stmt.executeUpdate(sql);
-    } catch (SQLException ex) {
-      throw datasource.translate(sql, ex);
-    } finally {
-      releaseResources(stmt, null);
+      return caCert.getEncoded();
+    } catch (CertificateEncodingException ex) {
+      throw new ImportCrlException("could not encode CA certificate");
+    }
+  }
+
+  private Extension getCrlExtension(ASN1ObjectIdentifier type) {
+    Extensions extns = crl.getCrlExtensions();
+    return (extns == null) ? null : extns.getExtension(type);
+  }
+
+  private static X509Certificate parseCert(File certFile) throws ImportCrlException {
+    try {
+      return X509Util.parseCert(certFile);
+    } catch (CertificateException | IOException ex) {
+      throw new ImportCrlException("could not parse X.509 certificate from file "
+          + certFile + ": " + ex.getMessage(), ex);
     }
   }
 
@@ -0,0 +1,307 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store.crl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.security.CrlReason;
+import org.xipki.util.Args;
+
+/**
+ * Revoked certificates of a CRL sorted by {@link #sortKey(BigInteger)}, which is the order of
+ * the column SN in the database. At most the configured number of entries are kept in memory,
+ * the others are sorted in runs which are saved in temporary files and merged while reading.
+ * The extension certificateIssuer of the entries is not retained.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class SortedRevokedCerts implements Closeable {
+
+  private static class Entry {
+
+    private final String key;
+
+    private final RevokedCert cert;
+
+    private Entry(RevokedCert cert) {
+      this.key = sortKey(cert.getSerialNumber());
+      this.cert = cert;
+    }
+
+  } // class Entry
+
+  private abstract static class Run {
+
+    private Entry head;
+
+    abstract Entry read() throws IOException;
+
+    abstract void close();
+
+  } // class Run
+
+  private static class MemoryRun extends Run {
+
+    private final Iterator<Entry> entries;
+
+    private MemoryRun(List<Entry> entries) {
+      this.entries = entries.iterator();
+    }
+
+    @Override
+    Entry read() {
+      return entries.hasNext() ? entries.next() : null;
+    }
+
+    @Override
+    void close() {
+    }
+
+  } // class MemoryRun
+
+  private static class FileRun extends Run {
+
+    private final DataInputStream in;
+
+    private FileRun(File file) throws IOException {
+      this.in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(file.toPath()), 64 * 1024));
+    }
+
+    @Override
+    Entry read() throws IOException {
+      int len;
+      try {
+        len = in.readUnsignedShort();
+      } catch (EOFException ex) {
+        return null;
+      }
+
+      byte[] serial = new byte[len];
+      in.readFully(serial);
+      CrlReason reason = CrlReason.forReasonCode(in.readUnsignedByte());
+      Date revocationDate = new Date(in.readLong());
+      long invalidityTime = in.readLong();
+      Date invalidityDate = (invalidityTime == Long.MIN_VALUE) ? null : new Date(invalidityTime);
+      return new Entry(new RevokedCert(new BigInteger(serial), revocationDate, reason,
+          invalidityDate, null));
+    }
+
+    @Override
+    void close() {
+      try {
+        in.close();
+      } catch (IOException ex) {
+        LOG.warn("could not close temporary file: {}", ex.getMessage());
+      }
+    }
+
+  } // class FileRun
+
+  private static final Logger LOG = LoggerFactory.getLogger(SortedRevokedCerts.class);
+
+  private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      return e1.key.compareTo(e2.key);
+    }
+
+  };
+
+  private static final Comparator<Run> RUN_ORDER = new Comparator<Run>() {
+
+    @Override
+    public int compare(Run r1, Run r2) {
+      return r1.head.key.compareTo(r2.head.key);
+    }
+
+  };
+
+  private final int maxEntriesInMemory;
+
+  private final List<File> files = new ArrayList<>();
+
+  private List<Entry> entries = new ArrayList<>();
+
+  private PriorityQueue<Run> runs;
+
+  private final List<Run> openRuns = new ArrayList<>();
+
+  private int size;
+
+  SortedRevokedCerts(int maxEntriesInMemory) {
+    this.maxEntriesInMemory = Args.positive(maxEntriesInMemory, "maxEntriesInMemory");
+  }
+
+  /**
+   * Returns the key which orders the serial numbers in the same way as the column SN in the
+   * database.
+   * @param serialNumber serial number.
+   * @return the lower-case hexadecimal text of the serial number.
+   */
+  static String sortKey(BigInteger serialNumber) {
+    return serialNumber.toString(16);
+  }
+
+  void add(RevokedCert cert) throws IOException {
+    if (runs != null) {
+      throw new IllegalStateException("entries may not be added after sort()");
+    }
+
+    entries.add(new Entry(Args.notNull(cert, "cert")));
+    size++;
+    if (entries.size() >= maxEntriesInMemory) {
+      writeRun();
+    }
+  }
+
+  /**
+   * Sorts the added entries. Must be called once, after all entries have been added.
+   * @throws IOException if the temporary files could not be written.
+   */
+  void sort() throws IOException {
+    if (runs != null) {
+      throw new IllegalStateException("sort() has already been called");
+    }
+
+    if (!files.isEmpty() && !entries.isEmpty()) {
+      writeRun();
+    }
+
+    runs = new PriorityQueue<>(Math.max(1, files.size()), RUN_ORDER);
+    if (files.isEmpty()) {
+      Collections.sort(entries, ENTRY_ORDER);
+      addRun(new MemoryRun(entries));
+    } else {
+      for (File file : files) {
+        addRun(new FileRun(file));
+      }
+    }
+    entries = null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of temporary files used to sort the entries.
+   * @return number of temporary files.
+   */
+  int getNumberOfRuns() {
+    return files.size();
+  }
+
+  boolean hasNext() {
+    assertSorted();
+    return !runs.isEmpty();
+  }
+
+  RevokedCert next() throws IOException {
+    assertSorted();
+    Run run = runs.poll();
+    if (run == null) {
+      throw new IllegalStateException("no more revoked certificate");
+    }
+
+    Entry entry = run.head;
+    addRun(run);
+    return entry.cert;
+  }
+
+  @Override
+  public void close() {
+    for (Run run : openRuns) {
+      run.close();
+    }
+    openRuns.clear();
+
+    for (File file : files) {
+      if (!file.delete()) {
+        LOG.warn("could not delete temporary file {}", file.getPath());
+      }
+    }
+    files.clear();
+  }
+
+  private void addRun(Run run) throws IOException {
+    if (!openRuns.contains(run)) {
+      openRuns.add(run);
+    }
+
+    run.head = run.read();
+    if (run.head == null) {
+      run.close();
+      openRuns.remove(run);
+    } else {
+      runs.add(run);
+    }
+  }
+
+  private void assertSorted() {
+    if (runs == null) {
+      throw new IllegalStateException("sort() has not been called");
+    }
+  }
+
+  private void writeRun() throws IOException {
+    Collections.sort(entries, ENTRY_ORDER);
+
+    File file = File.createTempFile("crl-entries-", ".tmp");
+    files.add(file);
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file.toPath()), 64 * 1024))) {
+      for (Entry entry : entries) {
+        RevokedCert cert = entry.cert;
+        byte[] serial = cert.getSerialNumber().toByteArray();
+        out.writeShort(serial.length);
+        out.write(serial);
+        out.writeByte(cert.getReason().getCode());
+        out.writeLong(cert.getRevocationDate().getTime());
+        Date invalidityDate = cert.getInvalidityDate();
+        out.writeLong(invalidityDate == null ? Long.MIN_VALUE : invalidityDate.getTime());
+      }
+    }
+
+    entries.clear();
+  }
+
+}
@@ -26,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -44,15 +45,12 @@ import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.CertStatusInfo;
-import org.xipki.ocsp.api.CertStatusInfo.CertStatus;
-import org.xipki.ocsp.api.CertStatusInfo.UnknownCertBehaviour;
 import org.xipki.ocsp.api.OcspStore;
 import org.xipki.ocsp.api.OcspStoreException;
 import org.xipki.ocsp.api.RequestIssuer;
 import org.xipki.ocsp.server.IssuerFilter;
 import org.xipki.ocsp.server.OcspServerConf;
 import org.xipki.security.CertRevocationInfo;
-import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
@@ -82,6 +80,9 @@ public class EjbcaCertStatusStore extends OcspStore {
 
   private static final Logger LOG = LoggerFactory.getLogger(EjbcaCertStatusStore.class);
 
+  // maximal number of serial numbers in the IN-clause of one query.
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
   private final HashAlgo certHashAlgo = HashAlgo.SHA1;
 
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
@@ -218,6 +219,20 @@ public class EjbcaCertStatusStore extends OcspStore {
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
+    List<CertStatusInfo> infos = getCertStatuses0(time, reqIssuer,
+        Collections.singletonList(serialNumber), includeCertHash, includeRit,
+        inheritCaRevocation);
+    return (infos == null) ? null : infos.get(0);
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    if (includeRit) {
+      throw new OcspStoreException("EJBCA store does not support includeRit");
+    }
+
     if (!initialized) {
       throw new OcspStoreException("initialization of CertStore is still in process");
     }
@@ -232,139 +247,137 @@ public class EjbcaCertStatusStore extends OcspStore {
         return null;
       }
 
-      String sql = includeCertHash ? sqlCsWithCertHash : sqlCs;
-
       Date thisUpdate = new Date();
       Date nextUpdate = null;
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String hexCertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-
-      PreparedStatement ps = datasource.prepareStatement(sql);
-
-      try {
-        ps.setString(1, issuer.getId());
-        // decimal serial number
-        ps.setString(2, serialNumber.toString());
-        rs = ps.executeQuery();
-
-        if (rs.next()) {
-          unknown = false;
-
-          long timeInMs = time.getTime();
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBefore = rs.getLong("notBefore");
-            if (timeInMs < notBefore) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("expireDate");
-            if (timeInMs > notAfterInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore) {
-            if (includeCertHash) {
-              hexCertHash = rs.getString("fingerprint");
-            }
+      // status of the certificates found in the database, with decimal serial number as key.
+      Map<String, CertStatusInfo> foundInfos = new HashMap<>();
 
-            int status = rs.getInt("status");
-            revoked = status == 40;
-            if (revoked) {
-              reason = rs.getInt("revocationReason");
-              revTime = rs.getLong("revocationDate") / 1000;
-            }
+      List<String> decSerials = new ArrayList<>(serialNumbers.size());
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() == 1) {
+          String decSerial = serialNumber.toString();
+          if (!decSerials.contains(decSerial)) {
+            decSerials.add(decSerial);
           }
-        } // end if (rs.next())
-      } catch (SQLException ex) {
-        throw datasource.translate(sql, ex);
-      } finally {
-        releaseDbResources(ps, rs);
+        }
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (hexCertHash == null) ? null : Hex.decode(hexCertHash);
-        if (revoked) {
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), null);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
-        }
+      for (int from = 0; from < decSerials.size(); from += MAX_SERIALS_PER_QUERY) {
+        List<String> subList = decSerials.subList(from,
+            Math.min(from + MAX_SERIALS_PER_QUERY, decSerials.size()));
+        queryCertStatuses(issuer.getId(), subList, time.getTime(), includeCertHash,
+            thisUpdate, nextUpdate, foundInfos);
       }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
+      List<CertStatusInfo> infos = new ArrayList<>(serialNumbers.size());
+      for (BigInteger serialNumber : serialNumbers) {
+        CertStatusInfo certStatusInfo;
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
+        } else {
+          certStatusInfo = foundInfos.get(serialNumber.toString());
+          if (certStatusInfo == null) {
+            certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
           } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
+            // the same serial number may be requested more than once
+            certStatusInfo = copy(certStatusInfo);
           }
 
-          certStatusInfo.setArchiveCutOff(date);
+          certStatusInfo = complete(certStatusInfo, issuer.getNotBefore(),
+              issuer.getRevocationInfo(), inheritCaRevocation);
         }
+        infos.add(certStatusInfo);
+      }
+
+      return infos;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  private void queryCertStatuses(String issuerId, List<String> decSerials, long timeInMs,
+      boolean includeCertHash, Date thisUpdate, Date nextUpdate,
+      Map<String, CertStatusInfo> foundInfos) throws DataAccessException {
+    final int num = decSerials.size();
+    String sql;
+    if (num == 1) {
+      sql = includeCertHash ? sqlCsWithCertHash : sqlCs;
+    } else {
+      StringBuilder sb = new StringBuilder(200 + 2 * num);
+      sb.append("SELECT serialNumber,notBefore,expireDate,status,revocationReason,revocationDate");
+      if (includeCertHash) {
+        sb.append(",fingerprint");
       }
+      sb.append(" FROM CertificateData WHERE cAFingerprint=? AND serialNumber IN (?");
+      for (int i = 1; i < num; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      sql = sb.toString();
+    }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      int idx = 1;
+      ps.setString(idx++, issuerId);
+      for (String decSerial : decSerials) {
+        // decimal serial number
+        ps.setString(idx++, decSerial);
       }
+      rs = ps.executeQuery();
+
+      while (rs.next()) {
+        String decSerial = (num == 1) ? decSerials.get(0) : rs.getString("serialNumber");
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
+        boolean ignore = false;
+        if (ignoreNotYetValidCert) {
+          long notBefore = rs.getLong("notBefore");
+          if (timeInMs < notBefore) {
+            ignore = true;
+          }
         }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
+
+        if (!ignore && ignoreExpiredCert) {
+          long notAfter = rs.getLong("expireDate");
+          if (timeInMs > notAfter) {
+            ignore = true;
+          }
         }
-      }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+        CertStatusInfo certStatusInfo;
+        if (ignore) {
+          certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          byte[] certHash = null;
+          if (includeCertHash) {
+            String hexCertHash = rs.getString("fingerprint");
+            certHash = (hexCertHash == null) ? null : Hex.decode(hexCertHash);
+          }
+
+          int status = rs.getInt("status");
+          if (status == 40) { // revoked
+            int reason = rs.getInt("revocationReason");
+            long revTime = rs.getLong("revocationDate") / 1000;
+            CertRevocationInfo revInfo = new CertRevocationInfo(reason,
+                new Date(revTime * 1000), null);
+            certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+                certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+          } else {
+            certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+                certHash, thisUpdate, nextUpdate, null);
+          }
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        foundInfos.put(decSerial, certStatusInfo);
       }
-      return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
     }
-
-  } // method getCertStatus
+  } // method queryCertStatuses
 
   /**
    * Borrow Prepared Statement.
@@ -30,6 +30,29 @@ import java.util.Date;
 // CHECKSTYLE:SKIP
 public abstract class ASN1Type {
 
+  /**
+   * Encoded GeneralizedTime of one second.
+   */
+  private static class EncodedTime {
+
+    private final long epochSecond;
+
+    private final byte[] encoded;
+
+    EncodedTime(long epochSecond, byte[] encoded) {
+      this.epochSecond = epochSecond;
+      this.encoded = encoded;
+    }
+
+  } // class EncodedTime
+
+  private static final int GENERALIZED_TIME_LEN = 17;
+
+  // Direct-mapped cache of the recently encoded times. The producedAt and thisUpdate of
+  // responses generated within the same second are equal, their encodings are copied
+  // from this cache. Other times only replace the entry of their slot.
+  private static final EncodedTime[] encodedTimes = new EncodedTime[64];
+
   public abstract int getEncodedLength();
 
   public abstract int write(byte[] out, int offset);
@@ -80,6 +103,22 @@ public abstract class ASN1Type {
   }
 
   public static int writeGeneralizedTime(Date time, byte[] out, int offset) {
+    long epochSecond = Math.floorDiv(time.getTime(), 1000L);
+    int slot = (int) (epochSecond & (encodedTimes.length - 1));
+    EncodedTime encodedTime = encodedTimes[slot];
+    if (encodedTime == null || encodedTime.epochSecond != epochSecond) {
+      byte[] encoded = new byte[GENERALIZED_TIME_LEN];
+      encodeGeneralizedTime(time, encoded, 0);
+      // EncodedTime is immutable, a concurrent replacement results only in a cache miss.
+      encodedTime = new EncodedTime(epochSecond, encoded);
+      encodedTimes[slot] = encodedTime;
+    }
+
+    System.arraycopy(encodedTime.encoded, 0, out, offset, GENERALIZED_TIME_LEN);
+    return GENERALIZED_TIME_LEN;
+  }
+
+  private static int encodeGeneralizedTime(Date time, byte[] out, int offset) {
     OffsetDateTime offsetTime = time.toInstant().atOffset(ZoneOffset.UTC);
     int idx = offset;
     out[idx++] = 0x18;
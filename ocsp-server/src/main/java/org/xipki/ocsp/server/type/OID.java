@@ -66,6 +66,17 @@ public enum OID {
     return ASN1Type.arraycopy(encoded, out, offset);
   }
 
+  /**
+   * Whether the given encoded object identifier (including tag and length) equals this one.
+   * @param data the data containing the encoded object identifier.
+   * @param offset offset of the encoded object identifier.
+   * @param len length of the encoded object identifier.
+   * @return whether the encoded object identifier equals this one.
+   */
+  public boolean equalsEncoded(byte[] data, int offset, int len) {
+    return len == encoded.length && CompareUtil.areEqual(data, offset, encoded, 0, len);
+  }
+
   public static OID getInstanceForEncoded(byte[] data, int offset) {
     for (OID m : OID.values()) {
       if (CompareUtil.areEqual(data, offset, m.encoded, 0, m.encoded.length)) {
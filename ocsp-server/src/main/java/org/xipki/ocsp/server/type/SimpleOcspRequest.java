@@ -0,0 +1,326 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.type;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.xipki.ocsp.api.RequestIssuer;
+
+/**
+ * Reusable flyweight reader of the most common form of OCSP requests: not signed, exactly
+ * one CertID without singleRequestExtensions, and no request extension except the nonce.
+ * Only the offsets of the fields within the encoded request are read, no intermediate
+ * object is created. Requests of other forms are rejected by {@link #read(byte[])} and
+ * must be parsed by {@link OcspRequest#getInstance(byte[])}.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public class SimpleOcspRequest {
+
+  private static final int ANY_TAG = -1;
+
+  private byte[] request;
+
+  private int version;
+
+  private int issuerFrom;
+
+  private int issuerLength;
+
+  private int serialNumberFrom;
+
+  private int serialNumberLength;
+
+  private int nonceFrom;
+
+  private int nonceLength;
+
+  // fields of the last read header
+  private int hdrTag;
+
+  private int hdrLen;
+
+  private int hdrValueFrom;
+
+  public SimpleOcspRequest() {
+  }
+
+  /**
+   * Reads the request.
+   * @param request the encoded OCSP request.
+   * @return {@code true} if the request has been read, {@code false} if the request is not
+   *         of the supported form or is malformed.
+   */
+  public boolean read(byte[] request) {
+    clear();
+    this.request = request;
+
+    final int end = request.length;
+    // OCSPRequest
+    if (!readHeader(0, end, 0x30) || hdrValueFrom + hdrLen != end) {
+      return false;
+    }
+
+    // tbsRequest, must fill the OCSPRequest, i.e. no optionalSignature
+    if (!readHeader(hdrValueFrom, end, 0x30) || hdrValueFrom + hdrLen != end) {
+      return false;
+    }
+
+    final int tbsEnd = end;
+    if (!readHeader(hdrValueFrom, tbsEnd, ANY_TAG)) {
+      return false;
+    }
+
+    // version
+    if (hdrTag == 0xA0) {
+      int versionEnd = hdrValueFrom + hdrLen;
+      if (!readHeader(hdrValueFrom, versionEnd, 0x02) || hdrLen != 1) {
+        return false;
+      }
+      version = 0xFF & request[hdrValueFrom];
+
+      if (!readHeader(versionEnd, tbsEnd, ANY_TAG)) {
+        return false;
+      }
+    }
+
+    // requestorName
+    if (hdrTag == 0xA1) {
+      if (!readHeader(hdrValueFrom + hdrLen, tbsEnd, ANY_TAG)) {
+        return false;
+      }
+    }
+
+    // requestList, must contain exactly one Request
+    if (hdrTag != 0x30) {
+      return false;
+    }
+    final int requestListEnd = hdrValueFrom + hdrLen;
+    if (!readHeader(hdrValueFrom, requestListEnd, 0x30)
+        || hdrValueFrom + hdrLen != requestListEnd) {
+      return false;
+    }
+
+    // reqCert, must fill the Request, i.e. no singleRequestExtensions
+    if (!readHeader(hdrValueFrom, requestListEnd, 0x30)
+        || hdrValueFrom + hdrLen != requestListEnd) {
+      return false;
+    }
+
+    final int certIdEnd = requestListEnd;
+    issuerFrom = hdrValueFrom;
+    // hashAlgorithm
+    if (!readHeader(issuerFrom, certIdEnd, 0x30)) {
+      return false;
+    }
+    // issuerNameHash
+    if (!readHeader(hdrValueFrom + hdrLen, certIdEnd, 0x04)) {
+      return false;
+    }
+    // issuerKeyHash
+    if (!readHeader(hdrValueFrom + hdrLen, certIdEnd, 0x04)) {
+      return false;
+    }
+    issuerLength = hdrValueFrom + hdrLen - issuerFrom;
+
+    // serialNumber
+    if (!readHeader(hdrValueFrom + hdrLen, certIdEnd, 0x02)
+        || hdrValueFrom + hdrLen != certIdEnd || !isMinimalInteger(hdrValueFrom, hdrLen)) {
+      return false;
+    }
+    serialNumberFrom = hdrValueFrom;
+    serialNumberLength = hdrLen;
+
+    if (requestListEnd == tbsEnd) {
+      // no requestExtensions
+      return true;
+    }
+
+    // requestExtensions, must contain exactly one Extension
+    if (!readHeader(requestListEnd, tbsEnd, 0xA2) || hdrValueFrom + hdrLen != tbsEnd) {
+      return false;
+    }
+    if (!readHeader(hdrValueFrom, tbsEnd, 0x30) || hdrValueFrom + hdrLen != tbsEnd) {
+      return false;
+    }
+
+    final int extnFrom = hdrValueFrom;
+    if (!readHeader(extnFrom, tbsEnd, 0x30) || hdrValueFrom + hdrLen != tbsEnd) {
+      return false;
+    }
+
+    final int extnEnd = tbsEnd;
+    // extnID
+    int extnIdFrom = hdrValueFrom;
+    if (!readHeader(extnIdFrom, extnEnd, 0x06)) {
+      return false;
+    }
+
+    int extnIdEnd = hdrValueFrom + hdrLen;
+    if (!OID.ID_PKIX_OCSP_NONCE.equalsEncoded(request, extnIdFrom, extnIdEnd - extnIdFrom)) {
+      return false;
+    }
+
+    if (!readHeader(extnIdEnd, extnEnd, ANY_TAG)) {
+      return false;
+    }
+
+    // critical
+    if (hdrTag == 0x01) {
+      if (!readHeader(hdrValueFrom + hdrLen, extnEnd, ANY_TAG)) {
+        return false;
+      }
+    }
+
+    // extnValue
+    if (hdrTag != 0x04 || hdrValueFrom + hdrLen != extnEnd) {
+      return false;
+    }
+
+    nonceFrom = extnFrom;
+    nonceLength = extnEnd - extnFrom;
+    return true;
+  } // method read
+
+  /**
+   * Releases the reference to the last read request.
+   */
+  public void clear() {
+    request = null;
+    version = 0;
+    issuerFrom = 0;
+    issuerLength = 0;
+    serialNumberFrom = 0;
+    serialNumberLength = 0;
+    nonceFrom = -1;
+    nonceLength = 0;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public byte[] getRequest() {
+    return request;
+  }
+
+  /**
+   * Returns the issuer of the CertID. The returned object is a view of the request.
+   * @return the issuer of the CertID.
+   */
+  public RequestIssuer getIssuer() {
+    return new RequestIssuer(request, issuerFrom, issuerLength);
+  }
+
+  /**
+   * Returns the offset of the serial number. The encoded serial number equals
+   * {@link BigInteger#toByteArray()}.
+   * @return offset of the serial number in the request.
+   */
+  public int getSerialNumberFrom() {
+    return serialNumberFrom;
+  }
+
+  public int getSerialNumberLength() {
+    return serialNumberLength;
+  }
+
+  public boolean containsNonce() {
+    return nonceFrom != -1;
+  }
+
+  /**
+   * Converts the read request to {@link OcspRequest}.
+   * @return the corresponding {@link OcspRequest}.
+   * @throws EncodingException if the nonce extension could not be parsed.
+   */
+  public OcspRequest toOcspRequest() throws EncodingException {
+    byte[] serialBytes = new byte[serialNumberLength];
+    System.arraycopy(request, serialNumberFrom, serialBytes, 0, serialNumberLength);
+
+    List<CertID> requestList = new ArrayList<>(1);
+    requestList.add(new CertID(getIssuer(), new BigInteger(serialBytes)));
+
+    List<ExtendedExtension> extensions = new LinkedList<>();
+    if (nonceFrom != -1) {
+      extensions.add(ExtendedExtension.getInstance(request, nonceFrom, nonceLength));
+    }
+
+    return new OcspRequest(version, requestList, extensions);
+  }
+
+  /**
+   * Reads the header at given offset into the fields hdrTag, hdrLen and hdrValueFrom.
+   * @param off offset of the header.
+   * @param end end of the enclosing element.
+   * @param expectedTag the expected tag, or {@link #ANY_TAG}.
+   * @return whether a header with expected tag has been read within the enclosing element.
+   */
+  private boolean readHeader(int off, int end, int expectedTag) {
+    if (off + 2 > end) {
+      return false;
+    }
+
+    int tag = 0xFF & request[off++];
+    if (expectedTag != ANY_TAG && tag != expectedTag) {
+      return false;
+    }
+
+    int len = 0xFF & request[off++];
+    if (len >= 0x80) {
+      int lenSize = len & 0x7F;
+      if (lenSize < 1 || lenSize > 3 || off + lenSize > end) {
+        return false;
+      }
+
+      len = 0;
+      for (int i = 0; i < lenSize; i++) {
+        len = (len << 8) | (0xFF & request[off++]);
+      }
+    }
+
+    if (off + len > end) {
+      return false;
+    }
+
+    this.hdrTag = tag;
+    this.hdrLen = len;
+    this.hdrValueFrom = off;
+    return true;
+  } // method readHeader
+
+  private boolean isMinimalInteger(int off, int len) {
+    if (len == 0) {
+      return false;
+    } else if (len == 1) {
+      return true;
+    }
+
+    byte b0 = request[off];
+    byte b1 = request[off + 1];
+    return !((b0 == 0 && b1 >= 0) || (b0 == (byte) 0xFF && b1 < 0));
+  }
+
+}
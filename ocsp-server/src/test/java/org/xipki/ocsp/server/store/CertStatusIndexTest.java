@@ -0,0 +1,201 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the lookup of certificates in the {@link CertStatusIndex}, and the replacement and
+ * removal of certificates by rebuilding the index.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class CertStatusIndexTest {
+
+  private static final int HASH_LEN = 20;
+
+  @Test
+  public void hitAndMiss() {
+    CertStatusIndex.Builder builder = new CertStatusIndex.Builder(HASH_LEN);
+    // serial numbers with different lengths and with the leading zero of toByteArray()
+    builder.add(BigInteger.valueOf(0x80), 100, 200, false, 0, 0, 0, hash(1));
+    builder.add(BigInteger.valueOf(1), 101, 201, true, 1, 150, 140, hash(2));
+    builder.add(new BigInteger("1234567890abcdef1234", 16), 102, 202, false, 0, 0, 0, null);
+    builder.add(BigInteger.valueOf(0x7F), 103, 203, true, 4, 160, 0, hash(4));
+    CertStatusIndex index = builder.build();
+
+    Assert.assertEquals(4, index.size());
+    Assert.assertEquals(2, index.numRevoked());
+    Assert.assertTrue(index.containsCertHashes());
+
+    int idx = indexOf(index, BigInteger.valueOf(0x80));
+    Assert.assertEquals(100, index.getNotBefore(idx));
+    Assert.assertEquals(200, index.getNotAfter(idx));
+    Assert.assertTrue(index.getRevIndex(idx) < 0);
+    Assert.assertArrayEquals(hash(1), index.getCertHash(idx));
+
+    idx = indexOf(index, BigInteger.valueOf(1));
+    int revIdx = index.getRevIndex(idx);
+    Assert.assertEquals(1, index.getRevReason(revIdx));
+    Assert.assertEquals(150, index.getRevTime(revIdx));
+    Assert.assertEquals(140, index.getRevInvalidityTime(revIdx));
+    Assert.assertArrayEquals(hash(2), index.getCertHash(idx));
+
+    idx = indexOf(index, new BigInteger("1234567890abcdef1234", 16));
+    Assert.assertEquals(102, index.getNotBefore(idx));
+    Assert.assertNull(index.getCertHash(idx));
+
+    idx = indexOf(index, BigInteger.valueOf(0x7F));
+    revIdx = index.getRevIndex(idx);
+    Assert.assertEquals(4, index.getRevReason(revIdx));
+    Assert.assertEquals(160, index.getRevTime(revIdx));
+    Assert.assertEquals(0, index.getRevInvalidityTime(revIdx));
+
+    // the same bytes without the leading zero, and unknown serial numbers
+    Assert.assertTrue(index.indexOf(new byte[]{(byte) 0x80}) >= 0);
+    Assert.assertTrue(index.indexOf(BigInteger.valueOf(2).toByteArray()) < 0);
+    Assert.assertTrue(index.indexOf(BigInteger.valueOf(0x8000).toByteArray()) < 0);
+    Assert.assertTrue(index.indexOf(new BigInteger("1234567890abcdef1233", 16).toByteArray()) < 0);
+  }
+
+  @Test
+  public void emptyIndex() {
+    CertStatusIndex index = new CertStatusIndex.Builder(0).build();
+    Assert.assertEquals(0, index.size());
+    Assert.assertEquals(0, index.numRevoked());
+    Assert.assertFalse(index.containsCertHashes());
+    Assert.assertTrue(index.indexOf(BigInteger.ONE.toByteArray()) < 0);
+  }
+
+  @Test
+  public void manyCertificatesInRandomOrder() {
+    final int num = 5000;
+    List<BigInteger> serials = new ArrayList<>(num);
+    Random random = new Random(1);
+    while (serials.size() < num) {
+      BigInteger serial = new BigInteger(1 + random.nextInt(120), random);
+      if (serial.signum() > 0 && !serials.contains(serial)) {
+        serials.add(serial);
+      }
+    }
+
+    CertStatusIndex.Builder builder = new CertStatusIndex.Builder(0);
+    for (int i = 0; i < num; i++) {
+      // every third certificate is revoked
+      builder.add(serials.get(i), i, i + 1000, i % 3 == 0, i % 10, i + 500, 0, null);
+    }
+    CertStatusIndex index = builder.build();
+    Assert.assertEquals(num, index.size());
+    Assert.assertEquals((num + 2) / 3, index.numRevoked());
+    Assert.assertFalse(index.containsCertHashes());
+
+    for (int i = 0; i < num; i++) {
+      int idx = indexOf(index, serials.get(i));
+      Assert.assertEquals(i, index.getNotBefore(idx));
+      Assert.assertEquals(i + 1000, index.getNotAfter(idx));
+      Assert.assertNull(index.getCertHash(idx));
+
+      int revIdx = index.getRevIndex(idx);
+      if (i % 3 == 0) {
+        Assert.assertEquals(i % 10, index.getRevReason(revIdx));
+        Assert.assertEquals(i + 500, index.getRevTime(revIdx));
+      } else {
+        Assert.assertTrue(revIdx < 0);
+      }
+    }
+  }
+
+  @Test
+  public void replaceAndRemove() {
+    List<BigInteger> serials = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      serials.add(BigInteger.valueOf(i * 1000));
+    }
+
+    CertStatusIndex.Builder builder = new CertStatusIndex.Builder(HASH_LEN);
+    for (BigInteger serial : serials) {
+      builder.add(serial, 1, 2, false, 0, 0, 0, hash(serial.intValue()));
+    }
+    CertStatusIndex oldIndex = builder.build();
+
+    // the changed status: 5000 is revoked, 6000 is removed and 7000 replaced
+    Collections.shuffle(serials, new Random(2));
+    builder = new CertStatusIndex.Builder(HASH_LEN);
+    for (BigInteger serial : serials) {
+      int value = serial.intValue();
+      if (value == 5000) {
+        builder.add(serial, 1, 2, true, 1, 3, 0, hash(value));
+      } else if (value == 7000) {
+        builder.add(serial, 10, 20, false, 0, 0, 0, hash(value + 1));
+      } else if (value != 6000) {
+        builder.add(serial, 1, 2, false, 0, 0, 0, hash(value));
+      }
+    }
+    CertStatusIndex newIndex = builder.build();
+
+    Assert.assertEquals(99, newIndex.size());
+    Assert.assertEquals(1, newIndex.numRevoked());
+
+    int idx = indexOf(newIndex, BigInteger.valueOf(5000));
+    int revIdx = newIndex.getRevIndex(idx);
+    Assert.assertEquals(1, newIndex.getRevReason(revIdx));
+    Assert.assertEquals(3, newIndex.getRevTime(revIdx));
+
+    Assert.assertTrue(newIndex.indexOf(BigInteger.valueOf(6000).toByteArray()) < 0);
+
+    idx = indexOf(newIndex, BigInteger.valueOf(7000));
+    Assert.assertEquals(10, newIndex.getNotBefore(idx));
+    Assert.assertEquals(20, newIndex.getNotAfter(idx));
+    Assert.assertArrayEquals(hash(7001), newIndex.getCertHash(idx));
+
+    idx = indexOf(newIndex, BigInteger.valueOf(8000));
+    Assert.assertArrayEquals(hash(8000), newIndex.getCertHash(idx));
+
+    // the old index is not changed
+    Assert.assertEquals(100, oldIndex.size());
+    Assert.assertEquals(0, oldIndex.numRevoked());
+    Assert.assertTrue(oldIndex.getRevIndex(indexOf(oldIndex, BigInteger.valueOf(5000))) < 0);
+    Assert.assertTrue(oldIndex.indexOf(BigInteger.valueOf(6000).toByteArray()) >= 0);
+    idx = indexOf(oldIndex, BigInteger.valueOf(7000));
+    Assert.assertEquals(1, oldIndex.getNotBefore(idx));
+    Assert.assertArrayEquals(hash(7000), oldIndex.getCertHash(idx));
+  }
+
+  private static int indexOf(CertStatusIndex index, BigInteger serial) {
+    int idx = index.indexOf(serial.toByteArray());
+    Assert.assertTrue("serial " + serial.toString(16) + " not found", idx >= 0);
+    return idx;
+  }
+
+  private static byte[] hash(int seed) {
+    byte[] hash = new byte[HASH_LEN];
+    for (int i = 0; i < HASH_LEN; i++) {
+      hash[i] = (byte) (seed + i);
+    }
+    return hash;
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+
+/**
+ * Tests the expiration and eviction of the responses in {@link ResponseMemoryCache}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class ResponseMemoryCacheTest {
+
+  private static final byte[] IDENT1 = new byte[]{1, 1};
+
+  private static final byte[] IDENT2 = new byte[]{1, 2};
+
+  private static final byte[] IDENT3 = new byte[]{1, 3};
+
+  @Test
+  public void expireByNextUpdate() {
+    ResponseMemoryCache cache = new ResponseMemoryCache(10, 1000);
+    long now = System.currentTimeMillis() / 1000;
+    // same as ResponseCacher: nextUpdate must be at least in 600 seconds
+    long minNextUpdate = now + 600;
+
+    cache.put(1, IDENT1, now, now + 3600, new byte[10]);
+    cache.put(1, IDENT2, now, now + 300, new byte[10]);
+    cache.put(1, IDENT3, now, 0, new byte[10]);
+
+    OcspRespWithCacheInfo resp = cache.get(1, IDENT1, minNextUpdate);
+    Assert.assertNotNull(resp);
+    // the cache info is in milliseconds
+    ResponseCacheInfo cacheInfo = resp.getCacheInfo();
+    Assert.assertEquals(now * 1000, cacheInfo.getThisUpdate());
+    Assert.assertEquals(Long.valueOf((now + 3600) * 1000), cacheInfo.getNextUpdate());
+
+    Assert.assertNull("nextUpdate in 300 seconds", cache.get(1, IDENT2, minNextUpdate));
+    Assert.assertEquals(1, cache.getExpirations());
+    Assert.assertEquals(2, cache.getNumEntries());
+    Assert.assertEquals(20, cache.getSize());
+
+    // response without nextUpdate does not expire
+    resp = cache.get(1, IDENT3, minNextUpdate);
+    Assert.assertNotNull(resp);
+    Assert.assertNull(resp.getCacheInfo().getNextUpdate());
+
+    // other issuer
+    Assert.assertNull(cache.get(2, IDENT1, minNextUpdate));
+    Assert.assertEquals(2, cache.getHits());
+    Assert.assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void removeExpired() {
+    ResponseMemoryCache cache = new ResponseMemoryCache(10, 1000);
+    long now = System.currentTimeMillis() / 1000;
+    cache.put(1, IDENT1, now - 7200, now + 3600, new byte[10]);
+    cache.put(1, IDENT2, now - 60, now + 3600, new byte[20]);
+
+    Assert.assertEquals(1, cache.removeExpired(now - 3600));
+    Assert.assertNull(cache.get(1, IDENT1, now));
+    Assert.assertNotNull(cache.get(1, IDENT2, now));
+    Assert.assertEquals(20, cache.getSize());
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() {
+    ResponseMemoryCache cache = new ResponseMemoryCache(2, 25);
+    long now = System.currentTimeMillis() / 1000;
+
+    cache.put(1, IDENT1, now, 0, new byte[10]);
+    cache.put(1, IDENT2, now, 0, new byte[10]);
+    // IDENT1 is now more recently used than IDENT2
+    Assert.assertNotNull(cache.get(1, IDENT1, now));
+
+    cache.put(1, IDENT3, now, 0, new byte[10]);
+    Assert.assertEquals(1, cache.getEvictions());
+    Assert.assertNull(cache.get(1, IDENT2, now));
+    Assert.assertNotNull(cache.get(1, IDENT1, now));
+
+    // larger than the maximal size
+    Assert.assertNull(cache.put(1, IDENT2, now, 0, new byte[26]));
+    Assert.assertEquals(20, cache.getSize());
+  }
+
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store.crl;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCertsIterator;
+import org.xipki.security.CrlReason;
+import org.xipki.util.Base64;
+
+/**
+ * Tests the {@link CrlStreamParser} against CRLs generated by BouncyCastle.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class CrlStreamParserTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=CRL Test CA,O=xipki");
+
+  private static KeyPair keyPair;
+
+  private static KeyPair otherKeyPair;
+
+  @BeforeClass
+  public static void generateKeys() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keyPair = kpGen.generateKeyPair();
+    otherKeyPair = kpGen.generateKeyPair();
+  }
+
+  @Test
+  public void parseCrlWithEntries() throws Exception {
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    Date nextUpdate = new Date(thisUpdate.getTime() + 24 * 3600 * 1000L);
+    Date revocationDate = new Date(thisUpdate.getTime() - 3600 * 1000L);
+    Date invalidityDate = new Date(thisUpdate.getTime() - 7200 * 1000L);
+
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+    builder.setNextUpdate(nextUpdate);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(5));
+    builder.addCRLEntry(BigInteger.valueOf(1), revocationDate, CrlReason.KEY_COMPROMISE.getCode(),
+        invalidityDate);
+    builder.addCRLEntry(BigInteger.valueOf(0x1234), revocationDate,
+        CrlReason.UNSPECIFIED.getCode());
+    builder.addCRLEntry(new BigInteger("7fffffffffffffffffffffffffffffffffffffff", 16),
+        revocationDate, CrlReason.CESSATION_OF_OPERATION.getCode());
+
+    File file = writeCrl(builder);
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertEquals(ISSUER, parser.getIssuer());
+      Assert.assertEquals(thisUpdate, parser.getThisUpdate());
+      Assert.assertEquals(nextUpdate, parser.getNextUpdate());
+      Assert.assertNotNull(parser.getCrlExtensions().getExtension(Extension.cRLNumber));
+
+      Assert.assertTrue("signature with correct key",
+          parser.verifySignature(keyPair.getPublic()));
+      Assert.assertFalse("signature with other key",
+          parser.verifySignature(otherKeyPair.getPublic()));
+
+      RevokedCertsIterator it = parser.revokedCertificates();
+      RevokedCert entry = it.next();
+      Assert.assertEquals(BigInteger.valueOf(1), entry.getSerialNumber());
+      Assert.assertEquals(revocationDate, entry.getRevocationDate());
+      Assert.assertEquals(CrlReason.KEY_COMPROMISE, entry.getReason());
+      Assert.assertEquals(invalidityDate, entry.getInvalidityDate());
+
+      entry = it.next();
+      Assert.assertEquals(BigInteger.valueOf(0x1234), entry.getSerialNumber());
+      Assert.assertEquals(CrlReason.UNSPECIFIED, entry.getReason());
+      Assert.assertNull(entry.getInvalidityDate());
+
+      entry = it.next();
+      Assert.assertEquals(new BigInteger("7fffffffffffffffffffffffffffffffffffffff", 16),
+          entry.getSerialNumber());
+      Assert.assertEquals(CrlReason.CESSATION_OF_OPERATION, entry.getReason());
+      Assert.assertFalse(it.hasNext());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void parseCrlWithoutEntries() throws Exception {
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+
+    File file = writeCrl(builder);
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertNull(parser.getNextUpdate());
+      Assert.assertFalse(parser.revokedCertificates().hasNext());
+      Assert.assertTrue(parser.verifySignature(keyPair.getPublic()));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void parsePemCrl() throws Exception {
+    Date thisUpdate = new Date(System.currentTimeMillis() / 1000 * 1000);
+    Date revocationDate = new Date(thisUpdate.getTime() - 3600 * 1000L);
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(2));
+    // the BASE64 encoding is longer than one decoded chunk
+    final int numEntries = 3000;
+    for (int i = 1; i <= numEntries; i++) {
+      builder.addCRLEntry(BigInteger.valueOf(i), revocationDate, CrlReason.SUPERSEDED.getCode());
+    }
+
+    byte[] encoded = sign(builder);
+    String pem = "\n-----BEGIN X509 CRL-----\r\n"
+        + Base64.encodeToString(encoded, true).replace("\r\n", "\n")
+        + "\n-----END X509 CRL-----\n";
+    File file = File.createTempFile("crl-stream-parser-", ".pem");
+    Files.write(file.toPath(), pem.getBytes(StandardCharsets.US_ASCII));
+
+    try {
+      CrlStreamParser parser = new CrlStreamParser(file);
+      try {
+        Assert.assertEquals(ISSUER, parser.getIssuer());
+        Assert.assertEquals(thisUpdate, parser.getThisUpdate());
+        Assert.assertTrue(parser.verifySignature(keyPair.getPublic()));
+
+        RevokedCertsIterator it = parser.revokedCertificates();
+        int num = 0;
+        while (it.hasNext()) {
+          RevokedCert entry = it.next();
+          num++;
+          Assert.assertEquals(BigInteger.valueOf(num), entry.getSerialNumber());
+          Assert.assertEquals(CrlReason.SUPERSEDED, entry.getReason());
+        }
+        Assert.assertEquals(numEntries, num);
+      } finally {
+        parser.close();
+      }
+
+      // the mapped file is not accessed after close
+      try {
+        parser.revokedCertificates().next();
+        Assert.fail("IllegalStateException expected");
+      } catch (IllegalStateException ex) {
+        // expected
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void incompletePemCrl() throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, new Date());
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+
+    String pem = "-----BEGIN X509 CRL-----\n" + Base64.encodeToString(sign(builder), true);
+    File file = File.createTempFile("crl-stream-parser-", ".pem");
+    Files.write(file.toPath(), pem.getBytes(StandardCharsets.US_ASCII));
+
+    try {
+      new CrlStreamParser(file).close();
+      Assert.fail("IOException expected");
+    } catch (IOException ex) {
+      // expected
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static File writeCrl(X509v2CRLBuilder builder) throws Exception {
+    File file = File.createTempFile("crl-stream-parser-", ".crl");
+    Files.write(file.toPath(), sign(builder));
+    return file;
+  }
+
+  private static byte[] sign(X509v2CRLBuilder builder) throws Exception {
+    return builder.build(
+        new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())).getEncoded();
+  }
+
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store.crl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.ocsp.server.store.crl.ImportCrl.CertRow;
+import org.xipki.ocsp.server.store.crl.ImportCrl.CertRowSource;
+import org.xipki.ocsp.server.store.crl.ImportCrl.ChangeHandler;
+import org.xipki.security.CrlReason;
+
+/**
+ * Tests the computation of the changes of full and delta CRLs against the certificates in
+ * the database.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class ImportCrlMergeTest {
+
+  private static class RecordingHandler implements ChangeHandler {
+
+    private final Map<BigInteger, CertRow> revocations = new LinkedHashMap<>();
+
+    private final Map<BigInteger, CertRow> existingRows = new HashMap<>();
+
+    private final List<BigInteger> deletes = new ArrayList<>();
+
+    @Override
+    public void change(BigInteger serial, CertRow revocation, CertRow certInfo,
+        CertRow existingRow) {
+      Assert.assertFalse("duplicated change of " + serial, revocations.containsKey(serial));
+      revocations.put(serial, revocation);
+      if (existingRow != null) {
+        Assert.assertEquals(serial, existingRow.getSerialNumber());
+        existingRows.put(serial, existingRow);
+      }
+    }
+
+    @Override
+    public void delete(CertRow existingRow) {
+      deletes.add(existingRow.getSerialNumber());
+    }
+
+  } // class RecordingHandler
+
+  private static class ListSource implements CertRowSource {
+
+    private final Iterator<CertRow> rows;
+
+    private ListSource(List<CertRow> rows) {
+      this.rows = rows.iterator();
+    }
+
+    @Override
+    public CertRow next() {
+      return rows.hasNext() ? rows.next() : null;
+    }
+
+  } // class ListSource
+
+  private static final Date REVOCATION_DATE = new Date(1500000000000L);
+
+  @Test
+  public void fullCrl() throws Exception {
+    SortedRevokedCerts revokedCerts = new SortedRevokedCerts(2);
+    try {
+      // 0x10 is ordered before 0x2 in the database
+      revokedCerts.add(entry(0x2, CrlReason.KEY_COMPROMISE));
+      revokedCerts.add(entry(0x10, CrlReason.SUPERSEDED));
+      revokedCerts.add(entry(0x3, CrlReason.REMOVE_FROM_CRL));
+      revokedCerts.add(entry(0x10, CrlReason.SUPERSEDED));
+      revokedCerts.add(entry(0x5, CrlReason.UNSPECIFIED));
+      revokedCerts.sort();
+
+      // sorted by the serial number in the database order
+      List<CertRow> existingRows = Arrays.asList(
+          row(0x1, 11), row(0x10, 12), row(0x3, 13), row(0x4, 14));
+      List<CertRow> certInfos = Arrays.asList(certInfo(0x4), certInfo(0x6));
+
+      RecordingHandler handler = new RecordingHandler();
+      ImportCrl.mergeFullCrl(revokedCerts, certInfos, new ListSource(existingRows), handler);
+
+      // certificates neither in the CRL nor in the certificates are deleted
+      Assert.assertEquals(Arrays.asList(BigInteger.valueOf(0x1), BigInteger.valueOf(0x3)),
+          handler.deletes);
+
+      Assert.assertEquals(
+          Arrays.asList(BigInteger.valueOf(0x10), BigInteger.valueOf(0x2),
+              BigInteger.valueOf(0x4), BigInteger.valueOf(0x5), BigInteger.valueOf(0x6)),
+          new ArrayList<>(handler.revocations.keySet()));
+
+      assertRevoked(handler, 0x10, CrlReason.SUPERSEDED);
+      assertRevoked(handler, 0x2, CrlReason.KEY_COMPROMISE);
+      assertRevoked(handler, 0x5, CrlReason.UNSPECIFIED);
+      Assert.assertNull(handler.revocations.get(BigInteger.valueOf(0x4)));
+      Assert.assertNull(handler.revocations.get(BigInteger.valueOf(0x6)));
+
+      // existing rows are passed to be updated
+      Assert.assertEquals(Long.valueOf(12),
+          handler.existingRows.get(BigInteger.valueOf(0x10)).getId());
+      Assert.assertEquals(Long.valueOf(14),
+          handler.existingRows.get(BigInteger.valueOf(0x4)).getId());
+      Assert.assertNull(handler.existingRows.get(BigInteger.valueOf(0x2)));
+    } finally {
+      revokedCerts.close();
+    }
+  }
+
+  @Test
+  public void fullCrlWithoutEntries() throws Exception {
+    SortedRevokedCerts revokedCerts = new SortedRevokedCerts(10);
+    revokedCerts.sort();
+
+    RecordingHandler handler = new RecordingHandler();
+    ImportCrl.mergeFullCrl(revokedCerts, Collections.<CertRow>emptyList(),
+        new ListSource(Arrays.asList(row(0x1, 1), row(0x2, 2))), handler);
+
+    Assert.assertEquals(Arrays.asList(BigInteger.valueOf(0x1), BigInteger.valueOf(0x2)),
+        handler.deletes);
+    Assert.assertTrue(handler.revocations.isEmpty());
+    revokedCerts.close();
+  }
+
+  @Test
+  public void deltaCrl() throws Exception {
+    List<RevokedCert> entries = Arrays.asList(
+        entry(0x1, CrlReason.KEY_COMPROMISE),
+        entry(0x2, CrlReason.REMOVE_FROM_CRL),
+        entry(0x3, CrlReason.REMOVE_FROM_CRL),
+        entry(0x1, CrlReason.KEY_COMPROMISE));
+
+    Map<BigInteger, CertRow> certInfos = new LinkedHashMap<>();
+    certInfos.put(BigInteger.valueOf(0x3), certInfo(0x3));
+    certInfos.put(BigInteger.valueOf(0x4), certInfo(0x4));
+
+    Map<BigInteger, CertRow> existingRows = new HashMap<>();
+    CertRow revokedRow = row(0x4, 4);
+    revokedRow.setRevoked(CrlReason.CA_COMPROMISE.getCode(), 1000L);
+    for (CertRow row : Arrays.asList(row(0x1, 1), row(0x2, 2), row(0x3, 3), revokedRow,
+        row(0x5, 5))) {
+      existingRows.put(row.getSerialNumber(), row);
+    }
+
+    RecordingHandler handler = new RecordingHandler();
+    ImportCrl.mergeDeltaCrl(entries, certInfos, existingRows, handler);
+
+    // removeFromCRL of a certificate not to be imported deletes it
+    Assert.assertEquals(Arrays.asList(BigInteger.valueOf(0x2)), handler.deletes);
+
+    assertRevoked(handler, 0x1, CrlReason.KEY_COMPROMISE);
+    // removeFromCRL of a certificate to be imported marks it as not revoked
+    Assert.assertTrue(handler.revocations.containsKey(BigInteger.valueOf(0x3)));
+    Assert.assertNull(handler.revocations.get(BigInteger.valueOf(0x3)));
+    // certificate not in the delta CRL retains its revocation
+    assertRevoked(handler, 0x4, CrlReason.CA_COMPROMISE);
+    // certificate neither in the delta CRL nor in the certificates is not touched
+    Assert.assertFalse(handler.revocations.containsKey(BigInteger.valueOf(0x5)));
+  }
+
+  private static void assertRevoked(RecordingHandler handler, long serial, CrlReason reason) {
+    CertRow revocation = handler.revocations.get(BigInteger.valueOf(serial));
+    Assert.assertNotNull("revocation of " + serial, revocation);
+    Assert.assertTrue(revocation.isRevoked());
+    Assert.assertEquals(Integer.valueOf(reason.getCode()), revocation.getRevReason());
+  }
+
+  private static RevokedCert entry(long serial, CrlReason reason) {
+    return new RevokedCert(BigInteger.valueOf(serial), REVOCATION_DATE, reason, null, null);
+  }
+
+  private static CertRow row(long serial, long id) {
+    CertRow row = new CertRow(BigInteger.valueOf(serial));
+    row.setId(id);
+    row.setCertInfo(0L, Long.MAX_VALUE, null);
+    return row;
+  }
+
+  private static CertRow certInfo(long serial) {
+    CertRow row = new CertRow(BigInteger.valueOf(serial));
+    row.setCertInfo(1000L, 2000L, "hash-" + serial);
+    return row;
+  }
+
+}
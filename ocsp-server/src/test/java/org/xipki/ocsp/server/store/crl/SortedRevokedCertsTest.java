@@ -0,0 +1,108 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store.crl;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ocsp.server.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.security.CrlReason;
+
+/**
+ * Tests the sorting of CRL entries in memory and with temporary files.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class SortedRevokedCertsTest {
+
+  @Test
+  public void sortInMemory() throws Exception {
+    sort(500, 1000, 0);
+  }
+
+  @Test
+  public void sortWithTemporaryFiles() throws Exception {
+    // 1000 entries with at most 64 in memory are sorted in 16 runs.
+    sort(1000, 64, 16);
+  }
+
+  @Test
+  public void sortEmpty() throws Exception {
+    SortedRevokedCerts sorted = new SortedRevokedCerts(10);
+    sorted.sort();
+    Assert.assertFalse(sorted.hasNext());
+    sorted.close();
+  }
+
+  private static void sort(int numEntries, int maxEntriesInMemory, int expectedRuns)
+      throws Exception {
+    Random random = new Random(numEntries);
+    Map<BigInteger, RevokedCert> added = new HashMap<>();
+
+    SortedRevokedCerts sorted = new SortedRevokedCerts(maxEntriesInMemory);
+    try {
+      while (added.size() < numEntries) {
+        BigInteger serial = new BigInteger(1 + random.nextInt(159), random);
+        if (serial.signum() == 0 || added.containsKey(serial)) {
+          continue;
+        }
+
+        Date revocationDate = new Date((random.nextInt() & 0x7FFFFFFFL) * 1000);
+        Date invalidityDate = random.nextBoolean() ? null
+            : new Date(revocationDate.getTime() - 1000);
+        CrlReason reason = random.nextBoolean() ? CrlReason.KEY_COMPROMISE : CrlReason.SUPERSEDED;
+        RevokedCert cert = new RevokedCert(serial, revocationDate, reason, invalidityDate, null);
+        added.put(serial, cert);
+        sorted.add(cert);
+      }
+
+      sorted.sort();
+      Assert.assertEquals(numEntries, sorted.size());
+      Assert.assertEquals(expectedRuns, sorted.getNumberOfRuns());
+
+      String lastKey = null;
+      int num = 0;
+      while (sorted.hasNext()) {
+        RevokedCert cert = sorted.next();
+        String key = SortedRevokedCerts.sortKey(cert.getSerialNumber());
+        if (lastKey != null) {
+          Assert.assertTrue(key + " after " + lastKey, key.compareTo(lastKey) > 0);
+        }
+        lastKey = key;
+
+        RevokedCert expected = added.get(cert.getSerialNumber());
+        Assert.assertNotNull("unknown serial " + key, expected);
+        Assert.assertEquals(expected.getRevocationDate(), cert.getRevocationDate());
+        Assert.assertEquals(expected.getReason(), cert.getReason());
+        Assert.assertEquals(expected.getInvalidityDate(), cert.getInvalidityDate());
+        num++;
+      }
+
+      Assert.assertEquals(numEntries, num);
+    } finally {
+      sorted.close();
+    }
+  }
+
+}
@@ -0,0 +1,57 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.type;
+
+import java.util.Date;
+
+import org.bouncycastle.asn1.DERGeneralizedTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the cached encoding of GeneralizedTime in {@link ASN1Type}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class ASN1TypeTest {
+
+  @Test
+  public void writeGeneralizedTime() throws Exception {
+    long now = System.currentTimeMillis();
+    // same second with other milliseconds, and seconds mapped to the same slot
+    long[] times = {now, now / 1000 * 1000, now / 1000 * 1000 + 999, now + 64000,
+        now - 64000, 0, 253402300799000L};
+
+    for (int i = 0; i < 2; i++) {
+      for (long time : times) {
+        Date date = new Date(time);
+        byte[] expected = new DERGeneralizedTime(new Date(time / 1000 * 1000)).getEncoded();
+
+        byte[] out = new byte[expected.length + 2];
+        Assert.assertEquals(expected.length, ASN1Type.writeGeneralizedTime(date, out, 1));
+        byte[] encoded = new byte[expected.length];
+        System.arraycopy(out, 1, encoded, 0, encoded.length);
+        Assert.assertArrayEquals("time " + time, expected, encoded);
+        Assert.assertEquals(0, out[0]);
+        Assert.assertEquals(0, out[out.length - 1]);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,262 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.type;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.Request;
+import org.bouncycastle.asn1.ocsp.Signature;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the fast path {@link SimpleOcspRequest} against the full parser
+ * {@link OcspRequest#getInstance(byte[])}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class SimpleOcspRequestTest {
+
+  private static final byte[] NONCE = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+  @Test
+  public void singleRequest() throws Exception {
+    BigInteger[] serials = {BigInteger.ONE, BigInteger.valueOf(0x80), BigInteger.valueOf(0xFF7F),
+        new BigInteger("7fffffffffffffffffffffffffffffffffffffff", 16)};
+
+    SimpleOcspRequest simpleReq = new SimpleOcspRequest();
+    for (BigInteger serial : serials) {
+      byte[] request = request(null, false, null, null, certRequest(serial, null));
+      Assert.assertTrue(serial.toString(16), simpleReq.read(request));
+      Assert.assertFalse(simpleReq.containsNonce());
+      Assert.assertEquals(0, simpleReq.getVersion());
+      Assert.assertSame(request, simpleReq.getRequest());
+      Assert.assertEquals(serial, new BigInteger(Arrays.copyOfRange(request,
+          simpleReq.getSerialNumberFrom(),
+          simpleReq.getSerialNumberFrom() + simpleReq.getSerialNumberLength())));
+      assertSameRequest(request, simpleReq.toOcspRequest(), serial);
+    }
+
+    // explicit version and requestorName
+    byte[] request = request(0, true, null, null, certRequest(BigInteger.TEN, null));
+    Assert.assertTrue(simpleReq.read(request));
+    assertSameRequest(request, simpleReq.toOcspRequest(), BigInteger.TEN);
+
+    simpleReq.clear();
+    Assert.assertNull(simpleReq.getRequest());
+  }
+
+  @Test
+  public void nonce() throws Exception {
+    SimpleOcspRequest simpleReq = new SimpleOcspRequest();
+    for (boolean critical : new boolean[]{false, true}) {
+      Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, critical,
+          new DEROctetString(NONCE));
+      byte[] request = request(null, false, new Extensions(nonce), null,
+          certRequest(BigInteger.TEN, null));
+      Assert.assertTrue(simpleReq.read(request));
+      Assert.assertTrue(simpleReq.containsNonce());
+
+      OcspRequest req = simpleReq.toOcspRequest();
+      assertSameRequest(request, req, BigInteger.TEN);
+
+      ExtendedExtension extn = req.getExtensions().get(0);
+      Assert.assertEquals(OID.ID_PKIX_OCSP_NONCE, extn.getExtnType());
+      Assert.assertEquals(critical, extn.isCritical());
+      byte[] extnValue = new byte[extn.getExtnValueLength()];
+      extn.writeExtnValue(extnValue, 0);
+      Assert.assertArrayEquals(NONCE, extnValue);
+    }
+  }
+
+  @Test
+  public void fallbackToFullParser() throws Exception {
+    SimpleOcspRequest simpleReq = new SimpleOcspRequest();
+
+    // multiple requests
+    byte[] request = request(null, false, null, null, certRequest(BigInteger.ONE, null),
+        certRequest(BigInteger.TEN, null));
+    Assert.assertFalse(simpleReq.read(request));
+    OcspRequest req = OcspRequest.getInstance(request);
+    Assert.assertEquals(2, req.getRequestList().size());
+    Assert.assertEquals(BigInteger.ONE, req.getRequestList().get(0).getSerialNumber());
+    Assert.assertEquals(BigInteger.TEN, req.getRequestList().get(1).getSerialNumber());
+
+    // singleRequestExtensions
+    Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+        new DEROctetString(NONCE));
+    request = request(null, false, null, null,
+        certRequest(BigInteger.TEN, new Extensions(nonce)));
+    Assert.assertFalse(simpleReq.read(request));
+    req = OcspRequest.getInstance(request);
+    Assert.assertEquals(BigInteger.TEN, req.getRequestList().get(0).getSerialNumber());
+
+    // extension other than nonce
+    Extension prefSigAlgs = new Extension(
+        new ASN1ObjectIdentifier(OID.ID_PKIX_OCSP_PREFSIGALGS.getId()), false,
+        new DERSequence().getEncoded());
+    request = request(null, false, new Extensions(prefSigAlgs), null,
+        certRequest(BigInteger.TEN, null));
+    Assert.assertFalse(simpleReq.read(request));
+    req = OcspRequest.getInstance(request);
+    Assert.assertEquals(OID.ID_PKIX_OCSP_PREFSIGALGS, req.getExtensions().get(0).getExtnType());
+
+    // nonce and a further extension
+    request = request(null, false, new Extensions(new Extension[]{nonce, prefSigAlgs}), null,
+        certRequest(BigInteger.TEN, null));
+    Assert.assertFalse(simpleReq.read(request));
+    req = OcspRequest.getInstance(request);
+    Assert.assertEquals(2, req.getExtensions().size());
+
+    // signed request
+    Signature signature = new Signature(
+        new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE),
+        new DERBitString(new byte[256]));
+    request = request(null, false, null, signature, certRequest(BigInteger.TEN, null));
+    Assert.assertFalse(simpleReq.read(request));
+    Assert.assertTrue(OcspRequest.containsSignature(request));
+    req = OcspRequest.getInstance(request);
+    Assert.assertEquals(BigInteger.TEN, req.getRequestList().get(0).getSerialNumber());
+  }
+
+  @Test
+  public void malformedRequest() throws Exception {
+    Extension nonce = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+        new DEROctetString(NONCE));
+    byte[] request = request(0, true, new Extensions(nonce), null,
+        certRequest(BigInteger.TEN, null));
+
+    SimpleOcspRequest simpleReq = new SimpleOcspRequest();
+    Assert.assertTrue(simpleReq.read(request));
+
+    // truncated
+    for (int len = 0; len < request.length; len++) {
+      Assert.assertFalse("length " + len, simpleReq.read(Arrays.copyOf(request, len)));
+    }
+
+    // trailing data
+    Assert.assertFalse(simpleReq.read(Arrays.copyOf(request, request.length + 1)));
+
+    // each byte replaced by other values, including invalid tags and lengths
+    byte[] values = {0x00, 0x01, 0x7F, (byte) 0x80, (byte) 0x81, (byte) 0x84, (byte) 0xFF};
+    for (int i = 0; i < request.length; i++) {
+      for (byte value : values) {
+        byte[] malformed = request.clone();
+        malformed[i] = value;
+        try {
+          simpleReq.read(malformed);
+        } catch (RuntimeException ex) {
+          Assert.fail("could not read request with byte " + i + " = " + value + ": " + ex);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void nonMinimalSerialNumber() throws Exception {
+    byte[] request = request(null, false, null, null, certRequest(BigInteger.TEN, null));
+    // replace INTEGER 0x0A by INTEGER 0x000A
+    int serialTagIdx = request.length - 3;
+    Assert.assertEquals(0x02, request[serialTagIdx]);
+    byte[] nonMinimal = new byte[request.length + 1];
+    System.arraycopy(request, 0, nonMinimal, 0, serialTagIdx);
+    System.arraycopy(new byte[]{0x02, 0x02, 0x00, 0x0A}, 0, nonMinimal, serialTagIdx, 4);
+    // the lengths of OCSPRequest, TBSRequest, requestList, Request and CertID (all short form)
+    for (int idx : new int[]{1, 3, 5, 7, 9}) {
+      nonMinimal[idx]++;
+    }
+    Assert.assertFalse(new SimpleOcspRequest().read(nonMinimal));
+  }
+
+  private static void assertSameRequest(byte[] request, OcspRequest simpleReq,
+      BigInteger serial) throws Exception {
+    OcspRequest fullReq = OcspRequest.getInstance(request);
+    Assert.assertEquals(fullReq.getVersion(), simpleReq.getVersion());
+
+    List<CertID> certIds = simpleReq.getRequestList();
+    Assert.assertEquals(1, certIds.size());
+    Assert.assertEquals(serial, certIds.get(0).getSerialNumber());
+    Assert.assertEquals(fullReq.getRequestList().get(0).getSerialNumber(),
+        certIds.get(0).getSerialNumber());
+    Assert.assertEquals(fullReq.getRequestList().get(0).getIssuer(), certIds.get(0).getIssuer());
+
+    Assert.assertEquals(fullReq.getExtensions().size(), simpleReq.getExtensions().size());
+    for (int i = 0; i < fullReq.getExtensions().size(); i++) {
+      Assert.assertEquals(fullReq.getExtensions().get(i).getExtnType(),
+          simpleReq.getExtensions().get(i).getExtnType());
+    }
+  }
+
+  private static Request certRequest(BigInteger serial, Extensions extensions) {
+    byte[] nameHash = new byte[20];
+    byte[] keyHash = new byte[20];
+    Arrays.fill(nameHash, (byte) 0x11);
+    Arrays.fill(keyHash, (byte) 0x22);
+    org.bouncycastle.asn1.ocsp.CertID certId = new org.bouncycastle.asn1.ocsp.CertID(
+        new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1, DERNull.INSTANCE),
+        new DEROctetString(nameHash), new DEROctetString(keyHash), new ASN1Integer(serial));
+    return new Request(certId, extensions);
+  }
+
+  /**
+   * Encodes an OCSPRequest. The version is encoded explicitly if not {@code null}.
+   */
+  private static byte[] request(Integer version, boolean requestorName, Extensions extensions,
+      Signature signature, ASN1Encodable... requests) throws Exception {
+    ASN1EncodableVector tbsRequest = new ASN1EncodableVector();
+    if (version != null) {
+      tbsRequest.add(new DERTaggedObject(true, 0, new ASN1Integer(version)));
+    }
+    if (requestorName) {
+      tbsRequest.add(new DERTaggedObject(true, 1,
+          new GeneralName(new X500Name("CN=requestor"))));
+    }
+    tbsRequest.add(new DERSequence(requests));
+    if (extensions != null) {
+      tbsRequest.add(new DERTaggedObject(true, 2, extensions));
+    }
+
+    ASN1EncodableVector ocspRequest = new ASN1EncodableVector();
+    ocspRequest.add(new DERSequence(tbsRequest));
+    if (signature != null) {
+      ocspRequest.add(new DERTaggedObject(true, 0, signature));
+    }
+    return new DERSequence(ocspRequest).getEncoded();
+  }
+
+}
@@ -29,10 +29,10 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.HttpHeaders;
 import org.xipki.ocsp.api.OcspServer;
 import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.api.ResponderAndPath;
-import org.xipki.security.HashAlgo;
 import org.xipki.util.Args;
 import org.xipki.util.Base64;
 import org.xipki.util.Base64Url;
@@ -40,7 +40,6 @@ import org.xipki.util.Hex;
 import org.xipki.util.HttpConstants;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
-import org.xipki.util.StringUtil;
 
 /**
  * TODO.
@@ -134,15 +133,12 @@ public class OcspServlet extends HttpServlet {
       return;
     }
 
-    String b64OcspReq;
-
     int offset = servletPath.length();
     // GET URI contains the request and must be much longer than 10.
     if (path.length() - offset > 10) {
       if (path.charAt(offset) == '/') {
         offset++;
       }
-      b64OcspReq = path.substring(offset);
     } else {
       sendError(resp, HttpServletResponse.SC_BAD_REQUEST);
       return;
@@ -155,12 +151,25 @@ public class OcspServlet extends HttpServlet {
       //    this limitation by accepting also OCSP requests:
       //      - Which are Base64Url encoded, and/or
       //      - Which do not containing the Base64 padding char '='.
-      if (b64OcspReq.length() > responder.getMaxRequestSize()) {
+      final int b64Len = path.length() - offset;
+      if (b64Len > responder.getMaxRequestSize()) {
         sendError(resp, HttpServletResponse.SC_REQUEST_URI_TOO_LONG);
         return;
       }
 
-      byte[] ocsReqBytes = base64Decode(StringUtil.toUtf8Bytes(b64OcspReq));
+      // the encoded request consists of ASCII chars only, copy them without
+      // creating the substring.
+      byte[] b64OcspReqBytes = new byte[b64Len];
+      for (int i = 0; i < b64Len; i++) {
+        char ch = path.charAt(offset + i);
+        if (ch > 0x7F) {
+          sendError(resp, HttpServletResponse.SC_BAD_REQUEST);
+          return;
+        }
+        b64OcspReqBytes[i] = (byte) ch;
+      }
+
+      byte[] ocsReqBytes = base64Decode(b64OcspReqBytes);
       if (ocsReqBytes == null) {
         sendError(resp, HttpServletResponse.SC_BAD_REQUEST);
         return;
@@ -175,46 +184,35 @@ public class OcspServlet extends HttpServlet {
 
       byte[] encodedOcspResp = ocspRespWithCacheInfo.getResponse();
 
-      OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
-      if (cacheInfo != null) {
-        encodedOcspResp = ocspRespWithCacheInfo.getResponse();
-        long now = System.currentTimeMillis();
+      // Max age must be in seconds in the cache-control header
+      long maxAge = (responder.getCacheMaxAge() != null)
+          ? responder.getCacheMaxAge().longValue() : DFLT_CACHE_MAX_AGE;
 
+      // the header values are computed once per response, and are kept with the
+      // response in the response cache.
+      HttpHeaders httpHeaders = ocspRespWithCacheInfo.getHttpHeaders(maxAge);
+      if (httpHeaders != null) {
         // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
         // the HTTP response.
-        resp.addDateHeader("Date", now);
+        resp.setDateHeader("Date", System.currentTimeMillis());
         // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
         // last modified the response.
-        resp.addDateHeader("Last-Modified", cacheInfo.getThisUpdate());
+        resp.setHeader("Last-Modified", httpHeaders.getLastModifiedText());
         // RFC 5019 6.2: Expires: This date and time will be the same as the
         // nextUpdate time-stamp in the OCSP
         // response itself.
         // This is overridden by max-age on HTTP/1.1 compatible components
-        if (cacheInfo.getNextUpdate() != null) {
-          resp.addDateHeader("Expires", cacheInfo.getNextUpdate());
-        }
-        // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
-        // HEX representation of the SHA1 hash of the OCSPResponse structure.
-        resp.addHeader("ETag",
-            StringUtil.concat("\"", HashAlgo.SHA1.hexHash(encodedOcspResp), "\""));
-
-        // Max age must be in seconds in the cache-control header
-        long maxAge;
-        if (responder.getCacheMaxAge() != null) {
-          maxAge = responder.getCacheMaxAge().longValue();
-        } else {
-          maxAge = DFLT_CACHE_MAX_AGE;
+        if (httpHeaders.getExpiresText() != null) {
+          resp.setHeader("Expires", httpHeaders.getExpiresText());
         }
+        resp.setHeader("ETag", httpHeaders.getEtag());
+        resp.setHeader("Cache-Control", httpHeaders.getCacheControl());
 
-        if (cacheInfo.getNextUpdate() != null) {
-          maxAge = Math.min(maxAge,
-              (cacheInfo.getNextUpdate() - cacheInfo.getThisUpdate()) / 1000);
+        if (isNotModified(req, httpHeaders)) {
+          resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          return;
         }
-
-        resp.addHeader("Cache-Control",
-            StringUtil.concat("max-age=", Long.toString(maxAge),
-              ",public,no-transform,must-revalidate"));
-      } // end if (ocspRespWithCacheInfo)
+      } // end if (httpHeaders)
 
       resp.setContentLength(encodedOcspResp.length);
       resp.setContentType(CT_RESPONSE);
@@ -232,6 +230,39 @@ public class OcspServlet extends HttpServlet {
     }
   } // method serviceGet
 
+  /**
+   * Evaluates the conditional headers If-None-Match and If-Modified-Since.
+   * @param req the HTTP request.
+   * @param httpHeaders the HTTP headers of the response.
+   * @return whether the client has already the response.
+   */
+  private static boolean isNotModified(HttpServletRequest req, HttpHeaders httpHeaders) {
+    // If-None-Match has precedence over If-Modified-Since, see RFC 7232 section 6.
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+
+        if ("*".equals(tag) || httpHeaders.getEtag().equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = req.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+
+    return ifModifiedSince != -1 && httpHeaders.getLastModified() <= ifModifiedSince;
+  }
+
   private static void sendError(HttpServletResponse resp, int status) {
     resp.setStatus(status);
     resp.setContentLength(0);
@@ -27,6 +27,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 
@@ -50,7 +51,17 @@ public class HttpProxyServlet extends HttpServlet {
   private LocalP11CryptServicePool localP11CryptServicePool;
 
   public HttpProxyServlet() {
-    responder = new P11ProxyResponder();
+    this(new P11ProxyResponder());
+  }
+
+  /**
+   * Constructor.
+   * @param responder
+   *          The responder. Must not be {@code null}.
+   * @since 5.2.1
+   */
+  public HttpProxyServlet(P11ProxyResponder responder) {
+    this.responder = Args.notNull(responder, "responder");
   }
 
   @Override
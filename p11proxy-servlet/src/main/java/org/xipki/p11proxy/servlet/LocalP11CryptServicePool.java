@@ -28,6 +28,8 @@ import org.xipki.security.HashAlgo;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.pkcs11.P11CryptService;
 import org.xipki.security.pkcs11.P11CryptServiceFactory;
+import org.xipki.security.pkcs11.P11Module;
+import org.xipki.security.pkcs11.P11SlotIdentifier;
 import org.xipki.security.pkcs11.P11TokenException;
 import org.xipki.util.StringUtil;
 
@@ -94,6 +96,24 @@ public class LocalP11CryptServicePool {
     return p11CryptServices.get(moduleId);
   }
 
+  /**
+   * Returns the total number of sessions of all slots which can be used concurrently.
+   * @return the total number of sessions.
+   * @throws P11TokenException
+   *           if the slots could not be retrieved.
+   * @since 5.2.1
+   */
+  public int getMaxSessionCount() throws P11TokenException {
+    int count = 0;
+    for (P11CryptService service : p11CryptServices.values()) {
+      P11Module module = service.getModule();
+      for (P11SlotIdentifier slotId : module.getSlotIds()) {
+        count += module.getSlot(slotId).getMaxSessionCount();
+      }
+    }
+    return count;
+  }
+
   /* ID = SHA1(moduleName.getBytes("UTF-8")[1..15] */
   private static short deriveModuleId(String moduleName) throws XiSecurityException {
     byte[] hash = HashAlgo.SHA1.hash(StringUtil.toUtf8Bytes(moduleName));
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
+import org.xipki.security.Securities.KeystoreConf;
 import org.xipki.security.Securities.SecurityConf;
 import org.xipki.util.Args;
 import org.xipki.util.InvalidConfException;
@@ -35,8 +36,100 @@ import com.alibaba.fastjson.JSON;
  */
 public class P11ProxyConf extends ValidatableConf {
 
+  /**
+   * Configuration of the socket transport, which keeps the connections open and processes
+   * pipelined requests.
+   * @since 5.2.1
+   */
+  public static class SocketServer extends ValidatableConf {
+
+    /**
+     * Local address to bind to. Binds to all addresses if not set.
+     */
+    private String host;
+
+    private int port;
+
+    /**
+     * Number of threads to process the requests.
+     */
+    private int threads = 32;
+
+    /**
+     * Keystore of the TLS server. Required.
+     */
+    private KeystoreConf keystore;
+
+    /**
+     * Truststore of the TLS client certificates. Required, the clients must authenticate
+     * themselves, since the server can sign with all keys of the HSM.
+     */
+    private KeystoreConf truststore;
+
+    public String getHost() {
+      return host;
+    }
+
+    public void setHost(String host) {
+      this.host = host;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public void setPort(int port) {
+      this.port = port;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public KeystoreConf getKeystore() {
+      return keystore;
+    }
+
+    public void setKeystore(KeystoreConf keystore) {
+      this.keystore = keystore;
+    }
+
+    public KeystoreConf getTruststore() {
+      return truststore;
+    }
+
+    public void setTruststore(KeystoreConf truststore) {
+      this.truststore = truststore;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (port < 1 || port > 65535) {
+        throw new InvalidConfException("port is not in [1, 65535]");
+      }
+
+      if (threads < 1) {
+        throw new InvalidConfException("threads is not positive");
+      }
+
+      // the socket server has no other protection than the mutual TLS
+      notNull(keystore, "keystore");
+      notNull(truststore, "truststore");
+
+      validate(keystore);
+      validate(truststore);
+    }
+
+  }
+
   private SecurityConf security;
 
+  private SocketServer socketServer;
+
   public static P11ProxyConf readConfFromFile(String fileName)
       throws IOException, InvalidConfException {
     Args.notBlank(fileName, "fileName");
@@ -57,9 +150,18 @@ public class P11ProxyConf extends ValidatableConf {
     this.security = security;
   }
 
+  public SocketServer getSocketServer() {
+    return socketServer;
+  }
+
+  public void setSocketServer(SocketServer socketServer) {
+    this.socketServer = socketServer;
+  }
+
   @Override
   public void validate() throws InvalidConfException {
     validate(security);
+    validate(socketServer);
   }
 
 }
@@ -17,15 +17,29 @@
 
 package org.xipki.p11proxy.servlet;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -64,15 +78,70 @@ import org.xipki.util.LogUtil;
  * @since 2.0.0
  */
 
-public class P11ProxyResponder {
+public class P11ProxyResponder implements Closeable {
+
+  private static class SignChunk {
+
+    private final P11Identity identity;
+
+    private final long mechanism;
+
+    private final P11Params params;
+
+    private final int[] indexes;
+
+    private final byte[][] contents;
+
+    SignChunk(P11Identity identity, long mechanism, P11Params params,
+        List<ProxyMessage.SignTemplate> templates, List<Integer> indexes) {
+      this.identity = identity;
+      this.mechanism = mechanism;
+      this.params = params;
+      this.indexes = new int[indexes.size()];
+      this.contents = new byte[indexes.size()][];
+      for (int i = 0; i < this.indexes.length; i++) {
+        this.indexes[i] = indexes.get(i);
+        this.contents[i] = templates.get(this.indexes[i]).getMessage();
+      }
+    }
+
+    void sign(byte[][] signatures) throws P11TokenException {
+      byte[][] chunkSignatures = identity.sign(mechanism, params, contents);
+      for (int i = 0; i < indexes.length; i++) {
+        signatures[indexes[i]] = chunkSignatures[i];
+      }
+    }
+
+    Callable<Void> toCallable(final byte[][] signatures) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws P11TokenException {
+          sign(signatures);
+          return null;
+        }
+      };
+    }
+
+  }
+
   private static final Logger LOG = LoggerFactory.getLogger(P11ProxyResponder.class);
 
+  /**
+   * Maximal number of chunks of a batch which are signed concurrently.
+   */
+  private static final int MAX_SIGN_CHUNKS = 8;
+
+  private static final int MIN_SIGN_CHUNK_SIZE = 16;
+
   private static final Set<Short> actionsRequireNonNullRequest;
 
   private static final Set<Short> actionsRequireNullRequest;
 
   private final Set<Short> versions;
 
+  // null if the chunks are signed sequentially
+  private final ThreadPoolExecutor signExecutor;
+
   static {
     Set<Short> actions = new HashSet<>();
     actions.add(P11ProxyConstants.ACTION_GET_SERVER_CAPS);
@@ -96,6 +165,7 @@ public class P11ProxyResponder {
     actions.add(P11ProxyConstants.ACTION_REMOVE_IDENTITY);
     actions.add(P11ProxyConstants.ACTION_REMOVE_OBJECTS);
     actions.add(P11ProxyConstants.ACTION_SIGN);
+    actions.add(P11ProxyConstants.ACTION_SIGN_BATCH);
     actions.add(P11ProxyConstants.ACTION_UPDATE_CERT);
     actions.add(P11ProxyConstants.ACTION_DIGEST_SECRETKEY);
     actions.add(P11ProxyConstants.ACTION_IMPORT_SECRET_KEY);
@@ -104,9 +174,69 @@ public class P11ProxyResponder {
   }
 
   public P11ProxyResponder() {
+    this(1);
+  }
+
+  /**
+   * Constructor.
+   * @param signParallelism
+   *          Maximal number of chunks of all batches which are signed concurrently, should be
+   *          the number of sessions of the slots. Values less than 2 sign the chunks
+   *          sequentially.
+   * @since 5.2.1
+   */
+  public P11ProxyResponder(int signParallelism) {
     Set<Short> tmpVersions = new HashSet<>();
     tmpVersions.add(P11ProxyConstants.VERSION_V1_0);
     this.versions = Collections.unmodifiableSet(tmpVersions);
+
+    if (signParallelism < 2) {
+      this.signExecutor = null;
+    } else {
+      // the thread of the request signs one chunk itself, and also the chunks which are
+      // rejected because all threads are busy and the queue is full.
+      int threads = signParallelism - 1;
+      this.signExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(threads), new ThreadFactory() {
+
+            private final AtomicInteger index = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "p11proxy-sign-" + index.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            }
+
+          }, new RejectedExecutionHandler() {
+
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+              if (executor.isShutdown()) {
+                throw new RejectedExecutionException("P11ProxyResponder has been closed");
+              }
+              runnable.run();
+            }
+
+          });
+      this.signExecutor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  /**
+   * Stops the threads which sign the chunks of batches.
+   * @since 5.2.1
+   */
+  @Override
+  public void close() {
+    if (signExecutor != null) {
+      // the requests waiting for the chunks which have not been started fail
+      for (Runnable runnable : signExecutor.shutdownNow()) {
+        if (runnable instanceof Future) {
+          ((Future<?>) runnable).cancel(false);
+        }
+      }
+    }
   }
 
   public Set<Short> versions() {
@@ -368,27 +498,7 @@ public class P11ProxyResponder {
         case P11ProxyConstants.ACTION_SIGN: {
           ProxyMessage.SignTemplate signTemplate = ProxyMessage.SignTemplate.getInstance(content);
           long mechanism = signTemplate.getMechanism().getMechanism();
-          ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
-
-          P11Params params = null;
-
-          if (asn1Params != null) {
-            switch (asn1Params.getTagNo()) {
-              case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
-                params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
-                break;
-              case ProxyMessage.P11Params.TAG_OPAQUE:
-                params = new P11ByteArrayParams(
-                    ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              case ProxyMessage.P11Params.TAG_IV:
-                params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              default:
-                throw new BadAsn1ObjectException(
-                    "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
-            }
-          }
+          P11Params params = getP11Params(signTemplate.getMechanism().getParams());
 
           byte[] message = signTemplate.getMessage();
           P11Identity identity = p11CryptService.getIdentity(signTemplate.getSlotId().getValue(),
@@ -401,6 +511,13 @@ public class P11ProxyResponder {
           ASN1Object obj = new DEROctetString(signature);
           return getSuccessResp(version, transactionId, action, obj);
         }
+        case P11ProxyConstants.ACTION_SIGN_BATCH: {
+          List<ProxyMessage.SignTemplate> templates =
+              ProxyMessage.SignTemplates.getInstance(content).getTemplates();
+          byte[][] signatures = signBatch(p11CryptService, templates);
+          return getSuccessResp(version, transactionId, action,
+              new ProxyMessage.Signatures(signatures));
+        }
         case P11ProxyConstants.ACTION_UPDATE_CERT: {
           ProxyMessage.ObjectIdAndCert asn1 = ProxyMessage.ObjectIdAndCert.getInstance(content);
           P11Slot slot = getSlot(p11CryptService, asn1.getSlotId().getValue());
@@ -440,6 +557,110 @@ public class P11ProxyResponder {
     }
   } // method processPkiMessage
 
+  private static P11Params getP11Params(ProxyMessage.P11Params asn1Params)
+      throws BadAsn1ObjectException {
+    if (asn1Params == null) {
+      return null;
+    }
+
+    switch (asn1Params.getTagNo()) {
+      case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
+        return ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
+      case ProxyMessage.P11Params.TAG_OPAQUE:
+        return new P11ByteArrayParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+      case ProxyMessage.P11Params.TAG_IV:
+        return new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+      default:
+        throw new BadAsn1ObjectException(
+            "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
+    }
+  }
+
+  /**
+   * Signs the templates. The templates with the same identity, mechanism and parameters are
+   * signed together in chunks, and the chunks are signed concurrently, each with its own
+   * session. If one chunk fails, the chunks which have not been started are cancelled.
+   */
+  private byte[][] signBatch(P11CryptService p11CryptService,
+      List<ProxyMessage.SignTemplate> templates) throws Exception {
+    // group the indexes of templates by slot, identity, mechanism and parameters
+    Map<String, List<Integer>> groups = new LinkedHashMap<>();
+    final int n = templates.size();
+    for (int i = 0; i < n; i++) {
+      ProxyMessage.SignTemplate template = templates.get(i);
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      vec.add(template.getSlotId());
+      vec.add(template.getObjectId());
+      vec.add(template.getMechanism());
+      String key = Hex.encode(new DERSequence(vec).getEncoded());
+
+      List<Integer> indexes = groups.get(key);
+      if (indexes == null) {
+        indexes = new ArrayList<>();
+        groups.put(key, indexes);
+      }
+      indexes.add(i);
+    }
+
+    final int chunkSize =
+        Math.max(MIN_SIGN_CHUNK_SIZE, (n + MAX_SIGN_CHUNKS - 1) / MAX_SIGN_CHUNKS);
+    List<SignChunk> chunks = new ArrayList<>();
+    for (List<Integer> indexes : groups.values()) {
+      ProxyMessage.SignTemplate first = templates.get(indexes.get(0));
+      P11Identity identity = p11CryptService.getIdentity(first.getSlotId().getValue(),
+          first.getObjectId().getValue());
+      if (identity == null) {
+        throw new P11UnknownEntityException(first.getSlotId().getValue(),
+            first.getObjectId().getValue());
+      }
+
+      long mechanism = first.getMechanism().getMechanism();
+      P11Params params = getP11Params(first.getMechanism().getParams());
+      for (int from = 0; from < indexes.size(); from += chunkSize) {
+        List<Integer> chunkIndexes =
+            indexes.subList(from, Math.min(from + chunkSize, indexes.size()));
+        chunks.add(new SignChunk(identity, mechanism, params, templates, chunkIndexes));
+      }
+    }
+
+    byte[][] signatures = new byte[n][];
+    if (signExecutor == null) {
+      for (SignChunk chunk : chunks) {
+        chunk.sign(signatures);
+      }
+      return signatures;
+    }
+
+    List<Future<?>> futures = new ArrayList<>(chunks.size());
+    boolean successful = false;
+    try {
+      for (int i = 1; i < chunks.size(); i++) {
+        futures.add(signExecutor.submit(chunks.get(i).toCallable(signatures)));
+      }
+
+      // sign the first chunk in the current thread
+      chunks.get(0).sign(signatures);
+
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          throw (cause instanceof Exception) ? (Exception) cause : ex;
+        }
+      }
+      successful = true;
+      return signatures;
+    } finally {
+      if (!successful) {
+        for (Future<?> future : futures) {
+          // a running PKCS#11 operation is not interrupted
+          future.cancel(false);
+        }
+      }
+    }
+  }
+
   private static String buildErrorMsg(short action, byte[] transactionId) {
     return "could not process action " + P11ProxyConstants.getActionName(action)
         + " (tid=" + Hex.encode(transactionId) + ")";
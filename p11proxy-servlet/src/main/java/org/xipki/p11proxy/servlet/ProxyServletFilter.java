@@ -17,8 +17,11 @@
 
 package org.xipki.p11proxy.servlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 
+import javax.net.ServerSocketFactory;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -30,12 +33,16 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xipki.p11proxy.servlet.P11ProxyConf.SocketServer;
 import org.xipki.security.Securities;
+import org.xipki.security.Securities.KeystoreConf;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.security.pkcs11.proxy.P11ProxySocketServer;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.http.SSLContextBuilder;
 
 /**
  * TODO.
@@ -52,6 +59,10 @@ public class ProxyServletFilter implements Filter {
 
   private HttpProxyServlet servlet;
 
+  private P11ProxyResponder responder;
+
+  private P11ProxySocketServer socketServer;
+
   @Override
   public void init(FilterConfig filterConfig) throws ServletException {
     P11ProxyConf conf;
@@ -79,12 +90,72 @@ public class ProxyServletFilter implements Filter {
           "could not initialize LocalP11CryptServicePool: " + ex.getMessage(), ex);
     }
 
-    servlet = new HttpProxyServlet();
+    // the chunks of the batches are signed concurrently with at most all sessions
+    int signParallelism;
+    try {
+      signParallelism = pool.getMaxSessionCount();
+    } catch (P11TokenException ex) {
+      throw new ServletException("could not get the sessions of the slots: " + ex.getMessage(),
+          ex);
+    }
+    LOG.info("sign the chunks of batches with at most {} sessions concurrently",
+        signParallelism);
+    responder = new P11ProxyResponder(signParallelism);
+
+    servlet = new HttpProxyServlet(responder);
     servlet.setLocalP11CryptServicePool(pool);
+
+    if (conf.getSocketServer() != null) {
+      try {
+        socketServer = startSocketServer(conf.getSocketServer(), pool, responder);
+      } catch (IOException | GeneralSecurityException ex) {
+        throw new ServletException(
+            "could not start the socket server: " + ex.getMessage(), ex);
+      }
+    }
+  }
+
+  private static P11ProxySocketServer startSocketServer(SocketServer conf,
+      final LocalP11CryptServicePool pool, final P11ProxyResponder responder)
+      throws IOException, GeneralSecurityException {
+    KeystoreConf keystore = conf.getKeystore();
+    SSLContextBuilder builder = new SSLContextBuilder();
+    builder.setKeyStoreType(keystore.getType());
+    char[] pwd = keystore.getPassword() == null ? null : keystore.getPassword().toCharArray();
+    builder.loadKeyMaterial(
+        new ByteArrayInputStream(keystore.getKeystore().readContent()), pwd, pwd);
+
+    KeystoreConf truststore = conf.getTruststore();
+    builder.setKeyStoreType(truststore.getType());
+    pwd = truststore.getPassword() == null ? null : truststore.getPassword().toCharArray();
+    builder.loadTrustMaterial(
+        new ByteArrayInputStream(truststore.getKeystore().readContent()), pwd);
+
+    ServerSocketFactory serverSocketFactory = builder.build().getServerSocketFactory();
+
+    P11ProxySocketServer server = new P11ProxySocketServer(serverSocketFactory,
+        conf.getHost(), conf.getPort(), conf.getThreads(),
+        new P11ProxySocketServer.RequestHandler() {
+          @Override
+          public byte[] processRequest(byte[] request) {
+            return responder.processRequest(pool, request);
+          }
+        });
+    server.setNeedClientAuth(true);
+    server.start();
+    return server;
   }
 
   @Override
   public void destroy() {
+    if (socketServer != null) {
+      socketServer.close();
+    }
+
+    if (responder != null) {
+      responder.close();
+    }
+
     if (securities != null) {
       securities.close();
     }
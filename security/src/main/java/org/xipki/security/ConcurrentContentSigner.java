@@ -102,10 +102,11 @@ public interface ConcurrentContentSigner extends Closeable {
   byte[] sign(byte[] data) throws NoIdleSignerException, SignatureException;
 
   /**
-   * Sign the data.
+   * Sign the data with one borrowed signer. If the signer supports it, all data are signed
+   * in one batch, e.g. with one session of the PKCS#11 token.
    * @param data
    *          Data to be signed. Must not be {@code null}.
-   * @return the signature
+   * @return the signatures, in the same order as the data.
    * @throws NoIdleSignerException
    *         If no idle signer is available
    * @throws SignatureException
@@ -132,6 +133,12 @@ public interface ConcurrentContentSigner extends Closeable {
 
   void requiteSigner(ConcurrentBagEntrySigner signer);
 
+  /**
+   * Returns the usage statistics of the pooled signers.
+   * @return the metrics, never {@code null}.
+   */
+  ConcurrentSignerMetrics getMetrics();
+
   boolean isHealthy();
 
 }
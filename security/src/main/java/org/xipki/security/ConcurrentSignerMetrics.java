@@ -0,0 +1,180 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.concurrent.ConcurrentBag.IConcurrentBagEntry;
+
+/**
+ * Usage statistics of the signers pooled in a {@link ConcurrentContentSigner}: how long the
+ * callers waited to borrow a signer, how many borrows timed out, and how many signers are
+ * currently pooled and in use.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public class ConcurrentSignerMetrics {
+
+  /**
+   * Upper bounds (exclusive, in milliseconds) of the buckets of the borrow wait histogram.
+   * The last bucket counts all waits not less than the last bound.
+   */
+  private static final long[] WAIT_BUCKET_BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+  private final ConcurrentBag<? extends IConcurrentBagEntry> signers;
+
+  private final AtomicLongArray waitHistogram =
+      new AtomicLongArray(WAIT_BUCKET_BOUNDS.length + 1);
+
+  private final AtomicLong borrowCount = new AtomicLong();
+
+  private final AtomicLong timeoutCount = new AtomicLong();
+
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  private final AtomicLong growCount = new AtomicLong();
+
+  private final AtomicLong shrinkCount = new AtomicLong();
+
+  ConcurrentSignerMetrics(ConcurrentBag<? extends IConcurrentBagEntry> signers) {
+    this.signers = signers;
+  }
+
+  void recordBorrow(long waitNanos, boolean timeout) {
+    borrowCount.incrementAndGet();
+    if (timeout) {
+      timeoutCount.incrementAndGet();
+    }
+
+    totalWaitNanos.addAndGet(waitNanos);
+
+    long max;
+    while (waitNanos > (max = maxWaitNanos.get())) {
+      if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+        break;
+      }
+    }
+
+    long waitMs = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    int idx = 0;
+    while (idx < WAIT_BUCKET_BOUNDS.length && waitMs >= WAIT_BUCKET_BOUNDS[idx]) {
+      idx++;
+    }
+    waitHistogram.incrementAndGet(idx);
+  }
+
+  void recordGrow() {
+    growCount.incrementAndGet();
+  }
+
+  void recordShrink() {
+    shrinkCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the upper bounds of the buckets of the borrow wait histogram.
+   * @return the upper bounds (exclusive, in milliseconds). The histogram has one more bucket
+   *         than the returned array, which counts the waits not less than the last bound.
+   */
+  public long[] getWaitHistogramBounds() {
+    return Arrays.copyOf(WAIT_BUCKET_BOUNDS, WAIT_BUCKET_BOUNDS.length);
+  }
+
+  public long[] getWaitHistogram() {
+    long[] ret = new long[waitHistogram.length()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = waitHistogram.get(i);
+    }
+    return ret;
+  }
+
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  public long getTotalWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+  }
+
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+
+  public long getGrowCount() {
+    return growCount.get();
+  }
+
+  public long getShrinkCount() {
+    return shrinkCount.get();
+  }
+
+  public int getSignerCount() {
+    return signers.size();
+  }
+
+  public int getInUseCount() {
+    return signers.getCount(IConcurrentBagEntry.STATE_IN_USE);
+  }
+
+  public int getWaitingThreadCount() {
+    return signers.getWaitingThreadCount();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("signers=").append(getSignerCount())
+      .append(", inUse=").append(getInUseCount())
+      .append(", waiting=").append(getWaitingThreadCount())
+      .append(", borrows=").append(getBorrowCount())
+      .append(", timeouts=").append(getTimeoutCount())
+      .append(", maxWaitMs=").append(getMaxWaitMillis())
+      .append(", grown=").append(getGrowCount())
+      .append(", shrunk=").append(getShrinkCount())
+      .append(", waitHistogram={");
+
+    long[] histogram = getWaitHistogram();
+    for (int i = 0; i < histogram.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+
+      if (i < WAIT_BUCKET_BOUNDS.length) {
+        sb.append("<").append(WAIT_BUCKET_BOUNDS[i]);
+      } else {
+        sb.append(">=").append(WAIT_BUCKET_BOUNDS[i - 1]);
+      }
+      sb.append("ms: ").append(histogram[i]);
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+
+}
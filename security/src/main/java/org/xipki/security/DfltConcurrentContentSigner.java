@@ -29,6 +29,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -40,6 +41,7 @@ import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.concurrent.ConcurrentBag.IConcurrentBagEntry;
 
 /**
  * TODO.
@@ -49,14 +51,49 @@ import org.xipki.util.concurrent.ConcurrentBag;
 
 public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
+  /**
+   * Creates further {@link XiContentSigner}s when the pool grows in the adaptive mode.
+   * @since 5.2.1
+   */
+  public interface SignerCreator {
+
+    XiContentSigner newSigner() throws XiSecurityException;
+
+  }
+
   private static final Logger LOG = LoggerFactory.getLogger(DfltConcurrentContentSigner.class);
 
   private static final AtomicInteger NAME_INDEX = new AtomicInteger(1);
 
   private static int defaultSignServiceTimeout = 10000; // 10 seconds
 
+  /**
+   * In the adaptive mode, a new signer is added if a borrow has waited this long.
+   */
+  private static final int GROW_WAIT_MS = 10;
+
+  /**
+   * In the adaptive mode, one idle signer is removed if no borrow has waited
+   * {@link #GROW_WAIT_MS} for this long.
+   */
+  private static final long SHRINK_INTERVAL_MS = 60L * 1000; // 1 minute
+
   private final ConcurrentBag<ConcurrentBagEntrySigner> signers = new ConcurrentBag<>();
 
+  private final ConcurrentSignerMetrics metrics = new ConcurrentSignerMetrics(signers);
+
+  private final Object resizeLock = new Object();
+
+  private final AtomicInteger contentions = new AtomicInteger();
+
+  private final AtomicLong lastShrinkCheck = new AtomicLong(System.currentTimeMillis());
+
+  private volatile SignerCreator signerCreator;
+
+  private int minSigners;
+
+  private int maxSigners;
+
   private final String name;
 
   private final String algorithmName;
@@ -143,6 +180,33 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     return algorithmCode;
   }
 
+  /**
+   * Enables the adaptive mode: the number of signers grows up to {@code maxSigners} if the
+   * callers have to wait for an idle signer, and shrinks down to {@code minSigners} if they
+   * have not for a while.
+   * @param minSigners
+   *          Minimal number of signers. Must be positive.
+   * @param maxSigners
+   *          Maximal number of signers. Must not be less than {@code minSigners}.
+   * @param signerCreator
+   *          Creator of new signers. Must not be {@code null}.
+   * @since 5.2.1
+   */
+  public void setAdaptiveSizing(int minSigners, int maxSigners, SignerCreator signerCreator) {
+    Args.positive(minSigners, "minSigners");
+    Args.min(maxSigners, "maxSigners", minSigners);
+    synchronized (resizeLock) {
+      this.minSigners = minSigners;
+      this.maxSigners = maxSigners;
+      this.signerCreator = Args.notNull(signerCreator, "signerCreator");
+    }
+  }
+
+  @Override
+  public ConcurrentSignerMetrics getMetrics() {
+    return metrics;
+  }
+
   @Override
   public ConcurrentBagEntrySigner borrowSigner() throws NoIdleSignerException {
     return borrowSigner(defaultSignServiceTimeout);
@@ -154,13 +218,31 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
    */
   @Override
   public ConcurrentBagEntrySigner borrowSigner(int soTimeout) throws NoIdleSignerException {
+    final boolean adaptive = signerCreator != null;
+    final long start = System.nanoTime();
+
     ConcurrentBagEntrySigner signer = null;
     try {
-      signer = signers.borrow(soTimeout, TimeUnit.MILLISECONDS);
+      if (adaptive && soTimeout > GROW_WAIT_MS) {
+        signer = signers.borrow(GROW_WAIT_MS, TimeUnit.MILLISECONDS);
+        if (signer == null) {
+          growSigners();
+          signer = signers.borrow(soTimeout - GROW_WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+      } else {
+        signer = signers.borrow(soTimeout, TimeUnit.MILLISECONDS);
+      }
     } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
     }
 
+    long waitNanos = System.nanoTime() - start;
+    metrics.recordBorrow(waitNanos, signer == null);
+    if (adaptive && TimeUnit.NANOSECONDS.toMillis(waitNanos) >= GROW_WAIT_MS) {
+      contentions.incrementAndGet();
+    }
+
     if (signer == null) {
+      LOG.warn("{}: no idle signer available within {} ms, {}", name, soTimeout, metrics);
       throw new NoIdleSignerException("no idle signer available");
     }
 
@@ -170,6 +252,61 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
   @Override
   public void requiteSigner(ConcurrentBagEntrySigner signer) {
     signers.requite(signer);
+
+    if (signerCreator != null) {
+      shrinkSigners();
+    }
+  }
+
+  private void growSigners() {
+    synchronized (resizeLock) {
+      int size = signers.size();
+      if (size >= maxSigners) {
+        return;
+      }
+
+      XiContentSigner newSigner;
+      try {
+        newSigner = signerCreator.newSigner();
+      } catch (XiSecurityException ex) {
+        LogUtil.warn(LOG, ex, name + ": could not create new signer");
+        return;
+      }
+
+      signers.add(new ConcurrentBagEntrySigner(newSigner));
+      metrics.recordGrow();
+      LOG.info("{}: increased the number of signers to {}", name, size + 1);
+    }
+  }
+
+  private void shrinkSigners() {
+    long now = System.currentTimeMillis();
+    long last = lastShrinkCheck.get();
+    if (now - last < SHRINK_INTERVAL_MS || !lastShrinkCheck.compareAndSet(last, now)) {
+      return;
+    }
+
+    // keep the size if any borrow had to wait in the last interval.
+    if (contentions.getAndSet(0) > 0) {
+      return;
+    }
+
+    synchronized (resizeLock) {
+      int size = signers.size();
+      if (size <= minSigners) {
+        return;
+      }
+
+      for (ConcurrentBagEntrySigner entry : signers.values(IConcurrentBagEntry.STATE_NOT_IN_USE)) {
+        if (signers.reserve(entry)) {
+          if (signers.remove(entry)) {
+            metrics.recordShrink();
+            LOG.info("{}: decreased the number of signers to {}", name, size - 1);
+          }
+          return;
+        }
+      }
+    }
   }
 
   @Override
@@ -289,6 +426,9 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
     try {
       XiContentSigner xiSigner = signer.value();
+      if (xiSigner instanceof XiBatchContentSigner) {
+        return ((XiBatchContentSigner) xiSigner).sign(data);
+      }
 
       for (int i = 0; i < data.length; i++) {
         OutputStream signatureStream = xiSigner.getOutputStream();
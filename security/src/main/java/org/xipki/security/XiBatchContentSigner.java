@@ -0,0 +1,42 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+import java.security.SignatureException;
+
+/**
+ * {@link XiContentSigner} which can sign several data at once, e.g. with one session of
+ * the PKCS#11 token.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public interface XiBatchContentSigner extends XiContentSigner {
+
+  /**
+   * Signs the data.
+   * @param data
+   *          Data to be signed. Must not be {@code null}.
+   * @return the signatures, in the same order as the data.
+   * @throws SignatureException
+   *         if could not sign the data.
+   */
+  byte[][] sign(byte[][] data) throws SignatureException;
+
+}
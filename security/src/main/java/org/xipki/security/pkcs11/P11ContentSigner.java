@@ -23,6 +23,7 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.SecureRandom;
+import java.security.SignatureException;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -46,7 +47,7 @@ import org.bouncycastle.crypto.signers.PSSSigner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.security.HashAlgo;
-import org.xipki.security.XiContentSigner;
+import org.xipki.security.XiBatchContentSigner;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.util.GMUtil;
 import org.xipki.security.util.SignerUtil;
@@ -60,7 +61,7 @@ import iaik.pkcs.pkcs11.constants.PKCS11Constants;
  * @author Lijun Liao
  *
  */
-abstract class P11ContentSigner implements XiContentSigner {
+abstract class P11ContentSigner implements XiBatchContentSigner {
 
   private static final Logger LOG = LoggerFactory.getLogger(P11ContentSigner.class);
 
@@ -95,6 +96,58 @@ abstract class P11ContentSigner implements XiContentSigner {
     return Arrays.copyOf(encodedAlgorithmIdentifier, encodedAlgorithmIdentifier.length);
   }
 
+  /**
+   * Signs the data with one call of the {@link P11Identity}, so that the PKCS#11 token
+   * can sign all of them with one session.
+   */
+  @Override
+  public byte[][] sign(byte[][] data) throws SignatureException {
+    Args.notNull(data, "data");
+    try {
+      byte[][] dataToSign = new byte[data.length][];
+      for (int i = 0; i < data.length; i++) {
+        getOutputStream().write(data[i]);
+        dataToSign[i] = getDataToSign();
+      }
+
+      byte[][] signatures = cryptService.getIdentity(identityId).sign(getMechanism(),
+          getParameters(), dataToSign);
+      for (int i = 0; i < signatures.length; i++) {
+        signatures[i] = toSignature(signatures[i]);
+      }
+      return signatures;
+    } catch (IOException | XiSecurityException | P11TokenException ex) {
+      LogUtil.warn(LOG, ex, "could not sign");
+      throw new SignatureException(ex.getClass().getName() + ": " + ex.getMessage(), ex);
+    }
+  }
+
+  protected abstract long getMechanism();
+
+  protected P11Params getParameters() {
+    return null;
+  }
+
+  /**
+   * Returns the data to be signed by the PKCS#11 token, computed from the content written
+   * to the output stream. The output stream is reset afterwards.
+   * @return the data to be signed.
+   * @throws XiSecurityException
+   *         if the data could not be computed.
+   */
+  protected abstract byte[] getDataToSign() throws XiSecurityException;
+
+  /**
+   * Converts the signature computed by the PKCS#11 token to the final signature.
+   * @param tokenSignature signature computed by the PKCS#11 token.
+   * @return the final signature.
+   * @throws XiSecurityException
+   *         if the signature could not be converted.
+   */
+  protected byte[] toSignature(byte[] tokenSignature) throws XiSecurityException {
+    return tokenSignature;
+  }
+
   // CHECKSTYLE:SKIP
   static class DSA extends P11ContentSigner {
 
@@ -172,8 +225,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     @Override
     public byte[] getSignature() {
       try {
-        byte[] plainSignature = getPlainSignature();
-        return plain ? plainSignature : SignerUtil.dsaSigPlainToX962(plainSignature);
+        return toSignature(getPlainSignature());
       } catch (XiSecurityException ex) {
         LogUtil.warn(LOG, ex);
         throw new RuntimeCryptoException("XiSecurityException: " + ex.getMessage());
@@ -184,6 +236,16 @@ abstract class P11ContentSigner implements XiContentSigner {
     }
 
     private byte[] getPlainSignature() throws XiSecurityException, P11TokenException {
+      return cryptService.getIdentity(identityId).sign(mechanism, null, getDataToSign());
+    }
+
+    @Override
+    protected long getMechanism() {
+      return mechanism;
+    }
+
+    @Override
+    protected byte[] getDataToSign() {
       byte[] dataToSign;
       if (outputStream instanceof ByteArrayOutputStream) {
         dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
@@ -192,8 +254,12 @@ abstract class P11ContentSigner implements XiContentSigner {
         dataToSign = ((DigestOutputStream) outputStream).digest();
         ((DigestOutputStream) outputStream).reset();
       }
+      return dataToSign;
+    }
 
-      return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+    @Override
+    protected byte[] toSignature(byte[] tokenSignature) throws XiSecurityException {
+      return plain ? tokenSignature : SignerUtil.dsaSigPlainToX962(tokenSignature);
     }
 
   }
@@ -279,8 +345,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     @Override
     public byte[] getSignature() {
       try {
-        byte[] plainSignature = getPlainSignature();
-        return plain ? plainSignature : SignerUtil.dsaSigPlainToX962(plainSignature);
+        return toSignature(getPlainSignature());
       } catch (XiSecurityException ex) {
         LogUtil.warn(LOG, ex);
         throw new RuntimeCryptoException("XiSecurityException: " + ex.getMessage());
@@ -291,6 +356,16 @@ abstract class P11ContentSigner implements XiContentSigner {
     }
 
     private byte[] getPlainSignature() throws XiSecurityException, P11TokenException {
+      return cryptService.getIdentity(identityId).sign(mechanism, null, getDataToSign());
+    }
+
+    @Override
+    protected long getMechanism() {
+      return mechanism;
+    }
+
+    @Override
+    protected byte[] getDataToSign() {
       byte[] dataToSign;
       if (outputStream instanceof ByteArrayOutputStream) {
         dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
@@ -299,8 +374,12 @@ abstract class P11ContentSigner implements XiContentSigner {
         dataToSign = ((DigestOutputStream) outputStream).digest();
         ((DigestOutputStream) outputStream).reset();
       }
+      return dataToSign;
+    }
 
-      return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+    @Override
+    protected byte[] toSignature(byte[] tokenSignature) throws XiSecurityException {
+      return plain ? tokenSignature : SignerUtil.dsaSigPlainToX962(tokenSignature);
     }
   }
 
@@ -349,9 +428,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     @Override
     public byte[] getSignature() {
       try {
-        byte[] dataToSign = outputStream.toByteArray();
-        outputStream.reset();
-        return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
+        return cryptService.getIdentity(identityId).sign(mechanism, null, getDataToSign());
       } catch (P11TokenException ex) {
         LogUtil.warn(LOG, ex);
         throw new RuntimeCryptoException("P11TokenException: " + ex.getMessage());
@@ -361,6 +438,18 @@ abstract class P11ContentSigner implements XiContentSigner {
       }
     }
 
+    @Override
+    protected long getMechanism() {
+      return mechanism;
+    }
+
+    @Override
+    protected byte[] getDataToSign() {
+      byte[] dataToSign = outputStream.toByteArray();
+      outputStream.reset();
+      return dataToSign;
+    }
+
   }
 
   // CHECKSTYLE:SKIP
@@ -456,6 +545,21 @@ abstract class P11ContentSigner implements XiContentSigner {
 
     @Override
     public byte[] getSignature() {
+      try {
+        return cryptService.getIdentity(identityId).sign(mechanism, null, getDataToSign());
+      } catch (XiSecurityException | P11TokenException ex) {
+        LogUtil.error(LOG, ex, "could not sign");
+        throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
+      }
+    }
+
+    @Override
+    protected long getMechanism() {
+      return mechanism;
+    }
+
+    @Override
+    protected byte[] getDataToSign() throws XiSecurityException {
       byte[] dataToSign;
       if (outputStream instanceof ByteArrayOutputStream) {
         dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
@@ -468,16 +572,10 @@ abstract class P11ContentSigner implements XiContentSigner {
         System.arraycopy(hashValue, 0, dataToSign, digestPkcsPrefix.length, hashValue.length);
       }
 
-      try {
-        if (mechanism == PKCS11Constants.CKM_RSA_X_509) {
-          dataToSign = SignerUtil.EMSA_PKCS1_v1_5_encoding(dataToSign, modulusBitLen);
-        }
-
-        return cryptService.getIdentity(identityId).sign(mechanism, null, dataToSign);
-      } catch (XiSecurityException | P11TokenException ex) {
-        LogUtil.error(LOG, ex, "could not sign");
-        throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
+      if (mechanism == PKCS11Constants.CKM_RSA_X_509) {
+        dataToSign = SignerUtil.EMSA_PKCS1_v1_5_encoding(dataToSign, modulusBitLen);
       }
+      return dataToSign;
     }
 
   }
@@ -626,15 +724,8 @@ abstract class P11ContentSigner implements XiContentSigner {
         }
       }
 
-      byte[] dataToSign;
-      if (outputStream instanceof ByteArrayOutputStream) {
-        dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
-      } else {
-        dataToSign = ((DigestOutputStream) outputStream).digest();
-      }
-
       try {
-        return cryptService.getIdentity(identityId).sign(mechanism, parameters, dataToSign);
+        return cryptService.getIdentity(identityId).sign(mechanism, parameters, getDataToSign());
       } catch (P11TokenException ex) {
         LogUtil.warn(LOG, ex, "could not sign");
         throw new RuntimeCryptoException("SignerException: " + ex.getMessage());
@@ -642,6 +733,49 @@ abstract class P11ContentSigner implements XiContentSigner {
 
     }
 
+    @Override
+    public byte[][] sign(byte[][] data) throws SignatureException {
+      if (!(outputStream instanceof PSSSignerOutputStream)) {
+        return super.sign(data);
+      }
+
+      // the PSS padding is computed in software, and each signature is computed separately.
+      Args.notNull(data, "data");
+      byte[][] signatures = new byte[data.length][];
+      try {
+        for (int i = 0; i < data.length; i++) {
+          getOutputStream().write(data[i]);
+          signatures[i] = ((PSSSignerOutputStream) outputStream).generateSignature();
+        }
+      } catch (IOException | CryptoException ex) {
+        LogUtil.warn(LOG, ex, "could not sign");
+        throw new SignatureException(ex.getClass().getName() + ": " + ex.getMessage(), ex);
+      }
+      return signatures;
+    }
+
+    @Override
+    protected long getMechanism() {
+      return mechanism;
+    }
+
+    @Override
+    protected P11Params getParameters() {
+      return parameters;
+    }
+
+    @Override
+    protected byte[] getDataToSign() {
+      byte[] dataToSign;
+      if (outputStream instanceof ByteArrayOutputStream) {
+        dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
+        ((ByteArrayOutputStream) outputStream).reset();
+      } else {
+        dataToSign = ((DigestOutputStream) outputStream).digest();
+      }
+      return dataToSign;
+    }
+
   }
 
   static class SM2 extends P11ContentSigner {
@@ -717,8 +851,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     @Override
     public byte[] getSignature() {
       try {
-        byte[] plainSignature = getPlainSignature();
-        return SignerUtil.dsaSigPlainToX962(plainSignature);
+        return toSignature(getPlainSignature());
       } catch (XiSecurityException ex) {
         LogUtil.warn(LOG, ex);
         throw new RuntimeCryptoException("XiSecurityException: " + ex.getMessage());
@@ -729,21 +862,40 @@ abstract class P11ContentSigner implements XiContentSigner {
     }
 
     private byte[] getPlainSignature() throws XiSecurityException, P11TokenException {
+      return cryptService.getIdentity(identityId).sign(mechanism, getParameters(),
+          getDataToSign());
+    }
+
+    @Override
+    protected long getMechanism() {
+      return mechanism;
+    }
+
+    @Override
+    protected P11Params getParameters() {
+      // if the real message is signed, the default IDA is used. Otherwise Hash(Z||message).
+      return (outputStream instanceof ByteArrayOutputStream)
+          ? new P11Params.P11ByteArrayParams(GMUtil.getDefaultIDA()) : null;
+    }
+
+    @Override
+    protected byte[] getDataToSign() {
       byte[] dataToSign;
-      P11Params.P11ByteArrayParams params;
       if (outputStream instanceof ByteArrayOutputStream) {
         // dataToSign is the real message
-        params = new P11Params.P11ByteArrayParams(GMUtil.getDefaultIDA());
         dataToSign = ((ByteArrayOutputStream) outputStream).toByteArray();
       } else {
         // dataToSign is Hash(Z||Real Message)
-        params = null;
         dataToSign = ((DigestOutputStream) outputStream).digest();
       }
 
       reset();
+      return dataToSign;
+    }
 
-      return cryptService.getIdentity(identityId).sign(mechanism, params, dataToSign);
+    @Override
+    protected byte[] toSignature(byte[] tokenSignature) throws XiSecurityException {
+      return SignerUtil.dsaSigPlainToX962(tokenSignature);
     }
   }
 
@@ -117,59 +117,54 @@ public class P11ContentSignerBuilder {
 
   public ConcurrentContentSigner createSigner(AlgorithmIdentifier signatureAlgId,
       int parallelism) throws XiSecurityException, P11TokenException {
-    Args.positive(parallelism, "parallelism");
+    return createSigner(signatureAlgId, parallelism, parallelism);
+  }
 
-    List<XiContentSigner> signers = new ArrayList<>(parallelism);
+  /**
+   * Creates a signer whose number of content signers adapts between {@code parallelism} and
+   * {@code maxParallelism}.
+   * @since 5.2.1
+   */
+  public ConcurrentContentSigner createSigner(final AlgorithmIdentifier signatureAlgId,
+      int parallelism, int maxParallelism) throws XiSecurityException, P11TokenException {
+    Args.positive(parallelism, "parallelism");
+    Args.min(maxParallelism, "maxParallelism", parallelism);
 
-    Boolean isSm2p256v1 = null;
-    for (int i = 0; i < parallelism; i++) {
-      XiContentSigner signer;
-      if (publicKey instanceof RSAPublicKey) {
-        if (i == 0 && !AlgorithmUtil.isRSASigAlgId(signatureAlgId)) {
+    if (publicKey instanceof RSAPublicKey) {
+      if (!AlgorithmUtil.isRSASigAlgId(signatureAlgId)) {
+        throw new XiSecurityException(
+            "the given algorithm is not a valid RSA signature algorithm '"
+            + signatureAlgId.getAlgorithm().getId() + "'");
+      }
+    } else if (publicKey instanceof ECPublicKey) {
+      ECPublicKey ecKey = (ECPublicKey) publicKey;
+      if (GMUtil.isSm2primev2Curve(ecKey.getParams().getCurve())) {
+        if (!AlgorithmUtil.isSM2SigAlg(signatureAlgId)) {
           throw new XiSecurityException(
-              "the given algorithm is not a valid RSA signature algorithm '"
-              + signatureAlgId.getAlgorithm().getId() + "'");
+            "the given algorithm is not a valid SM2 signature algorithm '"
+            + signatureAlgId.getAlgorithm().getId() + "'");
         }
-        signer = createRSAContentSigner(signatureAlgId);
-      } else if (publicKey instanceof ECPublicKey) {
-        ECPublicKey ecKey = (ECPublicKey) publicKey;
-
-        if (i == 0) {
-          isSm2p256v1 = GMUtil.isSm2primev2Curve(ecKey.getParams().getCurve());
-          if (isSm2p256v1) {
-            if (!AlgorithmUtil.isSM2SigAlg(signatureAlgId)) {
-              throw new XiSecurityException(
-                "the given algorithm is not a valid SM2 signature algorithm '"
-                + signatureAlgId.getAlgorithm().getId() + "'");
-            }
-          } else {
-            if (!AlgorithmUtil.isECSigAlg(signatureAlgId)) {
-              throw new XiSecurityException(
-                "the given algorithm is not a valid EC signature algorithm '"
-                + signatureAlgId.getAlgorithm().getId() + "'");
-            }
-          }
-        }
-
-        if (isSm2p256v1) {
-          java.security.spec.ECPoint w = ecKey.getW();
-          signer = createSM2ContentSigner(signatureAlgId, GMObjectIdentifiers.sm2p256v1,
-              w.getAffineX(), w.getAffineY());
-        } else {
-          signer = createECContentSigner(signatureAlgId);
-        }
-      } else if (publicKey instanceof DSAPublicKey) {
-        if (i == 0 && !AlgorithmUtil.isDSASigAlg(signatureAlgId)) {
+      } else {
+        if (!AlgorithmUtil.isECSigAlg(signatureAlgId)) {
           throw new XiSecurityException(
-              "the given algorithm is not a valid DSA signature algorithm '"
-              + signatureAlgId.getAlgorithm().getId() + "'");
+            "the given algorithm is not a valid EC signature algorithm '"
+            + signatureAlgId.getAlgorithm().getId() + "'");
         }
-        signer = createDSAContentSigner(signatureAlgId);
-      } else {
-        throw new XiSecurityException("unsupported key " + publicKey.getClass().getName());
       }
-      signers.add(signer);
-    } // end for
+    } else if (publicKey instanceof DSAPublicKey) {
+      if (!AlgorithmUtil.isDSASigAlg(signatureAlgId)) {
+        throw new XiSecurityException(
+            "the given algorithm is not a valid DSA signature algorithm '"
+            + signatureAlgId.getAlgorithm().getId() + "'");
+      }
+    } else {
+      throw new XiSecurityException("unsupported key " + publicKey.getClass().getName());
+    }
+
+    List<XiContentSigner> signers = new ArrayList<>(parallelism);
+    for (int i = 0; i < parallelism; i++) {
+      signers.add(createContentSigner(signatureAlgId));
+    }
 
     final boolean mac = false;
     PrivateKey privateKey = new P11PrivateKey(cryptService, identityId);
@@ -180,6 +175,20 @@ public class P11ContentSignerBuilder {
       throw new XiSecurityException(ex.getMessage(), ex);
     }
 
+    if (maxParallelism > parallelism) {
+      concurrentSigner.setAdaptiveSizing(parallelism, maxParallelism,
+          new DfltConcurrentContentSigner.SignerCreator() {
+            @Override
+            public XiContentSigner newSigner() throws XiSecurityException {
+              try {
+                return createContentSigner(signatureAlgId);
+              } catch (P11TokenException ex) {
+                throw new XiSecurityException(ex.getMessage(), ex);
+              }
+            }
+          });
+    }
+
     if (certificateChain != null) {
       concurrentSigner.setCertificateChain(certificateChain);
     } else {
@@ -189,6 +198,26 @@ public class P11ContentSignerBuilder {
     return concurrentSigner;
   } // method createSigner
 
+  private XiContentSigner createContentSigner(AlgorithmIdentifier signatureAlgId)
+      throws XiSecurityException, P11TokenException {
+    if (publicKey instanceof RSAPublicKey) {
+      return createRSAContentSigner(signatureAlgId);
+    } else if (publicKey instanceof ECPublicKey) {
+      ECPublicKey ecKey = (ECPublicKey) publicKey;
+      if (GMUtil.isSm2primev2Curve(ecKey.getParams().getCurve())) {
+        java.security.spec.ECPoint w = ecKey.getW();
+        return createSM2ContentSigner(signatureAlgId, GMObjectIdentifiers.sm2p256v1,
+            w.getAffineX(), w.getAffineY());
+      } else {
+        return createECContentSigner(signatureAlgId);
+      }
+    } else if (publicKey instanceof DSAPublicKey) {
+      return createDSAContentSigner(signatureAlgId);
+    } else {
+      throw new XiSecurityException("unsupported key " + publicKey.getClass().getName());
+    }
+  }
+
   // CHECKSTYLE:SKIP
   private XiContentSigner createRSAContentSigner(AlgorithmIdentifier signatureAlgId)
       throws XiSecurityException, P11TokenException {
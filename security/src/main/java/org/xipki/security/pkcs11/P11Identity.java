@@ -23,6 +23,7 @@ import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +54,12 @@ public abstract class P11Identity implements Comparable<P11Identity> {
 
   protected X509Certificate[] certificateChain;
 
+  /**
+   * Mechanisms (without parameters) which have been verified to be supported by this identity,
+   * mapped to the {@link P11Slot#getRefreshVersion()} at verification time.
+   */
+  private final ConcurrentHashMap<Long, Long> checkedMechanisms = new ConcurrentHashMap<>();
+
   protected P11Identity(P11Slot slot, P11IdentityId id, int signatureBitLen) {
     this.slot = Args.notNull(slot, "slot");
     this.id = Args.notNull(id, "id");
@@ -92,10 +99,7 @@ public abstract class P11Identity implements Comparable<P11Identity> {
   public byte[] sign(long mechanism, P11Params parameters, byte[] content)
       throws P11TokenException {
     Args.notNull(content, "content");
-    slot.assertMechanismSupported(mechanism);
-    if (!supportsMechanism(mechanism, parameters)) {
-      throw new P11UnsupportedMechanismException(mechanism, id);
-    }
+    assertMechanismSupported(mechanism, parameters);
     if (LOG.isDebugEnabled()) {
       LOG.debug("sign with mechanism {}", Functions.getMechanismDescription(mechanism));
     }
@@ -118,6 +122,61 @@ public abstract class P11Identity implements Comparable<P11Identity> {
   protected abstract byte[] sign0(long mechanism, P11Params parameters, byte[] content)
       throws P11TokenException;
 
+  public byte[][] sign(long mechanism, P11Params parameters, byte[][] contents)
+      throws P11TokenException {
+    Args.notNull(contents, "contents");
+    assertMechanismSupported(mechanism, parameters);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("sign {} contents with mechanism {}", contents.length,
+          Functions.getMechanismDescription(mechanism));
+    }
+    return sign0(mechanism, parameters, contents);
+  }
+
+  /**
+   * Signs the contents. The default implementation signs the contents one by one with
+   * {@link #sign0(long, P11Params, byte[])}, subclasses should overwrite it if several
+   * contents can be signed more efficiently at once.
+   *
+   * @param mechanism
+   *          mechanism to sign the contents.
+   * @param parameters
+   *          Parameters. Could be {@code null}.
+   * @param contents
+   *          Contents to be signed. Must not be {@code null}.
+   * @return signatures, in the same order as the contents.
+   * @throws P11TokenException
+   *         if PKCS#11 token error occurs.
+   */
+  protected byte[][] sign0(long mechanism, P11Params parameters, byte[][] contents)
+      throws P11TokenException {
+    byte[][] signatures = new byte[contents.length][];
+    for (int i = 0; i < contents.length; i++) {
+      signatures[i] = sign0(mechanism, parameters, contents[i]);
+    }
+    return signatures;
+  }
+
+  private void assertMechanismSupported(long mechanism, P11Params parameters)
+      throws P11TokenException {
+    long version = slot.getRefreshVersion();
+    if (parameters == null) {
+      Long checkedVersion = checkedMechanisms.get(mechanism);
+      if (checkedVersion != null && checkedVersion.longValue() == version) {
+        return;
+      }
+    }
+
+    slot.assertMechanismSupported(mechanism);
+    if (!supportsMechanism(mechanism, parameters)) {
+      throw new P11UnsupportedMechanismException(mechanism, id);
+    }
+
+    if (parameters == null) {
+      checkedMechanisms.put(mechanism, version);
+    }
+  }
+
   public byte[] digestSecretKey(long mechanism) throws P11TokenException, XiSecurityException {
     slot.assertMechanismSupported(mechanism);
     if (LOG.isDebugEnabled()) {
@@ -54,7 +54,18 @@ public class P11MacContentSignerBuilder {
 
   public ConcurrentContentSigner createSigner(AlgorithmIdentifier signatureAlgId, int parallelism)
       throws XiSecurityException, P11TokenException {
+    return createSigner(signatureAlgId, parallelism, parallelism);
+  }
+
+  /**
+   * Creates a signer whose number of MAC signers adapts between {@code parallelism} and
+   * {@code maxParallelism}.
+   * @since 5.2.1
+   */
+  public ConcurrentContentSigner createSigner(final AlgorithmIdentifier signatureAlgId,
+      int parallelism, int maxParallelism) throws XiSecurityException, P11TokenException {
     Args.positive(parallelism, "parallelism");
+    Args.min(maxParallelism, "maxParallelism", parallelism);
 
     List<XiContentSigner> signers = new ArrayList<>(parallelism);
     for (int i = 0; i < parallelism; i++) {
@@ -70,6 +81,20 @@ public class P11MacContentSignerBuilder {
       throw new XiSecurityException(ex.getMessage(), ex);
     }
 
+    if (maxParallelism > parallelism) {
+      concurrentSigner.setAdaptiveSizing(parallelism, maxParallelism,
+          new DfltConcurrentContentSigner.SignerCreator() {
+            @Override
+            public XiContentSigner newSigner() throws XiSecurityException {
+              try {
+                return new P11ContentSigner.Mac(cryptService, identityId, signatureAlgId);
+              } catch (P11TokenException ex) {
+                throw new XiSecurityException(ex.getMessage(), ex);
+              }
+            }
+          });
+    }
+
     try {
       byte[] sha1HashOfKey = cryptService.getIdentity(identityId).digestSecretKey(
           PKCS11Constants.CKM_SHA_1);
@@ -105,6 +105,21 @@ public class P11SignerFactory implements SignerFactory {
       }
     }
 
+    // the number of signers adapts between parallelism and max-parallelism
+    str = conf.getConfValue("max-parallelism");
+    int maxParallelism = parallelism;
+    if (str != null) {
+      try {
+        maxParallelism = Integer.parseInt(str);
+      } catch (NumberFormatException ex) {
+        throw new ObjectCreationException("invalid max-parallelism " + str);
+      }
+
+      if (maxParallelism < parallelism) {
+        throw new ObjectCreationException("invalid max-parallelism " + str);
+      }
+    }
+
     String moduleName = conf.getConfValue("module");
     str = conf.getConfValue("slot");
     Integer slotIndex = (str == null) ? null : Integer.parseInt(str);
@@ -167,7 +182,7 @@ public class P11SignerFactory implements SignerFactory {
       if (macAlgId != null) {
         P11MacContentSignerBuilder signerBuilder = new P11MacContentSignerBuilder(
             p11Service, identityId);
-        return signerBuilder.createSigner(macAlgId, parallelism);
+        return signerBuilder.createSigner(macAlgId, parallelism, maxParallelism);
       } else {
         AlgorithmIdentifier signatureAlgId;
         if (conf.getHashAlgo() == null) {
@@ -179,7 +194,7 @@ public class P11SignerFactory implements SignerFactory {
 
         P11ContentSignerBuilder signerBuilder = new P11ContentSignerBuilder(p11Service,
             securityFactory, identityId, certificateChain);
-        return signerBuilder.createSigner(signatureAlgId, parallelism);
+        return signerBuilder.createSigner(signatureAlgId, parallelism, maxParallelism);
       }
     } catch (P11TokenException | NoSuchAlgorithmException | XiSecurityException ex) {
       throw new ObjectCreationException(ex.getMessage(), ex);
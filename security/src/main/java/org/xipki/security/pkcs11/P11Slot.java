@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.slf4j.Logger;
@@ -218,7 +219,15 @@ public abstract class P11Slot implements Closeable {
   private final ConcurrentHashMap<P11ObjectIdentifier, X509Cert> certificates =
       new ConcurrentHashMap<>();
 
-  private final Set<Long> mechanisms = new HashSet<>();
+  /**
+   * Replaced as a whole in {@link #refresh()}, so that it can be read without lock.
+   */
+  private volatile Set<Long> mechanisms = Collections.emptySet();
+
+  /**
+   * Incremented after each {@link #refresh()}.
+   */
+  private final AtomicLong refreshVersion = new AtomicLong();
 
   private final P11MechanismFilter mechanismFilter;
 
@@ -501,23 +510,27 @@ public abstract class P11Slot implements Closeable {
   public void refresh() throws P11TokenException {
     P11SlotRefreshResult res = refresh0(); // CHECKSTYLE:SKIP
 
-    mechanisms.clear();
-    certificates.clear();
-    identities.clear();
-
     List<Long> ignoreMechs = new ArrayList<>();
 
+    Set<Long> newMechanisms = new HashSet<>();
     for (Long mech : res.getMechanisms()) {
       if (mechanismFilter.isMechanismPermitted(slotId, mech)) {
-        mechanisms.add(mech);
+        newMechanisms.add(mech);
       } else {
         ignoreMechs.add(mech);
       }
     }
+    mechanisms = Collections.unmodifiableSet(newMechanisms);
+
+    // replace the entries in place, so that the concurrent signing operations always find
+    // the identities.
     certificates.putAll(res.getCertificates());
+    certificates.keySet().retainAll(res.getCertificates().keySet());
     identities.putAll(res.getIdentities());
+    identities.keySet().retainAll(res.getIdentities().keySet());
 
     updateCaCertsOfIdentities();
+    refreshVersion.incrementAndGet();
 
     if (LOG.isInfoEnabled()) {
       StringBuilder sb = new StringBuilder();
@@ -589,7 +602,25 @@ public abstract class P11Slot implements Closeable {
   }
 
   public Set<Long> getMechanisms() {
-    return Collections.unmodifiableSet(mechanisms);
+    return mechanisms;
+  }
+
+  /**
+   * Returns the version of the slot content, which changes after each {@link #refresh()}.
+   * @return the version.
+   * @since 5.2.1
+   */
+  public long getRefreshVersion() {
+    return refreshVersion.get();
+  }
+
+  /**
+   * Returns the maximal number of sessions which can be used concurrently.
+   * @return the maximal number of sessions, 1 if unknown.
+   * @since 5.2.1
+   */
+  public int getMaxSessionCount() {
+    return 1;
   }
 
   public boolean supportsMechanism(long mechanism) {
@@ -0,0 +1,149 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.emulator;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.Hex;
+import org.xipki.util.IoUtil;
+
+/**
+ * Storage of the objects of an emulator slot in directories, one directory per object type.
+ * Each object is saved in the files &lt;hex id&gt;.info and &lt;hex id&gt;.value.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class EmulatorP11DirStore extends EmulatorP11Store {
+
+  private static class InfoFilenameFilter implements FilenameFilter {
+
+    @Override
+    public boolean accept(File dir, String name) {
+      return name.endsWith(INFO_FILE_SUFFIX);
+    }
+
+  }
+
+  private static final String INFO_FILE_SUFFIX = ".info";
+
+  private static final String VALUE_FILE_SUFFIX = ".value";
+
+  private static final FilenameFilter INFO_FILENAME_FILTER = new InfoFilenameFilter();
+
+  private final Map<ObjectType, File> dirs = new EnumMap<>(ObjectType.class);
+
+  EmulatorP11DirStore(File slotDir) {
+    for (ObjectType type : ObjectType.values()) {
+      File dir = new File(slotDir, type.getDirName());
+      if (!dir.exists()) {
+        dir.mkdirs();
+      }
+      dirs.put(type, dir);
+    }
+  }
+
+  @Override
+  List<byte[]> getIds(ObjectType type) {
+    File[] infoFiles = dirs.get(type).listFiles(INFO_FILENAME_FILTER);
+    if (infoFiles == null || infoFiles.length == 0) {
+      return Collections.emptyList();
+    }
+
+    List<byte[]> ids = new ArrayList<>(infoFiles.length);
+    for (File infoFile : infoFiles) {
+      if (infoFile.isFile()) {
+        String fileName = infoFile.getName();
+        ids.add(Hex.decode(fileName.substring(0, fileName.length() - INFO_FILE_SUFFIX.length())));
+      }
+    }
+    return ids;
+  }
+
+  @Override
+  byte[] getEncodedInfo(ObjectType type, byte[] id) throws P11TokenException {
+    File infoFile = getFile(type, id, INFO_FILE_SUFFIX);
+    if (!infoFile.exists()) {
+      return null;
+    }
+
+    try {
+      return IoUtil.read(infoFile);
+    } catch (IOException ex) {
+      throw new P11TokenException("could not read the file " + infoFile.getPath(), ex);
+    }
+  }
+
+  @Override
+  byte[] getValue(ObjectType type, byte[] id) throws P11TokenException {
+    File valueFile = getFile(type, id, VALUE_FILE_SUFFIX);
+    try {
+      return IoUtil.read(valueFile);
+    } catch (IOException ex) {
+      throw new P11TokenException("could not read the file " + valueFile.getPath(), ex);
+    }
+  }
+
+  @Override
+  void save(ObjectType type, byte[] id, byte[] info, byte[] value) throws P11TokenException {
+    try {
+      IoUtil.save(getFile(type, id, INFO_FILE_SUFFIX), info);
+      if (value != null) {
+        IoUtil.save(getFile(type, id, VALUE_FILE_SUFFIX), value);
+      }
+    } catch (IOException ex) {
+      throw new P11TokenException("could not save " + type.getDirName() + " " + Hex.encode(id),
+          ex);
+    }
+  }
+
+  @Override
+  boolean delete(ObjectType type, byte[] id) {
+    File infoFile = getFile(type, id, INFO_FILE_SUFFIX);
+    boolean b1 = true;
+    if (infoFile.exists()) {
+      b1 = infoFile.delete();
+    }
+
+    File valueFile = getFile(type, id, VALUE_FILE_SUFFIX);
+    boolean b2 = true;
+    if (valueFile.exists()) {
+      b2 = valueFile.delete();
+    }
+
+    return b1 || b2;
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private File getFile(ObjectType type, byte[] id, String suffix) {
+    return new File(dirs.get(type), Hex.encode(id) + suffix);
+  }
+
+}
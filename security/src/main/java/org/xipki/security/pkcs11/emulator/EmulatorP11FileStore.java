@@ -0,0 +1,515 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.Hex;
+import org.xipki.util.IoUtil;
+
+/**
+ * Storage of the objects of an emulator slot in one append-only file. The file is
+ * memory-mapped and scanned once while opening to build the in-memory index. Saving and
+ * deleting an object appends one record to the file.
+ *
+ * <p>The file consists of the header (magic and version) followed by the records. Each record
+ * is encoded as
+ * <pre>
+ * int    length of the body
+ * body:
+ *   byte   operation (1: save, 2: delete)
+ *   byte   object type
+ *   short  length of the id, id
+ *   save only:
+ *     int  length of the info, info
+ *     int  length of the value (-1 if absent), value
+ * int    CRC32 of the body
+ * </pre>
+ * Incomplete or corrupted records at the end of the file, e.g. after a crash, are discarded.
+ * The file is compacted while opening if the outdated records take more space than the current
+ * ones.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+class EmulatorP11FileStore extends EmulatorP11Store {
+
+  private static class Location {
+
+    private final byte[] id;
+
+    private final long infoPos;
+
+    private final int infoLen;
+
+    private final long valuePos;
+
+    private final int valueLen;
+
+    private final int recordLen;
+
+    Location(byte[] id, long infoPos, int infoLen, long valuePos, int valueLen, int recordLen) {
+      this.id = id;
+      this.infoPos = infoPos;
+      this.infoLen = infoLen;
+      this.valuePos = valuePos;
+      this.valueLen = valueLen;
+      this.recordLen = recordLen;
+    }
+
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(EmulatorP11FileStore.class);
+
+  private static final byte[] MAGIC = {'X', 'I', 'P', 'K', 'I', 'P', '1', '1'};
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LEN = MAGIC.length + 4;
+
+  private static final byte OP_SAVE = 1;
+
+  private static final byte OP_DELETE = 2;
+
+  private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+  private final File file;
+
+  private final Map<ObjectType, Map<String, Location>> index = new EnumMap<>(ObjectType.class);
+
+  private FileChannel channel;
+
+  private MappedByteBuffer mapped;
+
+  private long size;
+
+  private long outdatedSize;
+
+  EmulatorP11FileStore(File file) throws P11TokenException {
+    this.file = file;
+    for (ObjectType type : ObjectType.values()) {
+      index.put(type, new LinkedHashMap<String, Location>());
+    }
+
+    try {
+      open();
+      if (outdatedSize > MIN_COMPACT_SIZE && outdatedSize > size - outdatedSize) {
+        compact();
+      }
+    } catch (IOException ex) {
+      close();
+      throw new P11TokenException("could not open the file " + file.getPath(), ex);
+    }
+  }
+
+  boolean isEmpty() {
+    for (Map<String, Location> entries : index.values()) {
+      if (!entries.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies all objects of the other store to this store.
+   * @param source
+   *          Store to copy from. Must not be {@code null}.
+   * @return number of copied objects.
+   * @throws P11TokenException
+   *           if the objects could not be read or written.
+   */
+  synchronized int importObjects(EmulatorP11Store source) throws P11TokenException {
+    int num = 0;
+    try {
+      for (ObjectType type : ObjectType.values()) {
+        for (byte[] id : source.getIds(type)) {
+          byte[] info = source.getEncodedInfo(type, id);
+          if (info == null) {
+            continue;
+          }
+
+          byte[] value = (type == ObjectType.PUB_KEY) ? null : source.getValue(type, id);
+          save0(type, id, info, value, false);
+          num++;
+        }
+      }
+    } finally {
+      force();
+    }
+    return num;
+  }
+
+  @Override
+  synchronized List<byte[]> getIds(ObjectType type) {
+    List<byte[]> ids = new ArrayList<>(index.get(type).size());
+    for (Location location : index.get(type).values()) {
+      ids.add(location.id);
+    }
+    return ids;
+  }
+
+  @Override
+  synchronized byte[] getEncodedInfo(ObjectType type, byte[] id) throws P11TokenException {
+    Location location = index.get(type).get(Hex.encode(id));
+    return (location == null) ? null : read(location.infoPos, location.infoLen);
+  }
+
+  @Override
+  synchronized byte[] getValue(ObjectType type, byte[] id) throws P11TokenException {
+    Location location = index.get(type).get(Hex.encode(id));
+    if (location == null || location.valueLen == -1) {
+      throw new P11TokenException("found no value of " + type.getDirName() + " "
+          + Hex.encode(id));
+    }
+    return read(location.valuePos, location.valueLen);
+  }
+
+  @Override
+  synchronized void save(ObjectType type, byte[] id, byte[] info, byte[] value)
+      throws P11TokenException {
+    save0(type, id, info, value, true);
+  }
+
+  @Override
+  synchronized boolean delete(ObjectType type, byte[] id) throws P11TokenException {
+    String hexId = Hex.encode(id);
+    if (!index.get(type).containsKey(hexId)) {
+      return false;
+    }
+
+    ByteBuffer body = ByteBuffer.allocate(4 + id.length);
+    body.put(OP_DELETE).put((byte) type.ordinal()).putShort((short) id.length).put(id);
+    int recordLen;
+    try {
+      recordLen = append(body.array(), true);
+    } catch (IOException ex) {
+      throw new P11TokenException("could not delete " + type.getDirName() + " " + hexId, ex);
+    }
+
+    Location old = index.get(type).remove(hexId);
+    outdatedSize += old.recordLen + recordLen;
+    return true;
+  }
+
+  @Override
+  public synchronized void close() {
+    mapped = null;
+    if (channel != null) {
+      IoUtil.closeQuietly(channel);
+      channel = null;
+    }
+  }
+
+  private void save0(ObjectType type, byte[] id, byte[] info, byte[] value, boolean sync)
+      throws P11TokenException {
+    if (id.length > 0xFFFF) {
+      throw new P11TokenException("id is too long");
+    }
+
+    int valueLen = (value == null) ? 0 : value.length;
+    ByteBuffer body = ByteBuffer.allocate(4 + id.length + 4 + info.length + 4 + valueLen);
+    body.put(OP_SAVE).put((byte) type.ordinal()).putShort((short) id.length).put(id);
+    body.putInt(info.length).put(info);
+    body.putInt((value == null) ? -1 : value.length);
+    if (value != null) {
+      body.put(value);
+    }
+
+    long recordPos = size;
+    int recordLen;
+    try {
+      recordLen = append(body.array(), sync);
+    } catch (IOException ex) {
+      throw new P11TokenException("could not save " + type.getDirName() + " " + Hex.encode(id),
+          ex);
+    }
+
+    long infoPos = recordPos + 4 + 4 + id.length + 4;
+    long valuePos = infoPos + info.length + 4;
+    Location location = new Location(Arrays.copyOf(id, id.length), infoPos, info.length,
+        valuePos, (value == null) ? -1 : value.length, recordLen);
+    Location old = index.get(type).put(Hex.encode(id), location);
+    if (old != null) {
+      outdatedSize += old.recordLen;
+    }
+  }
+
+  private void open() throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    long fileSize = channel.size();
+    if (fileSize == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+      header.put(MAGIC).putInt(VERSION).flip();
+      writeFully(channel, header, 0);
+      channel.force(true);
+      size = HEADER_LEN;
+      return;
+    }
+
+    if (fileSize > Integer.MAX_VALUE) {
+      throw new IOException("file is too large");
+    }
+
+    mapped = channel.map(MapMode.READ_ONLY, 0, fileSize);
+    byte[] magic = new byte[MAGIC.length];
+    if (fileSize < HEADER_LEN) {
+      throw new IOException("invalid file header");
+    }
+
+    mapped.get(magic);
+    if (!Arrays.equals(MAGIC, magic)) {
+      throw new IOException("invalid file header");
+    }
+
+    int version = mapped.getInt(MAGIC.length);
+    if (version != VERSION) {
+      throw new IOException("unsupported version " + version);
+    }
+
+    int pos = HEADER_LEN;
+    while (pos < fileSize) {
+      int recordLen = parseRecord(pos, (int) fileSize);
+      if (recordLen == -1) {
+        LOG.warn("discard the incomplete or corrupted records from position {} of the file {}",
+            pos, file.getPath());
+        channel.truncate(pos);
+        channel.force(true);
+        mapped = null;
+        break;
+      }
+      pos += recordLen;
+    }
+
+    size = pos;
+  }
+
+  private int parseRecord(int pos, int limit) {
+    if (limit - pos < 8) {
+      return -1;
+    }
+
+    int bodyLen = mapped.getInt(pos);
+    if (bodyLen < 4 || limit - pos - 8 < bodyLen) {
+      return -1;
+    }
+
+    final int bodyStart = pos + 4;
+    final int bodyEnd = bodyStart + bodyLen;
+
+    ByteBuffer body = mapped.duplicate();
+    body.limit(bodyEnd).position(bodyStart);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    if ((int) crc.getValue() != mapped.getInt(bodyEnd)) {
+      return -1;
+    }
+
+    int off = bodyStart;
+    byte op = mapped.get(off++);
+    int typeIdx = mapped.get(off++);
+    int idLen = mapped.getShort(off) & 0xFFFF;
+    off += 2;
+    if (typeIdx < 0 || typeIdx >= ObjectType.values().length || bodyEnd - off < idLen) {
+      return -1;
+    }
+
+    ObjectType type = ObjectType.values()[typeIdx];
+    byte[] id = new byte[idLen];
+    ByteBuffer idBuf = mapped.duplicate();
+    idBuf.position(off);
+    idBuf.get(id);
+    off += idLen;
+
+    final int recordLen = 8 + bodyLen;
+    String hexId = Hex.encode(id);
+
+    if (op == OP_DELETE) {
+      Location old = index.get(type).remove(hexId);
+      outdatedSize += recordLen + ((old == null) ? 0 : old.recordLen);
+      return recordLen;
+    } else if (op != OP_SAVE) {
+      return -1;
+    }
+
+    if (bodyEnd - off < 4) {
+      return -1;
+    }
+    int infoLen = mapped.getInt(off);
+    off += 4;
+    if (infoLen < 0 || bodyEnd - off < infoLen + 4) {
+      return -1;
+    }
+    int infoPos = off;
+    off += infoLen;
+
+    int valueLen = mapped.getInt(off);
+    off += 4;
+    if (valueLen < -1 || bodyEnd - off != Math.max(0, valueLen)) {
+      return -1;
+    }
+
+    Location old = index.get(type).put(hexId,
+        new Location(id, infoPos, infoLen, off, valueLen, recordLen));
+    if (old != null) {
+      outdatedSize += old.recordLen;
+    }
+    return recordLen;
+  }
+
+  private byte[] read(long pos, int len) throws P11TokenException {
+    if (channel == null) {
+      throw new P11TokenException("store has been closed");
+    }
+
+    try {
+      if (mapped == null || pos + len > mapped.capacity()) {
+        // the file has been appended since it was mapped.
+        mapped = channel.map(MapMode.READ_ONLY, 0, size);
+      }
+    } catch (IOException ex) {
+      throw new P11TokenException("could not map the file " + file.getPath(), ex);
+    }
+
+    byte[] bytes = new byte[len];
+    ByteBuffer buf = mapped.duplicate();
+    buf.position((int) pos);
+    buf.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Appends one record.
+   * @return length of the record.
+   */
+  private int append(byte[] body, boolean sync) throws IOException {
+    if (channel == null) {
+      throw new IOException("store has been closed");
+    }
+
+    if (size + 8 + body.length > Integer.MAX_VALUE) {
+      throw new IOException("file is too large");
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(body);
+
+    ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+    record.putInt(body.length).put(body).putInt((int) crc.getValue()).flip();
+
+    try {
+      writeFully(channel, record, size);
+      if (sync) {
+        channel.force(false);
+      }
+    } catch (IOException ex) {
+      // remove the partially written record
+      try {
+        channel.truncate(size);
+      } catch (IOException ex2) {
+        LOG.warn("could not truncate the file {}: {}", file.getPath(), ex2.getMessage());
+      }
+      throw ex;
+    }
+
+    int recordLen = record.limit();
+    size += recordLen;
+    return recordLen;
+  }
+
+  private void force() throws P11TokenException {
+    try {
+      channel.force(false);
+    } catch (IOException ex) {
+      throw new P11TokenException("could not write the file " + file.getPath(), ex);
+    }
+  }
+
+  /**
+   * Rewrites the file with only the current records.
+   */
+  private void compact() throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    LOG.info("compact the file {}, {} of {} bytes are outdated", file.getPath(), outdatedSize,
+        size);
+
+    if (mapped == null) {
+      mapped = channel.map(MapMode.READ_ONLY, 0, size);
+    }
+
+    try (FileChannel out = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+      header.put(MAGIC).putInt(VERSION).flip();
+      long pos = writeFully(out, header, 0);
+
+      for (ObjectType type : ObjectType.values()) {
+        for (Location location : index.get(type).values()) {
+          // copy the record as it is
+          ByteBuffer record = mapped.duplicate();
+          int recordPos = (int) location.infoPos - 4 - location.id.length - 4 - 4;
+          record.limit(recordPos + location.recordLen).position(recordPos);
+          pos += writeFully(out, record, pos);
+        }
+      }
+      out.force(true);
+    }
+
+    close();
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+
+    for (Map<String, Location> entries : index.values()) {
+      entries.clear();
+    }
+    outdatedSize = 0;
+    open();
+  }
+
+  private static int writeFully(FileChannel channel, ByteBuffer buf, long pos)
+      throws IOException {
+    int len = buf.remaining();
+    long off = pos;
+    while (buf.hasRemaining()) {
+      off += channel.write(buf, off);
+    }
+    return len;
+  }
+
+}
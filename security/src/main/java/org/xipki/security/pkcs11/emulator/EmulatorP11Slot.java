@@ -20,7 +20,6 @@ package org.xipki.security.pkcs11.emulator;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
@@ -92,10 +91,10 @@ import org.xipki.security.pkcs11.P11SlotIdentifier;
 import org.xipki.security.pkcs11.P11TokenException;
 import org.xipki.security.pkcs11.P11UnknownEntityException;
 import org.xipki.security.pkcs11.emulator.EmulatorP11Module.Vendor;
+import org.xipki.security.pkcs11.emulator.EmulatorP11Store.ObjectType;
 import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
-import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
 
@@ -110,28 +109,17 @@ import iaik.pkcs.pkcs11.constants.PKCS11Constants;
 
 class EmulatorP11Slot extends P11Slot {
 
-  private static class InfoFilenameFilter implements FilenameFilter {
-
-    @Override
-    public boolean accept(File dir, String name) {
-      return name.endsWith(INFO_FILE_SUFFIX);
-    }
-
-  }
-
   private static final Logger LOG = LoggerFactory.getLogger(EmulatorP11Slot.class);
 
   // slotinfo
   private static final String FILE_SLOTINFO = "slot.info";
   private static final String PROP_NAMED_CURVE_SUPPORTED = "namedCurveSupported";
+  private static final String PROP_STORE = "store";
 
-  private static final String DIR_PRIV_KEY = "privkey";
-  private static final String DIR_PUB_KEY = "pubkey";
-  private static final String DIR_SEC_KEY = "seckey";
-  private static final String DIR_CERT = "cert";
-
-  private static final String INFO_FILE_SUFFIX = ".info";
-  private static final String VALUE_FILE_SUFFIX = ".value";
+  // store types
+  private static final String STORE_DIR = "dir";
+  private static final String STORE_FILE = "file";
+  private static final String FILE_STORE = "objects.store";
 
   private static final String PROP_ID = "id";
   private static final String PROP_LABEL = "label";
@@ -232,19 +220,11 @@ class EmulatorP11Slot extends P11Slot {
     PKCS11Constants.CKM_VENDOR_SM2_SM3,
     PKCS11Constants.CKM_VENDOR_SM2};
 
-  private static final FilenameFilter INFO_FILENAME_FILTER = new InfoFilenameFilter();
-
   private final boolean namedCurveSupported;
 
   private final File slotDir;
 
-  private final File privKeyDir;
-
-  private final File pubKeyDir;
-
-  private final File secKeyDir;
-
-  private final File certDir;
+  private final EmulatorP11Store store;
 
   private final char[] password;
 
@@ -270,36 +250,60 @@ class EmulatorP11Slot extends P11Slot {
     this.maxSessions = Args.positive(maxSessions, "maxSessions");
     this.vendor = (vendor == null) ? Vendor.GENERAL : vendor;
 
-    this.privKeyDir = new File(slotDir, DIR_PRIV_KEY);
-    if (!this.privKeyDir.exists()) {
-      this.privKeyDir.mkdirs();
-    }
-
-    this.pubKeyDir = new File(slotDir, DIR_PUB_KEY);
-    if (!this.pubKeyDir.exists()) {
-      this.pubKeyDir.mkdirs();
-    }
-
-    this.secKeyDir = new File(slotDir, DIR_SEC_KEY);
-    if (!this.secKeyDir.exists()) {
-      this.secKeyDir.mkdirs();
-    }
-
-    this.certDir = new File(slotDir, DIR_CERT);
-    if (!this.certDir.exists()) {
-      this.certDir.mkdirs();
-    }
-
     File slotInfoFile = new File(slotDir, FILE_SLOTINFO);
+    String storeType = STORE_DIR;
     if (slotInfoFile.exists()) {
       Properties props = loadProperties(slotInfoFile);
       this.namedCurveSupported = Boolean.parseBoolean(
           props.getProperty(PROP_NAMED_CURVE_SUPPORTED, "true"));
+      storeType = props.getProperty(PROP_STORE, STORE_DIR).trim();
     } else {
       this.namedCurveSupported = true;
     }
 
-    refresh();
+    if (STORE_DIR.equalsIgnoreCase(storeType)) {
+      this.store = new EmulatorP11DirStore(slotDir);
+    } else if (STORE_FILE.equalsIgnoreCase(storeType)) {
+      this.store = openFileStore(slotDir);
+    } else {
+      throw new P11TokenException("unknown store " + storeType);
+    }
+
+    try {
+      refresh();
+    } catch (P11TokenException | RuntimeException ex) {
+      store.close();
+      throw ex;
+    }
+  }
+
+  private static EmulatorP11FileStore openFileStore(File slotDir) throws P11TokenException {
+    File file = new File(slotDir, FILE_STORE);
+    boolean newFile = !file.exists();
+    EmulatorP11FileStore fileStore = new EmulatorP11FileStore(file);
+    boolean dirsExist = false;
+    for (ObjectType type : ObjectType.values()) {
+      if (new File(slotDir, type.getDirName()).isDirectory()) {
+        dirsExist = true;
+        break;
+      }
+    }
+
+    if (newFile && dirsExist) {
+      // take over the objects saved in the directories
+      try {
+        int num = fileStore.importObjects(new EmulatorP11DirStore(slotDir));
+        if (num > 0) {
+          LOG.info("imported {} objects from the directories of {} into {}", num,
+              slotDir.getPath(), file.getPath());
+        }
+      } catch (P11TokenException | RuntimeException ex) {
+        fileStore.close();
+        file.delete();
+        throw ex;
+      }
+    }
+    return fileStore;
   }
 
   @Override
@@ -310,19 +314,18 @@ class EmulatorP11Slot extends P11Slot {
     }
 
     // Secret Keys
-    File[] secKeyInfoFiles = secKeyDir.listFiles(INFO_FILENAME_FILTER);
+    List<byte[]> secKeyIds = store.getIds(ObjectType.SEC_KEY);
 
-    if (secKeyInfoFiles != null && secKeyInfoFiles.length != 0) {
-      for (File secKeyInfoFile : secKeyInfoFiles) {
-        byte[] id = getKeyIdFromInfoFilename(secKeyInfoFile.getName());
+    if (!secKeyIds.isEmpty()) {
+      for (byte[] id : secKeyIds) {
         String hexId = hex(id);
 
         try {
-          Properties props = loadProperties(secKeyInfoFile);
+          Properties props = store.getInfo(ObjectType.SEC_KEY, id);
           String label = props.getProperty(PROP_LABEL);
 
           P11ObjectIdentifier p11ObjId = new P11ObjectIdentifier(id, label);
-          byte[] encodedValue = IoUtil.read(new File(secKeyDir, hexId + VALUE_FILE_SUFFIX));
+          byte[] encodedValue = store.getValue(ObjectType.SEC_KEY, id);
 
           KeyStore ks = KeyStore.getInstance("JCEKS");
           ks.load(new ByteArrayInputStream(encodedValue), password);
@@ -351,32 +354,27 @@ class EmulatorP11Slot extends P11Slot {
     }
 
     // Certificates
-    File[] certInfoFiles = certDir.listFiles(INFO_FILENAME_FILTER);
-    if (certInfoFiles != null) {
-      for (File infoFile : certInfoFiles) {
-        byte[] id = getKeyIdFromInfoFilename(infoFile.getName());
-        Properties props = loadProperties(infoFile);
-        String label = props.getProperty(PROP_LABEL);
-        P11ObjectIdentifier objId = new P11ObjectIdentifier(id, label);
-        try {
-          X509Cert cert = readCertificate(id);
-          ret.addCertificate(objId, cert);
-        } catch (CertificateException | IOException ex) {
-          LOG.warn("could not parse certificate " + objId);
-        }
+    for (byte[] id : store.getIds(ObjectType.CERT)) {
+      Properties props = store.getInfo(ObjectType.CERT, id);
+      String label = props.getProperty(PROP_LABEL);
+      P11ObjectIdentifier objId = new P11ObjectIdentifier(id, label);
+      try {
+        X509Cert cert = readCertificate(id);
+        ret.addCertificate(objId, cert);
+      } catch (CertificateException | P11TokenException ex) {
+        LOG.warn("could not parse certificate " + objId);
       }
     }
 
     // Private / Public keys
-    File[] privKeyInfoFiles = privKeyDir.listFiles(INFO_FILENAME_FILTER);
+    List<byte[]> privKeyIds = store.getIds(ObjectType.PRIV_KEY);
 
-    if (privKeyInfoFiles != null && privKeyInfoFiles.length != 0) {
-      for (File privKeyInfoFile : privKeyInfoFiles) {
-        byte[] id = getKeyIdFromInfoFilename(privKeyInfoFile.getName());
+    if (!privKeyIds.isEmpty()) {
+      for (byte[] id : privKeyIds) {
         String hexId = hex(id);
 
         try {
-          Properties props = loadProperties(privKeyInfoFile);
+          Properties props = store.getInfo(ObjectType.PRIV_KEY, id);
           String label = props.getProperty(PROP_LABEL);
           if (label == null) {
             continue;
@@ -393,7 +391,7 @@ class EmulatorP11Slot extends P11Slot {
             continue;
           }
 
-          byte[] encodedValue = IoUtil.read(new File(privKeyDir, hexId + VALUE_FILE_SUFFIX));
+          byte[] encodedValue = store.getValue(ObjectType.PRIV_KEY, id);
 
           PKCS8EncryptedPrivateKeyInfo epki = new PKCS8EncryptedPrivateKeyInfo(encodedValue);
           PrivateKey privateKey = privateKeyCryptor.decrypt(epki);
@@ -423,9 +421,10 @@ class EmulatorP11Slot extends P11Slot {
   }
 
   private PublicKey readPublicKey(byte[] keyId) throws P11TokenException {
-    String hexKeyId = hex(keyId);
-    File pubKeyFile = new File(pubKeyDir, hexKeyId + INFO_FILE_SUFFIX);
-    Properties props = loadProperties(pubKeyFile);
+    Properties props = store.getInfo(ObjectType.PUB_KEY, keyId);
+    if (props == null) {
+      throw new P11TokenException("found no public key " + hex(keyId));
+    }
 
     String algorithm = props.getProperty(PROP_ALGORITHM);
     if (PKCSObjectIdentifiers.rsaEncryption.getId().equals(algorithm)) {
@@ -464,8 +463,9 @@ class EmulatorP11Slot extends P11Slot {
     }
   }
 
-  private X509Cert readCertificate(byte[] keyId) throws CertificateException, IOException {
-    byte[] encoded = IoUtil.read(new File(certDir, hex(keyId) + VALUE_FILE_SUFFIX));
+  private X509Cert readCertificate(byte[] keyId)
+      throws CertificateException, P11TokenException {
+    byte[] encoded = store.getValue(ObjectType.CERT, keyId);
     X509Certificate cert = X509Util.parseCert(encoded);
     return new X509Cert(cert, encoded);
   }
@@ -482,53 +482,45 @@ class EmulatorP11Slot extends P11Slot {
     }
   }
 
-  private static byte[] getKeyIdFromInfoFilename(String fileName) {
-    return decodeHex(fileName.substring(0, fileName.length() - INFO_FILE_SUFFIX.length()));
+  @Override
+  public int getMaxSessionCount() {
+    return maxSessions;
   }
 
   @Override
   public void close() {
+    store.close();
     LOG.info("close slot " + slotId);
   }
 
   private boolean removePkcs11Cert(P11ObjectIdentifier objectId) throws P11TokenException {
-    return removePkcs11Entry(certDir, objectId);
+    return removePkcs11Entry(ObjectType.CERT, objectId);
   }
 
-  private boolean removePkcs11Entry(File dir, P11ObjectIdentifier objectId)
+  private boolean removePkcs11Entry(ObjectType type, P11ObjectIdentifier objectId)
       throws P11TokenException {
     byte[] id = objectId.getId();
     String label = objectId.getLabel();
     if (id != null) {
-      String hextId = hex(id);
-      File infoFile = new File(dir, hextId + INFO_FILE_SUFFIX);
-      if (!infoFile.exists()) {
+      Properties props = store.getInfo(type, id);
+      if (props == null) {
         return false;
       }
 
       if (StringUtil.isBlank(label)) {
-        return deletePkcs11Entry(dir, id);
+        return store.delete(type, id);
       } else {
-        Properties props = loadProperties(infoFile);
-
-        return label.equals(props.getProperty("label")) ? deletePkcs11Entry(dir, id) : false;
+        return label.equals(props.getProperty("label")) ? store.delete(type, id) : false;
       }
     }
 
     // id is null, delete all entries with the specified label
     boolean deleted = false;
-    File[] infoFiles = dir.listFiles(INFO_FILENAME_FILTER);
-    if (infoFiles != null) {
-      for (File infoFile : infoFiles) {
-        if (!infoFile.isFile()) {
-          continue;
-        }
-
-        Properties props = loadProperties(infoFile);
-        if (label.equals(props.getProperty("label"))) {
-          if (deletePkcs11Entry(dir, getKeyIdFromInfoFilename(infoFile.getName()))) {
-            deleted = true;
-          }
+    for (byte[] m : store.getIds(type)) {
+      Properties props = store.getInfo(type, m);
+      if (props != null && label.equals(props.getProperty("label"))) {
+        if (store.delete(type, m)) {
+          deleted = true;
         }
       }
     }
@@ -536,54 +528,27 @@ class EmulatorP11Slot extends P11Slot {
     return deleted;
   }
 
-  private static boolean deletePkcs11Entry(File dir, byte[] objectId) {
-    String hextId = hex(objectId);
-    File infoFile = new File(dir, hextId + INFO_FILE_SUFFIX);
-    boolean b1 = true;
-    if (infoFile.exists()) {
-      b1 = infoFile.delete();
-    }
-
-    File valueFile = new File(dir, hextId + VALUE_FILE_SUFFIX);
-    boolean b2 = true;
-    if (valueFile.exists()) {
-      b2 = valueFile.delete();
-    }
-
-    return b1 || b2;
-  }
-
-  private int deletePkcs11Entry(File dir, byte[] id, String label) throws P11TokenException {
+  private int deletePkcs11Entry(ObjectType type, byte[] id, String label)
+      throws P11TokenException {
     if (StringUtil.isBlank(label)) {
-      return deletePkcs11Entry(dir, id) ? 1 : 0;
+      return store.delete(type, id) ? 1 : 0;
     }
 
     if (id != null && id.length > 0) {
-      String hextId = hex(id);
-      File infoFile = new File(dir, hextId + INFO_FILE_SUFFIX);
-      if (!infoFile.exists()) {
-        return 0;
-      }
-
-      Properties props = loadProperties(infoFile);
-      if (!label.equals(props.get(PROP_LABEL))) {
+      Properties props = store.getInfo(type, id);
+      if (props == null || !label.equals(props.get(PROP_LABEL))) {
         return 0;
       }
 
-      return deletePkcs11Entry(dir, id) ? 1 : 0;
-    }
-
-    File[] infoFiles = dir.listFiles(INFO_FILENAME_FILTER);
-    if (infoFiles == null || infoFiles.length == 0) {
-      return 0;
+      return store.delete(type, id) ? 1 : 0;
     }
 
     List<byte[]> ids = new LinkedList<>();
 
-    for (File infoFile : infoFiles) {
-      Properties props = loadProperties(infoFile);
-      if (label.equals(props.getProperty(PROP_LABEL))) {
-        ids.add(getKeyIdFromInfoFilename(infoFile.getName()));
+    for (byte[] m : store.getIds(type)) {
+      Properties props = store.getInfo(type, m);
+      if (props != null && label.equals(props.getProperty(PROP_LABEL))) {
+        ids.add(m);
       }
     }
 
@@ -592,7 +557,7 @@ class EmulatorP11Slot extends P11Slot {
     }
 
     for (byte[] m : ids) {
-      deletePkcs11Entry(dir, m);
+      store.delete(type, m);
     }
     return ids.size();
   }
@@ -617,7 +582,7 @@ class EmulatorP11Slot extends P11Slot {
       throw new P11TokenException(ex.getClass().getName() + ": " + ex.getMessage(), ex);
     }
 
-    savePkcs11Entry(secKeyDir, id, label, encrytedValue);
+    savePkcs11Entry(ObjectType.SEC_KEY, id, label, encrytedValue);
 
     return label;
   }
@@ -638,7 +603,7 @@ class EmulatorP11Slot extends P11Slot {
       throw new P11TokenException("could not encode PrivateKey");
     }
 
-    savePkcs11Entry(privKeyDir, id, label, encoded);
+    savePkcs11Entry(ObjectType.PRIV_KEY, id, label, encoded);
     return label;
   }
 
@@ -726,12 +691,7 @@ class EmulatorP11Slot extends P11Slot {
           "unsupported public key " + publicKey.getClass().getName());
     }
 
-    try {
-      IoUtil.save(new File(pubKeyDir, hexId + INFO_FILE_SUFFIX),
-          StringUtil.toUtf8Bytes(sb.toString()));
-    } catch (IOException ex) {
-      throw new P11TokenException(ex.getMessage(), ex);
-    }
+    store.save(ObjectType.PUB_KEY, id, StringUtil.toUtf8Bytes(sb.toString()), null);
 
     return label;
   }
@@ -753,12 +713,12 @@ class EmulatorP11Slot extends P11Slot {
 
   private void savePkcs11Cert(byte[] id, String label, X509Certificate cert)
       throws P11TokenException, CertificateException {
-    savePkcs11Entry(certDir, id, label, cert.getEncoded());
+    savePkcs11Entry(ObjectType.CERT, id, label, cert.getEncoded());
   }
 
-  private void savePkcs11Entry(File dir, byte[] id, String label, byte[] value)
+  private void savePkcs11Entry(ObjectType type, byte[] id, String label, byte[] value)
       throws P11TokenException {
-    Args.notNull(dir, "dir");
+    Args.notNull(type, "type");
     Args.notNull(id, "id");
     Args.notBlank(label, "label");
     Args.notNull(value, "value");
@@ -769,12 +729,7 @@ class EmulatorP11Slot extends P11Slot {
     String str = StringUtil.concat(PROP_ID, "=", hexId, "\n", PROP_LABEL, "=", label, "\n",
         PROP_SHA1SUM, "=", HashAlgo.SHA1.hexHash(value), "\n");
 
-    try {
-      IoUtil.save(new File(dir, hexId + INFO_FILE_SUFFIX), StringUtil.toUtf8Bytes(str));
-      IoUtil.save(new File(dir, hexId + VALUE_FILE_SUFFIX), value);
-    } catch (IOException ex) {
-      throw new P11TokenException("could not save certificate");
-    }
+    store.save(type, id, StringUtil.toUtf8Bytes(str), value);
   }
 
   @Override
@@ -783,10 +738,10 @@ class EmulatorP11Slot extends P11Slot {
       throw new IllegalArgumentException("at least one of id and label may not be null");
     }
 
-    int num = deletePkcs11Entry(privKeyDir, id, label);
-    num += deletePkcs11Entry(pubKeyDir, id, label);
-    num += deletePkcs11Entry(certDir, id, label);
-    num += deletePkcs11Entry(secKeyDir, id, label);
+    int num = deletePkcs11Entry(ObjectType.PRIV_KEY, id, label);
+    num += deletePkcs11Entry(ObjectType.PUB_KEY, id, label);
+    num += deletePkcs11Entry(ObjectType.CERT, id, label);
+    num += deletePkcs11Entry(ObjectType.SEC_KEY, id, label);
     return num;
   }
 
@@ -796,17 +751,17 @@ class EmulatorP11Slot extends P11Slot {
 
     boolean b1 = true;
     if (identityId.getCertId() != null) {
-      removePkcs11Entry(certDir, identityId.getCertId());
+      removePkcs11Entry(ObjectType.CERT, identityId.getCertId());
     }
 
-    boolean b2 = removePkcs11Entry(privKeyDir, keyId);
+    boolean b2 = removePkcs11Entry(ObjectType.PRIV_KEY, keyId);
 
     boolean b3 = true;
     if (identityId.getPublicKeyId() != null) {
-      b3 = removePkcs11Entry(pubKeyDir, identityId.getPublicKeyId());
+      b3 = removePkcs11Entry(ObjectType.PUB_KEY, identityId.getPublicKeyId());
     }
 
-    boolean b4 = removePkcs11Entry(secKeyDir, keyId);
+    boolean b4 = removePkcs11Entry(ObjectType.SEC_KEY, keyId);
     if (! (b1 || b2 || b3 || b4)) {
       throw new P11UnknownEntityException(slotId, keyId);
     }
@@ -814,7 +769,7 @@ class EmulatorP11Slot extends P11Slot {
 
   @Override
   protected void removeCerts0(P11ObjectIdentifier objectId) throws P11TokenException {
-    deletePkcs11Entry(certDir, objectId.getId());
+    store.delete(ObjectType.CERT, objectId.getId());
   }
 
   @Override
@@ -988,7 +943,7 @@ class EmulatorP11Slot extends P11Slot {
         X509CertificateHolder bcCert = certGenerator.build(contentSigner);
         byte[] encodedCert = bcCert.getEncoded();
         X509Certificate cert = X509Util.parseCert(encodedCert);
-        savePkcs11Entry(certDir, id, label, encodedCert);
+        savePkcs11Entry(ObjectType.CERT, id, label, encodedCert);
 
         certs = new X509Certificate[] {cert};
       } catch (Exception ex) {
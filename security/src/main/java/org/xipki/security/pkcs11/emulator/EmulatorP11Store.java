@@ -0,0 +1,139 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.Hex;
+
+/**
+ * Storage of the objects of an emulator slot. Each object is identified by its type and id,
+ * and consists of the info (properties) and an optional value.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+abstract class EmulatorP11Store implements Closeable {
+
+  static enum ObjectType {
+
+    PRIV_KEY("privkey"),
+    PUB_KEY("pubkey"),
+    SEC_KEY("seckey"),
+    CERT("cert");
+
+    private final String dirName;
+
+    private ObjectType(String dirName) {
+      this.dirName = dirName;
+    }
+
+    String getDirName() {
+      return dirName;
+    }
+
+  }
+
+  /**
+   * Returns the ids of all objects of the given type.
+   * @param type
+   *          Object type. Must not be {@code null}.
+   * @return the ids, never {@code null}.
+   * @throws P11TokenException
+   *           if the storage could not be read.
+   */
+  abstract List<byte[]> getIds(ObjectType type) throws P11TokenException;
+
+  /**
+   * Returns the encoded info of the object.
+   * @param type
+   *          Object type. Must not be {@code null}.
+   * @param id
+   *          Object id. Must not be {@code null}.
+   * @return the encoded info, or {@code null} if the object does not exist.
+   * @throws P11TokenException
+   *           if the storage could not be read.
+   */
+  abstract byte[] getEncodedInfo(ObjectType type, byte[] id) throws P11TokenException;
+
+  /**
+   * Returns the value of the object.
+   * @param type
+   *          Object type. Must not be {@code null}.
+   * @param id
+   *          Object id. Must not be {@code null}.
+   * @return the value.
+   * @throws P11TokenException
+   *           if the object or its value does not exist, or the storage could not be read.
+   */
+  abstract byte[] getValue(ObjectType type, byte[] id) throws P11TokenException;
+
+  /**
+   * Saves the object, replaces the existing one with the same type and id.
+   * @param type
+   *          Object type. Must not be {@code null}.
+   * @param id
+   *          Object id. Must not be {@code null}.
+   * @param info
+   *          Encoded info. Must not be {@code null}.
+   * @param value
+   *          Value. Could be {@code null}.
+   * @throws P11TokenException
+   *           if the object could not be saved.
+   */
+  abstract void save(ObjectType type, byte[] id, byte[] info, byte[] value)
+      throws P11TokenException;
+
+  /**
+   * Deletes the object.
+   * @param type
+   *          Object type. Must not be {@code null}.
+   * @param id
+   *          Object id. Must not be {@code null}.
+   * @return whether the object has been deleted.
+   * @throws P11TokenException
+   *           if the object could not be deleted.
+   */
+  abstract boolean delete(ObjectType type, byte[] id) throws P11TokenException;
+
+  @Override
+  public abstract void close();
+
+  Properties getInfo(ObjectType type, byte[] id) throws P11TokenException {
+    byte[] encoded = getEncodedInfo(type, id);
+    if (encoded == null) {
+      return null;
+    }
+
+    Properties props = new Properties();
+    try {
+      props.load(new ByteArrayInputStream(encoded));
+    } catch (IOException ex) {
+      throw new P11TokenException("could not parse info of " + type.getDirName() + " "
+          + Hex.encode(id), ex);
+    }
+    return props;
+  }
+
+}
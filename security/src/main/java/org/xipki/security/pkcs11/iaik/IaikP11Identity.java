@@ -95,6 +95,12 @@ class IaikP11Identity extends P11Identity {
     return ((IaikP11Slot) slot).sign(mechanism, parameters, content, this);
   }
 
+  @Override
+  protected byte[][] sign0(long mechanism, P11Params parameters, byte[][] contents)
+      throws P11TokenException {
+    return ((IaikP11Slot) slot).sign(mechanism, parameters, contents, this);
+  }
+
   Key getSigningKey() {
     return signingKey;
   }
@@ -28,11 +28,21 @@ import java.security.spec.RSAPublicKeySpec;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -60,6 +70,8 @@ import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
 import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.concurrent.ConcurrentBag.IBagStateListener;
+import org.xipki.util.concurrent.ConcurrentBag.IConcurrentBagEntry;
 import org.xipki.util.concurrent.ConcurrentBagEntry;
 
 import iaik.pkcs.pkcs11.Mechanism;
@@ -107,6 +119,40 @@ class IaikP11Slot extends P11Slot {
 
   private static final long DEFAULT_MAX_COUNT_SESSION = 32;
 
+  /**
+   * Interval in seconds to check the idle sessions.
+   */
+  private static final long SESSION_CHECK_INTERVAL = 60;
+
+  /**
+   * Maximal number of objects returned by one call of C_FindObjects.
+   */
+  private static final int FIND_OBJECTS_BATCH = 64;
+
+  /**
+   * Maximal number of sessions to enumerate the objects concurrently during refresh.
+   */
+  private static final int MAX_REFRESH_PARALLELISM = 4;
+
+  /**
+   * Lists objects of one type with a borrowed session.
+   */
+  private abstract class ObjectsLoader<T> implements Callable<List<T>> {
+
+    @Override
+    public List<T> call() throws P11TokenException {
+      ConcurrentBagEntry<Session> bagEntry = borrowSession();
+      try {
+        return load(bagEntry.value());
+      } finally {
+        sessions.requite(bagEntry);
+      }
+    }
+
+    protected abstract List<T> load(Session session) throws P11TokenException;
+
+  }
+
   private final int maxMessageSize;
 
   private Slot slot;
@@ -127,7 +173,42 @@ class IaikP11Slot extends P11Slot {
 
   private final P11NewObjectConf newObjectConf;
 
-  private final ConcurrentBag<ConcurrentBagEntry<Session>> sessions = new ConcurrentBag<>();
+  /**
+   * The bag prefers the session last used by the current thread. If no session is idle, it asks
+   * the listener to open a new one in background.
+   */
+  private final ConcurrentBag<ConcurrentBagEntry<Session>> sessions =
+      new ConcurrentBag<>(new IBagStateListener() {
+        @Override
+        public void addBagItem(int waiting) {
+          replenishSessions(waiting);
+        }
+      });
+
+  private final AtomicInteger pendingNewSessions = new AtomicInteger();
+
+  private final ScheduledExecutorService sessionExecutor;
+
+  private final AtomicLong borrowCount = new AtomicLong();
+
+  private final AtomicLong borrowTimeoutCount = new AtomicLong();
+
+  private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+  private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+  private final AtomicLong loginCount = new AtomicLong();
+
+  private final AtomicLong unhealthySessionCount = new AtomicLong();
+
+  private final Object loginLock = new Object();
+
+  /**
+   * Time ({@link System#nanoTime()}) of the last re-login after CKR_USER_NOT_LOGGED_IN.
+   */
+  private volatile long lastReloginTime = System.nanoTime();
+
+  private volatile boolean closed;
 
   private final Vendor vendor;
 
@@ -154,6 +235,15 @@ class IaikP11Slot extends P11Slot {
 
     this.password = password;
 
+    this.sessionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "p11-sessions-" + moduleName + "-" + slotId.getId());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
     boolean successful = false;
 
     try {
@@ -198,6 +288,13 @@ class IaikP11Slot extends P11Slot {
 
       sessions.add(new ConcurrentBagEntry<Session>(session));
       refresh();
+
+      sessionExecutor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          checkIdleSessions();
+        }
+      }, SESSION_CHECK_INTERVAL, SESSION_CHECK_INTERVAL, TimeUnit.SECONDS);
       successful = true;
     } finally {
       if (!successful) {
@@ -226,12 +323,56 @@ class IaikP11Slot extends P11Slot {
       }
     }
 
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    // the object types are enumerated concurrently, each with its own session.
+    int parallelism = (int) Math.min(MAX_REFRESH_PARALLELISM, maxSessionCount);
+    ExecutorService executor = null;
+    if (parallelism > 1) {
+      executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "p11-refresh-" + moduleName + "-" + slotId.getId());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
 
     try {
-      Session session = bagEntry.value();
+      FutureTask<List<SecretKey>> secretKeysTask = execute(executor,
+          new ObjectsLoader<SecretKey>() {
+            @Override
+            protected List<SecretKey> load(Session session) throws P11TokenException {
+              return getAllSecretKeyObjects(session);
+            }
+          });
+
+      FutureTask<List<X509PublicKeyCertificate>> certsTask = execute(executor,
+          new ObjectsLoader<X509PublicKeyCertificate>() {
+            @Override
+            protected List<X509PublicKeyCertificate> load(Session session)
+                throws P11TokenException {
+              return getAllCertificateObjects(session);
+            }
+          });
+
+      FutureTask<List<PrivateKey>> privKeysTask = execute(executor,
+          new ObjectsLoader<PrivateKey>() {
+            @Override
+            protected List<PrivateKey> load(Session session) throws P11TokenException {
+              return getAllPrivateObjects(session);
+            }
+          });
+
+      FutureTask<List<PublicKey>> pubKeysTask = execute(executor,
+          new ObjectsLoader<PublicKey>() {
+            @Override
+            protected List<PublicKey> load(Session session) throws P11TokenException {
+              return getAllPublicKeyObjects(session);
+            }
+          });
+
       // secret keys
-      List<SecretKey> secretKeys = getAllSecretKeyObjects(session);
+      List<SecretKey> secretKeys = getResult(secretKeysTask);
       for (SecretKey secKey : secretKeys) {
         byte[] keyId = secKey.getId().getByteArrayValue();
         if (keyId == null || keyId.length == 0) {
@@ -242,7 +383,7 @@ class IaikP11Slot extends P11Slot {
       }
 
       // first get the list of all CA certificates
-      List<X509PublicKeyCertificate> p11Certs = getAllCertificateObjects(session);
+      List<X509PublicKeyCertificate> p11Certs = getResult(certsTask);
       for (X509PublicKeyCertificate p11Cert : p11Certs) {
         byte[] id = p11Cert.getId().getByteArrayValue();
         char[] label = p11Cert.getLabel().getCharArrayValue();
@@ -252,13 +393,30 @@ class IaikP11Slot extends P11Slot {
         }
       }
 
-      List<PrivateKey> privKeys = getAllPrivateObjects(session);
+      // public keys indexed by the id, instead of searching the public key of each private key
+      Map<String, PublicKey> p11PublicKeys = new HashMap<>();
+      for (PublicKey p11PublicKey : getResult(pubKeysTask)) {
+        byte[] id = p11PublicKey.getId().getByteArrayValue();
+        if (id == null) {
+          continue;
+        }
+
+        String hexId = hex(id);
+        if (p11PublicKeys.containsKey(hexId)) {
+          LOG.warn("found more than one public key identified by id {}, use the first one",
+              hexId);
+        } else {
+          p11PublicKeys.put(hexId, p11PublicKey);
+        }
+      }
+
+      List<PrivateKey> privKeys = getResult(privKeysTask);
 
       for (PrivateKey privKey : privKeys) {
         byte[] keyId = privKey.getId().getByteArrayValue();
 
         try {
-          analyseSingleKey(session, privKey, ret);
+          analyseSingleKey(privKey, p11PublicKeys, ret);
         } catch (XiSecurityException ex) {
           LogUtil.error(LOG, ex, "XiSecurityException while initializing private key "
               + "with id " + hex(keyId));
@@ -276,12 +434,23 @@ class IaikP11Slot extends P11Slot {
 
       return ret;
     } finally {
-      sessions.requite(bagEntry);
+      if (executor != null) {
+        executor.shutdownNow();
+      }
     }
   } // method refresh
 
+  @Override
+  public int getMaxSessionCount() {
+    return maxSessionCount;
+  }
+
   @Override
   public final void close() {
+    closed = true;
+    sessionExecutor.shutdownNow();
+    LOG.info("session statistics of slot {}: {}", getSlotId(), getSessionStatistics());
+
     if (slot != null) {
       try {
         LOG.info("close all sessions on token: {}", slot.getSlotID());
@@ -301,6 +470,31 @@ class IaikP11Slot extends P11Slot {
     countSessions.lazySet(0);
   }
 
+  private static <T> FutureTask<T> execute(ExecutorService executor, Callable<T> callable) {
+    FutureTask<T> task = new FutureTask<>(callable);
+    if (executor == null) {
+      task.run();
+    } else {
+      executor.execute(task);
+    }
+    return task;
+  }
+
+  private static <T> T getResult(FutureTask<T> task) throws P11TokenException {
+    try {
+      return task.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new P11TokenException("interrupted while listing objects", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof P11TokenException) {
+        throw (P11TokenException) cause;
+      }
+      throw new P11TokenException(cause.getMessage(), cause);
+    }
+  }
+
   private void analyseSingleKey(SecretKey secretKey, P11SlotRefreshResult refreshResult) {
     byte[] id = secretKey.getId().getByteArrayValue();
     char[] label = secretKey.getLabel().getCharArrayValue();
@@ -315,7 +509,7 @@ class IaikP11Slot extends P11Slot {
     refreshResult.addIdentity(identity);
   }
 
-  private void analyseSingleKey(Session session, PrivateKey privKey,
+  private void analyseSingleKey(PrivateKey privKey, Map<String, PublicKey> p11PublicKeys,
       P11SlotRefreshResult refreshResult) throws P11TokenException, XiSecurityException {
     byte[] id = privKey.getId().getByteArrayValue();
     char[] label = privKey.getLabel().getCharArrayValue();
@@ -324,7 +518,7 @@ class IaikP11Slot extends P11Slot {
     }
 
     String pubKeyLabel = null;
-    PublicKey p11PublicKey = getPublicKeyObject(session, id, null);
+    PublicKey p11PublicKey = p11PublicKeys.get(hex(id));
     if (p11PublicKey != null) {
       pubKeyLabel = new String(p11PublicKey.getLabel().getCharArrayValue());
     }
@@ -382,11 +576,12 @@ class IaikP11Slot extends P11Slot {
       throw new P11TokenException("unsupported mechnism " + mechanism);
     }
 
-    ConcurrentBagEntry<Session> session0 = borrowSession();
+    ConcurrentBagEntry<Session> session0 = borrowSession(false);
     Mechanism mechanismObj = Mechanism.get(mechanism);
 
     try {
       Session session = session0.value();
+      final long attemptTime = System.nanoTime();
       try {
         return digestKey0(session, digestLen, mechanismObj, (SecretKey) key);
       } catch (PKCS11Exception ex) {
@@ -395,8 +590,7 @@ class IaikP11Slot extends P11Slot {
         }
 
         LOG.info("digestKey ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
-        // force the login
-        forceLogin(session);
+        relogin(session, attemptTime);
         try {
           return digestKey0(session, digestLen, mechanismObj, (SecretKey) key);
         } catch (TokenException ex2) {
@@ -422,6 +616,16 @@ class IaikP11Slot extends P11Slot {
   byte[] sign(long mechanism, P11Params parameters, byte[] content, IaikP11Identity identity)
       throws P11TokenException {
     Args.notNull(content, "content");
+    return sign(mechanism, parameters, new byte[][]{content}, identity)[0];
+  }
+
+  /**
+   * Signs the contents with one borrowed session, so that the session is borrowed and
+   * its login state is checked only once for all contents.
+   */
+  byte[][] sign(long mechanism, P11Params parameters, byte[][] contents,
+      IaikP11Identity identity) throws P11TokenException {
+    Args.notNull(contents, "contents");
     assertMechanismSupported(mechanism);
 
     int expectedSignatureLen;
@@ -449,27 +653,34 @@ class IaikP11Slot extends P11Slot {
     Mechanism mechanismObj = getMechanism(mechanism, parameters);
     Key signingKey = identity.getSigningKey();
 
-    ConcurrentBagEntry<Session> session0 = borrowSession();
+    byte[][] signatures = new byte[contents.length][];
+    ConcurrentBagEntry<Session> session0 = borrowSession(false);
     try {
       Session session = session0.value();
-      try {
-        return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
-      } catch (PKCS11Exception ex) {
-        long errorCode = ex.getErrorCode();
-        if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
-          LOG.info("sign ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
-          // force the login
-          forceLogin(session);
-          return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
-        } else {
-          throw ex;
+      for (int i = 0; i < contents.length; i++) {
+        final long attemptTime = System.nanoTime();
+        try {
+          signatures[i] = sign0(session, expectedSignatureLen, mechanismObj, contents[i],
+              signingKey);
+        } catch (PKCS11Exception ex) {
+          long errorCode = ex.getErrorCode();
+          if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+            LOG.info("sign ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
+            relogin(session, attemptTime);
+            signatures[i] = sign0(session, expectedSignatureLen, mechanismObj, contents[i],
+                signingKey);
+          } else {
+            throw ex;
+          }
         }
-      } finally {
-        sessions.requite(session0);
       }
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
+    } finally {
+      sessions.requite(session0);
     }
+
+    return signatures;
   }
 
   private byte[] sign0(Session session, int expectedSignatureLen, Mechanism mechanism,
@@ -540,34 +751,185 @@ class IaikP11Slot extends P11Slot {
   }
 
   private ConcurrentBagEntry<Session> borrowSession() throws P11TokenException {
+    return borrowSession(true);
+  }
+
+  /**
+   * Borrows a session.
+   * @param checkLogin
+   *          whether to check the login state of the session. The callers which handle
+   *          CKR_USER_NOT_LOGGED_IN themselves skip this check, since it costs one call to the
+   *          token per borrow. The idle sessions are checked periodically anyway.
+   */
+  private ConcurrentBagEntry<Session> borrowSession(boolean checkLogin)
+      throws P11TokenException {
+    final long start = System.nanoTime();
     ConcurrentBagEntry<Session> session = null;
-    synchronized (sessions) {
-      if (countSessions.get() < maxSessionCount) {
-        try {
-          session = sessions.borrow(1, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
-        }
+    try {
+      session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+    }
 
-        if (session == null) {
-          // create new session
-          sessions.add(new ConcurrentBagEntry<>(openSession()));
-        }
+    long waitNanos = System.nanoTime() - start;
+    borrowCount.incrementAndGet();
+    borrowWaitNanos.addAndGet(waitNanos);
+    long max;
+    while (waitNanos > (max = maxBorrowWaitNanos.get())) {
+      if (maxBorrowWaitNanos.compareAndSet(max, waitNanos)) {
+        break;
       }
     }
 
     if (session == null) {
+      borrowTimeoutCount.incrementAndGet();
+      throw new P11TokenException("no idle session");
+    }
+
+    if (checkLogin) {
       try {
-        session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
-      } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+        login(session.value());
+      } catch (P11TokenException | RuntimeException ex) {
+        sessions.requite(session);
+        throw ex;
       }
     }
+    return session;
+  }
 
-    if (session == null) {
-      throw new P11TokenException("no idle session");
+  /**
+   * Opens new sessions in background, at most one for each waiting thread and up to
+   * {@code maxSessionCount}.
+   */
+  private void replenishSessions(int waiting) {
+    if (closed) {
+      return;
     }
 
-    login(session.value());
-    return session;
+    while (true) {
+      int pending = pendingNewSessions.get();
+      if (pending >= waiting || countSessions.get() + pending >= maxSessionCount) {
+        return;
+      }
+
+      if (pendingNewSessions.compareAndSet(pending, pending + 1)) {
+        break;
+      }
+    }
+
+    try {
+      sessionExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            addNewSession();
+          } finally {
+            pendingNewSessions.decrementAndGet();
+          }
+        }
+      });
+    } catch (RuntimeException ex) {
+      // executor has been shutdown
+      pendingNewSessions.decrementAndGet();
+    }
+  }
+
+  private void addNewSession() {
+    if (closed) {
+      return;
+    }
+
+    Session session;
+    try {
+      session = openSession();
+    } catch (P11TokenException ex) {
+      LogUtil.warn(LOG, ex, "could not open new session");
+      return;
+    }
+
+    try {
+      login(session);
+    } catch (P11TokenException ex) {
+      LogUtil.warn(LOG, ex, "could not login new session");
+      closeSession(session);
+      return;
+    }
+
+    sessions.add(new ConcurrentBagEntry<>(session));
+    LOG.debug("opened new session, {} sessions in total", countSessions.get());
+  }
+
+  /**
+   * Checks the idle sessions, logs in if required, and removes the broken ones.
+   */
+  private void checkIdleSessions() {
+    for (ConcurrentBagEntry<Session> entry
+        : sessions.values(IConcurrentBagEntry.STATE_NOT_IN_USE)) {
+      if (closed) {
+        return;
+      }
+
+      if (!sessions.reserve(entry)) {
+        continue;
+      }
+
+      boolean healthy;
+      try {
+        login(entry.value());
+        healthy = true;
+      } catch (P11TokenException | RuntimeException ex) {
+        LogUtil.warn(LOG, ex, "found unhealthy session, remove it");
+        healthy = false;
+      }
+
+      if (healthy) {
+        sessions.unreserve(entry);
+      } else if (sessions.remove(entry)) {
+        unhealthySessionCount.incrementAndGet();
+        closeSession(entry.value());
+      }
+    }
+
+    LOG.debug("session statistics of slot {}: {}", getSlotId(), getSessionStatistics());
+  }
+
+  private void closeSession(Session session) {
+    countSessions.decrementAndGet();
+    try {
+      session.closeSession();
+    } catch (Throwable th) {
+      LogUtil.warn(LOG, th, "could not close session");
+    }
+  }
+
+  /**
+   * Logs in after CKR_USER_NOT_LOGGED_IN. The login state is shared by all sessions of the
+   * application, so the login is skipped if another thread has logged in since the failed
+   * attempt.
+   */
+  private void relogin(Session session, long attemptTime) throws P11TokenException {
+    synchronized (loginLock) {
+      if (lastReloginTime - attemptTime > 0) {
+        LOG.info("already logged in by another thread, retry it");
+        return;
+      }
+
+      forceLogin(session);
+      lastReloginTime = System.nanoTime();
+    }
+  }
+
+  String getSessionStatistics() {
+    long borrows = borrowCount.get();
+    long avgWaitMicros = (borrows == 0) ? 0 : borrowWaitNanos.get() / borrows / 1000;
+    return "sessions=" + countSessions.get()
+        + ", maxSessions=" + maxSessionCount
+        + ", idleSessions=" + sessions.getCount(IConcurrentBagEntry.STATE_NOT_IN_USE)
+        + ", borrows=" + borrows
+        + ", borrowTimeouts=" + borrowTimeoutCount.get()
+        + ", avgBorrowWaitUs=" + avgWaitMicros
+        + ", maxBorrowWaitUs=" + maxBorrowWaitNanos.get() / 1000
+        + ", logins=" + loginCount.get()
+        + ", unhealthySessions=" + unhealthySessionCount.get();
   }
 
   private void firstLogin(Session session, List<char[]> password) throws P11TokenException {
@@ -644,6 +1006,7 @@ class IaikP11Slot extends P11Slot {
 
     try {
       session.login(userType, tmpPin);
+      loginCount.incrementAndGet();
       LOG.info("login successful as user " + userTypeText);
     } catch (TokenException ex) {
       // 0x100: user already logged in
@@ -675,6 +1038,24 @@ class IaikP11Slot extends P11Slot {
     return privateKeys;
   }
 
+  private List<PublicKey> getAllPublicKeyObjects(Session session) throws P11TokenException {
+    PublicKey template = new PublicKey();
+    List<Storage> tmpObjects = getObjects(session, template);
+    if (CollectionUtil.isEmpty(tmpObjects)) {
+      return Collections.emptyList();
+    }
+
+    final int n = tmpObjects.size();
+    LOG.info("found {} public keys", n);
+
+    List<PublicKey> publicKeys = new ArrayList<>(n);
+    for (Storage tmpObject : tmpObjects) {
+      publicKeys.add((PublicKey) tmpObject);
+    }
+
+    return publicKeys;
+  }
+
   private List<SecretKey> getAllSecretKeyObjects(Session session) throws P11TokenException {
     SecretKey template = new SecretKey();
     List<Storage> tmpObjects = getObjects(session, template);
@@ -801,7 +1182,8 @@ class IaikP11Slot extends P11Slot {
       session.findObjectsInit(template);
 
       while (objList.size() < maxNo) {
-        PKCS11Object[] foundObjects = session.findObjects(1);
+        PKCS11Object[] foundObjects =
+            session.findObjects(Math.min(FIND_OBJECTS_BATCH, maxNo - objList.size()));
         if (foundObjects == null || foundObjects.length == 0) {
           break;
         }
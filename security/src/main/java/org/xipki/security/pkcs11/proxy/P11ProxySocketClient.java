@@ -0,0 +1,268 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+
+/**
+ * Client of the socket transport of the PKCS#11 proxy. The requests are sent over a fixed
+ * number of long-lived connections without waiting for the responses of the previous requests.
+ * The responses are matched to the requests by the transaction ID.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public class P11ProxySocketClient implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11ProxySocketClient.class);
+
+  private final String host;
+
+  private final int port;
+
+  private final SSLSocketFactory sslSocketFactory;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  private final int timeout;
+
+  private final Connection[] connections;
+
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * @param host
+   *          Host of the server. Must not be {@code null}.
+   * @param port
+   *          Port of the server.
+   * @param sslSocketFactory
+   *          Factory to create the TLS sockets. {@code null} to use plain TCP.
+   * @param hostnameVerifier
+   *          Verifier of the server's hostname. Only used for TLS. {@code null} to verify the
+   *          hostname as specified for HTTPS.
+   * @param connections
+   *          Number of connections.
+   * @param timeout
+   *          Timeout in milliseconds to connect and to wait for a response.
+   */
+  public P11ProxySocketClient(String host, int port, SSLSocketFactory sslSocketFactory,
+      HostnameVerifier hostnameVerifier, int connections, int timeout) {
+    this.host = Args.notNull(host, "host");
+    this.port = Args.range(port, "port", 1, 65535);
+    this.sslSocketFactory = sslSocketFactory;
+    this.hostnameVerifier = hostnameVerifier;
+    this.timeout = Args.positive(timeout, "timeout");
+
+    Args.positive(connections, "connections");
+    this.connections = new Connection[connections];
+    for (int i = 0; i < connections; i++) {
+      this.connections[i] = new Connection();
+    }
+  }
+
+  public byte[] send(byte[] request) throws IOException {
+    int idx = (nextConnection.getAndIncrement() & 0x7FFFFFFF) % connections.length;
+    return connections[idx].send(request);
+  }
+
+  @Override
+  public void close() {
+    for (Connection conn : connections) {
+      conn.close(null, new IOException("client closed"));
+    }
+  }
+
+  private class Connection {
+
+    private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> pendingRequests =
+        new ConcurrentHashMap<>();
+
+    private Socket socket;
+
+    private OutputStream out;
+
+    byte[] send(byte[] request) throws IOException {
+      Integer transactionId = IoUtil.parseInt(request, 2);
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      if (pendingRequests.putIfAbsent(transactionId, future) != null) {
+        throw new IOException("duplicated transaction ID " + transactionId);
+      }
+
+      OutputStream stream = null;
+      try {
+        stream = getOutputStream();
+        P11ProxySocketServer.writeMessage(stream, request);
+      } catch (IOException ex) {
+        pendingRequests.remove(transactionId);
+        if (stream != null) {
+          close(stream, ex);
+        }
+        throw ex;
+      }
+
+      try {
+        return future.get(timeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException("interrupted while waiting for the response");
+      } catch (TimeoutException ex) {
+        throw new SocketTimeoutException("no response received within " + timeout + " ms");
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        throw (cause instanceof IOException) ? (IOException) cause
+            : new IOException(cause.getMessage(), cause);
+      } finally {
+        pendingRequests.remove(transactionId);
+      }
+    }
+
+    private synchronized OutputStream getOutputStream() throws IOException {
+      if (out != null) {
+        return out;
+      }
+
+      Socket newSocket;
+      if (sslSocketFactory == null) {
+        newSocket = new Socket();
+        newSocket.connect(new InetSocketAddress(host, port), timeout);
+      } else {
+        Socket plainSocket = new Socket();
+        plainSocket.connect(new InetSocketAddress(host, port), timeout);
+        SSLSocket sslSocket =
+            (SSLSocket) sslSocketFactory.createSocket(plainSocket, host, port, true);
+        if (hostnameVerifier == null) {
+          // the hostname is verified during the handshake.
+          SSLParameters sslParams = sslSocket.getSSLParameters();
+          sslParams.setEndpointIdentificationAlgorithm("HTTPS");
+          sslSocket.setSSLParameters(sslParams);
+        }
+
+        try {
+          sslSocket.startHandshake();
+        } catch (IOException ex) {
+          IoUtil.closeQuietly(sslSocket);
+          throw ex;
+        }
+        if (hostnameVerifier != null && !hostnameVerifier.verify(host, sslSocket.getSession())) {
+          IoUtil.closeQuietly(sslSocket);
+          throw new SSLPeerUnverifiedException("hostname " + host + " is not verified");
+        }
+        newSocket = sslSocket;
+      }
+
+      newSocket.setTcpNoDelay(true);
+      final DataInputStream in =
+          new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+      this.socket = newSocket;
+      this.out = new BufferedOutputStream(newSocket.getOutputStream());
+
+      final OutputStream readerOut = this.out;
+      P11ProxySocketServer.newDaemonThread(new Runnable() {
+        @Override
+        public void run() {
+          readResponses(readerOut, in);
+        }
+      }, "p11proxy-client-").start();
+
+      LOG.info("connected to PKCS#11 proxy {}:{}", host, port);
+      return out;
+    }
+
+    private void readResponses(OutputStream connOut, DataInputStream in) {
+      try {
+        while (true) {
+          byte[] response = P11ProxySocketServer.readMessage(in);
+          if (response == null) {
+            throw new EOFException("connection closed by the server");
+          }
+
+          Integer transactionId = IoUtil.parseInt(response, 2);
+          CompletableFuture<byte[]> future = pendingRequests.remove(transactionId);
+          if (future == null) {
+            LOG.warn("received response for unknown transaction ID {}", transactionId);
+          } else {
+            future.complete(response);
+          }
+        }
+      } catch (IOException ex) {
+        close(connOut, ex);
+      }
+    }
+
+    /**
+     * Closes the connection and fails all pending requests.
+     * @param connOut
+     *          Output stream of the connection to be closed. {@code null} to close any
+     *          connection. If the current connection has another output stream, it has been
+     *          opened after the failure and remains open.
+     * @param cause
+     *          Cause of the failure.
+     */
+    private void close(OutputStream connOut, IOException cause) {
+      synchronized (this) {
+        if (connOut != null && connOut != out) {
+          return;
+        }
+
+        if (socket != null) {
+          IoUtil.closeQuietly(socket);
+          LOG.info("closed connection to PKCS#11 proxy {}:{}: {}", host, port, cause.getMessage());
+        }
+        socket = null;
+        out = null;
+      }
+
+      for (Integer transactionId : pendingRequests.keySet()) {
+        CompletableFuture<byte[]> future = pendingRequests.remove(transactionId);
+        if (future != null) {
+          future.completeExceptionally(cause);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,362 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ServerSocketFactory;
+import javax.net.ssl.SSLServerSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+
+/**
+ * Server of the socket transport of the PKCS#11 proxy. A client keeps the connection open and
+ * may send further requests before the previous ones are answered. The requests are processed
+ * concurrently, and each response is written as soon as it is available. The client matches the
+ * responses to the requests by the transaction ID.
+ *
+ * <p>The messages are framed as in the HTTP transport: 2 bytes version, 4 bytes transaction ID,
+ * 4 bytes length of the remaining body, and the body.
+ *
+ * <p>The server does not authenticate the clients itself. Without a TLS server socket factory
+ * requiring the client authentication, it may only be bound to a loopback address. The number
+ * of requests of one connection in process is limited, further requests are not read until
+ * one of them is answered.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+
+public class P11ProxySocketServer implements Closeable {
+
+  /**
+   * Processes one request message and returns the response message.
+   */
+  public interface RequestHandler {
+
+    byte[] processRequest(byte[] request);
+
+  }
+
+  static final int HEADER_LEN = 10;
+
+  static final int MAX_BODY_LEN = 16 * 1024 * 1024;
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11ProxySocketServer.class);
+
+  private static final AtomicInteger THREAD_INDEX = new AtomicInteger(1);
+
+  private static final long DRAIN_TIMEOUT_MS = 60000;
+
+  private final ServerSocketFactory serverSocketFactory;
+
+  private final String host;
+
+  private final int port;
+
+  private final int threads;
+
+  private final RequestHandler handler;
+
+  private int maxPendingRequests;
+
+  private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+  private boolean needClientAuth;
+
+  private ServerSocket serverSocket;
+
+  private ExecutorService executor;
+
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   * @param serverSocketFactory
+   *          Factory to create the server socket. {@code null} to use plain TCP, which is
+   *          only allowed on a loopback address.
+   * @param host
+   *          Local address to bind to. {@code null} to bind to all addresses.
+   * @param port
+   *          Port to listen on. 0 to use an ephemeral port.
+   * @param threads
+   *          Number of threads to process the requests.
+   * @param handler
+   *          Request handler. Must not be {@code null}.
+   */
+  public P11ProxySocketServer(ServerSocketFactory serverSocketFactory, String host, int port,
+      int threads, RequestHandler handler) {
+    this.serverSocketFactory = (serverSocketFactory == null)
+        ? ServerSocketFactory.getDefault() : serverSocketFactory;
+    this.host = host;
+    this.port = Args.range(port, "port", 0, 65535);
+    this.threads = Args.positive(threads, "threads");
+    this.handler = Args.notNull(handler, "handler");
+    this.maxPendingRequests = threads;
+  }
+
+  /**
+   * Sets the maximal number of requests of one connection in process.
+   * @param maxPendingRequests the maximal number of requests, default to the number of threads.
+   */
+  public void setMaxPendingRequests(int maxPendingRequests) {
+    this.maxPendingRequests = Args.positive(maxPendingRequests, "maxPendingRequests");
+  }
+
+  /**
+   * Sets whether the TLS clients must authenticate themselves. Takes effect only if the
+   * server socket factory creates TLS server sockets.
+   * @param needClientAuth whether the client authentication is required.
+   */
+  public void setNeedClientAuth(boolean needClientAuth) {
+    this.needClientAuth = needClientAuth;
+  }
+
+  public synchronized void start() throws IOException {
+    if (serverSocket != null) {
+      throw new IllegalStateException("server has been started");
+    }
+
+    InetAddress bindAddr = (host == null) ? null : InetAddress.getByName(host);
+    ServerSocket socket = serverSocketFactory.createServerSocket(port, 50, bindAddr);
+    boolean tls = socket instanceof SSLServerSocket;
+    if (needClientAuth && tls) {
+      ((SSLServerSocket) socket).setNeedClientAuth(true);
+    }
+
+    if (!(needClientAuth && tls) && (bindAddr == null || !bindAddr.isLoopbackAddress())) {
+      IoUtil.closeQuietly(socket);
+      throw new IOException("server without TLS client authentication may only be bound to"
+          + " a loopback address, but not " + (host == null ? "all addresses" : host));
+    }
+    serverSocket = socket;
+
+    // If all threads are busy and the queue is full, the request is processed by the thread
+    // reading the connection, which then stops reading.
+    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(threads * 2),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return newDaemonThread(runnable, "p11proxy-worker-");
+          }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    newDaemonThread(new Runnable() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    }, "p11proxy-acceptor-").start();
+
+    LOG.info("started PKCS#11 proxy socket server on {}", serverSocket.getLocalSocketAddress());
+  }
+
+  public int getLocalPort() {
+    return (serverSocket == null) ? -1 : serverSocket.getLocalPort();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    IoUtil.closeQuietly(serverSocket);
+    for (Socket socket : sockets) {
+      IoUtil.closeQuietly(socket);
+    }
+    sockets.clear();
+
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void acceptConnections() {
+    while (!closed) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException ex) {
+        if (!closed) {
+          LogUtil.error(LOG, ex, "could not accept connection");
+        }
+        continue;
+      }
+
+      sockets.add(socket);
+      newDaemonThread(new Runnable() {
+        @Override
+        public void run() {
+          serveConnection(socket);
+        }
+      }, "p11proxy-connection-").start();
+    }
+  }
+
+  private void serveConnection(final Socket socket) {
+    final int maxPending = maxPendingRequests;
+    final Semaphore pendingRequests = new Semaphore(maxPending);
+    boolean drain = false;
+    try {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+      while (!closed) {
+        try {
+          pendingRequests.acquire();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+
+        final byte[] request;
+        try {
+          request = readMessage(in);
+        } catch (IOException ex) {
+          pendingRequests.release();
+          throw ex;
+        }
+
+        if (request == null) {
+          pendingRequests.release();
+          // the client has shut down its output, but still reads the responses.
+          drain = true;
+          break;
+        }
+
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              byte[] response = handler.processRequest(request);
+              writeMessage(out, response);
+            } catch (IOException ex) {
+              LogUtil.warn(LOG, ex,
+                  "could not write response to " + socket.getRemoteSocketAddress());
+              IoUtil.closeQuietly(socket);
+            } finally {
+              pendingRequests.release();
+            }
+          }
+        });
+      }
+    } catch (SocketException | EOFException ex) {
+      if (!closed) {
+        LOG.info("connection from {} closed: {}", socket.getRemoteSocketAddress(), ex.getMessage());
+      }
+    } catch (IOException ex) {
+      LogUtil.warn(LOG, ex, "error while reading from " + socket.getRemoteSocketAddress());
+    } finally {
+      if (drain) {
+        awaitResponses(socket, pendingRequests, maxPending);
+      }
+      sockets.remove(socket);
+      IoUtil.closeQuietly(socket);
+    }
+  }
+
+  /**
+   * Waits until the responses of all requests in process have been written.
+   */
+  private void awaitResponses(Socket socket, Semaphore pendingRequests, int maxPending) {
+    long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+    try {
+      // the requests discarded by close() never release their permits.
+      while (!closed) {
+        if (pendingRequests.tryAcquire(maxPending, 1, TimeUnit.SECONDS)) {
+          return;
+        }
+
+        if (System.currentTimeMillis() > deadline) {
+          LOG.warn("close connection from {} with {} unanswered requests",
+              socket.getRemoteSocketAddress(), maxPending - pendingRequests.availablePermits());
+          return;
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reads one message.
+   * @param in input stream
+   * @return the message, or {@code null} if the stream is at its end.
+   * @throws IOException if the message could not be read.
+   */
+  static byte[] readMessage(DataInputStream in) throws IOException {
+    byte[] header = new byte[HEADER_LEN];
+    int first = in.read();
+    if (first == -1) {
+      return null;
+    }
+    header[0] = (byte) first;
+    in.readFully(header, 1, HEADER_LEN - 1);
+
+    int bodyLen = IoUtil.parseInt(header, 6);
+    if (bodyLen < 0 || bodyLen > MAX_BODY_LEN) {
+      throw new IOException("invalid body length " + bodyLen);
+    }
+
+    byte[] message = new byte[HEADER_LEN + bodyLen];
+    System.arraycopy(header, 0, message, 0, HEADER_LEN);
+    in.readFully(message, HEADER_LEN, bodyLen);
+    return message;
+  }
+
+  static void writeMessage(OutputStream out, byte[] message) throws IOException {
+    synchronized (out) {
+      out.write(message);
+      out.flush();
+    }
+  }
+
+  static Thread newDaemonThread(Runnable runnable, String namePrefix) {
+    Thread thread = new Thread(runnable, namePrefix + THREAD_INDEX.getAndIncrement());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+}
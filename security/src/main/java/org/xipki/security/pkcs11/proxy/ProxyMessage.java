@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -1794,6 +1795,124 @@ public abstract class ProxyMessage extends ASN1Object {
     }
   }
 
+  /**
+   * Templates to be signed in one batch.
+   * <pre>
+   * SignTemplates ::= SEQUENCE OF SignTemplate
+   * </pre>
+   * @since 5.2.1
+   */
+  public static class SignTemplates extends ProxyMessage {
+
+    private final List<SignTemplate> templates;
+
+    public SignTemplates(List<SignTemplate> templates) {
+      this.templates = Args.notEmpty(templates, "templates");
+    }
+
+    private SignTemplates(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      if (size == 0) {
+        throw new BadAsn1ObjectException("SignTemplates must not be empty");
+      }
+
+      this.templates = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        templates.add(SignTemplate.getInstance(seq.getObjectAt(i)));
+      }
+    }
+
+    public static SignTemplates getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignTemplates) {
+        return (SignTemplates) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignTemplates((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      for (SignTemplate template : templates) {
+        vec.add(template);
+      }
+      return new DERSequence(vec);
+    }
+
+    public List<SignTemplate> getTemplates() {
+      return templates;
+    }
+
+  }
+
+  /**
+   * Signatures of a batch, in the same order as the {@link SignTemplates}.
+   * <pre>
+   * Signatures ::= SEQUENCE OF OCTET STRING
+   * </pre>
+   * @since 5.2.1
+   */
+  public static class Signatures extends ProxyMessage {
+
+    private final byte[][] signatures;
+
+    public Signatures(byte[][] signatures) {
+      this.signatures = Args.notNull(signatures, "signatures");
+    }
+
+    private Signatures(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      this.signatures = new byte[size][];
+      for (int i = 0; i < size; i++) {
+        signatures[i] = getOctetStringBytes(seq.getObjectAt(i));
+      }
+    }
+
+    public static Signatures getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof Signatures) {
+        return (Signatures) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new Signatures((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      for (byte[] signature : signatures) {
+        vec.add(new DEROctetString(signature));
+      }
+      return new DERSequence(vec);
+    }
+
+    public byte[][] getSignatures() {
+      return signatures;
+    }
+
+  }
+
   private static void requireRange(ASN1Sequence seq, int minSize, int maxSize)
       throws BadAsn1ObjectException {
     int size = seq.size();
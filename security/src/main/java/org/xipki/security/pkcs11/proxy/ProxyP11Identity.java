@@ -19,9 +19,12 @@ package org.xipki.security.pkcs11.proxy;
 
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.DEROctetString;
+import org.xipki.security.BadAsn1ObjectException;
 import org.xipki.security.pkcs11.P11Identity;
 import org.xipki.security.pkcs11.P11IdentityId;
 import org.xipki.security.pkcs11.P11Params;
@@ -54,23 +57,7 @@ class ProxyP11Identity extends P11Identity {
   @Override
   protected byte[] sign0(long mechanism, P11Params parameters, byte[] content)
       throws P11TokenException {
-    ProxyMessage.P11Params p11Param = null;
-    if (parameters != null) {
-      if (parameters instanceof P11RSAPkcsPssParams) {
-        p11Param = new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_RSA_PKCS_PSS,
-            new ProxyMessage.RSAPkcsPssParams((P11RSAPkcsPssParams) parameters));
-      } else if (parameters instanceof P11ByteArrayParams) {
-        byte[] bytes = ((P11ByteArrayParams) parameters).getBytes();
-        p11Param = new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_OPAQUE,
-            new DEROctetString(bytes));
-      } else if (parameters instanceof P11IVParams) {
-        p11Param = new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_IV,
-            new DEROctetString(((P11IVParams) parameters).getIV()));
-      } else {
-        throw new IllegalArgumentException("unkown parameter 'parameters'");
-      }
-    }
-
+    ProxyMessage.P11Params p11Param = toAsn1Params(parameters);
     ProxyMessage.SignTemplate signTemplate = new ProxyMessage.SignTemplate(
         ((ProxyP11Slot) slot).getAsn1SlotId(), asn1KeyId, mechanism, p11Param, content);
     byte[] result = ((ProxyP11Slot) slot).getModule().send(P11ProxyConstants.ACTION_SIGN,
@@ -86,6 +73,67 @@ class ProxyP11Identity extends P11Identity {
     return (octetString == null) ? null : octetString.getOctets();
   }
 
+  @Override
+  protected byte[][] sign0(long mechanism, P11Params parameters, byte[][] contents)
+      throws P11TokenException {
+    ProxyP11Module module = ((ProxyP11Slot) slot).getModule();
+    if (contents.length < 2 || !module.isSignBatchSupported()) {
+      return super.sign0(mechanism, parameters, contents);
+    }
+
+    ProxyMessage.P11Params p11Param = toAsn1Params(parameters);
+    List<ProxyMessage.SignTemplate> templates = new ArrayList<>(contents.length);
+    for (byte[] content : contents) {
+      templates.add(new ProxyMessage.SignTemplate(((ProxyP11Slot) slot).getAsn1SlotId(),
+          asn1KeyId, mechanism, p11Param, content));
+    }
+
+    byte[] result;
+    try {
+      result = module.send(P11ProxyConstants.ACTION_SIGN_BATCH,
+          new ProxyMessage.SignTemplates(templates));
+    } catch (P11TokenException ex) {
+      if (module.isSignBatchSupported()) {
+        throw ex;
+      }
+      // the server does not support the batch signing
+      return super.sign0(mechanism, parameters, contents);
+    }
+
+    byte[][] signatures;
+    try {
+      signatures = ProxyMessage.Signatures.getInstance(result).getSignatures();
+    } catch (BadAsn1ObjectException ex) {
+      throw new P11TokenException("the returned result is not Signatures", ex);
+    }
+
+    if (signatures.length != contents.length) {
+      throw new P11TokenException("expected " + contents.length + " signatures, but received "
+          + signatures.length);
+    }
+    return signatures;
+  }
+
+  private static ProxyMessage.P11Params toAsn1Params(P11Params parameters) {
+    if (parameters == null) {
+      return null;
+    }
+
+    if (parameters instanceof P11RSAPkcsPssParams) {
+      return new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_RSA_PKCS_PSS,
+          new ProxyMessage.RSAPkcsPssParams((P11RSAPkcsPssParams) parameters));
+    } else if (parameters instanceof P11ByteArrayParams) {
+      byte[] bytes = ((P11ByteArrayParams) parameters).getBytes();
+      return new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_OPAQUE,
+          new DEROctetString(bytes));
+    } else if (parameters instanceof P11IVParams) {
+      return new ProxyMessage.P11Params(ProxyMessage.P11Params.TAG_IV,
+          new DEROctetString(((P11IVParams) parameters).getIV()));
+    } else {
+      throw new IllegalArgumentException("unkown parameter 'parameters'");
+    }
+  }
+
   @Override
   protected byte[] digestSecretKey0(long mechanism) throws P11TokenException {
     ProxyMessage.DigestSecretKeyTemplate template =
@@ -24,6 +24,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
@@ -33,6 +35,7 @@ import java.security.cert.CertificateException;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -72,6 +75,14 @@ public class ProxyP11Module extends P11Module {
 
   private static final String PROP_MODULE = "module";
 
+  private static final String PROP_CONNECTIONS = "connections";
+
+  private static final String PROP_TIMEOUT = "timeout";
+
+  private static final String SCHEME_TCP = "tcp";
+
+  private static final String SCHEME_TLS = "tls";
+
   private static final String PROP_SSL_STORETYPE = "ssl.storeType";
 
   private static final String PROP_SSL_KEYSTORE = "ssl.keystore";
@@ -90,7 +101,8 @@ public class ProxyP11Module extends P11Module {
 
   private static final String RESPONSE_MIMETYPE = "application/x-xipki-pkcs11";
 
-  private final Random random = new Random();
+  // unique within the pending requests of a pipelined connection
+  private final AtomicInteger transactionId = new AtomicInteger(new Random().nextInt());
 
   private final short version = P11ProxyConstants.VERSION_V1_0;
 
@@ -98,6 +110,10 @@ public class ProxyP11Module extends P11Module {
 
   private URL serverUrl;
 
+  private P11ProxySocketClient socketClient;
+
+  private volatile boolean signBatchSupported = true;
+
   private short moduleId;
 
   private boolean readOnly;
@@ -116,10 +132,25 @@ public class ProxyP11Module extends P11Module {
     ConfPairs confPairs = new ConfPairs(modulePath);
 
     String urlStr = confPairs.value(PROP_URL);
-    try {
-      serverUrl = new URL(urlStr);
-    } catch (MalformedURLException ex) {
-      throw new IllegalArgumentException("invalid url: " + urlStr);
+    URI socketUri = null;
+    if (urlStr != null
+        && (StringUtil.startsWithIgnoreCase(urlStr, SCHEME_TCP + "://")
+            || StringUtil.startsWithIgnoreCase(urlStr, SCHEME_TLS + "://"))) {
+      try {
+        socketUri = new URI(urlStr);
+      } catch (URISyntaxException ex) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
+
+      if (socketUri.getHost() == null || socketUri.getPort() == -1) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
+    } else {
+      try {
+        serverUrl = new URL(urlStr);
+      } catch (MalformedURLException ex) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
     }
 
     String moduleStr = confPairs.value(PROP_MODULE);
@@ -181,6 +212,17 @@ public class ProxyP11Module extends P11Module {
       throw new P11TokenException("could not create HostnameVerifier", ex);
     }
 
+    if (socketUri != null) {
+      String str = confPairs.value(PROP_CONNECTIONS);
+      int connections = (str == null) ? 2 : Integer.parseInt(str);
+      str = confPairs.value(PROP_TIMEOUT);
+      int timeout = (str == null) ? 60000 : Integer.parseInt(str);
+
+      boolean tls = SCHEME_TLS.equalsIgnoreCase(socketUri.getScheme());
+      this.socketClient = new P11ProxySocketClient(socketUri.getHost(), socketUri.getPort(),
+          tls ? sslSocketFactory : null, tls ? hostnameVerifier : null, connections, timeout);
+    }
+
     refresh();
   }
 
@@ -247,6 +289,15 @@ public class ProxyP11Module extends P11Module {
     setSlots(slots);
   }
 
+  /**
+   * Whether the server supports {@link P11ProxyConstants#ACTION_SIGN_BATCH}. Servers of
+   * older versions reject this action with {@link P11ProxyConstants#RC_UNSUPPORTED_ACTION}.
+   * @return whether the server supports the batch signing.
+   */
+  boolean isSignBatchSupported() {
+    return signBatchSupported;
+  }
+
   @Override
   public String getDescription() {
     return description;
@@ -261,10 +312,18 @@ public class ProxyP11Module extends P11Module {
         LogUtil.error(LOG, th, "could not close PKCS#11 slot " + slotId);
       }
     }
+
+    if (socketClient != null) {
+      socketClient.close();
+    }
   }
 
   protected byte[] send(byte[] request) throws IOException {
     Args.notNull(request, "request");
+    if (socketClient != null) {
+      return socketClient.send(request);
+    }
+
     HttpURLConnection httpUrlConnection = IoUtil.openHttpConn(serverUrl);
 
     if (httpUrlConnection instanceof HttpsURLConnection) {
@@ -387,7 +446,7 @@ public class ProxyP11Module extends P11Module {
     IoUtil.writeShort(version, request, 0);
 
     // transaction id
-    byte[] transactionId = randomTransactionId();
+    byte[] transactionId = nextTransactionId();
     System.arraycopy(transactionId, 0, request, 2, 4);
 
     // length
@@ -427,6 +486,11 @@ public class ProxyP11Module extends P11Module {
     // RC
     short rc = IoUtil.parseShort(response, 10);
     if (rc != 0) {
+      if (rc == P11ProxyConstants.RC_UNSUPPORTED_ACTION
+          && action == P11ProxyConstants.ACTION_SIGN_BATCH) {
+        LOG.info("server does not support ACTION_SIGN_BATCH, sign the contents one by one");
+        signBatchSupported = false;
+      }
       throw new P11TokenException("server returned RC " + P11ProxyConstants.getReturnCodeName(rc));
     }
 
@@ -460,9 +524,9 @@ public class ProxyP11Module extends P11Module {
     return respContent;
   } // method send
 
-  private byte[] randomTransactionId() {
+  private byte[] nextTransactionId() {
     byte[] tid = new byte[4];
-    random.nextBytes(tid);
+    IoUtil.writeInt(transactionId.getAndIncrement(), tid, 0);
     return tid;
   }
 
@@ -0,0 +1,235 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.security.pkcs11.emulator.EmulatorP11Store.ObjectType;
+
+/**
+ * Tests the recovery and compaction of the append-only {@link EmulatorP11FileStore}.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class EmulatorP11FileStoreTest {
+
+  private static final byte[] ID1 = {1};
+
+  private static final byte[] ID2 = {2};
+
+  private static final byte[] ID3 = {3};
+
+  private File dir;
+
+  private File file;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = Files.createTempDirectory("p11-store-").toFile();
+    file = new File(dir, "objects");
+  }
+
+  @After
+  public void deleteDir() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File m : files) {
+        m.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void saveDeleteAndReopen() throws Exception {
+    EmulatorP11FileStore store = new EmulatorP11FileStore(file);
+    try {
+      store.save(ObjectType.PRIV_KEY, ID1, bytes(10, 1), bytes(100, 2));
+      store.save(ObjectType.PUB_KEY, ID1, bytes(10, 3), null);
+      store.save(ObjectType.CERT, ID2, bytes(10, 4), bytes(100, 5));
+      // overwrite
+      store.save(ObjectType.CERT, ID2, bytes(10, 6), bytes(50, 7));
+      Assert.assertTrue(store.delete(ObjectType.PRIV_KEY, ID1));
+      Assert.assertFalse(store.delete(ObjectType.PRIV_KEY, ID1));
+    } finally {
+      store.close();
+    }
+
+    store = new EmulatorP11FileStore(file);
+    try {
+      Assert.assertTrue(store.getIds(ObjectType.PRIV_KEY).isEmpty());
+      Assert.assertNull(store.getEncodedInfo(ObjectType.PRIV_KEY, ID1));
+      Assert.assertArrayEquals(bytes(10, 3), store.getEncodedInfo(ObjectType.PUB_KEY, ID1));
+      Assert.assertArrayEquals(bytes(10, 6), store.getEncodedInfo(ObjectType.CERT, ID2));
+      Assert.assertArrayEquals(bytes(50, 7), store.getValue(ObjectType.CERT, ID2));
+      Assert.assertEquals(1, store.getIds(ObjectType.CERT).size());
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void discardCorruptedRecord() throws Exception {
+    EmulatorP11FileStore store = new EmulatorP11FileStore(file);
+    long validLen;
+    try {
+      store.save(ObjectType.CERT, ID1, bytes(10, 1), bytes(100, 2));
+      validLen = file.length();
+      store.save(ObjectType.CERT, ID2, bytes(10, 3), bytes(100, 4));
+    } finally {
+      store.close();
+    }
+
+    // flip one byte of the value of the last record, so that its CRC does not match
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(file.length() - 10);
+      int b = raf.read();
+      raf.seek(file.length() - 10);
+      raf.write(b ^ 0xFF);
+    }
+
+    store = new EmulatorP11FileStore(file);
+    try {
+      Assert.assertEquals(validLen, file.length());
+      Assert.assertArrayEquals(bytes(100, 2), store.getValue(ObjectType.CERT, ID1));
+      Assert.assertNull(store.getEncodedInfo(ObjectType.CERT, ID2));
+
+      // records appended after the recovery are readable
+      store.save(ObjectType.CERT, ID3, bytes(10, 5), bytes(100, 6));
+      Assert.assertArrayEquals(bytes(100, 6), store.getValue(ObjectType.CERT, ID3));
+    } finally {
+      store.close();
+    }
+
+    store = new EmulatorP11FileStore(file);
+    try {
+      Assert.assertEquals(2, store.getIds(ObjectType.CERT).size());
+      Assert.assertArrayEquals(bytes(100, 6), store.getValue(ObjectType.CERT, ID3));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void discardIncompleteRecord() throws Exception {
+    EmulatorP11FileStore store = new EmulatorP11FileStore(file);
+    long validLen;
+    try {
+      store.save(ObjectType.SEC_KEY, ID1, bytes(10, 1), bytes(32, 2));
+      validLen = file.length();
+      store.save(ObjectType.SEC_KEY, ID2, bytes(10, 3), bytes(32, 4));
+    } finally {
+      store.close();
+    }
+
+    // crash while appending the last record
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(file.length() - 5);
+    }
+
+    store = new EmulatorP11FileStore(file);
+    try {
+      Assert.assertEquals(validLen, file.length());
+      Assert.assertEquals(1, store.getIds(ObjectType.SEC_KEY).size());
+      Assert.assertArrayEquals(bytes(32, 2), store.getValue(ObjectType.SEC_KEY, ID1));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void compactWhileOpening() throws Exception {
+    EmulatorP11FileStore store = new EmulatorP11FileStore(file);
+    try {
+      store.save(ObjectType.CERT, ID1, bytes(10, 1), bytes(1000, 2));
+      // 100 outdated records of more than 1000 bytes exceed the minimal compaction size
+      for (int i = 0; i < 100; i++) {
+        store.save(ObjectType.PRIV_KEY, ID2, bytes(10, i), bytes(1000, i));
+      }
+      store.save(ObjectType.PUB_KEY, ID3, bytes(10, 3), null);
+      store.delete(ObjectType.PUB_KEY, ID3);
+    } finally {
+      store.close();
+    }
+
+    long sizeBefore = file.length();
+    store = new EmulatorP11FileStore(file);
+    try {
+      long sizeAfter = file.length();
+      Assert.assertTrue("file not compacted: " + sizeAfter, sizeAfter < 2500);
+      Assert.assertTrue(sizeAfter < sizeBefore);
+      Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+
+      Assert.assertArrayEquals(bytes(1000, 2), store.getValue(ObjectType.CERT, ID1));
+      Assert.assertArrayEquals(bytes(10, 99), store.getEncodedInfo(ObjectType.PRIV_KEY, ID2));
+      Assert.assertArrayEquals(bytes(1000, 99), store.getValue(ObjectType.PRIV_KEY, ID2));
+      Assert.assertTrue(store.getIds(ObjectType.PUB_KEY).isEmpty());
+
+      // the compacted file is appendable
+      store.save(ObjectType.PUB_KEY, ID3, bytes(10, 4), null);
+    } finally {
+      store.close();
+    }
+
+    store = new EmulatorP11FileStore(file);
+    try {
+      Assert.assertArrayEquals(bytes(10, 4), store.getEncodedInfo(ObjectType.PUB_KEY, ID3));
+      Assert.assertArrayEquals(bytes(1000, 99), store.getValue(ObjectType.PRIV_KEY, ID2));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void noCompactionOfSmallFile() throws Exception {
+    EmulatorP11FileStore store = new EmulatorP11FileStore(file);
+    try {
+      for (int i = 0; i < 10; i++) {
+        store.save(ObjectType.CERT, ID1, bytes(10, i), bytes(100, i));
+      }
+    } finally {
+      store.close();
+    }
+
+    long size = file.length();
+    store = new EmulatorP11FileStore(file);
+    try {
+      Assert.assertEquals(size, file.length());
+      Assert.assertArrayEquals(bytes(100, 9), store.getValue(ObjectType.CERT, ID1));
+    } finally {
+      store.close();
+    }
+  }
+
+  private static byte[] bytes(int len, int seed) {
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = (byte) (seed + i);
+    }
+    return bytes;
+  }
+
+}
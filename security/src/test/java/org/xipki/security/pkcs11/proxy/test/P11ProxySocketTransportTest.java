@@ -0,0 +1,262 @@
+/*
+ *
+ * Copyright (c) 2013 - 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy.test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.security.pkcs11.proxy.P11ProxyConstants;
+import org.xipki.security.pkcs11.proxy.P11ProxySocketClient;
+import org.xipki.security.pkcs11.proxy.P11ProxySocketServer;
+import org.xipki.util.IoUtil;
+
+/**
+ * Tests the pipelined socket transport of the PKCS#11 proxy against an in-JVM server which
+ * answers the requests in random order.
+ *
+ * @author Lijun Liao
+ * @since 5.2.1
+ */
+public class P11ProxySocketTransportTest {
+
+  private static final short ACTION = P11ProxyConstants.ACTION_SIGN;
+
+  /**
+   * Returns the content of the request as the content of the response after a random delay.
+   */
+  private static class EchoHandler implements P11ProxySocketServer.RequestHandler {
+
+    @Override
+    public byte[] processRequest(byte[] request) {
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+
+      int contentLen = request.length - 14;
+      byte[] response = new byte[14 + contentLen];
+      // version and transaction ID
+      System.arraycopy(request, 0, response, 0, 6);
+      IoUtil.writeInt(4 + contentLen, response, 6);
+      IoUtil.writeShort(P11ProxyConstants.RC_SUCCESS, response, 10);
+      IoUtil.writeShort(IoUtil.parseShort(request, 10), response, 12);
+      System.arraycopy(request, 14, response, 14, contentLen);
+      return response;
+    }
+
+  }
+
+  @Test
+  public void pipelinedRequests() throws Exception {
+    P11ProxySocketServer server =
+        new P11ProxySocketServer(null, "127.0.0.1", 0, 8, new EchoHandler());
+    server.start();
+
+    final P11ProxySocketClient client =
+        new P11ProxySocketClient("127.0.0.1", server.getLocalPort(), null, null, 2, 10000);
+    final AtomicInteger transactionId = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 2000; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            byte[] content = new byte[1 + ThreadLocalRandom.current().nextInt(300)];
+            ThreadLocalRandom.current().nextBytes(content);
+            byte[] request = buildRequest(transactionId.getAndIncrement(), content);
+            byte[] response = client.send(request);
+            return Arrays.equals(Arrays.copyOfRange(request, 2, 6),
+                  Arrays.copyOfRange(response, 2, 6))
+                && Arrays.equals(content, Arrays.copyOfRange(response, 14, response.length));
+          }
+        }));
+      }
+
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue("response does not match the request", result.get());
+      }
+    } finally {
+      executor.shutdown();
+      client.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void plainTcpOnlyOnLoopback() throws Exception {
+    P11ProxySocketServer server = new P11ProxySocketServer(null, null, 0, 1, new EchoHandler());
+    try {
+      server.start();
+      Assert.fail("plain TCP server bound to all addresses");
+    } catch (IOException ex) {
+      // expected
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void drainResponsesAfterEndOfRequests() throws Exception {
+    P11ProxySocketServer server =
+        new P11ProxySocketServer(null, "127.0.0.1", 0, 4, new EchoHandler());
+    server.setMaxPendingRequests(50);
+    server.start();
+
+    Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+    try {
+      final int num = 50;
+      OutputStream out = socket.getOutputStream();
+      for (int i = 0; i < num; i++) {
+        out.write(buildRequest(i, new byte[]{(byte) i}));
+      }
+      out.flush();
+      // no further requests, the responses must be written anyway
+      socket.shutdownOutput();
+
+      socket.setSoTimeout(10000);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      Set<Integer> transactionIds = new HashSet<>();
+      byte[] response = new byte[15];
+      for (int i = 0; i < num; i++) {
+        in.readFully(response);
+        transactionIds.add(IoUtil.parseInt(response, 2));
+      }
+      Assert.assertEquals(num, transactionIds.size());
+      Assert.assertEquals(-1, in.read());
+    } finally {
+      socket.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void tlsWithMatchingHostname() throws Exception {
+    Assert.assertTrue(sendOverTls("localhost"));
+  }
+
+  @Test
+  public void tlsWithWrongHostname() throws Exception {
+    // no hostname verifier configured, the hostname must be verified anyway
+    Assert.assertFalse(sendOverTls("wrong.example.org"));
+  }
+
+  /**
+   * Sends one request to a TLS server whose certificate is issued for the given hostname.
+   * @return whether the request has been answered.
+   */
+  private static boolean sendOverTls(String certHostname) throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair keyPair = kpGen.generateKeyPair();
+
+    X500Name subject = new X500Name("CN=" + certHostname);
+    Date notBefore = new Date(System.currentTimeMillis() - 60000);
+    Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(1));
+    JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+        BigInteger.ONE, notBefore, notAfter, subject, keyPair.getPublic());
+    builder.addExtension(Extension.subjectAlternativeName, false,
+        new GeneralNames(new GeneralName(GeneralName.dNSName, certHostname)));
+    X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+        builder.build(new JcaContentSignerBuilder("SHA256withECDSA")
+            .build(keyPair.getPrivate())));
+
+    char[] password = "1234".toCharArray();
+    KeyStore keystore = KeyStore.getInstance("JKS");
+    keystore.load(null, null);
+    keystore.setKeyEntry("server", keyPair.getPrivate(), password,
+        new X509Certificate[]{cert});
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keystore, password);
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(kmf.getKeyManagers(), null, null);
+
+    KeyStore truststore = KeyStore.getInstance("JKS");
+    truststore.load(null, null);
+    truststore.setCertificateEntry("server", cert);
+    TrustManagerFactory tmf =
+        TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(truststore);
+    SSLContext clientContext = SSLContext.getInstance("TLS");
+    clientContext.init(null, tmf.getTrustManagers(), null);
+
+    P11ProxySocketServer server = new P11ProxySocketServer(
+        serverContext.getServerSocketFactory(), "localhost", 0, 1, new EchoHandler());
+    server.start();
+
+    P11ProxySocketClient client = new P11ProxySocketClient("localhost", server.getLocalPort(),
+        clientContext.getSocketFactory(), null, 1, 10000);
+    try {
+      byte[] content = {1, 2, 3};
+      byte[] response = client.send(buildRequest(1, content));
+      return Arrays.equals(content, Arrays.copyOfRange(response, 14, response.length));
+    } catch (IOException ex) {
+      return false;
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+
+  private static byte[] buildRequest(int transactionId, byte[] content) {
+    byte[] request = new byte[14 + content.length];
+    IoUtil.writeShort(P11ProxyConstants.VERSION_V1_0, request, 0);
+    IoUtil.writeInt(transactionId, request, 2);
+    IoUtil.writeInt(4 + content.length, request, 6);
+    IoUtil.writeShort(ACTION, request, 10);
+    IoUtil.writeShort((short) 0, request, 12);
+    System.arraycopy(content, 0, request, 14, content.length);
+    return request;
+  }
+
+}